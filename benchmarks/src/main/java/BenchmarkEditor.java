@@ -0,0 +1,76 @@
+import oldschool.benchmarks.Editor;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.Document;
+import java.io.File;
+import java.util.function.IntSupplier;
+
+/**
+ * <p>
+ * Implements the benchmarked operations with the classes of the editor,
+ * the same way the editor uses them, but without any window.
+ * See {@link Editor} for why it is in the default package.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class BenchmarkEditor implements Editor {
+
+    @Override
+    public Document open(File file) throws Exception {
+        FileLoader loader = new FileLoader(file);
+        loader.run();
+        // The chunks of a small file are appended in the Event
+        // Dispatch Thread before it gets to this request
+        SwingUtilities.invokeAndWait(() -> { });
+        return loader.get();
+    }
+
+    @Override
+    public CharSequence snapshot(Document document) {
+        return ((PieceTableDocument) document).snapshot();
+    }
+
+    @Override
+    public void save(CharSequence text, File file) throws Exception {
+        FileSaver saver = new FileSaver(file, text);
+        saver.run();
+        saver.get();
+    }
+
+    @Override
+    public int countStatistics(Document document) {
+        TextStatistics statistics = new TextStatistics(document);
+        int words = statistics.getWords();
+        statistics.dispose();
+        return words;
+    }
+
+    @Override
+    public int countSequentially(CharSequence text) {
+        TextStatistics.Tally tally = new TextStatistics.Tally(TextStatistics.NONE, TextStatistics.NONE);
+        char[] chunk = new char[64 * 1024];
+        for (int start = 0; start < text.length(); start += chunk.length) {
+            int end = Math.min(text.length(), start + chunk.length);
+            if (text instanceof PieceTableContent.Snapshot) {
+                ((PieceTableContent.Snapshot) text).getChars(start, end, chunk, 0);
+            } else {
+                for (int i = start; i < end; i++) {
+                    chunk[i - start] = text.charAt(i);
+                }
+            }
+            tally.add(chunk, 0, end - start);
+        }
+        return tally.wordStarts;
+    }
+
+    @Override
+    public int countInParallel(CharSequence text) {
+        return ParallelStatistics.count(text).wordStarts;
+    }
+
+    @Override
+    public IntSupplier trackStatistics(Document document) {
+        return new TextStatistics(document)::getWords;
+    }
+}
@@ -0,0 +1,137 @@
+package oldschool.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * <p>
+ * A generated text file that the benchmarks work on.
+ * <p>
+ * The file is generated the first time it is needed and kept in the
+ * <code>oldschool-benchmarks</code> folder of the temporary folder, so
+ * the forks of a run, and later runs, share it. The text is made of
+ * random words, in lines of up to 100 characters with an empty line
+ * between paragraphs, and it is always the same for the same parameters.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+    /**
+     * The size of the file: a number followed by KB, MB or GB.
+     * 1GB is supported but not run by default, pass <code>-p size=1GB</code>.
+     */
+    @Param({"1KB", "1MB", "64MB"})
+    public String size;
+
+    /**
+     * The kind of text:
+     * <ul>
+     * <li><code>ASCII_LF</code>, English-like words with '\n' line breaks</li>
+     * <li><code>ASCII_CRLF</code>, the same with "\r\n" line breaks</li>
+     * <li><code>UTF8_LF</code>, Greek, Cyrillic, Chinese words and emoji, which
+     * take two to four bytes per character</li>
+     * <li><code>SINGLE_LINE</code>, ASCII words without any line break</li>
+     * </ul>
+     */
+    @Param({"ASCII_LF", "ASCII_CRLF", "UTF8_LF", "SINGLE_LINE"})
+    public String kind;
+
+    protected Editor editor;
+    protected File file;
+
+    private static final String[] ASCII_WORDS = {
+            "the", "editor", "opens", "a", "file", "and", "counts", "its", "words", "lines",
+            "oldschool", "text", "with", "bare", "bones", "functionality", "of", "in", "to", "save"
+    };
+    private static final String[] UTF8_WORDS = {
+            "κείμενο", "επεξεργαστής", "αρχείο", "λέξεις", "текст", "редактор", "файл", "слова",
+            "文本", "编辑器", "文件", "统计", "📝", "💾", "naïve", "café"
+    };
+
+    /**
+     * Generates the file, if it has not been generated yet.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Setup
+    public void prepare() throws IOException {
+        editor = Editor.load();
+        File folder = new File(System.getProperty("java.io.tmpdir"), "oldschool-benchmarks");
+        folder.mkdirs();
+        file = new File(folder, kind + "-" + size + ".txt");
+        long bytes = parseSize(size);
+        if (file.length() >= bytes) {
+            return;
+        }
+        File tmpFile = new File(folder, file.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16)) {
+            generate(out, bytes);
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Cannot create " + file);
+        }
+    }
+
+    private void generate(OutputStream out, long bytes) throws IOException {
+        String[] words = kind.startsWith("UTF8") ? UTF8_WORDS : ASCII_WORDS;
+        byte[][] encoded = new byte[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            encoded[i] = words[i].getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] lineBreak = kind.endsWith("CRLF") ? new byte[] {'\r', '\n'} : new byte[] {'\n'};
+        boolean singleLine = kind.equals("SINGLE_LINE");
+
+        Random random = new Random(kind.hashCode() * 31L + bytes);
+        long written = 0;
+        int column = 0;
+        int lines = 0;
+        while (written < bytes) {
+            byte[] word = encoded[random.nextInt(encoded.length)];
+            if (!singleLine && column + word.length > 100) {
+                out.write(lineBreak);
+                written += lineBreak.length;
+                column = 0;
+                if (++lines % 8 == 0) {
+                    out.write(lineBreak);
+                    written += lineBreak.length;
+                }
+            } else if (column > 0) {
+                out.write(' ');
+                written++;
+                column++;
+            }
+            out.write(word);
+            written += word.length;
+            column += word.length;
+        }
+        out.write(lineBreak);
+    }
+
+    private static long parseSize(String size) {
+        String unit = size.substring(size.length() - 2).toUpperCase();
+        long number = Long.parseLong(size.substring(0, size.length() - 2).trim());
+        switch (unit) {
+            case "KB":
+                return number << 10;
+            case "MB":
+                return number << 20;
+            case "GB":
+                return number << 30;
+            default:
+                throw new IllegalArgumentException("Unknown size: " + size);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package oldschool.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.text.BadLocationException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Measures typing into an opened document while its statistics are kept
+ * up to date, like they are for the status bar: a character is inserted
+ * at a random position, the words are read and the character is removed,
+ * so the document does not grow during the benchmark.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class EditBenchmark {
+
+    private static final String[] TYPED = {"a", " ", "\n"};
+
+    private IntSupplier words;
+    private int[] offsets;
+    private int next;
+
+    /**
+     * Starts keeping the statistics of the document and
+     * chooses the positions where the characters are typed.
+     *
+     * @param corpus the opened corpus
+     */
+    @Setup
+    public void track(OpenedCorpus corpus) {
+        words = corpus.editor.trackStatistics(corpus.document);
+        words.getAsInt();
+        Random random = new Random(42);
+        offsets = new int[4096];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = random.nextInt(corpus.document.getLength() + 1);
+        }
+    }
+
+    /**
+     * Types a character and deletes it.
+     *
+     * @param corpus the opened corpus
+     * @return the number of words after typing the character
+     * @throws BadLocationException never, the positions are in the document
+     */
+    @Benchmark
+    public int typeAndDelete(OpenedCorpus corpus) throws BadLocationException {
+        int offset = offsets[next];
+        String typed = TYPED[next % TYPED.length];
+        next = (next + 1) % offsets.length;
+        corpus.document.insertString(offset, typed, null);
+        int count = words.getAsInt();
+        corpus.document.remove(offset, typed.length());
+        return count;
+    }
+}
@@ -0,0 +1,96 @@
+package oldschool.benchmarks;
+
+import javax.swing.text.Document;
+import java.io.File;
+import java.util.function.IntSupplier;
+
+/**
+ * <p>
+ * The operations of the editor that are benchmarked.
+ * <p>
+ * The classes of the editor are in the default package, which cannot be
+ * imported, and JMH does not accept benchmarks in the default package.
+ * So the operations are implemented by <code>BenchmarkEditor</code>, in the
+ * default package, and the benchmarks call them through this interface.
+ * The implementation is looked up once per trial, so the measured calls
+ * are plain interface calls.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public interface Editor {
+
+    /**
+     * Opens a file like the "Open" operation does, including appending
+     * the chunks of a small file to its document in the Event Dispatch Thread.
+     *
+     * @param file the file to open, in UTF-8
+     * @return the document of the file
+     * @throws Exception if the file cannot be read
+     */
+    Document open(File file) throws Exception;
+
+    /**
+     * Takes a snapshot of a document that was returned by <code>open</code>.
+     *
+     * @param document the document
+     * @return the snapshot of its text
+     */
+    CharSequence snapshot(Document document);
+
+    /**
+     * Saves a text like the "Save" operation does.
+     *
+     * @param text the text to save
+     * @param file the file to save to
+     * @throws Exception if the file cannot be written
+     */
+    void save(CharSequence text, File file) throws Exception;
+
+    /**
+     * Counts the statistics of a document like the "Statistics"
+     * operation does right after the document has been opened.
+     *
+     * @param document the document
+     * @return the number of words
+     */
+    int countStatistics(Document document);
+
+    /**
+     * Counts the statistics of a text with a single thread.
+     *
+     * @param text the text
+     * @return the number of words
+     */
+    int countSequentially(CharSequence text);
+
+    /**
+     * Counts the statistics of a text with all the cores of the machine.
+     *
+     * @param text the text
+     * @return the number of words
+     */
+    int countInParallel(CharSequence text);
+
+    /**
+     * Keeps the statistics of a document while it is edited,
+     * like the status bar does.
+     *
+     * @param document the document
+     * @return the number of words, which is up to date after every edit
+     */
+    IntSupplier trackStatistics(Document document);
+
+    /**
+     * Looks up the implementation of the operations.
+     *
+     * @return the operations of the editor
+     */
+    static Editor load() {
+        try {
+            return (Editor) Class.forName("BenchmarkEditor").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The editor is not on the class path", e);
+        }
+    }
+}
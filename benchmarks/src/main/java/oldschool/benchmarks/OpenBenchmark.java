@@ -0,0 +1,39 @@
+package oldschool.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.text.Document;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the "Open" operation: reading and decoding a small file
+ * in chunks, or mapping and indexing a large one.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class OpenBenchmark {
+
+    /**
+     * Opens the file of the corpus.
+     *
+     * @param corpus the file to open
+     * @return the opened document
+     * @throws Exception if the file cannot be read
+     */
+    @Benchmark
+    public Document open(Corpus corpus) throws Exception {
+        return corpus.editor.open(corpus.file);
+    }
+}
@@ -0,0 +1,37 @@
+package oldschool.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.swing.text.Document;
+
+/**
+ * A generated file that has already been opened in a document,
+ * for the benchmarks of the operations that follow the opening.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+@State(Scope.Benchmark)
+public class OpenedCorpus extends Corpus {
+
+    protected Document document;
+    protected CharSequence snapshot;
+
+    /**
+     * Generates the file, if needed, and opens it.
+     * The file may not have been generated yet, as
+     * JMH does not promise the order of the setups.
+     *
+     * @throws Exception if the file cannot be written or read
+     */
+    @Setup
+    public void open() throws Exception {
+        if (file == null) {
+            prepare();
+        }
+        document = editor.open(file);
+        snapshot = editor.snapshot(document);
+    }
+}
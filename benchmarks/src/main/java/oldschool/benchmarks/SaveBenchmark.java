@@ -0,0 +1,66 @@
+package oldschool.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the "Save" operation: trimming, converting the line breaks,
+ * encoding and writing a snapshot of an opened document, including
+ * forcing it to the disk and replacing the target file.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g", "-Dfile.encoding=UTF-8"})
+@State(Scope.Benchmark)
+public class SaveBenchmark {
+
+    private File target;
+
+    /**
+     * Creates the file to save to, next to the corpus.
+     *
+     * @param corpus the opened corpus
+     * @throws IOException if the file cannot be created
+     */
+    @Setup
+    public void createTarget(OpenedCorpus corpus) throws IOException {
+        target = File.createTempFile("save-", ".txt", corpus.file.getParentFile());
+    }
+
+    /**
+     * Deletes the file that was saved to.
+     */
+    @TearDown
+    public void deleteTarget() {
+        target.delete();
+    }
+
+    /**
+     * Saves the opened document.
+     *
+     * @param corpus the opened corpus
+     * @throws Exception if the file cannot be written
+     */
+    @Benchmark
+    public void save(OpenedCorpus corpus) throws Exception {
+        corpus.editor.save(corpus.snapshot, target);
+    }
+}
@@ -0,0 +1,61 @@
+package oldschool.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures counting the statistics of a whole opened document: the
+ * "Statistics" operation itself, which picks the way of counting by the
+ * size of the document, and each way of counting on its own.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class StatisticsBenchmark {
+
+    /**
+     * Counts the statistics like the "Statistics" operation
+     * does, the first time after opening a file.
+     *
+     * @param corpus the opened corpus
+     * @return the number of words
+     */
+    @Benchmark
+    public int statistics(OpenedCorpus corpus) {
+        return corpus.editor.countStatistics(corpus.document);
+    }
+
+    /**
+     * Counts the statistics with a single thread.
+     *
+     * @param corpus the opened corpus
+     * @return the number of words
+     */
+    @Benchmark
+    public int sequential(OpenedCorpus corpus) {
+        return corpus.editor.countSequentially(corpus.snapshot);
+    }
+
+    /**
+     * Counts the statistics with all the cores of the machine.
+     *
+     * @param corpus the opened corpus
+     * @return the number of words
+     */
+    @Benchmark
+    public int parallel(OpenedCorpus corpus) {
+        return corpus.editor.countInParallel(corpus.snapshot);
+    }
+}
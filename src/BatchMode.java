@@ -0,0 +1,597 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Runs the editor without a window, on many files at once, for scripts
+ * and pipelines:
+ * <pre>
+ * --stats [options] files or folders...
+ * --convert [--charset name] [--line-endings lf|crlf|cr] [--bom|--no-bom] [options] files or folders...
+ * </pre>
+ * <code>--stats</code> prints the statistics of every file exactly as the
+ * "Statistics" operation shows them, as described in {@link TextStatistics}:
+ * the file is decoded the way {@link FileLoader} loads it, with its
+ * line breaks as '\n', and the same marks are counted. <code>--convert</code>
+ * rewrites every file in another charset or with other line breaks, or
+ * keeps what it does not change, through a temporary file next to it,
+ * which keeps the permissions and the owner of the file the way
+ * {@link FileSaver} keeps them. Binary files, as {@link FileFormat}
+ * tells them apart, are not converted but reported as errors, and so are
+ * files with bytes that their charset does not decode or with characters
+ * that the new charset cannot encode, rather than replacing them.
+ * <p>
+ * Gzip compressed files are decompressed as they are read, the way
+ * {@link FileLoader} reads them, so their text is counted, and they
+ * are compressed again when they are converted.
+ * <p>
+ * Folders are searched for files recursively. Every file is streamed
+ * in chunks, so its size does not matter, and the files are processed
+ * by a fixed number of threads (<code>--threads</code>, twice the cores
+ * by default) that reuse their buffers and decoders, so many small files
+ * keep the disk busy. The folders are walked while the files are being
+ * processed, and only a few files wait for a thread at any time.
+ * <p>
+ * Every file prints a line, in the order they finish, either as a JSON
+ * object (the default, or <code>--json</code>) or as CSV (<code>--csv</code>).
+ * A file that fails prints its error instead, and the exit status is 1.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class BatchMode {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String USAGE = "Usage:\n"
+            + "  --stats [--json|--csv] [--threads n] files or folders...\n"
+            + "  --convert [--charset name] [--line-endings lf|crlf|cr] [--bom|--no-bom]\n"
+            + "            [--json|--csv] [--threads n] files or folders...";
+    private static final String[] STATS_COLUMNS = {
+            "file", "words", "characters", "charactersNoSpaces", "paragraphs", "bytes", "charset", "lineEndings"
+    };
+    private static final String[] CONVERT_COLUMNS = {
+            "file", "bytes", "charset", "lineEndings"
+    };
+
+    // Every thread reuses its own buffers for all the files it processes
+    private static final ThreadLocal<Worker> WORKERS = ThreadLocal.withInitial(Worker::new);
+
+    private boolean convert;
+    private boolean csv;
+    private int threads;
+    private Charset charset;
+    private String lineSeparator;
+    private Boolean bom;
+    private final List<String> paths;
+
+    private PrintWriter out;
+    private final AtomicBoolean failed;
+
+    private BatchMode() {
+        this.threads = 2 * Runtime.getRuntime().availableProcessors();
+        this.paths = new ArrayList<>();
+        this.failed = new AtomicBoolean();
+    }
+
+    /**
+     * Returns whether the arguments of the program ask for the batch mode.
+     *
+     * @param args the arguments of the program
+     * @return <code>true</code> if the editor must not be shown
+     * @since 1.1
+     */
+    public static boolean isRequested(String[] args) {
+        return args.length > 0 && ("--stats".equals(args[0]) || "--convert".equals(args[0]));
+    }
+
+    /**
+     * Processes the files that the arguments name and prints the results.
+     *
+     * @param args the arguments of the program
+     * @return the exit status: 0 if every file was processed,
+     *         1 if some failed and 2 if the arguments are wrong
+     * @since 1.1
+     */
+    public static int run(String[] args) {
+        BatchMode batch = new BatchMode();
+        try {
+            batch.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        batch.out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), CHUNK_SIZE));
+        try {
+            batch.processAll();
+        } finally {
+            batch.out.flush();
+        }
+        return batch.failed.get() ? 1 : 0;
+    }
+
+    private void parse(String[] args) {
+        convert = "--convert".equals(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--json":
+                    csv = false;
+                    break;
+                case "--csv":
+                    csv = true;
+                    break;
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(value(args, ++i));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Not a number of threads: " + args[i]);
+                    }
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("Not a number of threads: " + args[i]);
+                    }
+                    break;
+                case "--charset":
+                    try {
+                        charset = Charset.forName(value(args, ++i));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unknown charset: " + args[i]);
+                    }
+                    break;
+                case "--line-endings":
+                    lineSeparator = separatorOf(value(args, ++i));
+                    break;
+                case "--bom":
+                    bom = true;
+                    break;
+                case "--no-bom":
+                    bom = false;
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    paths.add(arg);
+            }
+        }
+        if (!convert && (charset != null || lineSeparator != null || bom != null)) {
+            throw new IllegalArgumentException("Only --convert changes the format of the files");
+        }
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("No files were given");
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static String separatorOf(String name) {
+        switch (name.toLowerCase()) {
+            case "lf":
+                return "\n";
+            case "crlf":
+                return "\r\n";
+            case "cr":
+                return "\r";
+            default:
+                throw new IllegalArgumentException("Unknown line endings: " + name);
+        }
+    }
+
+    private static String nameOf(String separator) {
+        switch (separator) {
+            case "\r\n":
+                return "CRLF";
+            case "\r":
+                return "CR";
+            default:
+                return "LF";
+        }
+    }
+
+    /**
+     * Walks the given paths and processes every file in the thread pool.
+     * The pool only queues a few files per thread; when the queue is
+     * full, the walking thread processes the next file itself.
+     */
+    private void processAll() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(4 * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+        if (csv) {
+            out.println(String.join(",", convert ? CONVERT_COLUMNS : STATS_COLUMNS) + ",error");
+        }
+        for (String name : paths) {
+            Path path = Paths.get(name);
+            if (!Files.isDirectory(path)) {
+                executor.execute(() -> process(path));
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(path)) {
+                files.filter(Files::isRegularFile).forEach(file -> executor.execute(() -> process(file)));
+            } catch (IOException | UncheckedIOException e) {
+                printError(path, e);
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(Path path) {
+        try {
+            if (convert) {
+                convert(path);
+            } else {
+                count(path);
+            }
+        } catch (IOException | RuntimeException e) {
+            printError(path, e);
+        }
+    }
+
+    /**
+     * Counts the statistics of a file while it is read. The words and
+     * the paragraphs are the marks between the first and the last
+     * characters that trimming keeps, plus one, so the marks are noted
+     * at the first and at the last such character that is read.
+     */
+    private void count(Path path) throws IOException {
+        TextStatistics.Tally tally = new TextStatistics.Tally(TextStatistics.NONE, TextStatistics.NONE);
+        long[] characters = new long[1];
+        int[] first = {-1, -1};
+        int[] last = new int[2];
+        FileFormat format;
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            Worker worker = WORKERS.get();
+            format = worker.detect(channel);
+            worker.read(format, (chars, count) -> {
+                characters[0] += count;
+                for (int i = 0; i < count; i++) {
+                    char c = chars[i];
+                    tally.add(c);
+                    if (c > ' ') {
+                        if (first[0] < 0) {
+                            first[0] = tally.wordStarts;
+                            first[1] = tally.paragraphBreaks;
+                        }
+                        last[0] = tally.wordStarts;
+                        last[1] = tally.paragraphBreaks;
+                    }
+                }
+            });
+        }
+        boolean blank = first[0] < 0;
+        print(STATS_COLUMNS, path.toString(),
+                blank ? 0 : 1 + last[0] - first[0],
+                characters[0],
+                characters[0] - tally.spaces,
+                blank ? 0 : 1 + last[1] - first[1],
+                size,
+                format.getCharset().name(),
+                nameOf(format.getLineSeparator()));
+    }
+
+    /**
+     * Rewrites a file in the requested format, keeping the charset,
+     * the line breaks and the byte order mark that are not requested.
+     * The file is written next to it and then moved over it,
+     * so it is never left half written.
+     */
+    private void convert(Path path) throws IOException {
+        Path real = FileSaver.realPath(path.toFile());
+        Path temp = Files.createTempFile(real.getParent(), ".oldschool", ".tmp");
+        FileFormat target;
+        long size;
+        try {
+            try (FileChannel channel = FileChannel.open(real, StandardOpenOption.READ);
+                 FileChannel output = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                Worker worker = WORKERS.get();
+                target = worker.convert(channel, output, charset, lineSeparator, bom);
+                size = output.position();
+            }
+            FileSaver.replace(temp, real);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        print(CONVERT_COLUMNS, path.toString(), size,
+                target.getCharset().name(), nameOf(target.getLineSeparator()));
+    }
+
+    private void printError(Path path, Exception e) {
+        failed.set(true);
+        // The message of a missing file is only its name
+        String message = e.toString();
+        if (csv) {
+            int columns = (convert ? CONVERT_COLUMNS : STATS_COLUMNS).length;
+            StringBuilder line = new StringBuilder(csvField(path.toString()));
+            for (int i = 1; i < columns; i++) {
+                line.append(',');
+            }
+            line.append(',').append(csvField(message));
+            println(line.toString());
+        } else {
+            println("{\"file\":" + jsonString(path.toString()) + ",\"error\":" + jsonString(message) + "}");
+        }
+    }
+
+    /**
+     * Prints the results of a file, the numbers as they are and
+     * everything else as text.
+     */
+    private void print(String[] columns, Object... values) {
+        StringBuilder line = new StringBuilder(csv ? "" : "{");
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            String text = (value instanceof Number) ? value.toString()
+                    : csv ? csvField(value.toString()) : jsonString(value.toString());
+            if (i > 0) {
+                line.append(',');
+            }
+            if (!csv) {
+                line.append('"').append(columns[i]).append("\":");
+            }
+            line.append(text);
+        }
+        line.append(csv ? "," : "}");
+        println(line.toString());
+    }
+
+    private void println(String line) {
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    private static String csvField(String text) {
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonString(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Receives the text of a file in chunks.
+     */
+    private interface ChunkConsumer {
+        void accept(char[] chars, int count) throws IOException;
+    }
+
+    /**
+     * The buffers, decoders and encoders of a thread, which it
+     * reuses for every file, so small files cost no allocations.
+     */
+    private static final class Worker {
+        final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        final char[] buffer = new char[CHUNK_SIZE + 1];
+        final CharBuffer chars = CharBuffer.wrap(buffer);
+        final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+        final Map<Charset, CharsetEncoder> encoders = new HashMap<>();
+        boolean endOfInput;
+        boolean binary;
+        // What the text is read from: the file, or its decompressed bytes
+        ReadableByteChannel in;
+        CharBuffer converted;
+        ByteBuffer encoded;
+
+        /**
+         * Reads the first chunk of a file and detects its format from it,
+         * and whether the file is binary. A gzip file is decompressed
+         * from then on, and its format is the one of its text.
+         *
+         * @return the format of the file
+         */
+        FileFormat detect(FileChannel channel) throws IOException {
+            in = channel;
+            byte[] prefix = readFirstChunk();
+            boolean compressed = FileFormat.isCompressed(prefix);
+            if (compressed) {
+                channel.position(0);
+                in = Channels.newChannel(new GZIPInputStream(Channels.newInputStream(channel), CHUNK_SIZE));
+                prefix = readFirstChunk();
+            }
+            FileFormat format = FileFormat.detect(prefix, !endOfInput).withCompression(compressed);
+            binary = FileFormat.isBinary(prefix, format);
+            bytes.flip();
+            bytes.position(Math.min(format.getBomLength(), bytes.limit()));
+            return format;
+        }
+
+        private byte[] readFirstChunk() throws IOException {
+            bytes.clear();
+            endOfInput = false;
+            while (bytes.hasRemaining() && !endOfInput) {
+                endOfInput = in.read(bytes) < 0;
+            }
+            return Arrays.copyOf(bytes.array(), bytes.position());
+        }
+
+        /**
+         * Reads the rest of a file after <code>detect</code> and hands over
+         * its text in chunks, decoded and with its line breaks as '\n',
+         * exactly like {@link FileLoader} loads it.
+         *
+         * @throws IOException if a byte is not valid in the charset of the file
+         */
+        void read(FileFormat format, ChunkConsumer consumer) throws IOException {
+            CharsetDecoder decoder = decoders.computeIfAbsent(format.getCharset(), charset -> charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT));
+            decoder.reset();
+            chars.clear();
+            boolean done = false;
+            while (!done) {
+                CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                if (result.isError()) {
+                    throw new IOException("Not valid " + format.getCharset().name() + " text");
+                }
+                boolean full = result.isOverflow();
+                done = endOfInput && !full;
+                if (done) {
+                    decoder.flush(chars);
+                }
+                // A character cut at the end of the chunk
+                // is decoded with the next one
+                bytes.compact();
+
+                int count = chars.position();
+                // So is a '\r' that may be followed by a '\n'
+                boolean carry = !done && count > 0 && buffer[count - 1] == '\r';
+                int kept = format.convertLineBreaks(buffer, carry ? count - 1 : count);
+                if (kept > 0) {
+                    consumer.accept(buffer, kept);
+                }
+                chars.clear();
+                if (carry) {
+                    chars.put('\r');
+                }
+                if (!endOfInput && !full) {
+                    endOfInput = in.read(bytes) < 0;
+                }
+                bytes.flip();
+            }
+        }
+
+        /**
+         * Reads a file and writes it in another format, keeping
+         * the parts of its own format that are not given.
+         *
+         * @return the format that the file was written in
+         */
+        FileFormat convert(FileChannel input, FileChannel output, Charset charset,
+                           String lineSeparator, Boolean bom) throws IOException {
+            if (converted == null) {
+                converted = CharBuffer.allocate(2 * CHUNK_SIZE + 2);
+                encoded = ByteBuffer.allocate(8 * CHUNK_SIZE);
+            }
+            FileFormat source = detect(input);
+            if (binary) {
+                // Its bytes would not survive being decoded and encoded again
+                throw new IOException("Binary file, not converted");
+            }
+            Charset targetCharset = (charset != null) ? charset : source.getCharset();
+            boolean keepBom = (bom != null) ? bom
+                    : source.getBomLength() > 0 && targetCharset.equals(source.getCharset());
+            FileFormat target = new FileFormat(targetCharset,
+                    keepBom ? "\uFEFF".getBytes(targetCharset) : new byte[0],
+                    (lineSeparator != null) ? lineSeparator : source.getLineSeparator(),
+                    source.isCompressed());
+            CharsetEncoder encoder = encoders.computeIfAbsent(targetCharset, c -> c.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT));
+            encoder.reset();
+
+            // A compressed file is compressed again
+            GZIPOutputStream gzip = null;
+            WritableByteChannel out = output;
+            if (target.isCompressed()) {
+                gzip = new GZIPOutputStream(Channels.newOutputStream(output), CHUNK_SIZE);
+                out = Channels.newChannel(gzip);
+            }
+            WritableByteChannel encodedOut = out;
+            encoded.clear();
+            encoded.put(target.getBom());
+            write(out);
+            String separator = target.getLineSeparator();
+            read(source, (text, count) -> {
+                converted.clear();
+                for (int i = 0; i < count; i++) {
+                    if (text[i] == '\n') {
+                        converted.put(separator);
+                    } else {
+                        converted.put(text[i]);
+                    }
+                }
+                converted.flip();
+                encode(encoder, encodedOut, false);
+            });
+            converted.clear().flip();
+            encode(encoder, out, true);
+            encoded.clear();
+            encoder.flush(encoded);
+            write(out);
+            if (gzip != null) {
+                gzip.finish();
+            }
+            return target;
+        }
+
+        private void encode(CharsetEncoder encoder, WritableByteChannel output, boolean endOfInput) throws IOException {
+            while (true) {
+                encoded.clear();
+                CoderResult result = encoder.encode(converted, encoded, endOfInput);
+                if (result.isError()) {
+                    throw new IOException("Characters that " + encoder.charset().name()
+                            + " cannot encode, not converted");
+                }
+                boolean full = result.isOverflow();
+                write(output);
+                if (!full) {
+                    return;
+                }
+            }
+        }
+
+        private void write(WritableByteChannel output) throws IOException {
+            encoded.flip();
+            while (encoded.hasRemaining()) {
+                output.write(encoded);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * <p>
+ * Bounds the memory that the documents of the open tabs hold.
+ * Every open tab is kept in the cache, from the least to the most recently
+ * selected one. When the documents hold more memory than the capacity of
+ * the cache, the least recently selected tabs are evicted (see
+ * {@link EditorTab#evict()}) until they fit again, so the memory follows
+ * the tabs that are actually used and not the number of open tabs.
+ * <p>
+ * Only documents that can be loaded again from their file are evicted.
+ * Documents with unsaved work and the selected document are always kept,
+ * even if this means that the cache holds more than its capacity.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class BufferCache {
+
+    private final long capacity;
+    private final LinkedHashSet<EditorTab> tabs;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the memory that the documents may hold, in bytes
+     * @since 1.1
+     */
+    public BufferCache(long capacity) {
+        this.capacity = capacity;
+        this.tabs = new LinkedHashSet<>();
+    }
+
+    /**
+     * Marks a tab as the most recently selected one and evicts the
+     * least recently selected tabs if the documents no longer fit.
+     *
+     * @param selected the selected tab
+     * @since 1.1
+     */
+    public void touch(EditorTab selected) {
+        tabs.remove(selected);
+        tabs.add(selected);
+
+        // Documents change while they are edited,
+        // so their memory is estimated every time
+        long size = 0;
+        for (EditorTab tab : tabs) {
+            size += tab.getMemoryFootprint();
+        }
+        if (size <= capacity) {
+            return;
+        }
+        for (EditorTab tab : new ArrayList<>(tabs)) {
+            if (tab != selected && tab.isEvictable()) {
+                size -= tab.getMemoryFootprint();
+                tab.evict();
+                size += tab.getMemoryFootprint();
+                if (size <= capacity) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets a tab that has been closed.
+     *
+     * @param tab the closed tab
+     * @since 1.1
+     */
+    public void remove(EditorTab tab) {
+        tabs.remove(tab);
+    }
+}
@@ -0,0 +1,650 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>
+ * Text of a gzip compressed file that is decompressed lazily.
+ * It is used as the original buffer of a {@link PieceTableDocument}
+ * when a compressed file is opened, so neither the file nor its
+ * decompressed text is ever held as a whole in the heap.
+ * <p>
+ * It works like {@link MappedText}: when the file is opened, we make a
+ * single pass over it, decompress it, split the decompressed bytes into
+ * blocks of about 64 KB and decode every block once to find out how many
+ * characters it holds and where its lines start. While doing so, a
+ * {@link GzipInflater.AccessPoint} is taken about every
+ * <code>SPAN</code> bytes of the decompressed text. When a range of
+ * characters is requested, the decompression starts again from the last
+ * access point before it, so any part of the file, however large, is
+ * reached by decompressing at most a little more than <code>SPAN</code>
+ * bytes. The position where the last decompression stopped is kept too,
+ * so reading the text in order never goes back to an access point.
+ * <p>
+ * The file is kept open while the text is in use, so it can still be read
+ * after it has been replaced by another one, like a mapped file can.
+ * The same charsets as those of {@link MappedText} are supported, and the
+ * text is checked to be in its charset in the single pass the same way.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class CompressedText implements CharSequence {
+
+    static final int BLOCK_SIZE = MappedText.BLOCK_SIZE;
+    // About how many decompressed bytes are between two access points
+    static final int SPAN = 1024 * 1024;
+    private static final int CACHED_BLOCKS = 8;
+
+    private final File file;
+    private final FileFormat format;
+    private final Charset charset;
+    private final boolean utf8;
+    private final boolean utf16;
+    private final boolean carriageReturnBreaks;
+    private final boolean crlfBreaks;
+    private final FileChannel channel;
+    private final long fileSize;
+    private long size;
+
+    private long[] blockBytes;  // Decompressed byte offset where every block starts
+    private int[] blockChars;   // Char offset where every block starts, plus the total
+    private int blockCount;
+    private int length;
+    private boolean mixedLineBreaks;
+
+    private GzipInflater.AccessPoint[] points;
+    private int pointCount;
+
+    private int[] lineStarts;
+    private int lineCount;
+
+    // Cache of decoded blocks, the most recent first
+    private final int[] cachedIndex;
+    private final char[][] cachedChars;
+    private final CharsetDecoder decoder;
+    private final CharBuffer decodeBuffer;
+    private final byte[] blockBuffer;
+    // Where the last block that was read ended
+    private GzipInflater cursor;
+
+    /**
+     * Opens the given compressed file and indexes its contents, reporting the
+     * progress of the indexing. If the calling thread is interrupted, the
+     * indexing stops with an <code>InterruptedIOException</code>.
+     *
+     * @param file the file to open
+     * @param format the format of the decompressed text
+     * @param progress receives the percentage of the file that has
+     *                 been indexed, may be <code>null</code>
+     * @throws IOException if the file cannot be read, is damaged or is too large
+     * @throws CharacterCodingException if the text is not in the charset of the format
+     * @since 1.1
+     */
+    public CompressedText(File file, FileFormat format, IntConsumer progress) throws IOException {
+        Charset charset = format.getCharset();
+        if (!supports(charset)) {
+            throw new IOException("Charset " + charset + " cannot be decoded lazily");
+        }
+        this.file = file;
+        this.format = format;
+        this.charset = charset;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.utf16 = charset.equals(StandardCharsets.UTF_16BE) || charset.equals(StandardCharsets.UTF_16LE);
+        this.carriageReturnBreaks = "\r".equals(format.getLineSeparator());
+        this.crlfBreaks = "\r\n".equals(format.getLineSeparator());
+
+        cachedIndex = new int[CACHED_BLOCKS];
+        cachedChars = new char[CACHED_BLOCKS][];
+        Arrays.fill(cachedIndex, -1);
+        decoder = newDecoder(CodingErrorAction.REPLACE);
+        decodeBuffer = CharBuffer.allocate(BLOCK_SIZE);
+        blockBuffer = new byte[BLOCK_SIZE];
+
+        channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            fileSize = channel.size();
+            index(progress);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks if compressed files of the given charset can be decoded lazily.
+     *
+     * @param charset the charset of the decompressed text
+     * @return <code>true</code> if the charset is supported
+     * @since 1.1
+     */
+    public static boolean supports(Charset charset) {
+        return MappedText.supports(charset);
+    }
+
+    /**
+     * Makes the single pass over the file. Decompresses it, takes the
+     * access points, splits the text into blocks, decodes every block
+     * and records where the lines start.
+     */
+    private void index(IntConsumer progress) throws IOException {
+        blockBytes = new long[1024];
+        blockChars = new int[blockBytes.length + 1];
+        points = new GzipInflater.AccessPoint[64];
+        lineStarts = new int[1024];
+        lineCount = 1;
+
+        GzipInflater inflater = new GzipInflater(channel);
+        CharsetDecoder checker = newDecoder(CodingErrorAction.REPORT);
+        // Room for a block and the few bytes after it that tell where it can end
+        byte[] bytes = new byte[2 * BLOCK_SIZE];
+        int count = 0;
+        long start = 0;   // The position of the first byte of the array
+        long lastPoint = 0;
+        boolean endOfInput = false;
+        int skipped = format.getBomLength();
+        int charCount = 0;
+        while (!endOfInput || count > 0) {
+            while (!endOfInput && count < bytes.length) {
+                int read = inflater.read(bytes, count, bytes.length - count);
+                if (read < 0) {
+                    endOfInput = true;
+                    break;
+                }
+                count += read;
+                if (inflater.isAtAccessPoint() && inflater.getPosition() - lastPoint >= SPAN) {
+                    addPoint(inflater.accessPoint());
+                    lastPoint = inflater.getPosition();
+                }
+            }
+            if (skipped > 0) {
+                // The byte order mark is not part of the text
+                int bom = Math.min(skipped, count);
+                System.arraycopy(bytes, bom, bytes, 0, count - bom);
+                count -= bom;
+                start += bom;
+                skipped -= bom;
+                continue;
+            }
+            if (count == 0) {
+                break;
+            }
+            // A document cannot hold more characters than an int can count
+            if (start + count >= Integer.MAX_VALUE - 1) {
+                throw new IOException("File is too large: more than " + (start + count) + " bytes decompressed");
+            }
+
+            int end = blockEnd(bytes, Math.min(BLOCK_SIZE, count), count, endOfInput);
+            if (blockCount + 1 >= blockBytes.length) {
+                blockBytes = Arrays.copyOf(blockBytes, blockBytes.length * 2);
+                blockChars = Arrays.copyOf(blockChars, blockChars.length * 2);
+            }
+            blockBytes[blockCount] = start;
+            blockChars[blockCount] = charCount;
+            blockCount++;
+
+            int kept = indexAscii(bytes, end, charCount);
+            if (kept < 0) {
+                kept = indexDecoded(bytes, end, charCount, checker);
+            }
+            charCount += kept;
+            System.arraycopy(bytes, end, bytes, 0, count - end);
+            count -= end;
+            start += end;
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Indexing of " + file + " was cancelled");
+            }
+            if (progress != null && blockCount % 64 == 0) {
+                progress.accept((int) (inflater.getInputPosition() * 100 / Math.max(1, fileSize)));
+            }
+        }
+        size = start;
+        blockBytes[blockCount] = size;
+        blockChars[blockCount] = charCount;
+        length = charCount;
+    }
+
+    private void addPoint(GzipInflater.AccessPoint point) {
+        if (pointCount == points.length) {
+            points = Arrays.copyOf(points, pointCount * 2);
+        }
+        points[pointCount++] = point;
+    }
+
+    /**
+     * Indexes a block that is plain ASCII straight from its bytes,
+     * which is much faster than decoding it.
+     *
+     * @return the number of characters of the block, or -1 if
+     *         the block is not plain ASCII
+     */
+    private int indexAscii(byte[] bytes, int count, int charCount) {
+        if (utf16) {
+            return -1;
+        }
+        int savedLines = lineCount;
+        int kept = 0;
+        byte previous = 0;
+        for (int i = 0; i < count; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                lineCount = savedLines;
+                return -1;
+            }
+            if (b == '\n') {
+                if (crlfBreaks && previous == '\r') {
+                    kept--;
+                } else if (crlfBreaks || carriageReturnBreaks) {
+                    mixedLineBreaks = true;
+                }
+                addLine(charCount + kept + 1);
+            } else if (b == '\r' && carriageReturnBreaks) {
+                addLine(charCount + kept + 1);
+            }
+            kept++;
+            previous = b;
+        }
+        return kept;
+    }
+
+    /**
+     * Indexes a block by decoding it.
+     *
+     * @return the number of characters of the block
+     * @throws CharacterCodingException if the block is not in the charset
+     */
+    private int indexDecoded(byte[] bytes, int count, int charCount, CharsetDecoder checker)
+            throws CharacterCodingException {
+        CoderResult result = decodeChars(bytes, count, checker, decodeBuffer);
+        if (result.isError()) {
+            result.throwException();
+        }
+        char[] array = decodeBuffer.array();
+        mixedLineBreaks = mixedLineBreaks || format.hasMixedLineBreaks(array, decodeBuffer.position());
+        int kept = format.convertLineBreaks(array, decodeBuffer.position());
+        for (int i = 0; i < kept; i++) {
+            if (array[i] == '\n') {
+                addLine(charCount + i + 1);
+            }
+        }
+        return kept;
+    }
+
+    private void addLine(int start) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+        }
+        lineStarts[lineCount++] = start;
+    }
+
+    /**
+     * Finds where a block that starts at the start of the array ends,
+     * so that it does not split a character or a "\r\n" pair, as
+     * <code>MappedText</code> does.
+     *
+     * @param end the end of the block at most
+     * @param count the number of bytes in the array
+     * @param last <code>true</code> if the text ends with the array
+     */
+    private int blockEnd(byte[] bytes, int end, int count, boolean last) {
+        if (end == count && last) {
+            return end;
+        }
+        if (utf16) {
+            end -= end % 2;
+            if (Character.isHighSurrogate(unitAt(bytes, end - 2, count)) && end > 2) {
+                end -= 2;
+            }
+            if (unitAt(bytes, end - 2, count) == '\r' && unitAt(bytes, end, count) == '\n' && end > 2) {
+                end -= 2;
+            }
+            return end;
+        }
+        while (utf8 && end > 1 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        if (bytes[end - 1] == '\r' && bytes[end] == '\n' && end > 1) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the UTF-16 code unit at the given offset of the array,
+     * or 0 if the array ends in the middle of it.
+     */
+    private char unitAt(byte[] bytes, int position, int count) {
+        if (position + 1 >= count) {
+            return 0;
+        }
+        int first = bytes[position] & 0xFF;
+        int second = bytes[position + 1] & 0xFF;
+        return charset.equals(StandardCharsets.UTF_16BE) ? (char) (first << 8 | second) : (char) (second << 8 | first);
+    }
+
+    /**
+     * Decodes the bytes of a block at the start of the given buffer
+     * and converts its line breaks.
+     *
+     * @return the number of characters of the block
+     */
+    private int decode(byte[] bytes, int count, CharsetDecoder dec, CharBuffer out) {
+        decodeChars(bytes, count, dec, out);
+        return format.convertLineBreaks(out.array(), out.position());
+    }
+
+    /**
+     * Decodes the bytes of a block at the start of the given buffer.
+     *
+     * @return the result of the decoding, an error if a byte is not in the charset
+     */
+    private CoderResult decodeChars(byte[] bytes, int count, CharsetDecoder dec, CharBuffer out) {
+        out.clear();
+        dec.reset();
+        CoderResult result = dec.decode(ByteBuffer.wrap(bytes, 0, count), out, true);
+        return result.isError() ? result : dec.flush(out);
+    }
+
+    /**
+     * Makes a decoder of the charset. The blocks that are decoded after the
+     * file has been indexed were checked by then, like those of a mapped text.
+     */
+    private CharsetDecoder newDecoder(CodingErrorAction action) {
+        return charset.newDecoder()
+                .onMalformedInput(action)
+                .onUnmappableCharacter(action);
+    }
+
+    /**
+     * Decompresses the bytes of a block into the given array.
+     *
+     * @param inflater the inflater to continue from, may be <code>null</code>
+     * @return the inflater, after the block
+     */
+    private GzipInflater readBlock(int block, GzipInflater inflater, byte[] bytes) throws IOException {
+        long start = blockBytes[block];
+        GzipInflater.AccessPoint point = pointBefore(start);
+        long from = (point == null) ? 0 : point.getPosition();
+        if (inflater == null || inflater.getPosition() > start || inflater.getPosition() < from) {
+            inflater = (point == null) ? new GzipInflater(channel) : new GzipInflater(channel, point);
+        }
+        inflater.skip(start - inflater.getPosition());
+        int count = (int) (blockBytes[block + 1] - start);
+        int done = 0;
+        while (done < count) {
+            int read = inflater.read(bytes, done, count - done);
+            if (read < 0) {
+                throw new IOException("Compressed file " + file + " has changed");
+            }
+            done += read;
+        }
+        return inflater;
+    }
+
+    /**
+     * Finds the last access point at or before the given position.
+     *
+     * @return the access point, or <code>null</code> if the
+     *         decompression has to start from the start of the file
+     */
+    private GzipInflater.AccessPoint pointBefore(long position) {
+        int low = 0;
+        int high = pointCount - 1;
+        GzipInflater.AccessPoint found = null;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (points[middle].getPosition() <= position) {
+                found = points[middle];
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the number of lines of the text.
+     *
+     * @return the number of lines
+     * @since 1.1
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Hands over the index of the lines of the text, like
+     * <code>MappedText.takeLineIndex</code> does.
+     *
+     * @return the line index
+     * @throws IllegalStateException if the index has already been taken
+     * @since 1.1
+     */
+    public LineIndex takeLineIndex() {
+        if (lineStarts == null) {
+            throw new IllegalStateException("Line index has already been taken");
+        }
+        LineIndex index = new LineIndex(lineStarts, lineCount);
+        lineStarts = null;
+        return index;
+    }
+
+    /**
+     * Returns the format of the decompressed text.
+     *
+     * @return the format
+     * @since 1.1
+     */
+    public FileFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns whether the text has line breaks that will be saved as its
+     * line separator, as {@link FileFormat#hasMixedLineBreaks} tells.
+     *
+     * @return <code>true</code> if the file would not be saved the same
+     * @since 1.1
+     */
+    public boolean hasMixedLineBreaks() {
+        return mixedLineBreaks;
+    }
+
+    /**
+     * Returns the compressed file.
+     *
+     * @return the file
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the size of the compressed file.
+     *
+     * @return the size in bytes
+     * @since 1.1
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Returns the size of the decompressed text, with its byte order mark.
+     *
+     * @return the size in bytes
+     * @since 1.1
+     */
+    public long getDecompressedSize() {
+        return size;
+    }
+
+    /**
+     * Estimates how much memory the text holds in the heap: the index
+     * of its blocks, its access points and the cache of decoded blocks.
+     *
+     * @return the estimated size in bytes
+     * @since 1.1
+     */
+    public long getMemoryFootprint() {
+        long footprint = 12L * blockCount + 2L * CACHED_BLOCKS * BLOCK_SIZE;
+        for (int i = 0; i < pointCount; i++) {
+            footprint += points[i].getMemoryFootprint();
+        }
+        return footprint;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public synchronized char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        int block = blockOf(index);
+        return decodedBlock(block)[index - blockChars[block]];
+    }
+
+    /**
+     * Copies a range of the text into an array.
+     * Only the blocks that hold the range are decompressed and decoded.
+     * <p>
+     * Like <code>MappedText.getChars</code>, short ranges go through the
+     * cache of recently used blocks, and ranges of at least a block are
+     * decompressed by the calling thread with its own inflater, so several
+     * threads can read long ranges at the same time.
+     *
+     * @param srcBegin the start of the range
+     * @param srcEnd the end of the range
+     * @param dst the destination array
+     * @param dstBegin the offset in the destination array
+     * @throws UncheckedIOException if the file cannot be read any more
+     * @since 1.1
+     */
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+            throw new IndexOutOfBoundsException("Range: " + srcBegin + " - " + srcEnd);
+        }
+        if (srcEnd - srcBegin >= BLOCK_SIZE) {
+            readBlocks(srcBegin, srcEnd, dst, dstBegin);
+            return;
+        }
+        synchronized (this) {
+            int position = srcBegin;
+            while (position < srcEnd) {
+                int block = blockOf(position);
+                char[] chars = decodedBlock(block);
+                int from = position - blockChars[block];
+                int count = Math.min(srcEnd - position, chars.length - from);
+                System.arraycopy(chars, from, dst, dstBegin, count);
+                dstBegin += count;
+                position += count;
+            }
+        }
+    }
+
+    /**
+     * Decompresses and decodes the blocks of a range straight into
+     * an array, without touching the cache or any other shared state.
+     */
+    private void readBlocks(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        CharsetDecoder dec = newDecoder(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+        byte[] bytes = new byte[BLOCK_SIZE];
+        GzipInflater inflater = null;
+        int position = srcBegin;
+        try {
+            while (position < srcEnd) {
+                int block = blockOf(position);
+                inflater = readBlock(block, inflater, bytes);
+                int kept = decode(bytes, (int) (blockBytes[block + 1] - blockBytes[block]), dec, chars);
+                int from = position - blockChars[block];
+                int count = Math.min(srcEnd - position, kept - from);
+                System.arraycopy(chars.array(), from, dst, dstBegin, count);
+                dstBegin += count;
+                position += count;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return CharBuffer.wrap(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * Finds the block that holds the character at the given offset.
+     */
+    private int blockOf(int index) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blockChars[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the decoded characters of a block, decompressing and
+     * decoding it if it is not one of the recently used blocks.
+     */
+    private char[] decodedBlock(int block) {
+        int found = CACHED_BLOCKS - 1;
+        for (int i = 0; i < CACHED_BLOCKS; i++) {
+            if (cachedIndex[i] == block) {
+                found = i;
+                break;
+            }
+        }
+        char[] chars = cachedChars[found];
+        if (cachedIndex[found] != block) {
+            try {
+                cursor = readBlock(block, cursor, blockBuffer);
+            } catch (IOException e) {
+                cursor = null;
+                throw new UncheckedIOException(e);
+            }
+            int kept = decode(blockBuffer, (int) (blockBytes[block + 1] - blockBytes[block]), decoder, decodeBuffer);
+            chars = Arrays.copyOf(decodeBuffer.array(), kept);
+        }
+        // Move the block to the front of the cache
+        System.arraycopy(cachedIndex, 0, cachedIndex, 1, found);
+        System.arraycopy(cachedChars, 0, cachedChars, 1, found);
+        cachedIndex[0] = block;
+        cachedChars[0] = chars;
+        return chars;
+    }
+}
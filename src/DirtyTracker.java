@@ -0,0 +1,592 @@
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.EventListenerList;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * <p>
+ * Knows whether a document holds the same text as its file, that is
+ * the text that was last loaded or saved, no matter how it was edited:
+ * typing, pasting, clearing, replacing or undoing. Typing something and
+ * deleting it again leaves the document unmodified.
+ * <p>
+ * The saved text is split in blocks of {@link #BLOCK_SIZE} characters
+ * and the document is kept as a list of segments: the saved blocks
+ * that no edit has touched, and the edited ranges between them, which
+ * the changes of the document grow, shrink and join. The document holds
+ * the saved text if it has the same length and every block is the same.
+ * A block that is still in its segment, at its saved offset, is the same
+ * without looking at it, so only the edited blocks, or the ones that an
+ * edit has moved, are compared, by their hash. Checking a document
+ * costs as much as its edited blocks, no matter the size of its file.
+ * <p>
+ * The hashes of the saved blocks are only computed when they are first
+ * compared, from a snapshot of the saved text, which shares the buffers
+ * of the document, so even a huge document is never read as a whole.
+ * A document with more edited blocks than {@link #MAX_COMPARED_BLOCKS}
+ * is considered modified without comparing them.
+ * <p>
+ * While the document is being saved, a second list of segments is kept
+ * for the saved snapshot, so the edits made during the save are still
+ * seen as modifications once it has finished.
+ * <p>
+ * The segments also tell which parts of the document still hold the
+ * saved text and where, so a change that another program made to the
+ * file can be applied to the document, as long as it does not touch
+ * an edited range.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class DirtyTracker implements DocumentListener {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int MAX_COMPARED_BLOCKS = 64;
+
+    private final PieceTableDocument document;
+    private final Segment segment;
+    private final EventListenerList listeners;
+
+    // The saved text, or null if the document has never been saved
+    private Baseline saved;
+    // The text that is being saved, if any
+    private Baseline saving;
+    private boolean enabled;
+    private boolean modified;
+
+    /**
+     * Constructor.
+     * The current text of the document is the saved one.
+     *
+     * @param document the document to track
+     * @since 1.1
+     */
+    public DirtyTracker(PieceTableDocument document) {
+        this.document = document;
+        this.segment = new Segment();
+        this.listeners = new EventListenerList();
+        this.saved = new Baseline(document.snapshot());
+        this.enabled = true;
+        document.addDocumentListener(this);
+    }
+
+    /**
+     * Stops following the changes of the document.
+     *
+     * @since 1.1
+     */
+    public void dispose() {
+        document.removeDocumentListener(this);
+    }
+
+    /**
+     * Adds a listener that is notified every time
+     * the document becomes modified or unmodified.
+     *
+     * @param listener the listener
+     * @since 1.1
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(ChangeListener.class, listener);
+    }
+
+    /**
+     * Removes a listener that was added with <code>addChangeListener</code>.
+     *
+     * @param listener the listener
+     * @since 1.1
+     */
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(ChangeListener.class, listener);
+    }
+
+    /**
+     * Returns whether the document differs from the saved text.
+     *
+     * @return <code>true</code> if there is unsaved work
+     * @since 1.1
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Sets whether the edits of the document are followed. While they are
+     * not, like while the document is loaded or followed, the document is
+     * unmodified, and when they are again, its text is the saved one.
+     *
+     * @param enabled <code>true</code> to follow the edits
+     * @since 1.1
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        saving = null;
+        if (enabled) {
+            saved = new Baseline(document.snapshot());
+        }
+        setModified(false);
+    }
+
+    /**
+     * Takes a snapshot of the document to be saved. Until it is saved,
+     * the edits of the document are followed for it as well.
+     *
+     * @return an immutable view of the current text
+     * @since 1.1
+     */
+    public PieceTableContent.Snapshot snapshot() {
+        saving = new Baseline(document.snapshot());
+        return saving.text;
+    }
+
+    /**
+     * Makes a snapshot that was taken with <code>snapshot</code>
+     * the saved text, after it has been written to the file.
+     *
+     * @param text the saved snapshot
+     * @since 1.1
+     */
+    public void markSaved(PieceTableContent.Snapshot text) {
+        if (saving == null || saving.text != text) {
+            return; // The document has been replaced since
+        }
+        saved = saving;
+        saving = null;
+        check();
+    }
+
+    /**
+     * Returns the saved text.
+     *
+     * @return the text that was last loaded or saved,
+     *         or <code>null</code> if it is not known
+     * @since 1.1
+     */
+    public PieceTableContent.Snapshot getSavedText() {
+        return (saved != null) ? saved.text : null;
+    }
+
+    /**
+     * Returns the hashes of the blocks of the saved text,
+     * if they have all been computed.
+     *
+     * @return a copy of the hashes, or <code>null</code> if some are not known
+     * @since 1.1
+     */
+    public long[] getSavedHashes() {
+        if (saved == null || saved.hashed.cardinality() < saved.blocks) {
+            return null;
+        }
+        return saved.hashes.clone();
+    }
+
+    /**
+     * Applies a change that another program made to the file to the
+     * document, and makes the changed file the saved text. The change is
+     * applied only if the part of the saved text that it replaces, and the
+     * characters around it, have not been edited, so the edits of the
+     * document are kept as they are, wherever they are.
+     *
+     * @param from where the change starts in the saved text
+     * @param removed how many characters of the saved text it replaces
+     * @param inserted the text that replaces them
+     * @param hashes the hashes of the blocks of the changed file,
+     *               or <code>null</code> if they are not known
+     * @return where the change was applied in the document,
+     *         or -1 if it touches an edited range
+     * @throws BadLocationException if the change is not in the saved text
+     * @since 1.1
+     */
+    public int applyFileChange(int from, int removed, String inserted, long[] hashes)
+            throws BadLocationException {
+        int offset = toDocumentOffset(from, from + removed);
+        if (offset < 0) {
+            return -1;
+        }
+        Baseline old = saved;
+        boolean wasModified = modified;
+        // The change is not an edit of the document
+        enabled = false;
+        try {
+            document.remove(offset, removed);
+            document.insertString(offset, inserted, null);
+        } finally {
+            enabled = true;
+        }
+
+        if (!wasModified) {
+            saved = new Baseline(document.snapshot());
+        } else {
+            PieceTableContent text = new PieceTableContent(old.text);
+            text.remove(from, removed);
+            text.insertString(from, inserted);
+            saved = new Baseline(text.snapshot());
+            saved.ranges = old.rebased(from, removed, inserted.length(), saved);
+        }
+        if (hashes != null && hashes.length == saved.blocks) {
+            System.arraycopy(hashes, 0, saved.hashes, 0, hashes.length);
+            saved.hashed.set(0, saved.blocks);
+        }
+        check();
+        return offset;
+    }
+
+    /**
+     * Finds where a range of the saved text is in the document.
+     *
+     * @return the offset of the range in the document, or -1 if the range
+     *         or a character next to it is not in a saved block any more
+     */
+    private int toDocumentOffset(int from, int to) {
+        if (saved == null) {
+            return -1;
+        }
+        if (!modified) {
+            return from;
+        }
+        int low = Math.max(0, from - 1);
+        int high = Math.min(saved.text.length(), to + 1);
+        int start = 0;
+        int i = 0;
+        while (i < saved.ranges.size()) {
+            Range range = saved.ranges.get(i);
+            if (range.block >= 0 && range.block * BLOCK_SIZE <= low
+                    && low < range.block * BLOCK_SIZE + range.length) {
+                break;
+            }
+            start += range.length;
+            i++;
+        }
+        if (i == saved.ranges.size()) {
+            return -1;
+        }
+        int offset = start + from - saved.ranges.get(i).block * BLOCK_SIZE;
+        // The saved blocks up to the end of the range must follow each other
+        int block = saved.ranges.get(i).block;
+        while ((block + 1) * BLOCK_SIZE < high) {
+            i++;
+            if (i == saved.ranges.size() || saved.ranges.get(i).block != block + 1) {
+                return -1;
+            }
+            block++;
+        }
+        return offset;
+    }
+
+    /**
+     * Forgets the saved text, so the document stays modified
+     * until it is saved, whatever its text is.
+     *
+     * @since 1.1
+     */
+    public void markUnsaved() {
+        saved = null;
+        setModified(true);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (!enabled) {
+            return;
+        }
+        if (saved != null) {
+            saved.inserted(e.getOffset(), e.getLength());
+        }
+        if (saving != null) {
+            saving.inserted(e.getOffset(), e.getLength());
+        }
+        check();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (!enabled) {
+            return;
+        }
+        if (saved != null) {
+            saved.removed(e.getOffset(), e.getLength());
+        }
+        if (saving != null) {
+            saving.removed(e.getOffset(), e.getLength());
+        }
+        check();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Checks again whether the document differs from the saved text.
+     */
+    private void check() {
+        if (saved != null) {
+            setModified(!saved.matches());
+        }
+    }
+
+    private void setModified(boolean modified) {
+        if (this.modified != modified) {
+            this.modified = modified;
+            ChangeEvent event = new ChangeEvent(this);
+            for (ChangeListener listener : listeners.getListeners(ChangeListener.class)) {
+                listener.stateChanged(event);
+            }
+        }
+    }
+
+    /**
+     * Returns the hash of a range of characters.
+     */
+    static long hash(char[] chars, int offset, int count) {
+        // 64-bit FNV-1a over the characters
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + count; i++) {
+            hash = (hash ^ chars[i]) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * A range of the document: a block of the saved text
+     * that has not been edited, or an edited range.
+     */
+    private static final class Range {
+        final int block; // -1 if edited
+        int length;
+
+        Range(int block, int length) {
+            this.block = block;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A saved text, with the hashes of its blocks and the ranges
+     * that the document is made of, compared to it.
+     */
+    private final class Baseline {
+        final PieceTableContent.Snapshot text;
+        final int blocks;
+        final long[] hashes;
+        final BitSet hashed;
+        ArrayList<Range> ranges;
+
+        Baseline(PieceTableContent.Snapshot text) {
+            this.text = text;
+            this.blocks = (text.length() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            this.hashes = new long[blocks];
+            this.hashed = new BitSet(blocks);
+            resetRanges();
+        }
+
+        /**
+         * Makes every block of the saved text a range of its own,
+         * once the document is known to hold the saved text.
+         */
+        void resetRanges() {
+            ranges = new ArrayList<>(blocks);
+            for (int i = 0; i < blocks; i++) {
+                ranges.add(new Range(i, blockLength(i)));
+            }
+        }
+
+        int blockLength(int block) {
+            return Math.min(BLOCK_SIZE, text.length() - block * BLOCK_SIZE);
+        }
+
+        /**
+         * Follows an insertion: text inserted between two ranges goes to
+         * the edited range there, or to a new one, and text inserted
+         * inside a block makes it edited.
+         */
+        void inserted(int offset, int length) {
+            int start = 0;
+            int i = 0;
+            while (i < ranges.size() && start + ranges.get(i).length <= offset) {
+                start += ranges.get(i++).length;
+            }
+            if (start == offset) {
+                // Between ranges i - 1 and i
+                if (i > 0 && ranges.get(i - 1).block < 0) {
+                    ranges.get(i - 1).length += length;
+                } else if (i < ranges.size() && ranges.get(i).block < 0) {
+                    ranges.get(i).length += length;
+                } else {
+                    ranges.add(i, new Range(-1, length));
+                }
+            } else {
+                ranges.set(i, new Range(-1, ranges.get(i).length + length));
+                join(i);
+            }
+        }
+
+        /**
+         * Follows a removal: the ranges inside the removed text are
+         * dropped and the ones that it cuts become edited.
+         */
+        void removed(int offset, int length) {
+            int start = 0;
+            int i = 0;
+            while (start + ranges.get(i).length <= offset) {
+                start += ranges.get(i++).length;
+            }
+            int end = offset + length;
+            int first = i;
+            while (length > 0) {
+                Range range = ranges.get(i);
+                int rangeEnd = start + range.length;
+                int count = Math.min(end, rangeEnd) - Math.max(offset, start);
+                if (count == range.length) {
+                    ranges.remove(i);
+                } else {
+                    ranges.set(i, new Range(-1, range.length - count));
+                    i++;
+                }
+                length -= count;
+                start = rangeEnd;
+            }
+            if (first < ranges.size()) {
+                join(first);
+            }
+            if (first > 0) {
+                join(first - 1);
+            }
+        }
+
+        /**
+         * Joins an edited range with the edited ranges next to it.
+         */
+        private void join(int i) {
+            Range range = ranges.get(i);
+            if (range.block >= 0) {
+                return;
+            }
+            if (i + 1 < ranges.size() && ranges.get(i + 1).block < 0) {
+                range.length += ranges.remove(i + 1).length;
+            }
+            if (i > 0 && ranges.get(i - 1).block < 0) {
+                ranges.get(i - 1).length += ranges.remove(i).length;
+            }
+        }
+
+        /**
+         * Returns the ranges of the document compared to the text of another
+         * baseline, which is this text with a range replaced, inside saved
+         * blocks that follow each other in the document. The saved blocks
+         * that follow each other are joined in runs of the saved text, the
+         * run with the replaced range grows or shrinks and the runs after it
+         * are moved, and then the runs are cut again in the blocks of the
+         * other text. The parts of a run that do not make up a whole
+         * block become edited, like the edited ranges.
+         *
+         * @param from where the replaced range starts in this text
+         * @param removed how many characters were replaced
+         * @param inserted how many characters replaced them
+         * @param other the baseline of the changed text
+         */
+        ArrayList<Range> rebased(int from, int removed, int inserted, Baseline other) {
+            int delta = inserted - removed;
+            ArrayList<Range> result = new ArrayList<>();
+            int i = 0;
+            while (i < ranges.size()) {
+                Range range = ranges.get(i++);
+                if (range.block < 0) {
+                    add(result, -1, range.length);
+                    continue;
+                }
+                int start = range.block * BLOCK_SIZE;
+                int length = range.length;
+                while (i < ranges.size() && ranges.get(i).block * BLOCK_SIZE == start + length) {
+                    length += ranges.get(i++).length;
+                }
+                if (start >= from + removed && (start > from || removed > 0)) {
+                    start += delta;
+                } else if (start + length >= from + removed && start <= from) {
+                    length += delta;
+                }
+                // The run in the blocks of the other text
+                int end = start + length;
+                int block = (start + BLOCK_SIZE - 1) / BLOCK_SIZE;
+                add(result, -1, Math.min(end, block * BLOCK_SIZE) - start);
+                int position = Math.min(end, block * BLOCK_SIZE);
+                while (block < other.blocks && position + other.blockLength(block) <= end) {
+                    add(result, block, other.blockLength(block));
+                    position += other.blockLength(block++);
+                }
+                add(result, -1, end - position);
+            }
+            return result;
+        }
+
+        /**
+         * Adds a range, joining an edited range with the edited one before it.
+         */
+        private void add(ArrayList<Range> result, int block, int length) {
+            if (length == 0) {
+                return;
+            }
+            if (block < 0 && !result.isEmpty() && result.get(result.size() - 1).block < 0) {
+                result.get(result.size() - 1).length += length;
+            } else {
+                result.add(new Range(block, length));
+            }
+        }
+
+        /**
+         * Checks whether the document holds this text, comparing
+         * the hashes of the blocks that are not in place.
+         */
+        boolean matches() {
+            if (document.getLength() != text.length()) {
+                return false;
+            }
+            // The blocks that are still at their saved offset
+            BitSet inPlace = new BitSet(blocks);
+            int start = 0;
+            for (Range range : ranges) {
+                if (range.block >= 0 && start == range.block * BLOCK_SIZE) {
+                    inPlace.set(range.block);
+                }
+                start += range.length;
+            }
+            if (blocks - inPlace.cardinality() > MAX_COMPARED_BLOCKS) {
+                return false;
+            }
+            for (int block = inPlace.nextClearBit(0); block < blocks; block = inPlace.nextClearBit(block + 1)) {
+                if (savedHash(block) != currentHash(block)) {
+                    return false;
+                }
+            }
+            if (inPlace.cardinality() != ranges.size()) {
+                resetRanges();
+            }
+            return true;
+        }
+
+        private long savedHash(int block) {
+            if (!hashed.get(block)) {
+                char[] chars = new char[blockLength(block)];
+                text.getChars(block * BLOCK_SIZE, block * BLOCK_SIZE + chars.length, chars, 0);
+                hashes[block] = hash(chars, 0, chars.length);
+                hashed.set(block);
+            }
+            return hashes[block];
+        }
+
+        private long currentHash(int block) {
+            try {
+                document.getText(block * BLOCK_SIZE, blockLength(block), segment);
+            } catch (BadLocationException e) {
+                // Should never happen, the document has the same length
+                throw new IllegalStateException(e);
+            }
+            return hash(segment.array, segment.offset, segment.count);
+        }
+    }
+}
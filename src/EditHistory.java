@@ -0,0 +1,541 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The undo and redo history of a document.
+ * <p>
+ * Every edit of the document is kept as the edit that the document
+ * itself made, which undoes and redoes it by putting back the pieces of
+ * the text, as described in {@link PieceTableContent}. So removed text
+ * is never copied: clearing or replacing all of a huge document keeps
+ * only references to the ranges of the buffers it took out, and is
+ * undone just as cheaply. Next to it the history keeps what the edit
+ * changed, as references to the same ranges, which is all it needs to
+ * write the edit out.
+ * <p>
+ * Consecutive typed characters become a single edit, until a line break
+ * is typed or the typing pauses for a while, and so do consecutive
+ * characters deleted with the Backspace or the Delete key.
+ * <p>
+ * The memory that the history holds is estimated for every edit. When it
+ * goes over the budget, the oldest edits are written to a temporary file,
+ * keeping only the text they changed, and are dropped from memory. When
+ * they are undone they are read back and applied to the document as text.
+ * An edit that changed too much text to be written out quickly is dropped
+ * along with the edits before it instead, which only happens after a
+ * great many edits, since such an edit takes little memory itself.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class EditHistory implements DocumentListener, UndoableEditListener {
+
+    // Typing that pauses for longer than this starts a new edit
+    static final long COALESCE_INTERVAL = 1000;
+    // Edits that changed more characters than this are not written out
+    private static final int MAX_SPILLED_TEXT = 16 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 32 * 1024;
+    // Rough size of the objects that every edit of the document holds
+    private static final int EDIT_OVERHEAD = 200;
+
+    private final PieceTableDocument document;
+    private final long budget;
+
+    private final ArrayDeque<Entry> undoEntries;
+    private final ArrayDeque<Entry> redoEntries;
+    private long memory;
+
+    // The edits that have been written out, the most recent at the end
+    private File spillFile;
+    private RandomAccessFile spill;
+    private long spillEnd;
+    private int spilledCount;
+
+    private List<Change> pendingChanges;
+    private int lineCount;
+    private boolean enabled;
+    private boolean applying;
+
+    /**
+     * Constructor.
+     * Starts recording the edits of the document.
+     *
+     * @param document the document
+     * @param budget how many bytes of memory the history may hold
+     * @since 1.1
+     */
+    public EditHistory(PieceTableDocument document, long budget) {
+        this.document = document;
+        this.budget = budget;
+        this.undoEntries = new ArrayDeque<>();
+        this.redoEntries = new ArrayDeque<>();
+        this.pendingChanges = new ArrayList<>();
+        this.lineCount = document.getDefaultRootElement().getElementCount();
+        this.enabled = true;
+        document.addDocumentListener(this);
+        document.addUndoableEditListener(this);
+    }
+
+    /**
+     * Stops recording the edits of the document and forgets the history.
+     *
+     * @since 1.1
+     */
+    public void dispose() {
+        document.removeDocumentListener(this);
+        document.removeUndoableEditListener(this);
+        discardAllEdits();
+    }
+
+    /**
+     * Sets whether the edits of the document are recorded. The history
+     * is forgotten either way, as the edits that are not recorded make
+     * the recorded ones useless.
+     *
+     * @param enabled <code>true</code> to record the edits
+     * @since 1.1
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        discardAllEdits();
+    }
+
+    /**
+     * Forgets every edit and deletes the temporary file of the history.
+     *
+     * @since 1.1
+     */
+    public void discardAllEdits() {
+        undoEntries.clear();
+        redoEntries.clear();
+        memory = 0;
+        closeSpill();
+    }
+
+    /**
+     * Returns whether there is an edit to undo.
+     *
+     * @return <code>true</code> if <code>undo</code> can be called
+     * @since 1.1
+     */
+    public boolean canUndo() {
+        return !undoEntries.isEmpty() || spilledCount > 0;
+    }
+
+    /**
+     * Returns whether there is an undone edit to redo.
+     *
+     * @return <code>true</code> if <code>redo</code> can be called
+     * @since 1.1
+     */
+    public boolean canRedo() {
+        return !redoEntries.isEmpty();
+    }
+
+    /**
+     * Undoes the last edit.
+     * In case the edit cannot be undone, the history is forgotten.
+     *
+     * @return the offset where the text changed
+     * @throws CannotUndoException if there is nothing to undo,
+     *         or the edit cannot be undone
+     * @since 1.1
+     */
+    public int undo() throws CannotUndoException {
+        Entry entry = undoEntries.pollLast();
+        try {
+            if (entry == null) {
+                entry = readSpilled();
+            }
+            apply(entry, true);
+        } catch (IOException | BadLocationException | CannotUndoException e) {
+            discardAllEdits();
+            CannotUndoException cannotUndo = new CannotUndoException();
+            cannotUndo.initCause(e);
+            throw cannotUndo;
+        }
+        redoEntries.addLast(entry);
+        return entry.changes.get(0).offset;
+    }
+
+    /**
+     * Redoes the last undone edit.
+     * In case the edit cannot be redone, the history is forgotten.
+     *
+     * @return the offset where the text changed
+     * @throws CannotRedoException if there is nothing to redo,
+     *         or the edit cannot be redone
+     * @since 1.1
+     */
+    public int redo() throws CannotRedoException {
+        Entry entry = redoEntries.pollLast();
+        if (entry == null) {
+            throw new CannotRedoException();
+        }
+        try {
+            apply(entry, false);
+        } catch (BadLocationException | CannotRedoException e) {
+            discardAllEdits();
+            CannotRedoException cannotRedo = new CannotRedoException();
+            cannotRedo.initCause(e);
+            throw cannotRedo;
+        }
+        undoEntries.addLast(entry);
+        return entry.changes.get(0).offset;
+    }
+
+    /**
+     * Undoes or redoes an edit, either with the edits of the
+     * document or, if it has been written out, as text.
+     */
+    private void apply(Entry entry, boolean undo) throws BadLocationException {
+        applying = true;
+        try {
+            if (entry.edits != null) {
+                if (undo) {
+                    for (int i = entry.edits.size() - 1; i >= 0; i--) {
+                        entry.edits.get(i).undo();
+                    }
+                } else {
+                    for (UndoableEdit edit : entry.edits) {
+                        edit.redo();
+                    }
+                }
+            } else if (undo) {
+                for (int i = entry.changes.size() - 1; i >= 0; i--) {
+                    Change change = entry.changes.get(i);
+                    document.replace(change.offset, change.inserted.length(), change.removed.toString(), null);
+                }
+            } else {
+                for (Change change : entry.changes) {
+                    document.replace(change.offset, change.removed.length(), change.inserted.toString(), null);
+                }
+            }
+        } finally {
+            applying = false;
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int lines = document.getDefaultRootElement().getElementCount();
+        if (enabled && !applying) {
+            CharSequence inserted = document.getInsertedText(e);
+            if (inserted.length() == 1) {
+                // Typed characters are joined as text
+                inserted = String.valueOf(inserted.charAt(0));
+            }
+            pendingChanges.add(new Change(e.getOffset(), "", inserted, lines - lineCount));
+        }
+        lineCount = lines;
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        int lines = document.getDefaultRootElement().getElementCount();
+        if (enabled && !applying) {
+            CharSequence removed = document.getRemovedText(e);
+            if (removed == null) {
+                // The edit cannot be written out, so it cannot be kept
+                discardAllEdits();
+                pendingChanges.clear();
+            } else {
+                pendingChanges.add(new Change(e.getOffset(), removed, "", lineCount - lines));
+            }
+        }
+        lineCount = lines;
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Records an edit of the document, with the changes of the text that
+     * were reported just before it, joining it to the previous edit if
+     * both are typing or deleting.
+     *
+     * @param e the event of the edit
+     * @since 1.1
+     */
+    @Override
+    public void undoableEditHappened(UndoableEditEvent e) {
+        List<Change> changes = pendingChanges;
+        pendingChanges = new ArrayList<>();
+        if (!enabled || applying || changes.isEmpty()) {
+            return;
+        }
+        redoEntries.clear();
+        long now = System.currentTimeMillis();
+        Entry last = undoEntries.peekLast();
+        if (last != null && last.joins(changes, now)) {
+            memory -= last.memory;
+            last.join(e.getEdit(), changes.get(0), now);
+        } else {
+            last = new Entry(e.getEdit(), changes, now);
+            undoEntries.addLast(last);
+        }
+        memory += last.memory;
+        if (memory > budget) {
+            spillOldest();
+        }
+    }
+
+    /**
+     * Writes the oldest edits out until the history
+     * holds at most half of its budget.
+     */
+    private void spillOldest() {
+        while (memory > budget / 2 && undoEntries.size() > 1) {
+            Entry entry = undoEntries.pollFirst();
+            memory -= entry.memory;
+            try {
+                if (entry.textLength() > MAX_SPILLED_TEXT) {
+                    throw new IOException("Edit is too large to be written out");
+                }
+                writeSpilled(entry);
+            } catch (IOException e) {
+                // The edits before the oldest one in memory are of no use any more
+                closeSpill();
+            }
+        }
+    }
+
+    private void writeSpilled(Entry entry) throws IOException {
+        if (spill == null) {
+            spillFile = File.createTempFile("oldschool-history", ".tmp");
+            spillFile.deleteOnExit();
+            spill = new RandomAccessFile(spillFile, "rw");
+        }
+        FileChannel channel = spill.getChannel();
+        channel.position(spillEnd);
+        ByteBuffer header = ByteBuffer.allocate(4);
+        header.putInt(entry.changes.size()).flip();
+        write(channel, header);
+        for (Change change : entry.changes) {
+            ByteBuffer numbers = ByteBuffer.allocate(4);
+            numbers.putInt(change.offset).flip();
+            write(channel, numbers);
+            writeText(channel, change.removed);
+            writeText(channel, change.inserted);
+        }
+        // The length at the end of the record, so the
+        // records can be read back from the end
+        ByteBuffer length = ByteBuffer.allocate(8);
+        length.putLong(channel.position() - spillEnd).flip();
+        write(channel, length);
+        spillEnd = channel.position();
+        spilledCount++;
+    }
+
+    private static void writeText(FileChannel channel, CharSequence text) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        length.putInt(text.length()).flip();
+        write(channel, length);
+        ByteBuffer bytes = ByteBuffer.allocate(2 * Math.min(text.length(), CHUNK_SIZE));
+        CharBuffer chars = bytes.asCharBuffer();
+        for (int position = 0; position < text.length(); position += chars.position()) {
+            chars.clear();
+            chars.append(text, position, Math.min(text.length(), position + CHUNK_SIZE));
+            bytes.clear().limit(2 * chars.position());
+            write(channel, bytes);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads back the most recent edit that has been written out
+     * and removes it from the file.
+     */
+    private Entry readSpilled() throws IOException {
+        if (spilledCount == 0) {
+            throw new CannotUndoException();
+        }
+        FileChannel channel = spill.getChannel();
+        long length = read(channel, spillEnd - 8, 8).getLong();
+        long start = spillEnd - 8 - length;
+        long position = start;
+        int count = read(channel, position, 4).getInt();
+        position += 4;
+        List<Change> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int offset = read(channel, position, 4).getInt();
+            position += 4;
+            String removed = readText(channel, position);
+            position += 4 + 2L * removed.length();
+            String inserted = readText(channel, position);
+            position += 4 + 2L * inserted.length();
+            changes.add(new Change(offset, removed, inserted, 0));
+        }
+        spillEnd = start;
+        spilledCount--;
+        return new Entry(null, changes, 0);
+    }
+
+    private static String readText(FileChannel channel, long position) throws IOException {
+        int length = read(channel, position, 4).getInt();
+        return read(channel, position + 4, 2 * length).asCharBuffer().toString();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("History file is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void closeSpill() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // Deleted anyway
+            }
+            spillFile.delete();
+        }
+        spill = null;
+        spillFile = null;
+        spillEnd = 0;
+        spilledCount = 0;
+    }
+
+    /**
+     * A change of the text: at an offset, some text was
+     * removed and some other was inserted in its place.
+     */
+    private static final class Change {
+        final int offset;
+        final CharSequence removed;
+        final CharSequence inserted;
+        final int lines;
+
+        Change(int offset, CharSequence removed, CharSequence inserted, int lines) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.lines = lines;
+        }
+
+        /**
+         * Estimates the memory that the change holds. The text is
+         * shared with the document, unless it has been copied.
+         */
+        long memory() {
+            return 32 + memory(removed) + memory(inserted) + 4L * lines;
+        }
+
+        private static long memory(CharSequence text) {
+            if (text instanceof PieceTableContent.Snapshot) {
+                return 48 + 32L * ((PieceTableContent.Snapshot) text).getPieceCount();
+            }
+            return 40 + 2L * text.length();
+        }
+    }
+
+    /**
+     * An edit of the history: the edits of the document that make it up,
+     * or <code>null</code> if it has been read back as text, and the
+     * changes of the text that they made.
+     */
+    private static final class Entry {
+        final List<UndoableEdit> edits;
+        final List<Change> changes;
+        long memory;
+        long time;
+
+        Entry(UndoableEdit edit, List<Change> changes, long time) {
+            this.changes = changes;
+            this.time = time;
+            if (edit != null) {
+                edits = new ArrayList<>();
+                edits.add(edit);
+                memory = EDIT_OVERHEAD;
+            } else {
+                edits = null;
+            }
+            for (Change change : changes) {
+                memory += change.memory();
+            }
+        }
+
+        /**
+         * Checks if the given changes continue this edit: a single
+         * typed character right after the typed text, or a single
+         * character deleted right before or after the deleted text.
+         */
+        boolean joins(List<Change> next, long now) {
+            if (edits == null || changes.size() != 1 || next.size() != 1 || now - time > COALESCE_INTERVAL) {
+                return false;
+            }
+            Change change = changes.get(0);
+            Change added = next.get(0);
+            if (change.removed.length() == 0 && added.removed.length() == 0) {
+                return added.inserted.length() == 1 && added.inserted.charAt(0) != '\n'
+                        && change.inserted.charAt(change.inserted.length() - 1) != '\n'
+                        && added.offset == change.offset + change.inserted.length();
+            }
+            if (change.inserted.length() == 0 && added.inserted.length() == 0) {
+                return added.removed.length() == 1 && change.removed.length() < CHUNK_SIZE
+                        && (added.offset == change.offset || added.offset == change.offset - 1);
+            }
+            return false;
+        }
+
+        /**
+         * Adds an edit that continues this one.
+         */
+        void join(UndoableEdit edit, Change next, long now) {
+            Change change = changes.get(0);
+            Change joined;
+            if (next.removed.length() == 0) {
+                joined = new Change(change.offset, "", change.inserted.toString() + next.inserted, change.lines);
+            } else if (next.offset == change.offset) {
+                // Delete key, the text goes on after the removed one
+                joined = new Change(change.offset, change.removed.toString() + next.removed, "", change.lines + next.lines);
+            } else {
+                // Backspace, the text goes on before the removed one
+                joined = new Change(next.offset, next.removed.toString() + change.removed, "", change.lines + next.lines);
+            }
+            memory += joined.memory() - change.memory() + EDIT_OVERHEAD;
+            changes.set(0, joined);
+            edits.add(edit);
+            time = now;
+        }
+
+        /**
+         * Returns the number of characters that the edit changed.
+         */
+        long textLength() {
+            long length = 0;
+            for (Change change : changes) {
+                length += change.removed.length() + change.inserted.length();
+            }
+            return length;
+        }
+    }
+}
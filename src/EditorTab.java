@@ -0,0 +1,403 @@
+import javax.swing.BorderFactory;
+import javax.swing.JScrollPane;
+import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.border.EtchedBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.EventListenerList;
+import java.awt.Point;
+import java.io.File;
+
+/**
+ * <p>
+ * One of the documents that are open in the tabs of the editor.
+ * Keeps everything that belongs to a single document: its file, the
+ * text area that shows it, the {@link DirtyTracker} that knows whether
+ * it has unsaved changes, its recovery journal, its {@link EditHistory},
+ * the file operation that is running for it, if any, and the
+ * {@link FileFollower} of its file, if it is being followed.
+ * The text is highlighted by the {@link Lexer} of the kind of its file.
+ * <p>
+ * The edits are only recorded while the text area can be edited, so
+ * the loading of a file or the text that a follower appends cannot be
+ * undone and does not make the document modified, and the history is
+ * forgotten when a new document is shown.
+ * <p>
+ * A tab whose document has been saved to its file can be evicted by the
+ * {@link BufferCache}: the document is dropped, leaving an empty one in
+ * the text area, and only the caret and the scrolled position are kept.
+ * The document is loaded again from the file when the tab is selected.
+ * <p>
+ * A binary file is shown by a {@link HexView} instead of the text area,
+ * with an empty document, which is never saved or evicted.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class EditorTab {
+
+    // How much memory the undo history of a document may hold
+    static final long HISTORY_BUDGET = 16 * 1024 * 1024;
+
+    private File file;
+    private final LineTextArea textArea;
+    private final JScrollPane scrollPane;
+    private DirtyTracker tracker;
+    private final EventListenerList listeners;
+    private RecoveryJournal journal;
+    private EditHistory history;
+    private SwingWorker<?, ?> worker;
+    private FileFollower follower;
+    private HexView hexView;
+
+    private boolean evicted;
+    private int evictedCaret;
+    private Point evictedView;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file of the document, or <code>null</code> if it has none yet
+     * @param document the document of the tab
+     * @since 1.1
+     */
+    public EditorTab(File file, PieceTableDocument document) {
+        this.file = file;
+
+        // The text is kept in a piece table instead of the default
+        // PlainDocument, so big files are not copied around on every edit,
+        // and only the visible lines are laid out and painted
+        textArea = new LineTextArea(document);
+        textArea.setBorder(BorderFactory.createEtchedBorder(EtchedBorder.LOWERED));
+        textArea.setLexer(Lexer.forFile(file));
+
+        // We ensure that user can navigate to the entire length
+        // of the content
+        scrollPane = new JScrollPane(textArea);
+        scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
+        scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+
+        listeners = new EventListenerList();
+        history = new EditHistory(document, HISTORY_BUDGET);
+        tracker = new DirtyTracker(document);
+        tracker.addChangeListener(this::fireStateChanged);
+        textArea.addPropertyChangeListener("document", event -> {
+            history.dispose();
+            history = new EditHistory(getDocument(), HISTORY_BUDGET);
+            history.setEnabled(textArea.isEditable());
+            tracker.dispose();
+            boolean modified = tracker.isModified();
+            tracker = new DirtyTracker(getDocument());
+            tracker.setEnabled(textArea.isEditable());
+            tracker.addChangeListener(this::fireStateChanged);
+            if (modified) {
+                fireStateChanged(new ChangeEvent(tracker));
+            }
+        });
+        textArea.addPropertyChangeListener("editable", event -> {
+            history.setEnabled(textArea.isEditable());
+            tracker.setEnabled(textArea.isEditable());
+        });
+    }
+
+    /**
+     * Returns the file of the document.
+     *
+     * @return the file, or <code>null</code> if the document has never been saved
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the file of the document.
+     *
+     * @param file the file
+     * @since 1.1
+     */
+    public void setFile(File file) {
+        this.file = file;
+        // The document is only split again if the kind of the file has changed
+        Lexer lexer = Lexer.forFile(file);
+        Class<?> kind = (lexer != null) ? lexer.getClass() : null;
+        Class<?> current = (textArea.getLexer() != null) ? textArea.getLexer().getClass() : null;
+        if (kind != current) {
+            textArea.setLexer(lexer);
+        }
+    }
+
+    /**
+     * Returns the name that is shown on the tab.
+     *
+     * @return the name of the file, followed by an asterisk if there is unsaved work
+     * @since 1.1
+     */
+    public String getTitle() {
+        String title = (file != null) ? file.getName() : "Untitled";
+        return isModified() ? title + '*' : title;
+    }
+
+    /**
+     * Returns the text area that shows the document.
+     *
+     * @return the text area
+     * @since 1.1
+     */
+    public LineTextArea getTextArea() {
+        return textArea;
+    }
+
+    /**
+     * Returns the component that is added to the tabs,
+     * which is the text area inside its scroll pane.
+     *
+     * @return the component of the tab
+     * @since 1.1
+     */
+    public JScrollPane getComponent() {
+        return scrollPane;
+    }
+
+    /**
+     * Returns the document of the tab.
+     *
+     * @return the document
+     * @since 1.1
+     */
+    public PieceTableDocument getDocument() {
+        return (PieceTableDocument) textArea.getDocument();
+    }
+
+    /**
+     * Replaces the document of the tab.
+     *
+     * @param document the new document
+     * @since 1.1
+     */
+    public void setDocument(PieceTableDocument document) {
+        textArea.setDocument(document);
+    }
+
+    /**
+     * Returns the undo and redo history of the document.
+     *
+     * @return the history
+     * @since 1.1
+     */
+    public EditHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Returns whether the document has unsaved changes.
+     *
+     * @return <code>true</code> if the document differs from its file
+     * @since 1.1
+     */
+    public boolean isModified() {
+        return tracker.isModified();
+    }
+
+    /**
+     * Returns the tracker that knows whether the document has unsaved changes.
+     *
+     * @return the tracker
+     * @since 1.1
+     */
+    public DirtyTracker getDirtyTracker() {
+        return tracker;
+    }
+
+    /**
+     * Adds a listener that is notified every time
+     * the document becomes modified or unmodified.
+     *
+     * @param listener the listener
+     * @since 1.1
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(ChangeListener.class, listener);
+    }
+
+    private void fireStateChanged(ChangeEvent event) {
+        for (ChangeListener listener : listeners.getListeners(ChangeListener.class)) {
+            listener.stateChanged(event);
+        }
+    }
+
+    /**
+     * Returns whether the document has no text.
+     *
+     * @return <code>true</code> if the document is empty
+     * @since 1.1
+     */
+    public boolean isEmpty() {
+        return textArea.getDocument().getLength() == 0;
+    }
+
+    /**
+     * Starts a new recovery journal for the document
+     * and deletes the journal of the previous one.
+     *
+     * @param fromFile <code>true</code> if the document has just been loaded
+     *                 from its file, which can then be the base of the journal
+     * @since 1.1
+     */
+    public void startJournal(boolean fromFile) {
+        // The bytes of a hex view cannot be edited
+        setJournal((hexView == null) ? new RecoveryJournal(textArea.getDocument(), file, fromFile) : null);
+    }
+
+    /**
+     * Replaces the recovery journal of the document
+     * and deletes the journal of the previous one.
+     *
+     * @param journal the new journal, may be <code>null</code>
+     * @since 1.1
+     */
+    public void setJournal(RecoveryJournal journal) {
+        if (this.journal != null) {
+            this.journal.discard();
+        }
+        this.journal = journal;
+    }
+
+    /**
+     * Returns the file operation that is running for the tab.
+     *
+     * @return the operation, or <code>null</code> if there is none
+     * @since 1.1
+     */
+    public SwingWorker<?, ?> getWorker() {
+        return worker;
+    }
+
+    /**
+     * Sets the file operation that is running for the tab.
+     *
+     * @param worker the operation, or <code>null</code> when it has finished
+     * @since 1.1
+     */
+    public void setWorker(SwingWorker<?, ?> worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * Returns the follower of the file of the tab.
+     *
+     * @return the follower, or <code>null</code> if the file is not followed
+     * @since 1.1
+     */
+    public FileFollower getFollower() {
+        return follower;
+    }
+
+    /**
+     * Sets the follower of the file of the tab.
+     *
+     * @param follower the follower, or <code>null</code> when it has stopped
+     * @since 1.1
+     */
+    public void setFollower(FileFollower follower) {
+        this.follower = follower;
+    }
+
+    /**
+     * Returns the view that shows the bytes of the file.
+     *
+     * @return the view, or <code>null</code> if the tab shows the document
+     * @since 1.1
+     */
+    public HexView getHexView() {
+        return hexView;
+    }
+
+    /**
+     * Shows the bytes of the file instead of the document, which is
+     * emptied, or the document again, closing the previous view.
+     *
+     * @param hexView the view, or <code>null</code> to show the document
+     * @since 1.1
+     */
+    public void setHexView(HexView hexView) {
+        if (this.hexView != null) {
+            this.hexView.close();
+        }
+        this.hexView = hexView;
+        if (hexView != null) {
+            // There is no text to recover
+            setJournal(null);
+            setDocument(new PieceTableDocument());
+            scrollPane.setViewportView(hexView);
+        } else {
+            scrollPane.setViewportView(textArea);
+        }
+    }
+
+    /**
+     * Estimates how much memory the document of the tab holds.
+     *
+     * @return the estimated size in bytes
+     * @since 1.1
+     */
+    public long getMemoryFootprint() {
+        return getDocument().getMemoryFootprint();
+    }
+
+    /**
+     * Returns whether the document can be dropped and loaded again later.
+     * Only a document without unsaved work, that is not being loaded,
+     * saved or followed and whose file still exists, can be loaded again.
+     * The bytes of a binary file take no memory, so they are never evicted.
+     *
+     * @return <code>true</code> if the tab can be evicted
+     * @since 1.1
+     */
+    public boolean isEvictable() {
+        return !evicted && !isModified() && worker == null && follower == null && hexView == null
+                && file != null && file.isFile();
+    }
+
+    /**
+     * Returns whether the document has been dropped
+     * and must be loaded again before it is shown.
+     *
+     * @return <code>true</code> if the tab has been evicted
+     * @since 1.1
+     */
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Drops the document, keeping only the caret and the scrolled position.
+     * It has no unsaved work, so its recovery journal is deleted as well.
+     *
+     * @since 1.1
+     */
+    public void evict() {
+        evictedCaret = textArea.getCaretPosition();
+        evictedView = scrollPane.getViewport().getViewPosition();
+        setJournal(null);
+        setDocument(new PieceTableDocument());
+        evicted = true;
+    }
+
+    /**
+     * Shows the document that has been loaded again after the tab was
+     * evicted at the same caret and scrolled position as before.
+     *
+     * @since 1.1
+     */
+    public void restore() {
+        evicted = false;
+        textArea.setCaretPosition(Math.min(evictedCaret, getDocument().getLength()));
+        Point view = evictedView;
+        // The view can only be scrolled after the new
+        // document has been laid out
+        SwingUtilities.invokeLater(() -> scrollPane.getViewport().setViewPosition(view));
+    }
+}
@@ -0,0 +1,592 @@
+import javax.swing.Icon;
+import javax.swing.JFileChooser;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.filechooser.FileSystemView;
+import java.awt.Component;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * The file chooser of the editor, which is created once and shared by
+ * the "New", "Open" and "Save" operations, so it also remembers the
+ * folder the user was last in.
+ * <p>
+ * A <code>JFileChooser</code> lists its folder again every time it is
+ * created or shown, and checks every file with the disk, which takes
+ * seconds in a folder of many thousand files. This chooser gets its
+ * files from a cache of the folders it has shown instead:
+ * <ul>
+ *     <li>A folder is listed in a background thread, reading the
+ *     attributes of every file once, and the chooser shows the files
+ *     that have been listed so far, adding the rest as they come, so
+ *     even a huge folder never keeps the dialog waiting.</li>
+ *     <li>The files of the cache remember their attributes, so the
+ *     chooser sorts and filters them without asking the disk.</li>
+ *     <li>Every cached folder is watched with a <code>WatchService</code>,
+ *     and its files are added, removed or read again as they change,
+ *     so the cache is never out of date and a folder is never listed
+ *     twice. If too many changes happen at once, the folder is dropped
+ *     from the cache and listed again the next time it is shown.</li>
+ * </ul>
+ * The chooser is created, and its folder is listed, right after the
+ * frame is shown, so the first dialog opens as fast as the next ones.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileChooserService {
+
+    // How many folders are kept in the cache
+    static final int MAX_CACHED_FOLDERS = 32;
+    // How often the chooser shows the files that were listed or changed meanwhile
+    private static final int REFRESH_INTERVAL = 300;
+
+    private final CachingFileSystemView view;
+    private final Map<Path, Listing> listings;
+    private final ExecutorService lister;
+    private WatchService watcher;
+    private JFileChooser chooser;
+    private final Timer refresh;
+
+    /**
+     * Constructor.
+     * Nothing is created or listed until the chooser is first needed.
+     *
+     * @since 1.1
+     */
+    public FileChooserService() {
+        view = new CachingFileSystemView(FileSystemView.getFileSystemView());
+        listings = new LinkedHashMap<Path, Listing>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Listing> eldest) {
+                if (size() > MAX_CACHED_FOLDERS) {
+                    eldest.getValue().dispose();
+                    return true;
+                }
+                return false;
+            }
+        };
+        lister = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Folder lister");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresh = new Timer(REFRESH_INTERVAL, event -> rescan());
+        refresh.setRepeats(false);
+    }
+
+    /**
+     * Creates the chooser and starts listing its folder in the background,
+     * to be called once the editor has been shown.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @since 1.1
+     */
+    public void prewarm() {
+        getChooser();
+    }
+
+    /**
+     * Shows the chooser to select a file to open.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param parent the component the dialog belongs to, may be <code>null</code>
+     * @return the selected file, or <code>null</code> if the user canceled
+     * @since 1.1
+     */
+    public File showOpenDialog(Component parent) {
+        JFileChooser chooser = getChooser();
+        chooser.setSelectedFile(null);
+        return selected(chooser.showOpenDialog(parent));
+    }
+
+    /**
+     * Shows the chooser to select a file to save to.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param parent the component the dialog belongs to, may be <code>null</code>
+     * @return the selected file, or <code>null</code> if the user canceled
+     * @since 1.1
+     */
+    public File showSaveDialog(Component parent) {
+        JFileChooser chooser = getChooser();
+        chooser.setSelectedFile(null);
+        return selected(chooser.showSaveDialog(parent));
+    }
+
+    /**
+     * Shows the chooser to select a folder.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param parent the component the dialog belongs to, may be <code>null</code>
+     * @param folder the folder to start from, may be <code>null</code>
+     * @return the selected folder, or <code>null</code> if the user canceled
+     * @since 1.1
+     */
+    public File showFolderDialog(Component parent, File folder) {
+        JFileChooser chooser = getChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        try {
+            if (folder != null && folder.isDirectory()) {
+                chooser.setCurrentDirectory(folder);
+            }
+            chooser.setSelectedFile(null);
+            return selected(chooser.showDialog(parent, "Select"));
+        } finally {
+            chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        }
+    }
+
+    private File selected(int result) {
+        if (result != JFileChooser.APPROVE_OPTION || chooser.getSelectedFile() == null) {
+            return null;
+        }
+        // The cached attributes of the file are of no use to the caller
+        return new File(chooser.getSelectedFile().getPath());
+    }
+
+    private JFileChooser getChooser() {
+        if (chooser == null) {
+            chooser = new JFileChooser(view);
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("JSON file", "json"));
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("Log file", "log"));
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("Properties file", "properties"));
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter("Gzip compressed file", "gz"));
+            chooser.setFileFilter(new FileNameExtensionFilter("Normal text file", "txt"));
+        }
+        return chooser;
+    }
+
+    /**
+     * Shows the files of the current folder of the chooser again, if it
+     * is open, after the files that were listed or changed meanwhile.
+     */
+    private void rescan() {
+        if (chooser != null && chooser.isShowing()) {
+            chooser.rescanCurrentDirectory();
+        }
+    }
+
+    /**
+     * Asks for the chooser to show the files of a folder again, at most
+     * every <code>REFRESH_INTERVAL</code> milliseconds, so a folder that is
+     * being listed or keeps changing does not keep it sorting its files.
+     * May be called from any thread.
+     */
+    private void refreshLater(Path folder) {
+        SwingUtilities.invokeLater(() -> {
+            if (chooser != null && chooser.isShowing() && !refresh.isRunning()
+                    && folder.equals(keyOf(chooser.getCurrentDirectory()))) {
+                refresh.start();
+            }
+        });
+    }
+
+    private static Path keyOf(File folder) {
+        return (folder == null) ? null : folder.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns the cached files of a folder, starting to list it if it
+     * is not in the cache. Called by the chooser in its own thread.
+     */
+    private File[] getFiles(File folder, boolean useFileHiding) {
+        Path key = keyOf(folder);
+        Listing listing;
+        synchronized (listings) {
+            listing = listings.get(key);
+            if (listing == null) {
+                listing = new Listing(key);
+                listings.put(key, listing);
+                Listing started = listing;
+                lister.execute(started::list);
+            }
+        }
+        // A small folder is shown at once, a large one
+        // shows what has been listed meanwhile
+        listing.awaitListed(REFRESH_INTERVAL);
+        return listing.getFiles(useFileHiding);
+    }
+
+    /**
+     * Starts watching a folder for changes, starting the
+     * thread that handles the changes the first time.
+     */
+    private WatchKey watch(Path folder) throws IOException {
+        synchronized (listings) {
+            if (watcher == null) {
+                watcher = FileSystems.getDefault().newWatchService();
+                Thread thread = new Thread(this::watchChanges, "Folder watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Applies the changes of the watched folders to their listings.
+     */
+    private void watchChanges() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path folder = (Path) key.watchable();
+            Listing listing;
+            synchronized (listings) {
+                listing = listings.get(folder);
+            }
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                } else if (listing != null) {
+                    Path file = folder.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        listing.remove(file);
+                    } else {
+                        listing.add(file);
+                    }
+                }
+            }
+            if ((overflow || !key.reset()) && listing != null) {
+                // Listed again the next time it is shown
+                synchronized (listings) {
+                    listings.remove(folder, listing);
+                }
+                listing.dispose();
+            }
+            refreshLater(folder);
+        }
+    }
+
+    /**
+     * The files of a folder, as far as it has been listed,
+     * which follow its changes once it is watched.
+     */
+    private final class Listing {
+        final Path folder;
+        private final Map<String, CachedFile> files;
+        private File[] array;
+        private WatchKey key;
+        private boolean listed;
+        private volatile boolean disposed;
+        private volatile boolean dos;
+
+        Listing(Path folder) {
+            this.folder = folder;
+            this.files = new LinkedHashMap<>();
+        }
+
+        /**
+         * Lists the folder, letting the chooser show the files
+         * that have been listed so far from time to time.
+         */
+        void list() {
+            try {
+                // Unix file systems may offer DOS attributes too, but hide by name
+                FileStore store = Files.getFileStore(folder);
+                dos = store.supportsFileAttributeView(DosFileAttributeView.class)
+                        && !store.supportsFileAttributeView(PosixFileAttributeView.class);
+            } catch (IOException e) {
+                dos = false;
+            }
+            try {
+                WatchKey watchKey = watch(folder);
+                synchronized (this) {
+                    if (disposed) {
+                        watchKey.cancel();
+                        return;
+                    }
+                    key = watchKey;
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                // Not watched, but still listed
+            }
+            long published = System.currentTimeMillis();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path file : stream) {
+                    if (disposed) {
+                        return;
+                    }
+                    add(file);
+                    if (System.currentTimeMillis() - published >= REFRESH_INTERVAL) {
+                        refreshLater(folder);
+                        published = System.currentTimeMillis();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // The files that could be listed are shown
+            } finally {
+                synchronized (this) {
+                    listed = true;
+                    notifyAll();
+                }
+            }
+            refreshLater(folder);
+        }
+
+        /**
+         * Adds a file, or reads its attributes again.
+         */
+        void add(Path file) {
+            CachedFile cached;
+            try {
+                BasicFileAttributes attributes = dos
+                        ? Files.readAttributes(file, DosFileAttributes.class)
+                        : Files.readAttributes(file, BasicFileAttributes.class);
+                boolean hidden = dos ? ((DosFileAttributes) attributes).isHidden()
+                        : file.getFileName().toString().startsWith(".");
+                cached = new CachedFile(file.toString(), attributes, hidden);
+            } catch (IOException e) {
+                // Deleted meanwhile, or a broken link
+                remove(file);
+                return;
+            }
+            synchronized (this) {
+                files.put(cached.getName(), cached);
+                array = null;
+            }
+        }
+
+        synchronized void awaitListed(long timeout) {
+            long end = System.currentTimeMillis() + timeout;
+            long left = timeout;
+            while (!listed && left > 0) {
+                try {
+                    wait(left);
+                } catch (InterruptedException e) {
+                    // The chooser has moved on to another folder
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                left = end - System.currentTimeMillis();
+            }
+        }
+
+        synchronized void remove(Path file) {
+            if (files.remove(file.getFileName().toString()) != null) {
+                array = null;
+            }
+        }
+
+        synchronized File[] getFiles(boolean useFileHiding) {
+            if (array == null) {
+                array = files.values().toArray(new File[0]);
+            }
+            if (!useFileHiding) {
+                return array.clone();
+            }
+            List<File> shown = new ArrayList<>(array.length);
+            for (File file : array) {
+                if (!file.isHidden()) {
+                    shown.add(file);
+                }
+            }
+            return shown.toArray(new File[0]);
+        }
+
+        synchronized void dispose() {
+            disposed = true;
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    /**
+     * A file that remembers the attributes it had when it was listed,
+     * so the chooser can sort and filter it without the disk.
+     */
+    private static final class CachedFile extends File {
+        private final boolean directory;
+        private final boolean regularFile;
+        private final boolean hidden;
+        private final long length;
+        private final long lastModified;
+
+        CachedFile(String path, BasicFileAttributes attributes, boolean hidden) {
+            super(path);
+            this.directory = attributes.isDirectory();
+            this.regularFile = attributes.isRegularFile();
+            this.hidden = hidden;
+            this.length = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isFile() {
+            return regularFile;
+        }
+
+        @Override
+        public boolean isHidden() {
+            return hidden;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * The file system view of the platform, with the files of
+     * the folders coming from the cache.
+     */
+    private final class CachingFileSystemView extends FileSystemView {
+        private final FileSystemView platform;
+
+        CachingFileSystemView(FileSystemView platform) {
+            this.platform = platform;
+        }
+
+        @Override
+        public File[] getFiles(File dir, boolean useFileHiding) {
+            return FileChooserService.this.getFiles(dir, useFileHiding);
+        }
+
+        @Override
+        public Boolean isTraversable(File f) {
+            // A cached file already knows if it is a folder
+            return (f instanceof CachedFile) ? f.isDirectory() : platform.isTraversable(f);
+        }
+
+        @Override
+        public File createNewFolder(File containingDir) throws IOException {
+            return platform.createNewFolder(containingDir);
+        }
+
+        @Override
+        public boolean isRoot(File f) {
+            return platform.isRoot(f);
+        }
+
+        @Override
+        public String getSystemDisplayName(File f) {
+            return platform.getSystemDisplayName(f);
+        }
+
+        @Override
+        public String getSystemTypeDescription(File f) {
+            return platform.getSystemTypeDescription(f);
+        }
+
+        @Override
+        public Icon getSystemIcon(File f) {
+            return platform.getSystemIcon(f);
+        }
+
+        @Override
+        public boolean isParent(File folder, File file) {
+            return platform.isParent(folder, file);
+        }
+
+        @Override
+        public File getChild(File parent, String fileName) {
+            return platform.getChild(parent, fileName);
+        }
+
+        @Override
+        public boolean isFileSystem(File f) {
+            return platform.isFileSystem(f);
+        }
+
+        @Override
+        public boolean isHiddenFile(File f) {
+            return platform.isHiddenFile(f);
+        }
+
+        @Override
+        public boolean isFileSystemRoot(File dir) {
+            return platform.isFileSystemRoot(dir);
+        }
+
+        @Override
+        public boolean isDrive(File dir) {
+            return platform.isDrive(dir);
+        }
+
+        @Override
+        public boolean isFloppyDrive(File dir) {
+            return platform.isFloppyDrive(dir);
+        }
+
+        @Override
+        public boolean isComputerNode(File dir) {
+            return platform.isComputerNode(dir);
+        }
+
+        @Override
+        public File[] getRoots() {
+            return platform.getRoots();
+        }
+
+        @Override
+        public File getHomeDirectory() {
+            return platform.getHomeDirectory();
+        }
+
+        @Override
+        public File getDefaultDirectory() {
+            return platform.getDefaultDirectory();
+        }
+
+        @Override
+        public File createFileObject(File dir, String filename) {
+            return platform.createFileObject(dir, filename);
+        }
+
+        @Override
+        public File createFileObject(String path) {
+            return platform.createFileObject(path);
+        }
+
+        @Override
+        public File getParentDirectory(File dir) {
+            return platform.getParentDirectory(dir);
+        }
+    }
+}
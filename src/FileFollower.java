@@ -0,0 +1,239 @@
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Follows a file that keeps growing, like a log file that is still being
+ * written, and appends whatever is added to the file to its document,
+ * until the worker is cancelled.
+ * <p>
+ * The size of the file is polled, which is only a cheap system call, and
+ * only the bytes after the part that has already been read are read,
+ * through a <code>FileChannel</code> at the last known size. They are
+ * decoded in the format of the document, like {@link FileLoader} does,
+ * and handed over to the Event Dispatch Thread through a queue, which
+ * appends all the waiting text at once. While the Event Dispatch
+ * Thread is behind, the reading waits, so a file that grows faster than
+ * it can be shown does not fill the heap. If the file becomes smaller
+ * than the part that has been read, it has been truncated or replaced,
+ * so the document is emptied and the file is followed from its start.
+ * <p>
+ * The document can keep only its last lines. The lines before them are
+ * removed in batches and the buffers of the document are compacted from
+ * time to time, so a document that is followed for long stays the same
+ * size, no matter how much has been written to the file.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileFollower extends SwingWorker<Void, Void> {
+
+    // How often the size of the file is checked while it does not grow
+    static final long POLL_INTERVAL = 250;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    // The reading waits while this many characters are waiting to be appended
+    private static final int MAX_QUEUED = 4 * 1024 * 1024;
+    // Queued to empty the document when the file has been truncated
+    private static final String RESET = new String();
+
+    private final File file;
+    private final PieceTableDocument document;
+    private final FileFormat format;
+    private final int maxLines;
+    private long position;
+
+    private final ConcurrentLinkedQueue<String> chunks;
+    private final AtomicInteger queued;
+    private final AtomicBoolean flushPending;
+    private int removedSinceCompact;
+
+    /**
+     * Constructor.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param file the file to follow
+     * @param document the document of the file, which must hold the file
+     *                 as it was loaded by a {@link FileLoader} or saved
+     * @param maxLines how many lines the document keeps, or 0 to keep them all
+     * @since 1.1
+     */
+    public FileFollower(File file, PieceTableDocument document, int maxLines) {
+        this.file = file;
+        this.document = document;
+        this.format = FileFormat.of(document);
+        this.maxLines = maxLines;
+        Object size = document.getProperty(FileLoader.SIZE_PROPERTY);
+        this.position = (size instanceof Number) ? ((Number) size).longValue() : 0;
+        this.chunks = new ConcurrentLinkedQueue<>();
+        this.queued = new AtomicInteger();
+        this.flushPending = new AtomicBoolean();
+    }
+
+    /**
+     * Returns the file that is followed.
+     *
+     * @return the file
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Follows the file until the worker is cancelled.
+     *
+     * @return nothing
+     * @throws IOException if the file cannot be read
+     * @since 1.1
+     */
+    @Override
+    protected Void doInBackground() throws IOException {
+        CharsetDecoder decoder = format.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        char[] buffer = new char[CHUNK_SIZE + 1];
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        FileChannel channel = null;
+        try {
+            while (!isCancelled()) {
+                if (channel == null) {
+                    if (!file.isFile()) {
+                        // Rotated away, until the new file is created
+                        Thread.sleep(POLL_INTERVAL);
+                        continue;
+                    }
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                }
+                long size = channel.size();
+                if (size < position || file.length() < position) {
+                    // Truncated, or replaced by a new file at the same path
+                    channel.close();
+                    channel = null;
+                    position = 0;
+                    decoder.reset();
+                    bytes.clear();
+                    chars.clear();
+                    append(RESET);
+                    continue;
+                }
+                if (size == position || queued.get() >= MAX_QUEUED) {
+                    Thread.sleep(POLL_INTERVAL);
+                    continue;
+                }
+
+                int read = channel.read(bytes, position);
+                position += read;
+                bytes.flip();
+                decoder.decode(bytes, chars, false);
+                // A character cut at the end of the chunk
+                // is decoded with the next one
+                bytes.compact();
+
+                int count = chars.position();
+                // So is a '\r' that may be followed by a '\n'
+                boolean carry = count > 0 && buffer[count - 1] == '\r'
+                        && "\r\n".equals(format.getLineSeparator());
+                int kept = format.convertLineBreaks(buffer, carry ? count - 1 : count);
+                if (kept > 0) {
+                    append(new String(buffer, 0, kept));
+                }
+                chars.clear();
+                if (carry) {
+                    chars.put('\r');
+                }
+            }
+        } catch (InterruptedException e) {
+            // Cancelled while waiting for the file to grow
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queues text to be appended to the document. If the Event Dispatch
+     * Thread has not been asked to append the queued text yet, it is asked now.
+     */
+    private void append(String chunk) {
+        queued.addAndGet(chunk.length());
+        chunks.add(chunk);
+        if (flushPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    /**
+     * Appends all the queued text to the document, as a single insertion,
+     * and removes the lines that are too many.
+     */
+    private void flush() {
+        flushPending.set(false);
+        StringBuilder text = new StringBuilder();
+        boolean reset = false;
+        String chunk;
+        while ((chunk = chunks.poll()) != null) {
+            queued.addAndGet(-chunk.length());
+            if (chunk == RESET) {
+                reset = true;
+                text.setLength(0);
+            } else {
+                text.append(chunk);
+            }
+        }
+        if (isCancelled()) {
+            return;
+        }
+        try {
+            if (reset) {
+                removedSinceCompact += document.getLength();
+                document.remove(0, document.getLength());
+            }
+            if (text.length() > 0) {
+                document.insertString(document.getLength(), text.toString(), null);
+            }
+            removeFirstLines();
+        } catch (BadLocationException e) {
+            // Should never happen, we always append at the end
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the first lines of the document, if it has more lines than it
+     * keeps. They are removed in batches of an eighth of the lines that
+     * are kept, so the start of the document is not cut on every append.
+     * Once the removed text is more than the text that is left,
+     * the buffers of the document are compacted.
+     */
+    private void removeFirstLines() throws BadLocationException {
+        if (maxLines > 0) {
+            Element root = document.getDefaultRootElement();
+            int excess = root.getElementCount() - maxLines;
+            if (excess > maxLines / 8) {
+                int end = root.getElement(excess).getStartOffset();
+                document.remove(0, end);
+                removedSinceCompact += end;
+            }
+        }
+        if (removedSinceCompact > document.getLength()) {
+            document.compact();
+            removedSinceCompact = 0;
+        }
+    }
+}
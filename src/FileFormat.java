@@ -0,0 +1,496 @@
+import javax.swing.text.Document;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * How the text of a file is stored on the disk: its charset, its byte
+ * order mark, if it has one, the line separator of its lines and
+ * whether the file is gzip compressed.
+ * <p>
+ * The format of a file is detected from its first bytes when it is
+ * opened, kept as a property of its document and used again when the
+ * document is saved, so a file that is opened and saved comes back
+ * byte for byte the same. A text that turns out not to be in the detected
+ * charset further on is read again in the charset of the text that is not
+ * UTF-8, in which every byte is a character, so it still comes back the same.
+ * <p>
+ * In the document every line break is a '\n', as JTextArea works with
+ * '\n' line breaks only. With "\r\n" separators the '\r' of every "\r\n"
+ * is dropped and with "\r" separators every '\r' becomes a '\n'. With
+ * "\n" separators the text is kept as is. Line breaks of another kind
+ * than the separator of the file, which are rare, are kept as they are
+ * and are converted to the separator only when they are a '\n'. Those
+ * '\n' are saved as the separator, so a file that has them does not come
+ * back the same, which {@link #hasMixedLineBreaks} tells when it is read.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public final class FileFormat {
+
+    /**
+     * The key of the document property that holds the format of its file.
+     *
+     * @since 1.1
+     */
+    public static final String PROPERTY = "fileFormat";
+
+    // How many bytes of the file are looked at to detect its format
+    static final int SNIFF_SIZE = 64 * 1024;
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+    // The magic number and the compression method of a gzip file
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1F, (byte) 0x8B, 8};
+    // The charset of the text that is not UTF-8
+    private static final Charset FALLBACK_CHARSET = fallbackCharset();
+
+    private final Charset charset;
+    private final byte[] bom;
+    private final String lineSeparator;
+    private final boolean compressed;
+
+    /**
+     * Constructor.
+     *
+     * @param charset the charset of the text
+     * @param bom the byte order mark before the text, may be empty
+     * @param lineSeparator "\n", "\r\n" or "\r"
+     * @since 1.1
+     */
+    public FileFormat(Charset charset, byte[] bom, String lineSeparator) {
+        this(charset, bom, lineSeparator, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param charset the charset of the text
+     * @param bom the byte order mark before the text, may be empty
+     * @param lineSeparator "\n", "\r\n" or "\r"
+     * @param compressed <code>true</code> if the file is gzip compressed
+     * @since 1.1
+     */
+    public FileFormat(Charset charset, byte[] bom, String lineSeparator, boolean compressed) {
+        if (!"\n".equals(lineSeparator) && !"\r\n".equals(lineSeparator) && !"\r".equals(lineSeparator)) {
+            throw new IllegalArgumentException("Not a line separator: " + lineSeparator);
+        }
+        this.charset = charset;
+        this.bom = bom.clone();
+        this.lineSeparator = lineSeparator;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Returns the format of new files: the default charset and
+     * line separator of the system, without a byte order mark.
+     *
+     * @return the default format
+     * @since 1.1
+     */
+    public static FileFormat getDefault() {
+        return new FileFormat(Charset.defaultCharset(), new byte[0], System.lineSeparator());
+    }
+
+    /**
+     * Returns the format of the file of a document.
+     *
+     * @param document the document
+     * @return the format that the document was loaded with,
+     *         or the default one if it was not loaded from a file
+     * @since 1.1
+     */
+    public static FileFormat of(Document document) {
+        Object format = document.getProperty(PROPERTY);
+        return (format instanceof FileFormat) ? (FileFormat) format : getDefault();
+    }
+
+    /**
+     * Detects the format of a file from its first bytes.
+     * The format of a gzip file is detected from the first
+     * bytes of its decompressed text.
+     *
+     * @param file the file
+     * @return the detected format
+     * @throws IOException if the file cannot be read
+     * @since 1.1
+     */
+    public static FileFormat detect(File file) throws IOException {
+        byte[] prefix;
+        boolean truncated;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            prefix = new byte[(int) Math.min(SNIFF_SIZE, raf.length())];
+            raf.readFully(prefix);
+            truncated = prefix.length < raf.length();
+        }
+        if (!startsWith(prefix, GZIP_MAGIC)) {
+            return detect(prefix, truncated);
+        }
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            prefix = new byte[SNIFF_SIZE];
+            int count = 0;
+            int read;
+            while (count < prefix.length && (read = in.read(prefix, count, prefix.length - count)) >= 0) {
+                count += read;
+            }
+            truncated = count == prefix.length && in.read() >= 0;
+            return detect(Arrays.copyOf(prefix, count), truncated).withCompression(true);
+        }
+    }
+
+    /**
+     * Detects the format of a text from its first bytes.
+     * <ul>
+     * <li>A byte order mark gives away UTF-8 and UTF-16.</li>
+     * <li>UTF-16 without one is recognized by the zero high bytes
+     * of the ASCII characters, which are most characters of most files.</li>
+     * <li>Otherwise, the text is UTF-8 if it is valid UTF-8, which other
+     * charsets almost never are. If it is not, it is the default charset
+     * of the system, if it is a single byte charset in which every byte is
+     * a character, like KOI8-R, or else ISO-8859-1. Either way every
+     * byte is read as a character and so it can be saved back unchanged,
+     * which the US-ASCII or UTF-8 default of a POSIX locale would not do.</li>
+     * </ul>
+     * The line separator is the first line break of the text.
+     *
+     * @param prefix the first bytes of the text
+     * @param truncated <code>true</code> if the text goes on after the prefix
+     * @return the detected format
+     * @since 1.1
+     */
+    public static FileFormat detect(byte[] prefix, boolean truncated) {
+        Charset charset;
+        byte[] bom;
+        if (startsWith(prefix, UTF8_BOM)) {
+            charset = StandardCharsets.UTF_8;
+            bom = UTF8_BOM;
+        } else if (startsWith(prefix, UTF16BE_BOM)) {
+            charset = StandardCharsets.UTF_16BE;
+            bom = UTF16BE_BOM;
+        } else if (startsWith(prefix, UTF16LE_BOM)) {
+            charset = StandardCharsets.UTF_16LE;
+            bom = UTF16LE_BOM;
+        } else {
+            charset = sniffCharset(prefix, truncated);
+            bom = new byte[0];
+        }
+
+        CharBuffer chars = CharBuffer.allocate(prefix.length);
+        charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(ByteBuffer.wrap(prefix, bom.length, prefix.length - bom.length), chars, !truncated);
+        chars.flip();
+        return new FileFormat(charset, bom, sniffLineSeparator(chars));
+    }
+
+    /**
+     * Returns whether the first bytes of a file are those of a gzip file.
+     *
+     * @param prefix the first bytes of the file
+     * @return <code>true</code> if the file is gzip compressed
+     * @since 1.1
+     */
+    public static boolean isCompressed(byte[] prefix) {
+        return startsWith(prefix, GZIP_MAGIC);
+    }
+
+    /**
+     * Returns whether a file is rather binary than text, judging from
+     * its first bytes. A gzip file is taken for text, as its bytes
+     * are compressed.
+     *
+     * @param file the file
+     * @return <code>true</code> if the file does not look like text
+     * @throws IOException if the file cannot be read
+     * @since 1.1
+     */
+    public static boolean isBinary(File file) throws IOException {
+        byte[] prefix;
+        boolean truncated;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            prefix = new byte[(int) Math.min(SNIFF_SIZE, raf.length())];
+            raf.readFully(prefix);
+            truncated = prefix.length < raf.length();
+        }
+        return !isCompressed(prefix) && isBinary(prefix, detect(prefix, truncated));
+    }
+
+    /**
+     * Returns whether the first bytes of a text, in its detected format,
+     * are rather those of a binary file. A text has no zero bytes, unless
+     * it is UTF-16, and hardly any control characters other than tabs,
+     * line breaks, form feeds and the escapes of colored logs.
+     *
+     * @param prefix the first bytes of the text
+     * @param format the format detected from them
+     * @return <code>true</code> if the bytes do not look like text
+     * @since 1.1
+     */
+    public static boolean isBinary(byte[] prefix, FileFormat format) {
+        if (format.charset.equals(StandardCharsets.UTF_16BE) || format.charset.equals(StandardCharsets.UTF_16LE)) {
+            // The zero bytes were taken for the high bytes of UTF-16 already
+            return false;
+        }
+        int controls = 0;
+        for (byte b : prefix) {
+            if (b == 0) {
+                return true;
+            }
+            if (b > 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1B) {
+                controls++;
+            }
+        }
+        return controls * 10 > prefix.length;
+    }
+
+    private static boolean startsWith(byte[] prefix, byte[] bom) {
+        return prefix.length >= bom.length && Arrays.equals(Arrays.copyOf(prefix, bom.length), bom);
+    }
+
+    private static Charset sniffCharset(byte[] prefix, boolean truncated) {
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i + 1 < prefix.length; i += 2) {
+            if (prefix[i] == 0) {
+                evenZeros++;
+            }
+            if (prefix[i + 1] == 0) {
+                oddZeros++;
+            }
+        }
+        int units = prefix.length / 2;
+        if (oddZeros > units / 2 && evenZeros * 4 < oddZeros) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (evenZeros > units / 2 && oddZeros * 4 < evenZeros) {
+            return StandardCharsets.UTF_16BE;
+        }
+
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(prefix.length);
+        // A character cut at the end of a truncated prefix is not an error
+        if (!utf8.decode(ByteBuffer.wrap(prefix), out, !truncated).isError()) {
+            return StandardCharsets.UTF_8;
+        }
+        return FALLBACK_CHARSET;
+    }
+
+    /**
+     * Returns the charset of the text that is not UTF-8: the default
+     * charset, if it decodes every byte, or ISO-8859-1.
+     */
+    private static Charset fallbackCharset() {
+        Charset charset = Charset.defaultCharset();
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            decoder.decode(ByteBuffer.wrap(bytes));
+            return charset;
+        } catch (CharacterCodingException e) {
+            // Some bytes are not characters in it, like in US-ASCII
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    private static String sniffLineSeparator(CharBuffer chars) {
+        for (int i = 0; i < chars.limit(); i++) {
+            char c = chars.get(i);
+            if (c == '\n') {
+                return "\n";
+            }
+            if (c == '\r') {
+                // A '\r' at the very end is most likely followed by a '\n'
+                return (i + 1 == chars.limit() || chars.get(i + 1) == '\n') ? "\r\n" : "\r";
+            }
+        }
+        return System.lineSeparator();
+    }
+
+    /**
+     * Returns the charset of the text.
+     *
+     * @return the charset
+     * @since 1.1
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Returns the byte order mark before the text.
+     *
+     * @return the bytes of the mark, empty if there is none
+     * @since 1.1
+     */
+    public byte[] getBom() {
+        return bom.clone();
+    }
+
+    /**
+     * Returns the length of the byte order mark before the text.
+     *
+     * @return the number of bytes before the text
+     * @since 1.1
+     */
+    public int getBomLength() {
+        return bom.length;
+    }
+
+    /**
+     * Returns the line separator of the text.
+     *
+     * @return "\n", "\r\n" or "\r"
+     * @since 1.1
+     */
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    /**
+     * Returns the name of the line separator of the text.
+     *
+     * @return "LF", "CRLF" or "CR"
+     * @since 1.1
+     */
+    public String getLineSeparatorName() {
+        return "\n".equals(lineSeparator) ? "LF" : "\r\n".equals(lineSeparator) ? "CRLF" : "CR";
+    }
+
+    /**
+     * Returns whether the file is gzip compressed. The charset, the byte order
+     * mark and the line separator are those of the decompressed text.
+     *
+     * @return <code>true</code> if the file is compressed
+     * @since 1.1
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Returns the same format, compressed or not.
+     *
+     * @param compressed <code>true</code> for a gzip compressed file
+     * @return the format
+     * @since 1.1
+     */
+    public FileFormat withCompression(boolean compressed) {
+        return (compressed == this.compressed) ? this : new FileFormat(charset, bom, lineSeparator, compressed);
+    }
+
+    /**
+     * Returns the same format in the charset of the text that is not UTF-8,
+     * without a byte order mark, for a text that turned out not to be in
+     * the charset of this format. Every byte of the text, even those of
+     * a byte order mark, is then read as a character and saved back as is.
+     *
+     * @return the format in the fallback charset
+     * @since 1.1
+     */
+    public FileFormat withFallbackCharset() {
+        return new FileFormat(FALLBACK_CHARSET, new byte[0], lineSeparator, compressed);
+    }
+
+    /**
+     * Checks if decoded text has line breaks that <code>convertLineBreaks</code>
+     * turns into a '\n' that is saved as another line break: a '\n' that
+     * is not part of a "\r\n" with "\r\n" separators, or any '\n' with "\r"
+     * separators. The range must not end between the '\r' and the '\n' of
+     * a "\r\n", nor start with the '\n' of one.
+     *
+     * @param chars the decoded text
+     * @param count the number of characters in the array
+     * @return <code>true</code> if the text would not be saved the same
+     * @since 1.1
+     */
+    public boolean hasMixedLineBreaks(char[] chars, int count) {
+        if ("\n".equals(lineSeparator)) {
+            return false;
+        }
+        boolean crlf = "\r\n".equals(lineSeparator);
+        for (int i = 0; i < count; i++) {
+            if (chars[i] == '\n' && !(crlf && i > 0 && chars[i - 1] == '\r')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Converts the line breaks of decoded text to '\n', in place,
+     * as described above. The range must not end between
+     * the '\r' and the '\n' of a "\r\n".
+     *
+     * @param chars the decoded text
+     * @param count the number of characters in the array
+     * @return the number of characters left at the start of the array
+     * @since 1.1
+     */
+    public int convertLineBreaks(char[] chars, int count) {
+        if ("\n".equals(lineSeparator)) {
+            return count;
+        }
+        if ("\r".equals(lineSeparator)) {
+            for (int i = 0; i < count; i++) {
+                if (chars[i] == '\r') {
+                    chars[i] = '\n';
+                }
+            }
+            return count;
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (chars[i] == '\r' && i + 1 < count && chars[i + 1] == '\n') {
+                continue;
+            }
+            chars[kept++] = chars[i];
+        }
+        return kept;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof FileFormat)) {
+            return false;
+        }
+        FileFormat format = (FileFormat) other;
+        return charset.equals(format.charset) && Arrays.equals(bom, format.bom)
+                && lineSeparator.equals(format.lineSeparator) && compressed == format.compressed;
+    }
+
+    @Override
+    public int hashCode() {
+        return charset.hashCode() * 31 + lineSeparator.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return charset.name() + (bom.length > 0 ? " with BOM" : "") + ", " + getLineSeparatorName()
+                + (compressed ? ", gzip" : "");
+    }
+}
@@ -0,0 +1,385 @@
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.text.BadLocationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Loads a file into a new document in a background thread, so the
+ * Event Dispatch Thread never waits for the disk.
+ * <p>
+ * The {@link FileFormat} of the file is detected from its first bytes and
+ * kept as the <code>FileFormat.PROPERTY</code> of the document, so it can
+ * be saved back in the same format. The text is checked to be in its
+ * charset as it is read. If it is not, it is read again in the charset that
+ * takes every byte as a character, so no byte is ever replaced and the file
+ * is saved back the same. A file with line breaks that will be saved as its
+ * line separator, like a lone '\n' among "\r\n", has its
+ * <code>MIXED_LINE_BREAKS_PROPERTY</code> set. The number of bytes that have been
+ * loaded is kept as its <code>SIZE_PROPERTY</code>, so a {@link FileFollower}
+ * knows where the file has to be followed from, and the stamp of the file
+ * before it is read as its <code>FileWatcher.STAMP_PROPERTY</code>, so a
+ * {@link FileWatcher} knows when another program changes it.
+ * <p>
+ * Files smaller than <code>LARGE_FILE_SIZE</code> are read in chunks.
+ * Every chunk is appended to the document as soon as it is read, so
+ * the user can already see the beginning of the file while the rest
+ * of it is still loading. The chunks are handed over to the Event
+ * Dispatch Thread through a queue, and all the chunks that are waiting
+ * when the Event Dispatch Thread gets to them are appended at once.
+ * The file is read through a single direct byte buffer and decoded by
+ * a single decoder, straight into the array that its line breaks are
+ * converted in, so the only objects made per chunk are its string.
+ * <p>
+ * Larger files are memory mapped and indexed by {@link MappedText}
+ * and the document is ready only when the indexing finishes. The index
+ * is kept by the {@link IndexCache}, so a file that has not changed is
+ * ready as soon as its index has been read the next time it is opened.
+ * Large files whose charset cannot be decoded lazily are read
+ * in chunks like the smaller ones, into a document that is not
+ * shown until the loading finishes.
+ * <p>
+ * Gzip compressed files, of any size, are indexed by {@link CompressedText},
+ * which decompresses only the parts of the file that are read. If their
+ * charset cannot be decoded lazily, they are decompressed as they are
+ * read in chunks.
+ * <p>
+ * Binary files, whose first bytes do not look like text, are not loaded
+ * into a document at all, but opened as {@link MappedBytes}, to be shown
+ * in a {@link HexView}, and so is any file that is asked to be shown as bytes.
+ * <p>
+ * The progress of the loading is reported through the
+ * <code>progress</code> property and the loading stops
+ * as soon as the worker is cancelled.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileLoader extends SwingWorker<PieceTableDocument, Void> {
+
+    // Files of at least this size are memory mapped instead of read
+    static final long LARGE_FILE_SIZE = 16 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The key of the document property that holds the
+     * number of bytes of the file that the document holds.
+     *
+     * @since 1.1
+     */
+    public static final String SIZE_PROPERTY = "fileSize";
+
+    /**
+     * The key of the document property that is <code>Boolean.TRUE</code>
+     * if the file has line breaks that will be saved as its line separator,
+     * so the file does not come back the same when it is saved.
+     *
+     * @since 1.1
+     */
+    public static final String MIXED_LINE_BREAKS_PROPERTY = "mixedLineBreaks";
+
+    private final File file;
+    private final boolean asBytes;
+    private final boolean detectBinary;
+    private final boolean streamed;
+    private PieceTableDocument document;
+    private MappedBytes bytes;
+
+    private final ConcurrentLinkedQueue<String> chunks;
+    private final AtomicBoolean flushPending;
+
+    /**
+     * Constructor.
+     * A binary file is opened as bytes, any other file as text.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param file the file to load
+     * @since 1.1
+     */
+    public FileLoader(File file) {
+        this(file, false, true);
+    }
+
+    /**
+     * Constructor.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param file the file to load
+     * @param asBytes <code>true</code> to open the file as bytes,
+     *                <code>false</code> to load it as text, even if it is binary
+     * @since 1.1
+     */
+    public FileLoader(File file, boolean asBytes) {
+        this(file, asBytes, false);
+    }
+
+    private FileLoader(File file, boolean asBytes, boolean detectBinary) {
+        this.file = file;
+        this.asBytes = asBytes;
+        this.detectBinary = detectBinary;
+        this.document = (asBytes || isLarge(file)) ? null : new PieceTableDocument();
+        this.streamed = document != null;
+        this.chunks = new ConcurrentLinkedQueue<>();
+        this.flushPending = new AtomicBoolean();
+    }
+
+    /**
+     * Checks if a file will be memory mapped instead of read,
+     * as long as its charset can be decoded lazily.
+     *
+     * @param file the file to load
+     * @return <code>true</code> if the file is large
+     * @since 1.1
+     */
+    public static boolean isLarge(File file) {
+        return file.length() >= LARGE_FILE_SIZE;
+    }
+
+    /**
+     * Returns the file that is loaded.
+     *
+     * @return the file
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the document that the chunks of the file are appended to,
+     * so it can be displayed while the file is still loading.
+     *
+     * @return the document, or <code>null</code> if the file is memory
+     *         mapped and the document is available only at the end
+     * @since 1.1
+     */
+    public PieceTableDocument getStreamedDocument() {
+        return document;
+    }
+
+    /**
+     * Returns the bytes of the file, if it has been opened as bytes.
+     *
+     * @return the bytes, or <code>null</code> if the file has been loaded as text
+     * @since 1.1
+     */
+    public MappedBytes getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Loads the file.
+     *
+     * @return the document with the contents of the file, or
+     *         <code>null</code> if the file has been opened as bytes
+     * @throws IOException if the file cannot be read
+     * @since 1.1
+     */
+    @Override
+    protected PieceTableDocument doInBackground() throws IOException {
+        if (asBytes || (detectBinary && FileFormat.isBinary(file))) {
+            // Nothing is read until the bytes are shown
+            bytes = new MappedBytes(file);
+            return null;
+        }
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.OPEN);
+        // Taken first, so a change made while reading is found afterwards
+        FileWatcher.Stamp stamp = FileWatcher.Stamp.of(file);
+        FileFormat format = FileFormat.detect(file);
+        try {
+            return load(format, stamp, sample);
+        } catch (CharacterCodingException e) {
+            // The text goes on in another charset than its first bytes
+            // tell, so it is read again in the one that takes every byte
+            clear();
+            return load(format.withFallbackCharset(), stamp, sample);
+        }
+    }
+
+    /**
+     * Loads the file in the given format.
+     *
+     * @throws CharacterCodingException if the text is not in the charset of the format
+     */
+    private PieceTableDocument load(FileFormat format, FileWatcher.Stamp stamp, Metrics.Sample sample)
+            throws IOException {
+        if (format.isCompressed() && CompressedText.supports(format.getCharset())) {
+            // Even a small compressed file may hold a lot of text
+            CompressedText text = new CompressedText(file, format, this::setProgress);
+            PieceTableDocument compressed = new PieceTableDocument(text, text.takeLineIndex());
+            compressed.putProperty(FileFormat.PROPERTY, format);
+            compressed.putProperty(SIZE_PROPERTY, text.getFileSize());
+            compressed.putProperty(FileWatcher.STAMP_PROPERTY, stamp);
+            compressed.putProperty(MIXED_LINE_BREAKS_PROPERTY, text.hasMixedLineBreaks() ? Boolean.TRUE : null);
+            Metrics.stop(sample, text.getFileSize());
+            return compressed;
+        }
+        if (!streamed && MappedText.supports(format.getCharset())) {
+            MappedText.Index index = IndexCache.load(file, format, stamp);
+            FileFormat fallback = format.withFallbackCharset();
+            if (index == null && !fallback.equals(format)) {
+                // The file turned out not to be in its charset the last time
+                index = IndexCache.load(file, fallback, stamp);
+                format = (index != null) ? fallback : format;
+            }
+            MappedText text = new MappedText(file, format, index, this::setProgress);
+            if (!text.isCached()) {
+                // Before the document takes the line index, which it edits
+                IndexCache.store(file, format, stamp, text.getIndex());
+            }
+            if (text.getStatistics() == null) {
+                IndexCache.countStatistics(text, stamp);
+            }
+            PieceTableDocument mapped = new PieceTableDocument(text, text.takeLineIndex());
+            mapped.putProperty(FileFormat.PROPERTY, format);
+            mapped.putProperty(SIZE_PROPERTY, text.getFileSize());
+            mapped.putProperty(FileWatcher.STAMP_PROPERTY, stamp);
+            mapped.putProperty(MIXED_LINE_BREAKS_PROPERTY, text.hasMixedLineBreaks() ? Boolean.TRUE : null);
+            Metrics.stop(sample, text.getFileSize());
+            return mapped;
+        }
+        if (document == null) {
+            // Created here, it is not shown while it is filled
+            document = new PieceTableDocument();
+        }
+        document.putProperty(FileFormat.PROPERTY, format);
+
+        CharsetDecoder decoder = format.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        char[] buffer = new char[CHUNK_SIZE + 1];
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        boolean mixed = false;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long total = Math.max(1, channel.size());
+            ReadableByteChannel source = channel;
+            if (format.isCompressed()) {
+                InputStream in = new GZIPInputStream(Channels.newInputStream(channel), CHUNK_SIZE);
+                for (int i = 0; i < format.getBomLength(); i++) {
+                    in.read();
+                }
+                source = Channels.newChannel(in);
+            } else {
+                channel.position(format.getBomLength());
+            }
+            boolean endOfInput = false;
+            boolean done = false;
+            while (!done) {
+                if (isCancelled()) {
+                    return null;
+                }
+                if (!endOfInput) {
+                    endOfInput = source.read(bytes) < 0;
+                }
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                boolean full = result.isOverflow();
+                done = endOfInput && !full;
+                if (done) {
+                    decoder.flush(chars);
+                }
+                // A character cut at the end of the chunk
+                // is decoded with the next one
+                bytes.compact();
+
+                int count = chars.position();
+                // So is a '\r' that may be followed by a '\n'
+                boolean carry = !done && count > 0 && buffer[count - 1] == '\r';
+                mixed = mixed || format.hasMixedLineBreaks(buffer, carry ? count - 1 : count);
+                int kept = format.convertLineBreaks(buffer, carry ? count - 1 : count);
+                if (kept > 0) {
+                    append(new String(buffer, 0, kept));
+                }
+                chars.clear();
+                if (carry) {
+                    chars.put('\r');
+                }
+                setProgress((int) Math.min(100, channel.position() * 100 / total));
+            }
+            document.putProperty(SIZE_PROPERTY, channel.position());
+            document.putProperty(FileWatcher.STAMP_PROPERTY, stamp);
+            document.putProperty(MIXED_LINE_BREAKS_PROPERTY, mixed ? Boolean.TRUE : null);
+            Metrics.stop(sample, channel.position());
+        }
+        return document;
+    }
+
+    /**
+     * Empties the document that the file is read into, after the chunks
+     * that have been queued are appended to it, so it can be read again.
+     */
+    private void clear() throws IOException {
+        if (document == null) {
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    document.remove(0, document.getLength());
+                } catch (BadLocationException e) {
+                    // Should never happen, we remove the whole text
+                    e.printStackTrace();
+                }
+            });
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Loading of " + file + " was cancelled");
+        } catch (InvocationTargetException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Queues a chunk to be appended to the document. If the Event Dispatch
+     * Thread has not been asked to append the queued chunks yet, it is asked now.
+     * Since it handles its requests in order, all the chunks are appended
+     * before <code>done</code> is called.
+     */
+    private void append(String chunk) {
+        chunks.add(chunk);
+        if (flushPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    /**
+     * Appends all the queued chunks to the document, as a single insertion.
+     */
+    private void flush() {
+        flushPending.set(false);
+        StringBuilder text = new StringBuilder();
+        String chunk;
+        while ((chunk = chunks.poll()) != null) {
+            text.append(chunk);
+        }
+        if (text.length() == 0 || isCancelled()) {
+            return;
+        }
+        try {
+            document.insertString(document.getLength(), text.toString(), null);
+        } catch (BadLocationException e) {
+            // Should never happen, we always append at the end
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Finds out, in a background thread, what another program has changed
+ * in the file of a document, so only the changed part has to be applied
+ * to the document, instead of loading the whole file again.
+ * <p>
+ * The changed file is decoded in its format, like {@link FileLoader}
+ * does, lazily for the charsets that {@link MappedText} supports, and
+ * compared to the saved text of the document, the text that was last
+ * loaded or saved, in blocks of <code>DirtyTracker.BLOCK_SIZE</code>
+ * characters. The blocks are compared by their hashes from the start,
+ * as far as they are the same, and then character by character from
+ * the end. What is left in between is the changed range, which is the
+ * whole change for the usual ones, like lines appended to a log or a
+ * line changed in a configuration file. The hashes of the saved blocks
+ * are taken from the {@link DirtyTracker} when it already knows them,
+ * and the hashes of the changed file are handed back to it, so the next
+ * change only reads the new file.
+ * <p>
+ * A change whose text is too large to be inserted in the document, or
+ * a change of the format of the file, like its charset, is reported
+ * as a change of the whole file, which has to be loaded again. So is
+ * a file that is no longer in its charset or has mixed line breaks,
+ * which the {@link FileLoader} handles when it loads it.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileReloader extends SwingWorker<FileReloader.Change, Void> {
+
+    static final int BLOCK_SIZE = DirtyTracker.BLOCK_SIZE;
+    // The largest text that is inserted instead of loading the whole file
+    static final int MAX_CHANGE = (int) FileLoader.LARGE_FILE_SIZE;
+
+    private final File file;
+    private final FileFormat format;
+    private final CharSequence saved;
+    private final long[] savedHashes;
+
+    /**
+     * Constructor.
+     *
+     * @param file the changed file
+     * @param format the format that the file was loaded with
+     * @param saved the saved text of the document
+     * @param savedHashes the hashes of the blocks of the
+     *                    saved text, or <code>null</code> if not known
+     * @since 1.1
+     */
+    public FileReloader(File file, FileFormat format, CharSequence saved, long[] savedHashes) {
+        this.file = file;
+        this.format = format;
+        this.saved = saved;
+        this.savedHashes = savedHashes;
+    }
+
+    /**
+     * Returns the file that is compared.
+     *
+     * @return the file
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Compares the changed file to the saved text.
+     *
+     * @return the change, or <code>null</code> if the comparison was cancelled
+     * @throws IOException if the file cannot be read
+     * @since 1.1
+     */
+    @Override
+    protected Change doInBackground() throws IOException {
+        // Taken first, so a change made while reading is found by the next poll
+        FileWatcher.Stamp stamp = FileWatcher.Stamp.of(file);
+        FileFormat changedFormat = FileFormat.detect(file);
+        // A file that was not in its detected charset was loaded in the fallback one
+        if (!changedFormat.equals(format) && !changedFormat.withFallbackCharset().equals(format)) {
+            return new Change(stamp);
+        }
+        CharSequence text;
+        try {
+            text = open(file, format);
+        } catch (CharacterCodingException e) {
+            return new Change(stamp);
+        }
+        if (text == null) {
+            return new Change(stamp);
+        }
+
+        int oldLength = saved.length();
+        int newLength = text.length();
+        char[] oldChars = new char[BLOCK_SIZE];
+        char[] newChars = new char[BLOCK_SIZE];
+        long[] hashes = new long[(newLength + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+        // The blocks are hashed from the start, and compared
+        // until the first one that is not the same
+        int prefix = -1;
+        for (int block = 0; block < hashes.length; block++) {
+            if (isCancelled()) {
+                return null;
+            }
+            setProgress(block * 100 / hashes.length);
+            int start = block * BLOCK_SIZE;
+            int count = Math.min(BLOCK_SIZE, newLength - start);
+            getChars(text, start, start + count, newChars);
+            hashes[block] = DirtyTracker.hash(newChars, 0, count);
+            if (prefix < 0) {
+                int oldCount = Math.max(0, Math.min(BLOCK_SIZE, oldLength - start));
+                if (oldCount == count && savedHash(block, oldChars) == hashes[block]) {
+                    continue;
+                }
+                getChars(saved, start, start + oldCount, oldChars);
+                int same = 0;
+                while (same < Math.min(count, oldCount) && oldChars[same] == newChars[same]) {
+                    same++;
+                }
+                prefix = start + same;
+            }
+        }
+        if (prefix < 0) {
+            prefix = Math.min(oldLength, newLength);
+        }
+
+        // Then the text is compared from the end, up to the changed start
+        int suffix = 0;
+        int limit = Math.min(oldLength, newLength) - prefix;
+        boolean same = true;
+        while (same && suffix < limit) {
+            if (isCancelled()) {
+                return null;
+            }
+            int count = Math.min(BLOCK_SIZE, limit - suffix);
+            getChars(saved, oldLength - suffix - count, oldLength - suffix, oldChars);
+            getChars(text, newLength - suffix - count, newLength - suffix, newChars);
+            int i = count - 1;
+            while (i >= 0 && oldChars[i] == newChars[i]) {
+                i--;
+            }
+            same = i < 0;
+            suffix += count - 1 - i;
+        }
+
+        int removed = oldLength - suffix - prefix;
+        int inserted = newLength - suffix - prefix;
+        if (inserted > MAX_CHANGE) {
+            return new Change(stamp);
+        }
+        char[] chars = new char[inserted];
+        getChars(text, prefix, prefix + inserted, chars);
+        return new Change(stamp, prefix, removed, new String(chars), hashes);
+    }
+
+    /**
+     * Returns the hash of a block of the saved text, computing it if it is not known.
+     */
+    private long savedHash(int block, char[] chars) {
+        if (savedHashes != null) {
+            return savedHashes[block];
+        }
+        int start = block * BLOCK_SIZE;
+        int count = Math.min(BLOCK_SIZE, saved.length() - start);
+        getChars(saved, start, start + count, chars);
+        return DirtyTracker.hash(chars, 0, count);
+    }
+
+    /**
+     * Opens the text of the file, decoded lazily if its charset
+     * allows it, or else as a whole, with its line breaks converted.
+     *
+     * @return the text, or <code>null</code> if it has mixed line breaks
+     * @throws CharacterCodingException if the file is not in the charset of the format
+     */
+    private static CharSequence open(File file, FileFormat format) throws IOException {
+        if (format.isCompressed() && CompressedText.supports(format.getCharset())) {
+            CompressedText text = new CompressedText(file, format, null);
+            return text.hasMixedLineBreaks() ? null : text;
+        }
+        if (!format.isCompressed() && MappedText.supports(format.getCharset())) {
+            MappedText text = new MappedText(file, format);
+            return text.hasMixedLineBreaks() ? null : text;
+        }
+        InputStream in = new FileInputStream(file);
+        if (format.isCompressed()) {
+            in = new GZIPInputStream(in);
+        }
+        CharsetDecoder decoder = format.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try (Reader reader = new InputStreamReader(in, decoder)) {
+            for (int i = 0; i < format.getBomLength(); i++) {
+                in.read();
+            }
+            char[] chars = new char[BLOCK_SIZE];
+            int count = 0;
+            int read;
+            while ((read = reader.read(chars, count, chars.length - count)) >= 0) {
+                count += read;
+                if (count == chars.length) {
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                }
+            }
+            if (format.hasMixedLineBreaks(chars, count)) {
+                return null;
+            }
+            return new String(chars, 0, format.convertLineBreaks(chars, count));
+        }
+    }
+
+    private static void getChars(CharSequence text, int from, int to, char[] dst) {
+        if (text instanceof PieceTableContent.Snapshot) {
+            ((PieceTableContent.Snapshot) text).getChars(from, to, dst, 0);
+        } else if (text instanceof MappedText) {
+            ((MappedText) text).getChars(from, to, dst, 0);
+        } else if (text instanceof CompressedText) {
+            ((CompressedText) text).getChars(from, to, dst, 0);
+        } else if (text instanceof String) {
+            ((String) text).getChars(from, to, dst, 0);
+        } else {
+            for (int i = from; i < to; i++) {
+                dst[i - from] = text.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * What has changed in the file: a range of the saved text that has been
+     * replaced, or the whole file, along with the stamp of the changed file.
+     */
+    public static final class Change {
+        private final FileWatcher.Stamp stamp;
+        private final int from;
+        private final int removed;
+        private final String inserted;
+        private final long[] hashes;
+
+        /**
+         * A change of a range of the text.
+         */
+        Change(FileWatcher.Stamp stamp, int from, int removed, String inserted, long[] hashes) {
+            this.stamp = stamp;
+            this.from = from;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.hashes = hashes;
+        }
+
+        /**
+         * A change of the whole file.
+         */
+        Change(FileWatcher.Stamp stamp) {
+            this.stamp = stamp;
+            this.from = 0;
+            this.removed = 0;
+            this.inserted = null;
+            this.hashes = null;
+        }
+
+        /**
+         * Returns the stamp of the changed file.
+         *
+         * @return the stamp when the file was read
+         * @since 1.1
+         */
+        public FileWatcher.Stamp getStamp() {
+            return stamp;
+        }
+
+        /**
+         * Returns whether the whole file has to be loaded again.
+         *
+         * @return <code>true</code> if the change is not a range of the text
+         * @since 1.1
+         */
+        public boolean isWhole() {
+            return inserted == null;
+        }
+
+        /**
+         * Returns whether the text of the file is the same,
+         * like when only its time of modification has changed.
+         *
+         * @return <code>true</code> if nothing has to be applied
+         * @since 1.1
+         */
+        public boolean isEmpty() {
+            return inserted != null && removed == 0 && inserted.isEmpty();
+        }
+
+        /**
+         * Returns where the changed range starts in the saved text.
+         *
+         * @return the offset of the range
+         * @since 1.1
+         */
+        public int getFrom() {
+            return from;
+        }
+
+        /**
+         * Returns the length of the changed range in the saved text.
+         *
+         * @return the number of characters that were replaced
+         * @since 1.1
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Returns the text that replaced the changed range.
+         *
+         * @return the text, or <code>null</code> for a change of the whole file
+         * @since 1.1
+         */
+        public String getInserted() {
+            return inserted;
+        }
+
+        /**
+         * Returns the hashes of the blocks of the changed file.
+         *
+         * @return the hashes, or <code>null</code> for a change of the whole file
+         * @since 1.1
+         */
+        public long[] getHashes() {
+            return hashes;
+        }
+    }
+}
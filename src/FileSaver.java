@@ -0,0 +1,347 @@
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Saves a snapshot of the document to a file in a background
+ * thread, so the Event Dispatch Thread never waits for the disk.
+ * <p>
+ * The text is streamed to the disk in chunks: every chunk is copied into
+ * the same char buffer, encoded into the same direct byte buffer and
+ * written through a <code>FileChannel</code>. So saving needs the same
+ * small amount of memory no matter how large the document is.
+ * <p>
+ * The text is saved in the {@link FileFormat} that is given, which for
+ * a file that has been opened is the format it was loaded with, so the
+ * file keeps its charset, byte order mark and line separator. Nothing is
+ * trimmed or added, so a file that has not been edited is saved byte for
+ * byte the same as it was loaded, except for a compressed file, which
+ * is compressed again as it is written, through a <code>GZIPOutputStream</code>,
+ * and so may not come out with the same compressed bytes. A character that
+ * the charset cannot encode is never replaced: the saving fails with a
+ * <code>CharacterCodingException</code> and the file is left as it was.
+ * <p>
+ * The text is written to a temporary file in the same folder, which is
+ * forced to the disk and then moved over the target in a single step.
+ * So if the saving fails, is cancelled or the machine crashes, the target
+ * is either the old or the new file, never a half written one.
+ * <p>
+ * A symbolic link is followed, so the file it points to is replaced and
+ * the link stays. The temporary file takes the permissions, the owner and
+ * the group of the file it replaces. If it cannot take them, like when the
+ * file belongs to another user, the file is overwritten in place instead,
+ * from the temporary file, so it keeps them.
+ * <p>
+ * The progress of the saving is reported through the
+ * <code>progress</code> property and the saving stops
+ * as soon as the worker is cancelled.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileSaver extends SwingWorker<File, Void> {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final File file;
+    private final CharSequence text;
+    private final FileFormat format;
+    private final String lineSeparator;
+    private volatile FileWatcher.Stamp stamp;
+    private volatile boolean writtenInPlace;
+
+    /**
+     * Constructor.
+     * The text is saved in the default format of new files.
+     *
+     * @param file the file to save to
+     * @param text the text to save, which must not change while saving
+     * @since 1.1
+     */
+    public FileSaver(File file, CharSequence text) {
+        this(file, text, FileFormat.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to save to
+     * @param text the text to save, which must not change while saving
+     * @param format the format to save the text in
+     * @since 1.1
+     */
+    public FileSaver(File file, CharSequence text, FileFormat format) {
+        this.file = file;
+        this.text = text;
+        this.format = format;
+        this.lineSeparator = format.getLineSeparator();
+    }
+
+    /**
+     * Returns the file that is saved.
+     *
+     * @return the file
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the stamp of the file right after it was saved.
+     *
+     * @return the stamp, or <code>null</code> if the file has not been saved
+     * @since 1.1
+     */
+    public FileWatcher.Stamp getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Returns whether the file was overwritten in place, instead of
+     * being replaced, so what was read from it before has changed.
+     *
+     * @return <code>true</code> if the file was overwritten in place
+     * @since 1.1
+     */
+    public boolean isWrittenInPlace() {
+        return writtenInPlace;
+    }
+
+    /**
+     * Saves the text.
+     *
+     * @return the saved file
+     * @throws IOException if the file cannot be written
+     * @throws java.nio.charset.CharacterCodingException if the text has a
+     *         character that the charset of the format cannot encode
+     * @since 1.1
+     */
+    @Override
+    protected File doInBackground() throws IOException {
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.SAVE);
+        Path target = realPath(file);
+        File tmpFile = File.createTempFile("." + target.getFileName() + ".", ".tmp", target.getParent().toFile());
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile.toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                WritableByteChannel out = channel;
+                GZIPOutputStream gzip = null;
+                if (format.isCompressed()) {
+                    gzip = new GZIPOutputStream(Channels.newOutputStream(channel), CHUNK_SIZE);
+                    out = Channels.newChannel(gzip);
+                }
+                out.write(ByteBuffer.wrap(format.getBom()));
+                if (!write(out, 0, text.length())) {
+                    return null;
+                }
+                if (gzip != null) {
+                    gzip.finish();
+                }
+                channel.force(true);
+            }
+            // The document may still be reading the old file through
+            // a memory mapping, so the file is replaced and not overwritten,
+            // unless that would take its owner away
+            writtenInPlace = replace(tmpFile.toPath(), target);
+            stamp = FileWatcher.Stamp.of(file);
+            Metrics.stop(sample, file.length());
+            return file;
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Returns the absolute path of a file, with its symbolic links
+     * resolved, or as it is if the file does not exist yet.
+     *
+     * @param file the file
+     * @return the real path of the file
+     * @throws IOException if the links cannot be resolved
+     * @since 1.1
+     */
+    static Path realPath(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        try {
+            return path.toRealPath();
+        } catch (NoSuchFileException e) {
+            return path;
+        }
+    }
+
+    /**
+     * Puts a temporary file that has been written in the place of a file,
+     * keeping the permissions, the owner and the group of the file. The
+     * temporary file is moved over the file if it can take them, otherwise
+     * it is copied into the file, which is then overwritten in place.
+     *
+     * @param temp the temporary file, in the same folder as the file
+     * @param target the file to replace, with its links resolved
+     * @return <code>true</code> if the file was overwritten in place
+     * @throws IOException if the file cannot be replaced
+     * @since 1.1
+     */
+    static boolean replace(Path temp, Path target) throws IOException {
+        if (Files.exists(target) && !copyAttributes(target, temp)) {
+            try (FileChannel in = FileChannel.open(temp, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += out.transferFrom(in, position, size - position);
+                }
+                out.truncate(size);
+                out.force(true);
+            }
+            return true;
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return false;
+    }
+
+    /**
+     * Gives a file the POSIX permissions, owner and group of another.
+     *
+     * @return <code>false</code> if they cannot be given
+     */
+    private static boolean copyAttributes(Path from, Path to) {
+        PosixFileAttributeView source = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        PosixFileAttributeView copy = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (source == null || copy == null) {
+            return true; // Nothing of the kind to keep
+        }
+        try {
+            PosixFileAttributes attributes = source.readAttributes();
+            PosixFileAttributes current = copy.readAttributes();
+            // Only the owner of a file can give it away, so they are set only if they differ
+            if (!attributes.owner().equals(current.owner())) {
+                copy.setOwner(attributes.owner());
+            }
+            if (!attributes.group().equals(current.group())) {
+                copy.setGroup(attributes.group());
+            }
+            copy.setPermissions(attributes.permissions());
+            return true;
+        } catch (IOException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Encodes a range of the text into the channel.
+     * Every '\n' is replaced by the line separator.
+     *
+     * @return <code>false</code> if the saving was cancelled
+     */
+    private boolean write(WritableByteChannel channel, int start, int end) throws IOException {
+        CharsetEncoder encoder = format.getCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        char[] chars = new char[CHUNK_SIZE];
+        // Room for a chunk whose characters are all '\n' and a half
+        // surrogate pair left over from the previous chunk
+        char[] lines = new char[CHUNK_SIZE * lineSeparator.length() + 1];
+        CharBuffer in = CharBuffer.wrap(lines);
+        ByteBuffer out = ByteBuffer.allocateDirect((int) Math.ceil(lines.length * encoder.maxBytesPerChar()));
+
+        int position = start;
+        int carried = 0;
+        do {
+            if (isCancelled()) {
+                return false;
+            }
+            int count = Math.min(CHUNK_SIZE, end - position);
+            copyChars(position, position + count, chars);
+            position += count;
+
+            int length = carried;
+            for (int i = 0; i < count; i++) {
+                if (chars[i] == '\n') {
+                    length = appendSeparator(lines, length);
+                } else {
+                    lines[length++] = chars[i];
+                }
+            }
+
+            in.limit(length).position(0);
+            encode(encoder, in, out, channel, position == end);
+            // The encoder leaves a half surrogate pair at the end
+            // of the chunk, to be completed by the next one
+            carried = in.remaining();
+            System.arraycopy(lines, in.position(), lines, 0, carried);
+            setProgress((int) ((position - start) * 100L / Math.max(1, end - start)));
+        } while (position < end);
+
+        while (encoder.flush(out).isOverflow()) {
+            drain(out, channel);
+        }
+        drain(out, channel);
+        return true;
+    }
+
+    private int appendSeparator(char[] lines, int length) {
+        lineSeparator.getChars(0, lineSeparator.length(), lines, length);
+        return length + lineSeparator.length();
+    }
+
+    /**
+     * Encodes the characters of the buffer, writing the
+     * encoded bytes to the channel whenever the output is full.
+     */
+    private static void encode(CharsetEncoder encoder, CharBuffer in, ByteBuffer out,
+                               WritableByteChannel channel, boolean endOfInput) throws IOException {
+        CoderResult result;
+        while ((result = encoder.encode(in, out, endOfInput)).isOverflow()) {
+            drain(out, channel);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    private static void drain(ByteBuffer out, WritableByteChannel channel) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Copies a range of the text into the chunk buffer.
+     */
+    private void copyChars(int from, int to, char[] dst) {
+        if (text instanceof PieceTableContent.Snapshot) {
+            ((PieceTableContent.Snapshot) text).getChars(from, to, dst, 0);
+        } else if (text instanceof String) {
+            ((String) text).getChars(from, to, dst, 0);
+        } else {
+            for (int i = from; i < to; i++) {
+                dst[i - from] = text.charAt(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,721 @@
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Searches the files of a folder, and of all the folders in it, for a
+ * literal string, in a background thread, so even a search over tens of
+ * gigabytes of logs never blocks the editor.
+ * <p>
+ * The background thread walks the folders and hands every file to a pool
+ * of as many threads as the machine has cores, which search the files at
+ * the same time. Only a few files per thread wait in the pool, so the
+ * walk never gets far ahead of the search, and the search stops as soon
+ * as the worker is cancelled.
+ * <p>
+ * A file is never decoded. Its first bytes tell its format, like when it is
+ * opened, and the string is encoded in the charset of the file and searched
+ * in the bytes of the file with the Boyer-Moore-Horspool algorithm, mapped
+ * in windows of {@link #WINDOW_SIZE} bytes, or read through a
+ * <code>GZIPInputStream</code> for a gzip file. Files whose charset has no
+ * plain ASCII, like the East Asian double byte ones, and binary files are
+ * skipped. When the case does not matter, only the case of the ASCII
+ * letters is ignored, which is what the usual searches for identifiers,
+ * paths or error codes need.
+ * <p>
+ * The lines of a file are only counted if the string has been found in it,
+ * up to its last match, so the files that it is not in are only searched.
+ * The matches of every file are reported through the <code>hits</code>
+ * property as soon as the file has been searched.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileSearch extends SwingWorker<FileSearch.Summary, FileSearch.Hit> {
+
+    // The part of a file that is mapped at once
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    // The part of a gzip file that is decompressed at once
+    private static final int STREAM_CHUNK_SIZE = 1024 * 1024;
+    // The longest string that can be searched for
+    static final int MAX_TEXT_LENGTH = 64 * 1024;
+    // More matches are not useful, only slow
+    static final int MAX_HITS_PER_FILE = 1000;
+    static final int MAX_HITS = 100000;
+    // The bytes shown before and after a match
+    private static final int PREVIEW_BYTES = 100;
+
+    private final File root;
+    private final String text;
+    private final boolean matchCase;
+    private final PathMatcher names;
+    // The string encoded in the charsets of the files
+    private final Map<Charset, Needle> needles;
+    private final AtomicInteger searchedFiles;
+    private final AtomicInteger skippedFiles;
+    private final AtomicInteger hits;
+    private final AtomicLong searchedBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param root the folder to search, or a single file
+     * @param text the string to search for
+     * @param matchCase <code>true</code> if the case of the letters must match
+     * @param namePattern a glob pattern that the names of the searched files
+     *                    must match, like <code>*.log*</code>, or an empty
+     *                    string to search every file
+     * @throws IllegalArgumentException if the text is empty or too long,
+     *                                  or the pattern is not valid
+     * @since 1.1
+     */
+    public FileSearch(File root, String text, boolean matchCase, String namePattern) {
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to search for");
+        }
+        if (text.length() > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException("The text to search for is too long");
+        }
+        this.root = root;
+        this.text = text;
+        this.matchCase = matchCase;
+        this.names = namePattern.isEmpty() ? null
+                : FileSystems.getDefault().getPathMatcher("glob:" + namePattern);
+        this.needles = new ConcurrentHashMap<>();
+        this.searchedFiles = new AtomicInteger();
+        this.skippedFiles = new AtomicInteger();
+        this.hits = new AtomicInteger();
+        this.searchedBytes = new AtomicLong();
+    }
+
+    /**
+     * Returns the string that is searched for.
+     *
+     * @return the text of the search
+     * @since 1.1
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns how many files have been searched so far.
+     * May be called from any thread.
+     *
+     * @return the number of searched files
+     * @since 1.1
+     */
+    public int getSearchedFiles() {
+        return searchedFiles.get();
+    }
+
+    /**
+     * Returns how many bytes have been searched so far.
+     * May be called from any thread.
+     *
+     * @return the number of searched bytes
+     * @since 1.1
+     */
+    public long getSearchedBytes() {
+        return searchedBytes.get();
+    }
+
+    /**
+     * Walks the folders and waits until their files have been searched.
+     *
+     * @return the summary of the search, or <code>null</code> if it was cancelled
+     * @throws IOException if the folder cannot be walked
+     * @since 1.1
+     */
+    @Override
+    protected Summary doInBackground() throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        int queueSize = 4 * threads;
+        Semaphore queued = new Semaphore(queueSize);
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return isStopped() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isStopped()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isRegularFile() && (names == null || names.matches(file.getFileName()))) {
+                        // Waits while enough files are queued, so the walk does not run ahead
+                        queued.acquireUninterruptibly();
+                        pool.execute(() -> {
+                            try {
+                                searchFile(file);
+                            } finally {
+                                queued.release();
+                            }
+                        });
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    skippedFiles.incrementAndGet();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            // Every file has been searched once every place in the queue is free
+            queued.acquireUninterruptibly(queueSize);
+        } finally {
+            pool.shutdown();
+        }
+        if (isCancelled()) {
+            return null;
+        }
+        return new Summary(searchedFiles.get(), skippedFiles.get(), hits.get(), searchedBytes.get());
+    }
+
+    private boolean isStopped() {
+        return isCancelled() || hits.get() >= MAX_HITS;
+    }
+
+    /**
+     * Hands the matches that have been found to the listeners of the
+     * <code>hits</code> property, in the Event Dispatch Thread.
+     *
+     * @param found the matches, in the order they were found
+     * @since 1.1
+     */
+    @Override
+    protected void process(List<Hit> found) {
+        firePropertyChange("hits", null, found);
+    }
+
+    /**
+     * Searches a file and reports its matches. A file that cannot be
+     * read, is binary or has a charset that cannot be searched is skipped.
+     */
+    private void searchFile(Path path) {
+        if (isStopped()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[] prefix = new byte[(int) Math.min(FileFormat.SNIFF_SIZE, size)];
+            ByteBuffer prefixBuffer = ByteBuffer.wrap(prefix);
+            while (prefixBuffer.hasRemaining() && channel.read(prefixBuffer, prefixBuffer.position()) > 0) {
+                // Read until the prefix is full
+            }
+            boolean compressed = FileFormat.isCompressed(prefix);
+            Chunks chunks = compressed ? new StreamChunks(channel) : new MappedChunks(channel, size);
+
+            // The format is detected from the first chunk, which is the decompressed one
+            ByteBuffer first = chunks.next(0);
+            if (first == null) {
+                searchedFiles.incrementAndGet();
+                return;
+            }
+            byte[] sniffed = new byte[Math.min(FileFormat.SNIFF_SIZE, first.limit())];
+            first.get(sniffed);
+            first.rewind();
+            FileFormat format = FileFormat.detect(sniffed, sniffed.length < first.limit() || chunks.hasMore());
+            if (!MappedText.supports(format.getCharset()) || FileFormat.isBinary(sniffed, format)) {
+                skippedFiles.incrementAndGet();
+                return;
+            }
+
+            Needle needle = needles.computeIfAbsent(format.getCharset(), this::encode);
+            List<Hit> found = new ArrayList<>();
+            List<Long> offsets = new ArrayList<>();
+            long next = 0; // Where the next match may start, so matches do not overlap
+            for (ByteBuffer chunk = first; chunk != null; chunk = chunks.next(needle.bytes.length - 1)) {
+                if (isCancelled()) {
+                    return;
+                }
+                next = needle.search(chunk, chunks.base(), next, format, offsets, found);
+                if (offsets.size() >= MAX_HITS_PER_FILE) {
+                    break;
+                }
+            }
+            searchedBytes.addAndGet(size);
+            searchedFiles.incrementAndGet();
+            if (found.isEmpty()) {
+                return;
+            }
+            // Found, so its lines are counted, reading it again
+            Chunks again = compressed ? new StreamChunks(channel) : new MappedChunks(channel, size);
+            countLines(again, format, offsets, found);
+            File file = path.toFile();
+            for (Hit hit : found) {
+                hit.file = file;
+            }
+            if (hits.addAndGet(found.size()) - found.size() < MAX_HITS && !isCancelled()) {
+                publish(found.toArray(new Hit[0]));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Like a file that changed while it was searched, or cannot be opened
+            skippedFiles.incrementAndGet();
+        }
+    }
+
+    /**
+     * Encodes the string in a charset, folding the case of its ASCII letters.
+     */
+    private Needle encode(Charset charset) {
+        byte[] bytes = text.getBytes(charset);
+        int unit = charset.equals(StandardCharsets.UTF_16BE) || charset.equals(StandardCharsets.UTF_16LE) ? 2 : 1;
+        return new Needle(bytes, unit, charset.equals(StandardCharsets.UTF_16LE) ? 1 : 0, !matchCase);
+    }
+
+    /**
+     * Counts the lines of a file up to every match,
+     * and the characters of the line before every match.
+     */
+    private void countLines(Chunks chunks, FileFormat format, List<Long> offsets, List<Hit> found)
+            throws IOException {
+        boolean utf16 = format.getCharset().equals(StandardCharsets.UTF_16BE)
+                || format.getCharset().equals(StandardCharsets.UTF_16LE);
+        boolean littleEndian = format.getCharset().equals(StandardCharsets.UTF_16LE);
+        boolean utf8 = format.getCharset().equals(StandardCharsets.UTF_8);
+        // In the document every line break is a '\n', which a "\r" separator becomes
+        int separator = format.getLineSeparator().equals("\r") ? '\r' : '\n';
+        int bomLength = format.getBomLength();
+        int step = utf16 ? 2 : 1;
+
+        int line = 0;
+        long column = 0;
+        int h = 0;
+        for (ByteBuffer chunk = chunks.next(0); chunk != null && h < found.size(); chunk = chunks.next(0)) {
+            if (isCancelled()) {
+                return;
+            }
+            long base = chunks.base();
+            int limit = chunk.limit() - (step - 1);
+            for (int i = 0; i < limit && h < found.size(); i += step) {
+                long position = base + i;
+                while (h < found.size() && offsets.get(h) == position) {
+                    found.get(h).line = line;
+                    found.get(h).column = (int) Math.min(Integer.MAX_VALUE, column);
+                    h++;
+                }
+                if (position < bomLength) {
+                    continue;
+                }
+                int c;
+                if (utf16) {
+                    int b0 = chunk.get(i) & 0xFF;
+                    int b1 = chunk.get(i + 1) & 0xFF;
+                    c = littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+                } else {
+                    c = chunk.get(i) & 0xFF;
+                }
+                if (c == separator) {
+                    line++;
+                    column = 0;
+                } else if (!utf8 || (c & 0xC0) != 0x80) {
+                    // A character of four UTF-8 bytes is a surrogate pair in the document
+                    column += (utf8 && c >= 0xF0) ? 2 : 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * The string to search for, encoded in a charset, with the
+     * Boyer-Moore-Horspool table of the bytes it can skip.
+     */
+    private static final class Needle {
+        final byte[] bytes;
+        final int unit;
+        final int high; // Where the high byte of a UTF-16 code unit is
+        final byte[] fold;
+        final int[] shifts;
+
+        /**
+         * In UTF-16 only the code units of ASCII letters are folded, whose
+         * high byte is 0, so that a byte of another character, like the
+         * 0x41 of '\u0141', is never taken for a letter.
+         */
+        Needle(byte[] bytes, int unit, int high, boolean ignoreCase) {
+            this.unit = unit;
+            this.high = high;
+            this.fold = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                fold[i] = (byte) ((ignoreCase && i >= 'A' && i <= 'Z') ? i + ('a' - 'A') : i);
+            }
+            this.bytes = new byte[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                boolean letter = unit == 1 || (i % 2 != high && bytes[i ^ 1] == 0);
+                this.bytes[i] = letter ? fold[bytes[i] & 0xFF] : bytes[i];
+            }
+            // The skips go by the folded bytes, which every byte that may match folds to
+            shifts = new int[256];
+            Arrays.fill(shifts, bytes.length);
+            for (int i = 0; i < bytes.length - 1; i++) {
+                shifts[fold[this.bytes[i] & 0xFF] & 0xFF] = bytes.length - 1 - i;
+            }
+        }
+
+        /**
+         * Searches a chunk of the file, from the position where a match
+         * may start, and keeps the offset and the preview of every match.
+         *
+         * @return where the next match may start
+         */
+        long search(ByteBuffer chunk, long base, long next, FileFormat format, List<Long> offsets, List<Hit> found) {
+            int last = bytes.length - 1;
+            byte lastByte = bytes[last];
+            int limit = chunk.limit();
+            int i = (int) Math.max(0, next - base);
+            while (i + last < limit) {
+                if (folded(chunk, i, last) == lastByte) {
+                    int j = last - 1;
+                    while (j >= 0 && folded(chunk, i, j) == bytes[j]) {
+                        j--;
+                    }
+                    // A match of UTF-16 must start at a character
+                    if (j < 0 && (base + i - format.getBomLength()) % unit == 0) {
+                        offsets.add(base + i);
+                        found.add(preview(chunk, i, format));
+                        if (offsets.size() >= MAX_HITS_PER_FILE) {
+                            return base + limit;
+                        }
+                        i += bytes.length;
+                        continue;
+                    }
+                }
+                i += shifts[fold[chunk.get(i + last) & 0xFF] & 0xFF];
+            }
+            return base + i;
+        }
+
+        /**
+         * Folds the byte at <code>j</code> of a match starting at
+         * <code>i</code> the way the bytes of the needle are folded.
+         */
+        private byte folded(ByteBuffer chunk, int i, int j) {
+            byte b = chunk.get(i + j);
+            boolean letter = unit == 1 || (j % 2 != high && chunk.get(i + (j ^ 1)) == 0);
+            return letter ? fold[b & 0xFF] : b;
+        }
+
+        /**
+         * Makes the hit of a match, with the part of its line around it.
+         */
+        private Hit preview(ByteBuffer chunk, int at, FileFormat format) {
+            Charset charset = format.getCharset();
+            int start = Math.max(0, at - PREVIEW_BYTES);
+            start += (at - start) % unit;
+            if (charset.equals(StandardCharsets.UTF_8)) {
+                while (start < at && (chunk.get(start) & 0xC0) == 0x80) {
+                    start++;
+                }
+            }
+            int end = Math.min(chunk.limit(), at + bytes.length + PREVIEW_BYTES);
+            end -= (end - at) % unit;
+            String before = decode(chunk, start, at, charset);
+            String match = decode(chunk, at, at + bytes.length, charset);
+            String after = decode(chunk, at + bytes.length, end, charset);
+            before = before.substring(Math.max(before.lastIndexOf('\n'), before.lastIndexOf('\r')) + 1);
+            int lineEnd = after.length();
+            for (int i = 0; i < after.length(); i++) {
+                char c = after.charAt(i);
+                if (c == '\n' || c == '\r' || c == '\uFFFD') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+            return new Hit(before.replace('\uFFFD', ' ') + match + after.substring(0, lineEnd),
+                    before.length(), match.length());
+        }
+
+        private String decode(ByteBuffer chunk, int from, int to, Charset charset) {
+            byte[] part = new byte[to - from];
+            for (int i = 0; i < part.length; i++) {
+                part[i] = chunk.get(from + i);
+            }
+            return new String(part, charset);
+        }
+    }
+
+    /**
+     * <p>
+     * The bytes of a file, a chunk at a time. Every chunk starts with
+     * the last bytes of the previous one, as many as asked for, so a
+     * match that crosses the border of two chunks is found as well.
+     */
+    private abstract static class Chunks {
+        long base;
+
+        /**
+         * Returns the next chunk, from its first byte to its limit.
+         *
+         * @param overlap how many bytes of the previous chunk it repeats
+         * @return the chunk, or <code>null</code> after the last one
+         */
+        abstract ByteBuffer next(int overlap) throws IOException;
+
+        /**
+         * Returns whether there are chunks after the last one returned.
+         */
+        abstract boolean hasMore();
+
+        /**
+         * Returns where the last returned chunk starts in the file.
+         */
+        long base() {
+            return base;
+        }
+    }
+
+    /**
+     * The chunks of a file, mapped in windows of <code>WINDOW_SIZE</code> bytes.
+     */
+    private static final class MappedChunks extends Chunks {
+        private final FileChannel channel;
+        private final long size;
+        private long end;
+
+        MappedChunks(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        @Override
+        ByteBuffer next(int overlap) throws IOException {
+            if (end >= size) {
+                return null;
+            }
+            base = (end == 0) ? 0 : end - overlap;
+            end = Math.min(size, base + WINDOW_SIZE);
+            return channel.map(FileChannel.MapMode.READ_ONLY, base, end - base);
+        }
+
+        @Override
+        boolean hasMore() {
+            return end < size;
+        }
+    }
+
+    /**
+     * The chunks of a gzip file, decompressed as they are read.
+     * Every chunk but the last is full, so it has an even size.
+     */
+    private static final class StreamChunks extends Chunks {
+        private final InputStream in;
+        private final byte[] buffer;
+        private int count;
+        private boolean eof;
+
+        StreamChunks(FileChannel channel) throws IOException {
+            channel.position(0);
+            // The channel is closed by the caller
+            this.in = new GZIPInputStream(Channels.newInputStream(channel), 64 * 1024);
+            this.buffer = new byte[STREAM_CHUNK_SIZE + MAX_TEXT_LENGTH * 4];
+        }
+
+        @Override
+        ByteBuffer next(int overlap) throws IOException {
+            if (eof) {
+                return null;
+            }
+            int kept = (count == 0) ? 0 : Math.min(overlap, count);
+            base += count - kept;
+            System.arraycopy(buffer, count - kept, buffer, 0, kept);
+            count = kept;
+            int read = 0;
+            while (count < kept + STREAM_CHUNK_SIZE
+                    && (read = in.read(buffer, count, kept + STREAM_CHUNK_SIZE - count)) >= 0) {
+                count += read;
+            }
+            if (read < 0) {
+                eof = true;
+                if (count == kept && (kept > 0 || base > 0)) {
+                    return null;
+                }
+            }
+            return ByteBuffer.wrap(buffer, 0, count);
+        }
+
+        @Override
+        boolean hasMore() {
+            return !eof;
+        }
+    }
+
+    /**
+     * <p>
+     * A match of the search: the file and the line it is in,
+     * where it starts in the line, and the part of the line around it.
+     */
+    public static final class Hit {
+        private File file;
+        private int line;
+        private int column;
+        private final String preview;
+        private final int previewStart;
+        private final int length;
+
+        Hit(String preview, int previewStart, int length) {
+            this.preview = preview;
+            this.previewStart = previewStart;
+            this.length = length;
+        }
+
+        /**
+         * Returns the file of the match.
+         *
+         * @return the file
+         * @since 1.1
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the line of the match.
+         *
+         * @return the index of the line, counting from 0
+         * @since 1.1
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Returns where the match starts in its line.
+         *
+         * @return the number of characters of the line before the match
+         * @since 1.1
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        /**
+         * Returns the length of the match.
+         *
+         * @return the number of characters of the match
+         * @since 1.1
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the part of the line around the match.
+         *
+         * @return up to a hundred bytes of the line before and after the match
+         * @since 1.1
+         */
+        public String getPreview() {
+            return preview;
+        }
+
+        /**
+         * Returns where the match starts in the preview.
+         *
+         * @return the number of characters of the preview before the match
+         * @since 1.1
+         */
+        public int getPreviewStart() {
+            return previewStart;
+        }
+    }
+
+    /**
+     * The result of a finished search.
+     */
+    public static final class Summary {
+        private final int files;
+        private final int skipped;
+        private final int hits;
+        private final long bytes;
+
+        Summary(int files, int skipped, int hits, long bytes) {
+            this.files = files;
+            this.skipped = skipped;
+            this.hits = hits;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns how many files were searched.
+         *
+         * @return the number of searched files
+         * @since 1.1
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * Returns how many files were skipped, because they could not
+         * be read, were binary or had a charset that cannot be searched.
+         *
+         * @return the number of skipped files
+         * @since 1.1
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Returns how many matches were found.
+         *
+         * @return the number of matches
+         * @since 1.1
+         */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns whether the search stopped at <code>MAX_HITS</code> matches.
+         *
+         * @return <code>true</code> if there may be more matches
+         * @since 1.1
+         */
+        public boolean isTruncated() {
+            return hits >= MAX_HITS;
+        }
+
+        /**
+         * Returns how many bytes were searched.
+         *
+         * @return the size of the searched files, or of their
+         *         compressed contents for the gzip files
+         * @since 1.1
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
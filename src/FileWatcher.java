@@ -0,0 +1,204 @@
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Watches the files of the open documents and reports the ones that
+ * another program has changed, by their size and their time of last
+ * modification, which together are the {@link Stamp} of a file.
+ * <p>
+ * Every {@link #POLL_INTERVAL} milliseconds the Event Dispatch Thread
+ * asks for the files to watch, with the stamps that they had when they
+ * were last loaded or saved, and a background thread reads their current
+ * stamps, so the Event Dispatch Thread never waits for the disk, even
+ * for a file on a slow network drive. A file is reported only once its
+ * new stamp has been the same for two polls in a row, so a file that is
+ * still being written is not reported halfway.
+ * <p>
+ * A file keeps being reported while its stamp differs from the one it
+ * is watched with, so the stamp has to be updated once the change has
+ * been dealt with, or ignored.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileWatcher {
+
+    static final int POLL_INTERVAL = 1000;
+
+    /**
+     * The key of the document property that holds the
+     * stamp of its file when it was last loaded or saved.
+     *
+     * @since 1.1
+     */
+    public static final String STAMP_PROPERTY = "fileStamp";
+
+    private final Supplier<Map<File, Stamp>> files;
+    private final BiConsumer<File, Stamp> listener;
+    private final Timer timer;
+    private final ExecutorService executor;
+    // The stamps that the last poll read
+    private Map<File, Stamp> polled;
+    private boolean polling;
+
+    /**
+     * Constructor.
+     * The watcher does not poll until it is started.
+     *
+     * @param files gives the files to watch, with the stamps
+     *              they are known to have, in the Event Dispatch Thread
+     * @param listener receives every changed file and its new
+     *                 stamp, in the Event Dispatch Thread
+     * @since 1.1
+     */
+    public FileWatcher(Supplier<Map<File, Stamp>> files, BiConsumer<File, Stamp> listener) {
+        this.files = files;
+        this.listener = listener;
+        this.timer = new Timer(POLL_INTERVAL, event -> poll());
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "File watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.polled = new HashMap<>();
+    }
+
+    /**
+     * Starts polling the files.
+     *
+     * @since 1.1
+     */
+    public void start() {
+        timer.start();
+    }
+
+    /**
+     * Stops polling the files.
+     *
+     * @since 1.1
+     */
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Reads the stamps of the watched files in the background,
+     * unless the previous poll is still reading them.
+     */
+    private void poll() {
+        if (polling) {
+            return;
+        }
+        Map<File, Stamp> known = files.get();
+        if (known.isEmpty()) {
+            polled = new HashMap<>();
+            return;
+        }
+        polling = true;
+        executor.execute(() -> {
+            Map<File, Stamp> current = new HashMap<>();
+            for (File file : known.keySet()) {
+                current.put(file, Stamp.of(file));
+            }
+            SwingUtilities.invokeLater(() -> polled(known, current));
+        });
+    }
+
+    private void polled(Map<File, Stamp> known, Map<File, Stamp> current) {
+        polling = false;
+        Map<File, Stamp> previous = polled;
+        polled = current;
+        for (Map.Entry<File, Stamp> entry : current.entrySet()) {
+            File file = entry.getKey();
+            Stamp stamp = entry.getValue();
+            if (!stamp.equals(known.get(file)) && stamp.equals(previous.get(file))) {
+                listener.accept(file, stamp);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * What is known about a version of a file without reading it:
+     * its size and the time it was last modified.
+     */
+    public static final class Stamp {
+        private final long size;
+        private final long lastModified;
+
+        private Stamp(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Reads the stamp of a file.
+         *
+         * @param file the file
+         * @return the stamp, which for a file that does
+         *         not exist has no size and no time
+         * @since 1.1
+         */
+        public static Stamp of(File file) {
+            // A file that does not exist has a length and a time of 0
+            return new Stamp(file.isFile() ? file.length() : -1, file.lastModified());
+        }
+
+        /**
+         * Returns whether the file existed.
+         *
+         * @return <code>false</code> if the file did not exist
+         * @since 1.1
+         */
+        public boolean exists() {
+            return size >= 0;
+        }
+
+        /**
+         * Returns the size of the file.
+         *
+         * @return the size in bytes, or -1 if the file did not exist
+         * @since 1.1
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the time the file was last modified.
+         *
+         * @return the time in milliseconds, or 0 if the file did not exist
+         * @since 1.1
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Stamp)) {
+                return false;
+            }
+            Stamp stamp = (Stamp) other;
+            return size == stamp.size && lastModified == stamp.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
+
+        @Override
+        public String toString() {
+            return size + " bytes, modified at " + lastModified;
+        }
+    }
+}
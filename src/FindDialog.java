@@ -0,0 +1,376 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>
+ * Dialog of the "Find" and "Replace" operations of the editor.
+ * Searches the document of the selected tab, either for a literal
+ * string or for a regular expression, with a {@link TextSearch}.
+ * <p>
+ * "Find Next" selects the next match after the selection, "Find All"
+ * highlights the matches while they are found and counts them and
+ * "Replace All" replaces every match with a single change of the document.
+ * Every search runs in the background on a snapshot of the document and
+ * can be stopped. If the document changes while it is being searched,
+ * the search stops, as the matches it finds would no longer be right.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FindDialog extends JDialog {
+
+    // Highlighting more matches than this only slows down painting
+    private static final int MAX_HIGHLIGHTS = 2000;
+
+    private final Supplier<EditorTab> currentTab;
+    private final JTextField findField;
+    private final JTextField replaceField;
+    private final JCheckBox regexBox;
+    private final JCheckBox matchCaseBox;
+    private final JButton stopBtn;
+    private final JLabel statusLabel;
+    private final Highlighter.HighlightPainter painter;
+
+    private TextSearch search;
+
+    private TextSearch highlightedSearch;
+    private JTextComponent highlightedArea;
+    private final List<Object> highlights;
+
+    /**
+     * Constructor.
+     * Creates the components of the dialog, which is not shown yet.
+     *
+     * @param owner the frame of the editor
+     * @param currentTab gives the selected tab, whose document is searched
+     * @since 1.1
+     */
+    public FindDialog(JFrame owner, Supplier<EditorTab> currentTab) {
+        super(owner, "Find", false);
+        this.currentTab = currentTab;
+        this.highlights = new ArrayList<>();
+        this.painter = new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
+
+        // ##### Creating the fields and the options #####
+        JPanel fieldPanel = new JPanel(new GridLayout(0, 2, 5, 5));
+        fieldPanel.add(new JLabel("Find:"));
+        fieldPanel.add(findField = new JTextField(24));
+        fieldPanel.add(new JLabel("Replace with:"));
+        fieldPanel.add(replaceField = new JTextField(24));
+        fieldPanel.add(regexBox = new JCheckBox("Regular expression"));
+        fieldPanel.add(matchCaseBox = new JCheckBox("Match case"));
+
+        // ##### Creating the buttons #####
+        JButton findNextBtn = new JButton("Find Next");
+        JButton findAllBtn = new JButton("Find All");
+        JButton replaceAllBtn = new JButton("Replace All");
+        stopBtn = new JButton("Stop");
+        JButton closeBtn = new JButton("Close");
+        stopBtn.setEnabled(false);
+        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        btnPanel.add(findNextBtn);
+        btnPanel.add(findAllBtn);
+        btnPanel.add(replaceAllBtn);
+        btnPanel.add(stopBtn);
+        btnPanel.add(closeBtn);
+
+        findNextBtn.addActionListener(event -> findNext());
+        findAllBtn.addActionListener(event -> findAll());
+        replaceAllBtn.addActionListener(event -> replaceAll());
+        stopBtn.addActionListener(event -> stop());
+        closeBtn.addActionListener(event -> close());
+        findField.addActionListener(event -> findNext());
+
+        statusLabel = new JLabel(" ");
+
+        JPanel contentPanel = new JPanel(new BorderLayout(5, 5));
+        contentPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        contentPanel.add(fieldPanel, BorderLayout.NORTH);
+        contentPanel.add(statusLabel, BorderLayout.CENTER);
+        contentPanel.add(btnPanel, BorderLayout.SOUTH);
+        this.setContentPane(contentPanel);
+        this.getRootPane().setDefaultButton(findNextBtn);
+        this.pack();
+        this.setLocationRelativeTo(owner);
+
+        this.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Shows the dialog, with the selected text as the text to find.
+     *
+     * @param replace <code>true</code> to start with the replacement field
+     * @since 1.1
+     */
+    public void showDialog(boolean replace) {
+        String selected = currentTab.get().getTextArea().getSelectedText();
+        if (selected != null && !selected.isEmpty() && selected.indexOf('\n') < 0) {
+            findField.setText(selected);
+        }
+        this.setTitle(replace ? "Replace" : "Find");
+        this.setVisible(true);
+        JTextField field = (replace && !findField.getText().isEmpty()) ? replaceField : findField;
+        field.requestFocusInWindow();
+        field.selectAll();
+    }
+
+    /**
+     * Returns whether there is something to search for.
+     *
+     * @return <code>true</code> if the find field is not empty
+     * @since 1.1
+     */
+    public boolean hasQuery() {
+        return !findField.getText().isEmpty();
+    }
+
+    /**
+     * Functionality of the "Find Next" button
+     * Selects the next match after the selection of the text area,
+     * continuing from the start of the text after the last match.
+     *
+     * @since 1.1
+     */
+    public void findNext() {
+        TextSearch.Query query = createQuery();
+        if (query == null) {
+            return;
+        }
+        EditorTab tab = currentTab.get();
+        JTextArea textArea = tab.getTextArea();
+        PieceTableDocument document = tab.getDocument();
+        startSearch(TextSearch.findNext(document.snapshot(), query, textArea.getSelectionEnd()), document, result -> {
+            if (result.getCount() == 0) {
+                statusLabel.setText("Not found");
+                return;
+            }
+            statusLabel.setText(" ");
+            textArea.select(result.getStart(), result.getEnd());
+            // The focus may be on the dialog, which would hide the selection
+            textArea.getCaret().setSelectionVisible(true);
+        });
+    }
+
+    /**
+     * Functionality of the "Find All" button
+     * Highlights every match, while they are found, and counts them.
+     * Only the first matches are highlighted, but all of them are counted.
+     *
+     * @since 1.1
+     */
+    private void findAll() {
+        TextSearch.Query query = createQuery();
+        if (query == null) {
+            return;
+        }
+        EditorTab tab = currentTab.get();
+        PieceTableDocument document = tab.getDocument();
+        TextSearch findAll = TextSearch.findAll(document.snapshot(), query);
+        removeHighlights();
+        highlightedSearch = findAll;
+        highlightedArea = tab.getTextArea();
+        int[] found = new int[1];
+        // The last matches may arrive after the search has finished
+        findAll.addPropertyChangeListener(event -> {
+            if ("matches".equals(event.getPropertyName()) && highlightedSearch == findAll) {
+                int[] matches = (int[]) event.getNewValue();
+                found[0] += matches.length / 2;
+                highlight(matches);
+                if (search == findAll) {
+                    statusLabel.setText("Searching... " + found[0] + " matches");
+                }
+            }
+        });
+        startSearch(findAll, document,
+                result -> statusLabel.setText(result.getCount() == 0 ? "Not found" : result.getCount() + " matches"));
+    }
+
+    /**
+     * Functionality of the "Replace All" button
+     * Replaces every match. The replacement of all the matches is
+     * computed in the background and the document is then changed
+     * once, from the start of the first match to the end of the
+     * last one, so it can also be undone in one step.
+     *
+     * @since 1.1
+     */
+    private void replaceAll() {
+        TextSearch.Query query = createQuery();
+        if (query == null) {
+            return;
+        }
+        PieceTableDocument document = currentTab.get().getDocument();
+        String replacement = replaceField.getText();
+        startSearch(TextSearch.replaceAll(document.snapshot(), query, replacement), document, result -> {
+            if (result.getCount() == 0) {
+                statusLabel.setText("Not found");
+                return;
+            }
+            removeHighlights();
+            try {
+                document.replace(result.getStart(), result.getEnd() - result.getStart(),
+                        result.getReplacedText(), null);
+                statusLabel.setText("Replaced " + result.getCount() + " matches");
+            } catch (BadLocationException e) {
+                // Should never happen, the document has not changed since the search
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Functionality of the "Stop" button
+     * Stops the search that is running, if any.
+     *
+     * @since 1.1
+     */
+    private void stop() {
+        if (search != null) {
+            search.cancel(true);
+            statusLabel.setText("Search stopped");
+        }
+    }
+
+    /**
+     * Functionality of the "Close" button and WindowListener
+     * Stops the search, removes the highlights and hides the dialog.
+     *
+     * @since 1.1
+     */
+    private void close() {
+        stop();
+        removeHighlights();
+        statusLabel.setText(" ");
+        this.setVisible(false);
+    }
+
+    /**
+     * Creates the query of the fields. In case it is not valid,
+     * the reason is shown in the status of the dialog.
+     *
+     * @return the query, or <code>null</code> if it is not valid
+     */
+    private TextSearch.Query createQuery() {
+        try {
+            return new TextSearch.Query(findField.getText(), regexBox.isSelected(), matchCaseBox.isSelected());
+        } catch (PatternSyntaxException e) {
+            statusLabel.setText("Invalid regular expression: " + e.getDescription());
+        } catch (IllegalArgumentException e) {
+            statusLabel.setText(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Runs a search in the background, after stopping the previous one.
+     * The search is stopped if the document changes meanwhile.
+     *
+     * @param worker the search
+     * @param document the searched document
+     * @param whenFound the action to run with the result of the search,
+     *                  if it has not been stopped
+     */
+    private void startSearch(TextSearch worker, PieceTableDocument document, Consumer<TextSearch.Result> whenFound) {
+        stop();
+        search = worker;
+        boolean[] changed = {false};
+        DocumentListener changeListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+
+            private void changed() {
+                changed[0] = true;
+                worker.cancel(true);
+                statusLabel.setText("The text changed. Please search again");
+            }
+        };
+        document.addDocumentListener(changeListener);
+        stopBtn.setEnabled(true);
+        statusLabel.setText("Searching...");
+
+        worker.addPropertyChangeListener(event -> {
+            if (!"state".equals(event.getPropertyName())
+                    || event.getNewValue() != SwingWorker.StateValue.DONE) {
+                return;
+            }
+            document.removeDocumentListener(changeListener);
+            if (search != worker) {
+                return; // A newer search has replaced it
+            }
+            search = null;
+            stopBtn.setEnabled(false);
+            try {
+                TextSearch.Result result = worker.get();
+                if (!changed[0] && result != null) {
+                    whenFound.accept(result);
+                }
+            } catch (CancellationException | InterruptedException e) {
+                // Stopped by the user or by a change of the text
+            } catch (ExecutionException e) {
+                statusLabel.setText(e.getCause().getMessage());
+            }
+        });
+        worker.execute();
+    }
+
+    /**
+     * Highlights the given matches, as long as there are not too many.
+     */
+    private void highlight(int[] matches) {
+        Highlighter highlighter = highlightedArea.getHighlighter();
+        int length = highlightedArea.getDocument().getLength();
+        for (int i = 0; i < matches.length && highlights.size() < MAX_HIGHLIGHTS; i += 2) {
+            if (matches[i + 1] <= length) {
+                try {
+                    highlights.add(highlighter.addHighlight(matches[i], matches[i + 1], painter));
+                } catch (BadLocationException e) {
+                    // Checked above
+                }
+            }
+        }
+    }
+
+    private void removeHighlights() {
+        if (highlightedArea != null) {
+            for (Object highlight : highlights) {
+                highlightedArea.getHighlighter().removeHighlight(highlight);
+            }
+        }
+        highlights.clear();
+        highlightedSearch = null;
+        highlightedArea = null;
+    }
+}
@@ -0,0 +1,331 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Dialog of the "Find in Files" operation of the editor.
+ * Searches the files of a folder, and of the folders in it, for a
+ * literal string with a {@link FileSearch}, and lists every match,
+ * with its file, its line and the part of the line around it, as
+ * soon as the file it is in has been searched.
+ * <p>
+ * Clicking a match, or pressing Enter on it, opens its file at the
+ * line of the match, which is known from the search, so the file is
+ * not searched again. The search can be stopped at any time and
+ * the matches found until then stay in the list.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FindInFilesDialog extends JDialog {
+
+    // How often the status shows how far the search has come
+    private static final int STATUS_INTERVAL = 250;
+
+    private final Supplier<File> currentFolder;
+    private final FileChooserService fileChooser;
+    private final JTextField findField;
+    private final JTextField folderField;
+    private final JTextField namesField;
+    private final JCheckBox matchCaseBox;
+    private final JButton stopBtn;
+    private final JLabel statusLabel;
+    private final HitListModel hits;
+    private final JList<FileSearch.Hit> hitList;
+    private final Timer statusTimer;
+
+    private FileSearch search;
+    // The search whose matches are listed, which may send its last ones after it has finished
+    private FileSearch listedSearch;
+
+    /**
+     * Constructor.
+     * Creates the components of the dialog, which is not shown yet.
+     *
+     * @param owner the frame of the editor
+     * @param currentFolder gives the folder of the file of the selected tab, if it has one
+     * @param fileChooser the file chooser of the editor, which selects the folder
+     * @param opener opens the file of a match at its line
+     * @since 1.1
+     */
+    public FindInFilesDialog(JFrame owner, Supplier<File> currentFolder, FileChooserService fileChooser,
+                             Consumer<FileSearch.Hit> opener) {
+        super(owner, "Find in Files", false);
+        this.currentFolder = currentFolder;
+        this.fileChooser = fileChooser;
+        this.hits = new HitListModel();
+
+        // ##### Creating the fields and the options #####
+        JPanel fieldPanel = new JPanel(new GridLayout(0, 2, 5, 5));
+        fieldPanel.add(new JLabel("Find:"));
+        fieldPanel.add(findField = new JTextField(24));
+        fieldPanel.add(new JLabel("In folder:"));
+        JPanel folderPanel = new JPanel(new BorderLayout(5, 0));
+        folderPanel.add(folderField = new JTextField(24), BorderLayout.CENTER);
+        JButton browseBtn = new JButton("...");
+        browseBtn.setToolTipText("Select the folder");
+        folderPanel.add(browseBtn, BorderLayout.EAST);
+        fieldPanel.add(folderPanel);
+        fieldPanel.add(new JLabel("File names (like *.log*):"));
+        fieldPanel.add(namesField = new JTextField(24));
+        fieldPanel.add(matchCaseBox = new JCheckBox("Match case"));
+
+        // ##### Creating the list of the matches #####
+        hitList = new JList<>(hits);
+        hitList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        hitList.setCellRenderer(new HitRenderer());
+        // Every row has the same height, so the list never measures them all
+        hitList.setFixedCellHeight(hitList.getFontMetrics(hitList.getFont()).getHeight() + 2);
+        hitList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = hitList.locationToIndex(e.getPoint());
+                if (index >= 0 && hitList.getCellBounds(index, index).contains(e.getPoint())) {
+                    opener.accept(hits.getElementAt(index));
+                }
+            }
+        });
+        hitList.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "open");
+        hitList.getActionMap().put("open", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (hitList.getSelectedValue() != null) {
+                    opener.accept(hitList.getSelectedValue());
+                }
+            }
+        });
+        JScrollPane hitPane = new JScrollPane(hitList);
+        hitPane.setPreferredSize(new Dimension(640, 300));
+
+        // ##### Creating the buttons #####
+        JButton findBtn = new JButton("Find");
+        stopBtn = new JButton("Stop");
+        JButton closeBtn = new JButton("Close");
+        stopBtn.setEnabled(false);
+        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        btnPanel.add(findBtn);
+        btnPanel.add(stopBtn);
+        btnPanel.add(closeBtn);
+
+        findBtn.addActionListener(event -> find());
+        stopBtn.addActionListener(event -> stop());
+        closeBtn.addActionListener(event -> close());
+        browseBtn.addActionListener(event -> browse());
+        findField.addActionListener(event -> find());
+
+        statusLabel = new JLabel(" ");
+        statusTimer = new Timer(STATUS_INTERVAL, event -> showProgress());
+
+        JPanel southPanel = new JPanel(new BorderLayout(5, 5));
+        southPanel.add(statusLabel, BorderLayout.CENTER);
+        southPanel.add(btnPanel, BorderLayout.SOUTH);
+        JPanel contentPanel = new JPanel(new BorderLayout(5, 5));
+        contentPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        contentPanel.add(fieldPanel, BorderLayout.NORTH);
+        contentPanel.add(hitPane, BorderLayout.CENTER);
+        contentPanel.add(southPanel, BorderLayout.SOUTH);
+        this.setContentPane(contentPanel);
+        this.getRootPane().setDefaultButton(findBtn);
+        this.pack();
+        this.setLocationRelativeTo(owner);
+
+        this.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Shows the dialog. The folder to search is, the first time,
+     * the folder of the file of the selected tab.
+     *
+     * @since 1.1
+     */
+    public void showDialog() {
+        if (folderField.getText().isEmpty()) {
+            File folder = currentFolder.get();
+            folderField.setText((folder != null ? folder : new File(System.getProperty("user.dir"))).getPath());
+        }
+        this.setVisible(true);
+        findField.requestFocusInWindow();
+        findField.selectAll();
+    }
+
+    /**
+     * Functionality of the "..." button
+     * Selects the folder to search with the file chooser of the editor.
+     *
+     * @since 1.1
+     */
+    private void browse() {
+        File folder = fileChooser.showFolderDialog(this, new File(folderField.getText()));
+        if (folder != null) {
+            folderField.setText(folder.getPath());
+        }
+    }
+
+    /**
+     * Functionality of the "Find" button
+     * Starts searching the folder, after stopping the previous search,
+     * and lists the matches while they are found.
+     *
+     * @since 1.1
+     */
+    private void find() {
+        File folder = new File(folderField.getText().trim());
+        if (!folder.exists()) {
+            statusLabel.setText("The folder does not exist");
+            return;
+        }
+        FileSearch worker;
+        try {
+            worker = new FileSearch(folder, findField.getText(), matchCaseBox.isSelected(), namesField.getText().trim());
+        } catch (IllegalArgumentException e) {
+            statusLabel.setText(e.getMessage());
+            return;
+        }
+        stop();
+        hits.clear();
+        search = worker;
+        listedSearch = worker;
+        stopBtn.setEnabled(true);
+        statusLabel.setText("Searching...");
+        statusTimer.start();
+
+        worker.addPropertyChangeListener(event -> {
+            if ("hits".equals(event.getPropertyName()) && listedSearch == worker) {
+                @SuppressWarnings("unchecked")
+                List<FileSearch.Hit> found = (List<FileSearch.Hit>) event.getNewValue();
+                hits.addAll(found);
+            }
+            if (!"state".equals(event.getPropertyName())
+                    || event.getNewValue() != SwingWorker.StateValue.DONE || search != worker) {
+                return;
+            }
+            search = null;
+            stopBtn.setEnabled(false);
+            statusTimer.stop();
+            try {
+                FileSearch.Summary summary = worker.get();
+                statusLabel.setText(summary.getHits() + " matches in " + summary.getFiles() + " files"
+                        + (summary.getSkipped() > 0 ? ", " + summary.getSkipped() + " files skipped" : "")
+                        + (summary.isTruncated() ? ". Stopped at " + FileSearch.MAX_HITS + " matches" : ""));
+            } catch (CancellationException | InterruptedException e) {
+                // Stopped by the user
+            } catch (ExecutionException e) {
+                statusLabel.setText("Error at reading the folder: " + e.getCause().getMessage());
+            }
+        });
+        worker.execute();
+    }
+
+    /**
+     * Shows how many files have been searched so far.
+     */
+    private void showProgress() {
+        FileSearch worker = search;
+        if (worker != null) {
+            statusLabel.setText("Searching... " + worker.getSearchedFiles() + " files, "
+                    + (worker.getSearchedBytes() >> 20) + " MB, " + hits.getSize() + " matches");
+        }
+    }
+
+    /**
+     * Functionality of the "Stop" button
+     * Stops the search that is running, if any.
+     *
+     * @since 1.1
+     */
+    private void stop() {
+        if (search != null) {
+            search.cancel(true);
+            search = null;
+            stopBtn.setEnabled(false);
+            statusTimer.stop();
+            statusLabel.setText("Search stopped. " + hits.getSize() + " matches");
+        }
+    }
+
+    /**
+     * Functionality of the "Close" button and WindowListener
+     * Stops the search and hides the dialog. The matches
+     * stay in the list until the next search.
+     *
+     * @since 1.1
+     */
+    private void close() {
+        stop();
+        this.setVisible(false);
+    }
+
+    /**
+     * <p>
+     * The matches of the list, which are added in batches,
+     * with a single event for every batch.
+     */
+    private static final class HitListModel extends AbstractListModel<FileSearch.Hit> {
+        private final List<FileSearch.Hit> hits = new ArrayList<>();
+
+        @Override
+        public int getSize() {
+            return hits.size();
+        }
+
+        @Override
+        public FileSearch.Hit getElementAt(int index) {
+            return hits.get(index);
+        }
+
+        void addAll(List<FileSearch.Hit> found) {
+            if (!found.isEmpty()) {
+                int first = hits.size();
+                hits.addAll(found);
+                fireIntervalAdded(this, first, hits.size() - 1);
+            }
+        }
+
+        void clear() {
+            if (!hits.isEmpty()) {
+                int last = hits.size() - 1;
+                hits.clear();
+                fireIntervalRemoved(this, 0, last);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Shows a match as its file, its line and the part of the line around it.
+     */
+    private static final class HitRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            FileSearch.Hit hit = (FileSearch.Hit) value;
+            String text = (hit == null) ? " "
+                    : hit.getFile().getName() + " (" + (hit.getLine() + 1) + "): " + hit.getPreview().trim();
+            JLabel label = (JLabel) super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            if (hit != null) {
+                label.setToolTipText(hit.getFile().getPath());
+            }
+            return label;
+        }
+    }
+}
@@ -0,0 +1,724 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>
+ * Decompresses a gzip file, the way <code>GZIPInputStream</code> does,
+ * but it can also start in the middle of the file, at an {@link AccessPoint}
+ * that was taken while the file was decompressed before.
+ * <p>
+ * The deflate format cannot be decompressed from just anywhere, as every
+ * block may refer back to the last 32 KB of the output, and it is not even
+ * aligned to bytes. But at the end of a block the decompression only
+ * depends on the position in the file, down to the bit, and on those
+ * 32 KB, so that is what an access point keeps, the way the "zran" example
+ * of zlib does. The inflater of the JDK hides both of them, so the deflate
+ * blocks are decoded here, in plain Java.
+ * <p>
+ * Files of several gzip members, as written by tools that compress
+ * in parallel, are decompressed as a single stream. The checksum and
+ * the size of every member are checked when the member has been
+ * decompressed from its start.
+ * <p>
+ * The file is read with positional reads, so several inflaters can
+ * read the same channel at the same time, each one from its own thread.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+final class GzipInflater {
+
+    static final int WINDOW_SIZE = 32 * 1024;
+    private static final int INPUT_SIZE = 64 * 1024;
+    // The output is kept in a ring, large enough for the window,
+    // the bytes that have not been read yet and the longest match
+    private static final int OUTPUT_SIZE = 2 * WINDOW_SIZE;
+    private static final int OUTPUT_MASK = OUTPUT_SIZE - 1;
+    private static final int MAX_MATCH = 258;
+    private static final int MAX_PENDING = OUTPUT_SIZE - WINDOW_SIZE - MAX_MATCH;
+
+    private static final int MEMBER = 0;
+    private static final int BLOCK = 1;
+    private static final int STORED = 2;
+    private static final int HUFFMAN = 3;
+    private static final int TRAILER = 4;
+    private static final int END = 5;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+    };
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+    // The order in which the lengths of the code length code are stored
+    private static final int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    private static final Code FIXED_LITERALS;
+    private static final Code FIXED_DISTANCES;
+
+    static {
+        int[] lengths = new int[288];
+        Arrays.fill(lengths, 0, 144, 8);
+        Arrays.fill(lengths, 144, 256, 9);
+        Arrays.fill(lengths, 256, 280, 7);
+        Arrays.fill(lengths, 280, 288, 8);
+        FIXED_LITERALS = new Code(lengths, 288);
+        Arrays.fill(lengths, 0, 30, 5);
+        FIXED_DISTANCES = new Code(lengths, 30);
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer input;
+    private long inputPosition; // Where the next read of the file starts
+    private long bits;
+    private int bitCount;
+
+    private final byte[] output;
+    private long written;       // The bytes decompressed so far
+    private long read;          // The bytes handed over so far
+    private long historyStart;  // The first byte that can be referred back to
+
+    private int state;
+    private boolean lastBlock;
+    private int storedLeft;
+    private Code literals;
+    private Code distances;
+
+    private final CRC32 crc;
+    private boolean checked;    // If the member is decompressed from its start
+    private long memberStart;
+    private boolean firstMember;
+
+    /**
+     * Constructor.
+     * The file is decompressed from its start.
+     *
+     * @param channel the gzip file
+     * @since 1.1
+     */
+    GzipInflater(FileChannel channel) {
+        this.channel = channel;
+        this.input = ByteBuffer.allocate(INPUT_SIZE);
+        this.input.limit(0);
+        this.output = new byte[OUTPUT_SIZE];
+        this.crc = new CRC32();
+        this.state = MEMBER;
+        this.firstMember = true;
+    }
+
+    /**
+     * Constructor.
+     * The file is decompressed from an access point.
+     *
+     * @param channel the gzip file
+     * @param point an access point taken from the same file
+     * @throws IOException if the access point is damaged
+     * @since 1.1
+     */
+    GzipInflater(FileChannel channel, AccessPoint point) throws IOException {
+        this(channel);
+        inputPosition = point.bitOffset >>> 3;
+        written = point.position;
+        read = point.position;
+        historyStart = point.position - point.windowLength;
+        state = BLOCK;
+        firstMember = false;
+
+        Inflater inflater = new Inflater();
+        try {
+            byte[] window = new byte[point.windowLength];
+            inflater.setInput(point.window);
+            int done = 0;
+            while (done < window.length && !inflater.finished()) {
+                done += inflater.inflate(window, done, window.length - done);
+            }
+            for (int i = 0; i < window.length; i++) {
+                output[(int) (historyStart + i) & OUTPUT_MASK] = window[i];
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Damaged access point: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        int skipped = (int) (point.bitOffset & 7);
+        if (skipped > 0) {
+            need(skipped);
+            drop(skipped);
+        }
+    }
+
+    /**
+     * Returns how many bytes have been decompressed and read so far,
+     * that is, the position of the next byte in the decompressed file.
+     *
+     * @return the position
+     * @since 1.1
+     */
+    long getPosition() {
+        return read;
+    }
+
+    /**
+     * Returns how far the compressed file has been read.
+     *
+     * @return the number of bytes of the file that have been read
+     * @since 1.1
+     */
+    long getInputPosition() {
+        return inputPosition;
+    }
+
+    /**
+     * Checks if an access point can be taken at the current position.
+     * That is the case after a deflate block has been read to its end,
+     * and all its bytes have been read.
+     *
+     * @return <code>true</code> if {@link #accessPoint()} can be called
+     * @since 1.1
+     */
+    boolean isAtAccessPoint() {
+        return state == BLOCK && read == written;
+    }
+
+    /**
+     * Takes an access point at the current position.
+     * The 32 KB before it are compressed again to save memory.
+     *
+     * @return the access point
+     * @throws IllegalStateException if the inflater is not at an access point
+     * @since 1.1
+     */
+    AccessPoint accessPoint() {
+        if (!isAtAccessPoint()) {
+            throw new IllegalStateException("Not at the end of a block");
+        }
+        int length = (int) Math.min(WINDOW_SIZE, written - historyStart);
+        byte[] window = new byte[length];
+        for (int i = 0; i < length; i++) {
+            window[i] = output[(int) (written - length + i) & OUTPUT_MASK];
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(window);
+            deflater.finish();
+            byte[] compressed = new byte[length + 64];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, size * 2);
+                }
+                size += deflater.deflate(compressed, size, compressed.length - size);
+            }
+            long bitOffset = (inputPosition - input.remaining()) * 8 - bitCount;
+            return new AccessPoint(written, bitOffset, Arrays.copyOf(compressed, size), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads decompressed bytes.
+     *
+     * @param bytes receives the bytes
+     * @param offset where the first byte goes
+     * @param length how many bytes to read at most
+     * @return the number of bytes read, or -1 at the end of the file
+     * @throws IOException if the file cannot be read or is damaged
+     * @since 1.1
+     */
+    int read(byte[] bytes, int offset, int length) throws IOException {
+        if (read == written) {
+            fill();
+            if (read == written) {
+                return -1;
+            }
+        }
+        int count = (int) Math.min(length, written - read);
+        int start = (int) read & OUTPUT_MASK;
+        int first = Math.min(count, OUTPUT_SIZE - start);
+        System.arraycopy(output, start, bytes, offset, first);
+        System.arraycopy(output, 0, bytes, offset + first, count - first);
+        if (checked) {
+            crc.update(bytes, offset, count);
+        }
+        read += count;
+        return count;
+    }
+
+    /**
+     * Skips decompressed bytes.
+     *
+     * @param count how many bytes to skip
+     * @throws EOFException if the file ends before
+     * @throws IOException if the file cannot be read or is damaged
+     * @since 1.1
+     */
+    void skip(long count) throws IOException {
+        long end = read + count;
+        while (read < end) {
+            if (read == written) {
+                fill();
+                if (read == written) {
+                    throw new EOFException("Unexpected end of the compressed data");
+                }
+            }
+            int chunk = (int) Math.min(end - read, written - read);
+            if (checked) {
+                int start = (int) read & OUTPUT_MASK;
+                int first = Math.min(chunk, OUTPUT_SIZE - start);
+                crc.update(output, start, first);
+                crc.update(output, 0, chunk - first);
+            }
+            read += chunk;
+        }
+    }
+
+    /**
+     * Decompresses until there are enough bytes to be read,
+     * or a block ends, so an access point can be taken.
+     */
+    private void fill() throws IOException {
+        while (written - read < MAX_PENDING) {
+            switch (state) {
+                case MEMBER:
+                    if (!readHeader()) {
+                        state = END;
+                        return;
+                    }
+                    state = BLOCK;
+                    break;
+                case BLOCK:
+                    readBlockHeader();
+                    break;
+                case STORED:
+                    if (copyStored()) {
+                        endBlock();
+                        return;
+                    }
+                    break;
+                case HUFFMAN:
+                    if (decodeHuffman()) {
+                        endBlock();
+                        return;
+                    }
+                    break;
+                case TRAILER:
+                    readTrailer();
+                    state = MEMBER;
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private void endBlock() {
+        state = lastBlock ? TRAILER : BLOCK;
+    }
+
+    /**
+     * Reads the header of a gzip member.
+     *
+     * @return <code>false</code> if there are no more members
+     */
+    private boolean readHeader() throws IOException {
+        alignToByte();
+        if (!hasInput()) {
+            if (firstMember) {
+                throw new EOFException("Empty gzip file");
+            }
+            return false;
+        }
+        int magic = readByte() | readByte() << 8;
+        if (magic != 0x8B1F) {
+            if (firstMember) {
+                throw new ZipException("Not in gzip format");
+            }
+            // Anything after the last member, like padding, is ignored
+            return false;
+        }
+        if (readByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readByte();
+        for (int i = 0; i < 6; i++) {
+            readByte(); // Modification time, extra flags and system
+        }
+        if ((flags & 4) != 0) {
+            int length = readByte() | readByte() << 8;
+            for (int i = 0; i < length; i++) {
+                readByte();
+            }
+        }
+        if ((flags & 8) != 0) {
+            while (readByte() != 0) {
+                // The name of the file
+            }
+        }
+        if ((flags & 16) != 0) {
+            while (readByte() != 0) {
+                // A comment
+            }
+        }
+        if ((flags & 2) != 0) {
+            readByte(); // The checksum of the header
+            readByte();
+        }
+        firstMember = false;
+        checked = true;
+        crc.reset();
+        memberStart = written;
+        historyStart = written;
+        return true;
+    }
+
+    private void readTrailer() throws IOException {
+        alignToByte();
+        long expectedCrc = readInt();
+        long expectedSize = readInt();
+        if (checked && (expectedCrc != crc.getValue() || expectedSize != ((written - memberStart) & 0xFFFFFFFFL))) {
+            throw new ZipException("Corrupt gzip file, the checksum does not match");
+        }
+    }
+
+    private void readBlockHeader() throws IOException {
+        need(3);
+        lastBlock = take(1) == 1;
+        int type = take(2);
+        if (type == 0) {
+            alignToByte();
+            int length = readByte() | readByte() << 8;
+            int complement = readByte() | readByte() << 8;
+            if (length != (~complement & 0xFFFF)) {
+                throw new ZipException("Invalid stored block length");
+            }
+            storedLeft = length;
+            state = STORED;
+        } else if (type == 1) {
+            literals = FIXED_LITERALS;
+            distances = FIXED_DISTANCES;
+            state = HUFFMAN;
+        } else if (type == 2) {
+            readDynamicCodes();
+            state = HUFFMAN;
+        } else {
+            throw new ZipException("Invalid block type");
+        }
+    }
+
+    private void readDynamicCodes() throws IOException {
+        need(14);
+        int literalCount = take(5) + 257;
+        int distanceCount = take(5) + 1;
+        int lengthCount = take(4) + 4;
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new ZipException("Too many length or distance codes");
+        }
+        int[] lengths = new int[19];
+        for (int i = 0; i < lengthCount; i++) {
+            need(3);
+            lengths[CODE_LENGTH_ORDER[i]] = take(3);
+        }
+        Code lengthCode = new Code(lengths, 19);
+        if (!lengthCode.complete) {
+            throw new ZipException("Invalid code lengths");
+        }
+
+        lengths = new int[literalCount + distanceCount];
+        int i = 0;
+        while (i < lengths.length) {
+            int symbol = decode(lengthCode);
+            if (symbol < 16) {
+                lengths[i++] = symbol;
+                continue;
+            }
+            int repeated = 0;
+            int times;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new ZipException("Repeated length without a first one");
+                }
+                repeated = lengths[i - 1];
+                need(2);
+                times = 3 + take(2);
+            } else if (symbol == 17) {
+                need(3);
+                times = 3 + take(3);
+            } else {
+                need(7);
+                times = 11 + take(7);
+            }
+            if (i + times > lengths.length) {
+                throw new ZipException("Too many code lengths");
+            }
+            Arrays.fill(lengths, i, i + times, repeated);
+            i += times;
+        }
+        if (lengths[256] == 0) {
+            throw new ZipException("Missing end of block code");
+        }
+        literals = new Code(lengths, literalCount);
+        distances = new Code(Arrays.copyOfRange(lengths, literalCount, lengths.length), distanceCount);
+        if (!literals.complete || !distances.complete) {
+            throw new ZipException("Invalid code lengths");
+        }
+    }
+
+    /**
+     * Copies the bytes of a stored block, as many as fit.
+     *
+     * @return <code>true</code> if the block has ended
+     */
+    private boolean copyStored() throws IOException {
+        while (storedLeft > 0 && written - read < MAX_PENDING) {
+            if (bitCount >= 8 || !input.hasRemaining()) {
+                // The bytes already in the bit buffer come first
+                output[(int) written & OUTPUT_MASK] = (byte) readByte();
+                written++;
+                storedLeft--;
+                continue;
+            }
+            int to = (int) written & OUTPUT_MASK;
+            int count = Math.min(Math.min(storedLeft, input.remaining()),
+                    Math.min(MAX_PENDING - (int) (written - read), OUTPUT_SIZE - to));
+            input.get(output, to, count);
+            written += count;
+            storedLeft -= count;
+        }
+        return storedLeft == 0;
+    }
+
+    /**
+     * Decodes the symbols of a compressed block, as many as fit.
+     *
+     * @return <code>true</code> if the block has ended
+     */
+    private boolean decodeHuffman() throws IOException {
+        byte[] out = output;
+        while (written - read < MAX_PENDING) {
+            int symbol = decode(literals);
+            if (symbol < 256) {
+                out[(int) written & OUTPUT_MASK] = (byte) symbol;
+                written++;
+                continue;
+            }
+            if (symbol == 256) {
+                return true;
+            }
+            symbol -= 257;
+            if (symbol >= LENGTH_BASE.length) {
+                throw new ZipException("Invalid length code");
+            }
+            need(LENGTH_EXTRA[symbol]);
+            int length = LENGTH_BASE[symbol] + take(LENGTH_EXTRA[symbol]);
+            symbol = decode(distances);
+            if (symbol >= DISTANCE_BASE.length) {
+                throw new ZipException("Invalid distance code");
+            }
+            need(DISTANCE_EXTRA[symbol]);
+            int distance = DISTANCE_BASE[symbol] + take(DISTANCE_EXTRA[symbol]);
+            if (distance > written - historyStart) {
+                throw new ZipException("Invalid distance too far back");
+            }
+            int to = (int) written;
+            int from = to - distance;
+            for (int i = 0; i < length; i++) {
+                out[(to + i) & OUTPUT_MASK] = out[(from + i) & OUTPUT_MASK];
+            }
+            written += length;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a symbol of a Huffman code.
+     */
+    private int decode(Code code) throws IOException {
+        if (bitCount < code.bits) {
+            refill();
+        }
+        int entry = code.table[(int) bits & code.mask];
+        int length = entry & 15;
+        if (length == 0) {
+            throw new ZipException("Invalid Huffman code");
+        }
+        if (length > bitCount) {
+            throw new EOFException("Unexpected end of the compressed data");
+        }
+        drop(length);
+        return entry >>> 4;
+    }
+
+    // ##### Reading bits #####
+
+    private void need(int count) throws IOException {
+        if (bitCount < count) {
+            refill();
+            if (bitCount < count) {
+                throw new EOFException("Unexpected end of the compressed data");
+            }
+        }
+    }
+
+    private int take(int count) {
+        int value = (int) bits & ((1 << count) - 1);
+        drop(count);
+        return value;
+    }
+
+    private void drop(int count) {
+        bits >>>= count;
+        bitCount -= count;
+    }
+
+    private void alignToByte() {
+        drop(bitCount & 7);
+    }
+
+    private int readByte() throws IOException {
+        need(8);
+        return take(8);
+    }
+
+    private long readInt() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (long) readByte() << (8 * i);
+        }
+        return value;
+    }
+
+    private boolean hasInput() throws IOException {
+        refill();
+        return bitCount > 0;
+    }
+
+    /**
+     * Fills the bit buffer with as many whole bytes as it can hold.
+     */
+    private void refill() throws IOException {
+        while (bitCount <= 56) {
+            if (!input.hasRemaining()) {
+                input.clear();
+                int count = channel.read(input, inputPosition);
+                input.flip();
+                if (count <= 0) {
+                    return;
+                }
+                inputPosition += count;
+            }
+            bits |= (input.get() & 0xFFL) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * <p>
+     * A canonical Huffman code, as a table that gives the symbol and the
+     * length of the code of every possible value of the next bits. Codes
+     * are stored with their first bit lowest, as they are read.
+     */
+    private static final class Code {
+        final int[] table;
+        final int bits;
+        final int mask;
+
+        final boolean complete;
+
+        Code(int[] lengths, int count) {
+            int max = 1;
+            int[] counts = new int[16];
+            for (int i = 0; i < count; i++) {
+                counts[lengths[i]]++;
+                max = Math.max(max, lengths[i]);
+            }
+            counts[0] = 0;
+            int[] next = new int[16];
+            int code = 0;
+            int left = 1;
+            for (int length = 1; length < 16; length++) {
+                code = (code + counts[length - 1]) << 1;
+                next[length] = code;
+                left = (left << 1) - counts[length];
+                if (left < 0) {
+                    break;
+                }
+            }
+            // More codes than their lengths allow, so some would overlap
+            complete = left >= 0;
+            bits = max;
+            mask = (1 << max) - 1;
+            table = new int[1 << max];
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[symbol];
+                if (length == 0) {
+                    continue;
+                }
+                int reversed = Integer.reverse(next[length]++) >>> (32 - length);
+                for (int i = reversed; i < table.length; i += 1 << length) {
+                    table[i] = symbol << 4 | length;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * A position in the decompressed file where the decompression can start:
+     * the end of a deflate block, with the bit of the file where the next
+     * block starts and, compressed, the 32 KB that it may refer back to.
+     */
+    static final class AccessPoint {
+        final long position;
+        final long bitOffset;
+        final byte[] window;
+        final int windowLength;
+
+        AccessPoint(long position, long bitOffset, byte[] window, int windowLength) {
+            this.position = position;
+            this.bitOffset = bitOffset;
+            this.window = window;
+            this.windowLength = windowLength;
+        }
+
+        /**
+         * Returns the position of the point in the decompressed file.
+         *
+         * @return the position in bytes
+         * @since 1.1
+         */
+        long getPosition() {
+            return position;
+        }
+
+        /**
+         * Estimates how much memory the point holds.
+         *
+         * @return the size in bytes
+         * @since 1.1
+         */
+        long getMemoryFootprint() {
+            return window.length + 48L;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>
+ * Shows the bytes of a file, read only, in rows of {@link #BYTES_PER_ROW}
+ * bytes: the offset of the row, its bytes in hexadecimal and the same bytes
+ * as ASCII characters, with a '.' for the ones that cannot be shown. Used
+ * for binary files, which are not text, and for any file on demand.
+ * <p>
+ * Only the rows that are visible are read, from the {@link MappedBytes} of
+ * the file, and painted, so a file of ten gigabytes is shown as fast, and
+ * with as little memory, as a file of ten kilobytes. The view scrolls by
+ * rows with its own scroll bar, whose range is scaled down for files of
+ * more rows than a scroll bar can count.
+ * <p>
+ * The tool bar of the view jumps to an offset, in decimal or in hexadecimal
+ * with a <code>0x</code> prefix, and finds the next match of a pattern of
+ * bytes, given in hexadecimal, like <code>CA FE BA BE</code>, or as text
+ * in double quotes, like <code>"PK"</code>, which is searched for in UTF-8.
+ * The search runs in the background and can be stopped.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class HexView extends JPanel implements Scrollable {
+
+    /**
+     * The number of bytes in every row.
+     *
+     * @since 1.1
+     */
+    public static final int BYTES_PER_ROW = 16;
+    // The scroll bar counts rows up to this, and scales the rows down beyond it
+    private static final int MAX_SCROLL_ROWS = Integer.MAX_VALUE / 2;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final MappedBytes bytes;
+    private final long rowCount;
+    private final long scale;
+    private final int offsetDigits;
+    private final Rows rows;
+    private final JScrollBar scrollBar;
+    private final JTextField offsetField;
+    private final JTextField patternField;
+    private final JButton stopBtn;
+    private final JLabel statusLabel;
+
+    private long topRow;
+    private long selectionStart;
+    private int selectionLength;
+    private MappedBytes.Search search;
+
+    /**
+     * Constructor.
+     *
+     * @param bytes the bytes of the file to show
+     * @since 1.1
+     */
+    public HexView(MappedBytes bytes) {
+        super(new BorderLayout());
+        this.bytes = bytes;
+        this.rowCount = Math.max(1, (bytes.size() + BYTES_PER_ROW - 1) / BYTES_PER_ROW);
+        this.scale = rowCount / MAX_SCROLL_ROWS + 1;
+        this.offsetDigits = Math.max(8, (64 - Long.numberOfLeadingZeros(bytes.size()) + 3) / 4);
+        this.selectionStart = -1;
+
+        // ##### Creating the tool bar #####
+        JPanel toolBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        toolBar.add(new JLabel("Offset:"));
+        toolBar.add(offsetField = new JTextField(12));
+        JButton goBtn = new JButton("Go");
+        toolBar.add(goBtn);
+        toolBar.add(new JLabel("Find bytes:"));
+        toolBar.add(patternField = new JTextField(16));
+        patternField.setToolTipText("Hexadecimal bytes, like CA FE BA BE, or text in double quotes");
+        JButton findNextBtn = new JButton("Find Next");
+        toolBar.add(findNextBtn);
+        toolBar.add(stopBtn = new JButton("Stop"));
+        stopBtn.setEnabled(false);
+        toolBar.add(statusLabel = new JLabel(" "));
+        goBtn.addActionListener(event -> goToOffset());
+        offsetField.addActionListener(event -> goToOffset());
+        findNextBtn.addActionListener(event -> findNext());
+        patternField.addActionListener(event -> findNext());
+        stopBtn.addActionListener(event -> stop());
+
+        // ##### Creating the rows and their scroll bar #####
+        rows = new Rows();
+        scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+        scrollBar.addAdjustmentListener(event -> {
+            if (topRow / scale != event.getValue()) {
+                setTopRow((long) event.getValue() * scale);
+            }
+        });
+        rows.addMouseWheelListener(this::wheelMoved);
+        rows.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                rows.requestFocusInWindow();
+            }
+        });
+        rows.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                setTopRow(topRow);
+            }
+        });
+        addScrollKey(KeyEvent.VK_UP, 0, -1);
+        addScrollKey(KeyEvent.VK_DOWN, 0, 1);
+        addScrollKey(KeyEvent.VK_PAGE_UP, 0, Integer.MIN_VALUE);
+        addScrollKey(KeyEvent.VK_PAGE_DOWN, 0, Integer.MAX_VALUE);
+        addScrollKey(KeyEvent.VK_HOME, InputEvent.CTRL_DOWN_MASK, Long.MIN_VALUE);
+        addScrollKey(KeyEvent.VK_END, InputEvent.CTRL_DOWN_MASK, Long.MAX_VALUE);
+
+        this.add(toolBar, BorderLayout.NORTH);
+        this.add(rows, BorderLayout.CENTER);
+        this.add(scrollBar, BorderLayout.EAST);
+        updateScrollBar();
+    }
+
+    /**
+     * Returns the bytes that the view shows.
+     *
+     * @return the bytes of the file
+     * @since 1.1
+     */
+    public MappedBytes getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Stops the search, if any, and closes the file.
+     *
+     * @since 1.1
+     */
+    public void close() {
+        stop();
+        try {
+            bytes.close();
+        } catch (IOException e) {
+            // Only read, so nothing is lost
+        }
+    }
+
+    /**
+     * Scrolls the view so the row of an offset is visible, near the top.
+     *
+     * @param offset the offset of a byte of the file
+     * @since 1.1
+     */
+    public void scrollTo(long offset) {
+        long row = offset / BYTES_PER_ROW;
+        if (row < topRow || row >= topRow + visibleRows()) {
+            setTopRow(row - Math.min(4, visibleRows() / 4));
+        }
+    }
+
+    /**
+     * Highlights a range of bytes and scrolls to it.
+     *
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @since 1.1
+     */
+    public void select(long offset, int length) {
+        selectionStart = offset;
+        selectionLength = length;
+        scrollTo(offset);
+        rows.repaint();
+    }
+
+    /**
+     * Functionality of the "Go" button
+     * Scrolls to the offset of the offset field.
+     *
+     * @since 1.1
+     */
+    private void goToOffset() {
+        String text = offsetField.getText().trim().toLowerCase(Locale.ROOT);
+        try {
+            long offset = text.startsWith("0x") ? Long.parseLong(text.substring(2), 16) : Long.parseLong(text);
+            if (offset < 0 || offset >= Math.max(1, bytes.size())) {
+                statusLabel.setText("The offset is outside the file");
+                return;
+            }
+            statusLabel.setText(" ");
+            select(offset, 1);
+        } catch (NumberFormatException e) {
+            statusLabel.setText("Not an offset: " + offsetField.getText());
+        }
+    }
+
+    /**
+     * Functionality of the "Find Next" button
+     * Searches for the pattern after the start of the highlighted bytes,
+     * or the first visible byte, in the background and highlights the match.
+     *
+     * @since 1.1
+     */
+    private void findNext() {
+        byte[] pattern;
+        MappedBytes.Search worker;
+        try {
+            pattern = parsePattern(patternField.getText());
+            long from = (selectionStart >= 0) ? selectionStart + 1 : topRow * BYTES_PER_ROW;
+            worker = bytes.search(pattern, from);
+        } catch (IllegalArgumentException e) {
+            statusLabel.setText(e.getMessage());
+            return;
+        }
+        stop();
+        search = worker;
+        stopBtn.setEnabled(true);
+        statusLabel.setText("Searching...");
+        worker.addPropertyChangeListener(event -> {
+            if (search != worker) {
+                return; // Stopped or replaced by a newer search
+            }
+            if ("progress".equals(event.getPropertyName())) {
+                statusLabel.setText("Searching... " + event.getNewValue() + "%");
+            }
+            if (!"state".equals(event.getPropertyName())
+                    || event.getNewValue() != SwingWorker.StateValue.DONE) {
+                return;
+            }
+            search = null;
+            stopBtn.setEnabled(false);
+            try {
+                long found = worker.get();
+                if (found < 0) {
+                    statusLabel.setText("Not found");
+                } else {
+                    statusLabel.setText("Found at 0x" + Long.toHexString(found).toUpperCase(Locale.ROOT));
+                    select(found, worker.getPatternLength());
+                }
+            } catch (CancellationException | InterruptedException e) {
+                // Stopped by the user
+            } catch (ExecutionException e) {
+                statusLabel.setText("Error at reading the file");
+            }
+        });
+        worker.execute();
+    }
+
+    /**
+     * Functionality of the "Stop" button
+     * Stops the search that is running, if any.
+     *
+     * @since 1.1
+     */
+    private void stop() {
+        if (search != null) {
+            search.cancel(true);
+            search = null;
+            stopBtn.setEnabled(false);
+            statusLabel.setText("Search stopped");
+        }
+    }
+
+    /**
+     * Reads a pattern of bytes: text in double quotes, encoded in UTF-8,
+     * or pairs of hexadecimal digits, which may be separated by spaces.
+     *
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    static byte[] parsePattern(String text) {
+        String trimmed = text.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            return trimmed.substring(1, trimmed.length() - 1).getBytes(StandardCharsets.UTF_8);
+        }
+        String digits = trimmed.replaceAll("\\s+", "");
+        if (digits.length() % 2 != 0) {
+            throw new IllegalArgumentException("Every byte needs two hexadecimal digits");
+        }
+        ByteArrayOutputStream pattern = new ByteArrayOutputStream();
+        for (int i = 0; i < digits.length(); i += 2) {
+            int high = Character.digit(digits.charAt(i), 16);
+            int low = Character.digit(digits.charAt(i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not hexadecimal: " + digits.substring(i, i + 2));
+            }
+            pattern.write(high << 4 | low);
+        }
+        return pattern.toByteArray();
+    }
+
+    private void wheelMoved(MouseWheelEvent e) {
+        setTopRow(topRow + (long) e.getWheelRotation() * e.getScrollAmount());
+    }
+
+    /**
+     * Binds a key to scrolling by a number of rows, where the
+     * extreme values stand for a page or the whole file.
+     */
+    private void addScrollKey(int key, int modifiers, long rowsToScroll) {
+        String name = "scroll" + key + "_" + modifiers;
+        this.getInputMap(WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(KeyStroke.getKeyStroke(key, modifiers), name);
+        this.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (patternField.hasFocus() || offsetField.hasFocus()) {
+                    return;
+                }
+                if (rowsToScroll == Long.MIN_VALUE) {
+                    setTopRow(0);
+                } else if (rowsToScroll == Long.MAX_VALUE) {
+                    setTopRow(rowCount);
+                } else if (rowsToScroll == Integer.MIN_VALUE) {
+                    setTopRow(topRow - Math.max(1, visibleRows() - 1));
+                } else if (rowsToScroll == Integer.MAX_VALUE) {
+                    setTopRow(topRow + Math.max(1, visibleRows() - 1));
+                } else {
+                    setTopRow(topRow + rowsToScroll);
+                }
+            }
+        });
+    }
+
+    private int visibleRows() {
+        return Math.max(1, rows.getHeight() / rows.rowHeight());
+    }
+
+    private void setTopRow(long row) {
+        topRow = Math.max(0, Math.min(row, rowCount - visibleRows()));
+        updateScrollBar();
+        rows.repaint();
+    }
+
+    private void updateScrollBar() {
+        int extent = (int) Math.max(1, visibleRows() / scale);
+        int maximum = (int) ((rowCount + scale - 1) / scale);
+        scrollBar.setValues((int) (topRow / scale), Math.min(extent, maximum), 0, maximum);
+        scrollBar.setBlockIncrement(Math.max(1, extent - 1));
+    }
+
+    /**
+     * The view fills its scroll pane and scrolls by itself.
+     *
+     * @since 1.1
+     */
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return rows.rowHeight();
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return visibleRect.height;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return true;
+    }
+
+    /**
+     * <p>
+     * Paints the visible rows, reading only their bytes.
+     */
+    private final class Rows extends JComponent {
+        private final byte[] buffer;
+        private char[] line;
+
+        Rows() {
+            this.buffer = new byte[BYTES_PER_ROW];
+            this.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+            this.setBorder(new EmptyBorder(2, 4, 2, 4));
+            this.setOpaque(true);
+            this.setFocusable(true);
+            this.setBackground(UIManager.getColor("TextArea.background"));
+            this.setForeground(UIManager.getColor("TextArea.foreground"));
+        }
+
+        int rowHeight() {
+            return getFontMetrics(getFont()).getHeight();
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            FontMetrics metrics = getFontMetrics(getFont());
+            int columns = offsetDigits + 2 + BYTES_PER_ROW * 3 + 1 + 1 + BYTES_PER_ROW;
+            return new Dimension(metrics.charWidth('0') * columns + 8, metrics.getHeight() * 24);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setFont(getFont());
+            FontMetrics metrics = g.getFontMetrics();
+            int charWidth = metrics.charWidth('0');
+            int height = metrics.getHeight();
+            Insets insets = getInsets();
+            int hexColumn = offsetDigits + 2;
+            int asciiColumn = hexColumn + BYTES_PER_ROW * 3 + 1;
+            line = new char[asciiColumn + BYTES_PER_ROW];
+
+            int visible = getHeight() / height + 1;
+            for (int i = 0; i < visible && topRow + i < rowCount; i++) {
+                long offset = (topRow + i) * BYTES_PER_ROW;
+                int count;
+                try {
+                    count = bytes.read(offset, buffer, 0, BYTES_PER_ROW);
+                } catch (IOException e) {
+                    g.setColor(Color.RED);
+                    g.drawString("The file cannot be read: " + e.getMessage(), insets.left, insets.top + metrics.getAscent());
+                    return;
+                }
+                int y = insets.top + i * height;
+                paintSelection(g, offset, count, y, height, insets.left, charWidth, hexColumn, asciiColumn);
+                format(offset, count, hexColumn, asciiColumn);
+                g.setColor(getForeground());
+                g.drawChars(line, 0, line.length, insets.left, y + metrics.getAscent());
+            }
+        }
+
+        /**
+         * Paints the background of the highlighted bytes of a row,
+         * both in the hexadecimal and in the ASCII column.
+         */
+        private void paintSelection(Graphics g, long offset, int count, int y, int height,
+                                    int left, int charWidth, int hexColumn, int asciiColumn) {
+            long from = Math.max(selectionStart, offset);
+            long to = Math.min(selectionStart + selectionLength, offset + count);
+            if (selectionStart < 0 || from >= to) {
+                return;
+            }
+            int first = (int) (from - offset);
+            int last = (int) (to - offset);
+            g.setColor(Color.YELLOW);
+            int hexStart = hexColumn + first * 3 + (first >= BYTES_PER_ROW / 2 ? 1 : 0);
+            int hexEnd = hexColumn + last * 3 - 1 + (last > BYTES_PER_ROW / 2 ? 1 : 0);
+            g.fillRect(left + hexStart * charWidth, y, (hexEnd - hexStart) * charWidth, height);
+            g.fillRect(left + (asciiColumn + first) * charWidth, y, (last - first) * charWidth, height);
+        }
+
+        /**
+         * Writes a row into the line: its offset, its bytes
+         * in hexadecimal and then as ASCII characters.
+         */
+        private void format(long offset, int count, int hexColumn, int asciiColumn) {
+            Arrays.fill(line, ' ');
+            for (int i = offsetDigits - 1; i >= 0; i--) {
+                line[i] = HEX_DIGITS[(int) (offset & 0xF)];
+                offset >>>= 4;
+            }
+            for (int i = 0; i < count; i++) {
+                int b = buffer[i] & 0xFF;
+                int column = hexColumn + i * 3 + (i >= BYTES_PER_ROW / 2 ? 1 : 0);
+                line[column] = HEX_DIGITS[b >> 4];
+                line[column + 1] = HEX_DIGITS[b & 0xF];
+                line[asciiColumn + i] = (b >= 0x20 && b < 0x7F) ? (char) b : '.';
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The icons of the editor, packed side by side in a single image that
+ * is stored already decoded, as its ARGB pixels, in
+ * <code>icons.atlas</code> next to the icons.
+ * <p>
+ * Decoding the PNG files with <code>ImageIO</code> at startup costs far
+ * more than drawing the frame: <code>ImageIO</code> looks for its plugins
+ * the first time it is used, and every file is inflated and converted
+ * on its own. The atlas is a single resource that is read in one go
+ * straight into the pixels of an image, and every icon is a part of
+ * that image, which shares its pixels.
+ * <p>
+ * The atlas is written by the <code>main</code> method of this class from
+ * the PNG files, whenever they change:
+ * <pre>
+ * java -cp editor/target/classes IconAtlas icons/icons.atlas icons/*.png
+ * </pre>
+ * If the atlas is missing, the icons are read from the PNG files instead.
+ * <p>
+ * The format is a count of icons, then the name, the offset and the size
+ * of every icon, then the width and the height of the whole image,
+ * followed by its pixels, all in big-endian order.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class IconAtlas {
+
+    static final String RESOURCE = "icons.atlas";
+
+    private final Map<String, BufferedImage> icons;
+
+    private IconAtlas(Map<String, BufferedImage> icons) {
+        this.icons = icons;
+    }
+
+    /**
+     * Loads the icons of the editor.
+     *
+     * @return the icons
+     * @throws IOException if neither the atlas nor the icons can be read
+     * @since 1.1
+     */
+    public static IconAtlas load() throws IOException {
+        InputStream resource = IconAtlas.class.getResourceAsStream(RESOURCE);
+        if (resource == null) {
+            return new IconAtlas(new HashMap<>());
+        }
+        try (DataInputStream in = new DataInputStream(resource)) {
+            int count = in.readInt();
+            String[] names = new String[count];
+            int[][] bounds = new int[count][];
+            for (int i = 0; i < count; i++) {
+                names[i] = in.readUTF();
+                bounds[i] = new int[] {in.readInt(), in.readInt(), in.readInt()};
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            byte[] bytes = new byte[4 * width * height];
+            in.readFully(bytes);
+
+            BufferedImage atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+            ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+            Map<String, BufferedImage> icons = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                icons.put(names[i], atlas.getSubimage(bounds[i][0], 0, bounds[i][1], bounds[i][2]));
+            }
+            return new IconAtlas(icons);
+        }
+    }
+
+    /**
+     * Returns an icon, reading it from its own file
+     * if it is not in the atlas.
+     *
+     * @param name the name of the icon, without the ".png"
+     * @return the icon
+     * @throws IOException if the icon cannot be read
+     * @since 1.1
+     */
+    public BufferedImage getIcon(String name) throws IOException {
+        BufferedImage icon = icons.get(name);
+        if (icon == null) {
+            URL file = IconAtlas.class.getResource(name + ".png");
+            if (file == null) {
+                throw new IOException("Icon not found: " + name);
+            }
+            icon = ImageIO.read(file);
+            icons.put(name, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Writes the atlas of the given PNG files.
+     * Every icon is named after its file, without the ".png".
+     *
+     * @param args the atlas file, followed by the PNG files
+     * @throws IOException if a file cannot be read or written
+     * @since 1.1
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: IconAtlas atlas-file png-files...");
+            System.exit(2);
+        }
+        int count = args.length - 1;
+        BufferedImage[] images = new BufferedImage[count];
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < count; i++) {
+            images[i] = ImageIO.read(new File(args[i + 1]));
+            if (images[i] == null) {
+                throw new IOException("Not an image: " + args[i + 1]);
+            }
+            width += images[i].getWidth();
+            height = Math.max(height, images[i].getHeight());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[0])))) {
+            out.writeInt(count);
+            int x = 0;
+            for (int i = 0; i < count; i++) {
+                String name = new File(args[i + 1]).getName();
+                out.writeUTF(name.endsWith(".png") ? name.substring(0, name.length() - 4) : name);
+                out.writeInt(x);
+                out.writeInt(images[i].getWidth());
+                out.writeInt(images[i].getHeight());
+                x += images[i].getWidth();
+            }
+            out.writeInt(width);
+            out.writeInt(height);
+            BufferedImage atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            x = 0;
+            for (BufferedImage image : images) {
+                // Copied as they are, drawing would blend the transparent pixels
+                int w = image.getWidth();
+                int h = image.getHeight();
+                atlas.setRGB(x, 0, w, h, image.getRGB(0, 0, w, h, null, 0, w), 0, w);
+                x += w;
+            }
+            for (int pixel : ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData()) {
+                out.writeInt(pixel);
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * Cache of the indexes of the large files that have been opened, so a file
+ * that has not changed since it was last opened is not read as a whole again.
+ * The index of a {@link MappedText} is all that a pass over its file learns:
+ * where its blocks and its lines start, the checksums of its blocks, whether
+ * its line breaks are mixed and, once they have been counted, the statistics
+ * of its text.
+ * <p>
+ * Every index is kept in a file of its own, in the "index" folder of the
+ * program's folder in the user's home, named after the path of its file.
+ * The index file starts with the size and the time of last modification of
+ * the file, its path and its format, so the index of a file that has been
+ * changed is never used. The <code>MappedText</code> then checks a sample of
+ * its blocks against their checksums, which catches a file that has been
+ * replaced without changing its size or its time. A few bytes changed in
+ * a block that is not sampled, with the time of the file set back, are
+ * not noticed.
+ * <p>
+ * An index file is memory mapped when it is read and its arrays are copied
+ * out in bulk, so reading the index of a file of gigabytes takes as long as
+ * copying its line starts. The statistics are counted in the background
+ * after the file has been indexed and written into its index afterwards, at
+ * their fixed place in the index file.
+ * <p>
+ * The indexes never take more than <code>MAX_SIZE</code> bytes of the disk.
+ * The time of last modification of an index file is the time it was last
+ * used, and the least recently used ones are deleted first. The cache is only
+ * a shortcut: an index that cannot be read or written is simply not used,
+ * and the file is indexed the way it always has been.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public final class IndexCache {
+
+    private static final int MAGIC = 0x4F534958; // "OSIX"
+    private static final int VERSION = 2;
+    // Where the statistics are in an index file, right after the stamp
+    private static final int STATISTICS_POSITION = 24;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // The most bytes that all the indexes may take
+    static final long MAX_SIZE = 256L * 1024 * 1024;
+
+    private static final ExecutorService COUNTER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Index statistics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private IndexCache() {
+    }
+
+    /**
+     * Returns the folder where the indexes are kept.
+     *
+     * @return the folder of the indexes
+     * @since 1.1
+     */
+    public static File getDirectory() {
+        return new File(new File(System.getProperty("user.home"), ".oldschool-editor"), "index");
+    }
+
+    /**
+     * Reads the index of a file, if one was kept for
+     * the same version of the file in the same format.
+     *
+     * @param file the file
+     * @param format the format of the file
+     * @param stamp the stamp of the file
+     * @return the index, or <code>null</code> if there is none
+     * @since 1.1
+     */
+    public static MappedText.Index load(File file, FileFormat format, FileWatcher.Stamp stamp) {
+        File indexFile = indexFileOf(file);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        MappedText.Index index;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            index = read(in, file, format, stamp);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            // Not used, it is written again once the file has been indexed
+            return null;
+        }
+        if (index != null) {
+            indexFile.setLastModified(System.currentTimeMillis());
+        }
+        return index;
+    }
+
+    private static MappedText.Index read(ByteBuffer in, File file, FileFormat format, FileWatcher.Stamp stamp) {
+        if (in.getInt() != MAGIC || in.getInt() != VERSION
+                || in.getLong() != stamp.getSize() || in.getLong() != stamp.getLastModified()) {
+            return null;
+        }
+        boolean counted = in.getInt() != 0;
+        TextStatistics.Tally statistics = new TextStatistics.Tally(TextStatistics.NONE, TextStatistics.NONE);
+        statistics.spaces = in.getInt();
+        statistics.significant = in.getInt();
+        statistics.wordStarts = in.getInt();
+        statistics.paragraphBreaks = in.getInt();
+        if (!getString(in).equals(file.getAbsolutePath())
+                || !getString(in).equals(format.getCharset().name())
+                || in.getInt() != format.getBomLength()
+                || !getString(in).equals(format.getLineSeparator())) {
+            return null;
+        }
+        boolean mixedLineBreaks = in.getInt() != 0;
+
+        int blockCount = in.getInt();
+        int length = in.getInt();
+        int lineCount = in.getInt();
+        if (blockCount < 0 || length < 0 || lineCount < 1
+                || in.remaining() != 8L * (blockCount + 1) + 4L * (blockCount + 1) + 8L * blockCount + 4L * lineCount) {
+            return null;
+        }
+        long[] blockBytes = new long[blockCount + 1];
+        int[] blockChars = new int[blockCount + 1];
+        long[] checksums = new long[blockCount];
+        int[] lineStarts = new int[lineCount];
+        getLongs(in, blockBytes);
+        getInts(in, blockChars);
+        getLongs(in, checksums);
+        getInts(in, lineStarts);
+        return new MappedText.Index(blockBytes, blockChars, checksums, blockCount, length,
+                lineStarts, lineCount, counted ? statistics : null, mixedLineBreaks);
+    }
+
+    /**
+     * Keeps the index of a file, replacing the one that was kept before,
+     * and deletes the least recently used indexes if there are too many.
+     *
+     * @param file the file
+     * @param format the format of the file
+     * @param stamp the stamp of the file before it was indexed
+     * @param index the index of the file
+     * @since 1.1
+     */
+    public static void store(File file, FileFormat format, FileWatcher.Stamp stamp, MappedText.Index index) {
+        File indexFile = indexFileOf(file);
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try {
+            Files.createDirectories(getDirectory().toPath());
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putLong(stamp.getSize());
+                out.putLong(stamp.getLastModified());
+                putStatistics(out, index.statistics);
+                putString(out, file.getAbsolutePath());
+                putString(out, format.getCharset().name());
+                out.putInt(format.getBomLength());
+                putString(out, format.getLineSeparator());
+                out.putInt(index.mixedLineBreaks ? 1 : 0);
+                out.putInt(index.blockCount);
+                out.putInt(index.length);
+                out.putInt(index.lineCount);
+                putLongs(channel, out, index.blockBytes, index.blockCount + 1);
+                putInts(channel, out, index.blockChars, index.blockCount + 1);
+                putLongs(channel, out, index.checksums, index.blockCount);
+                putInts(channel, out, index.lineStarts, index.lineCount);
+                write(channel, out);
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The file will be indexed again the next time
+            temp.delete();
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Counts the statistics of a mapped text in the background, keeps
+     * them in the text and writes them into the index of its file.
+     *
+     * @param text the text, which has just been indexed
+     * @param stamp the stamp of the file before it was indexed
+     * @since 1.1
+     */
+    public static void countStatistics(MappedText text, FileWatcher.Stamp stamp) {
+        COUNTER.execute(() -> {
+            TextStatistics.Tally statistics = ParallelStatistics.count(text);
+            text.setStatistics(statistics);
+            File indexFile = indexFileOf(text.getFile());
+            try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(STATISTICS_POSITION);
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() == STATISTICS_POSITION && header.getInt() == MAGIC && header.getInt() == VERSION
+                        && header.getLong() == stamp.getSize() && header.getLong() == stamp.getLastModified()) {
+                    ByteBuffer out = ByteBuffer.allocate(20);
+                    putStatistics(out, statistics);
+                    out.flip();
+                    channel.write(out, STATISTICS_POSITION);
+                }
+            } catch (IOException e) {
+                // They will be counted again the next time
+            }
+        });
+    }
+
+    /**
+     * Deletes the least recently used indexes,
+     * until the rest of them fit in <code>MAX_SIZE</code>.
+     */
+    private static void evict() {
+        File[] files = getDirectory().listFiles((dir, name) -> name.endsWith(".index"));
+        if (files == null) {
+            return;
+        }
+        long[] used = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            used[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        // The most recently used first
+        Arrays.sort(order, Comparator.comparingLong(i -> -used[i]));
+        long total = 0;
+        for (int i : order) {
+            total += files[i].length();
+            if (total > MAX_SIZE) {
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the index file of a file, named after the hash of its path.
+     */
+    private static File indexFileOf(File file) {
+        String path = file.getAbsolutePath();
+        long hash = DirtyTracker.hash(path.toCharArray(), 0, path.length());
+        return new File(getDirectory(), String.format("%016x.index", hash));
+    }
+
+    private static void putStatistics(ByteBuffer out, TextStatistics.Tally statistics) {
+        out.putInt(statistics != null ? 1 : 0);
+        out.putInt(statistics != null ? statistics.spaces : 0);
+        out.putInt(statistics != null ? statistics.significant : 0);
+        out.putInt(statistics != null ? statistics.wordStarts : 0);
+        out.putInt(statistics != null ? statistics.paragraphBreaks : 0);
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the first values of an array through the buffer,
+     * as many at once as the buffer has room for.
+     */
+    private static void putInts(FileChannel channel, ByteBuffer out, int[] values, int count) throws IOException {
+        int done = 0;
+        while (done < count) {
+            if (out.remaining() < Integer.BYTES) {
+                write(channel, out);
+            }
+            int part = Math.min(count - done, out.remaining() / Integer.BYTES);
+            out.asIntBuffer().put(values, done, part);
+            out.position(out.position() + part * Integer.BYTES);
+            done += part;
+        }
+    }
+
+    private static void putLongs(FileChannel channel, ByteBuffer out, long[] values, int count) throws IOException {
+        int done = 0;
+        while (done < count) {
+            if (out.remaining() < Long.BYTES) {
+                write(channel, out);
+            }
+            int part = Math.min(count - done, out.remaining() / Long.BYTES);
+            out.asLongBuffer().put(values, done, part);
+            out.position(out.position() + part * Long.BYTES);
+            done += part;
+        }
+    }
+
+    private static void getInts(ByteBuffer in, int[] values) {
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * Integer.BYTES);
+    }
+
+    private static void getLongs(ByteBuffer in, long[] values) {
+        in.asLongBuffer().get(values);
+        in.position(in.position() + values.length * Long.BYTES);
+    }
+
+    /**
+     * Writes what the buffer holds and empties it.
+     */
+    private static void write(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * <p>
+ * Lexer of JSON files. A string that is followed by a ':' on the same
+ * line is a key, any other string is a value. Comments, which many
+ * JSON files have even though the format does not allow them, are
+ * recognized too, and a block comment is the only thing that can
+ * continue on the next line.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class JsonLexer implements Lexer {
+
+    // The state inside a block comment
+    private static final int IN_COMMENT = 1;
+
+    /**
+     * Splits a line of JSON in tokens.
+     *
+     * @param text the characters of the line, without its '\n'
+     * @param offset the first character of the line in the array
+     * @param count the number of characters of the line
+     * @param state the state of the lexer before the line
+     * @param runs receives the tokens of the line
+     * @return the state of the lexer after the line
+     * @since 1.1
+     */
+    @Override
+    public int tokenize(char[] text, int offset, int count, int state, Runs runs) {
+        int end = offset + count;
+        int i = offset;
+        if (state == IN_COMMENT) {
+            runs.add(0, COMMENT);
+            i = endOfComment(text, i, end);
+            if (i < 0) {
+                return IN_COMMENT;
+            }
+        }
+        while (i < end) {
+            char c = text[i];
+            int start = i;
+            if (c == '"') {
+                i = endOfString(text, i + 1, end);
+                runs.add(start - offset, isKey(text, i, end) ? KEY : STRING);
+            } else if (c == '/' && i + 1 < end && text[i + 1] == '/') {
+                runs.add(start - offset, COMMENT);
+                return INITIAL;
+            } else if (c == '/' && i + 1 < end && text[i + 1] == '*') {
+                runs.add(start - offset, COMMENT);
+                i = endOfComment(text, i + 2, end);
+                if (i < 0) {
+                    return IN_COMMENT;
+                }
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                i = endOfWord(text, i + 1, end);
+                runs.add(start - offset, NUMBER);
+            } else if (Character.isLetter(c)) {
+                i = endOfWord(text, i + 1, end);
+                runs.add(start - offset, isLiteral(text, start, i) ? KEYWORD : PLAIN);
+            } else {
+                runs.add(start - offset, PLAIN);
+                i++;
+            }
+        }
+        return INITIAL;
+    }
+
+    /**
+     * Returns the position after the closing quote of a string,
+     * or the end of the line if the string is not closed.
+     */
+    private static int endOfString(char[] text, int i, int end) {
+        while (i < end) {
+            char c = text[i++];
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Returns the position after the end of a block comment,
+     * or -1 if it does not end on this line.
+     */
+    private static int endOfComment(char[] text, int i, int end) {
+        for (; i + 1 < end; i++) {
+            if (text[i] == '*' && text[i + 1] == '/') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    private static int endOfWord(char[] text, int i, int end) {
+        while (i < end && (Character.isLetterOrDigit(text[i]) || text[i] == '.'
+                || text[i] == '+' || text[i] == '-')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isKey(char[] text, int i, int end) {
+        while (i < end && Character.isWhitespace(text[i])) {
+            i++;
+        }
+        return i < end && text[i] == ':';
+    }
+
+    private static boolean isLiteral(char[] text, int start, int end) {
+        String word = new String(text, start, end - start);
+        return word.equals("true") || word.equals("false") || word.equals("null");
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Histogram of latencies, in nanoseconds, that keeps every value with
+ * the same relative precision, the way an HdrHistogram does, in a fixed
+ * amount of memory, whatever the range of the values.
+ * <p>
+ * The values up to 63 have a bucket each. Above that, every power of two
+ * is split in 32 buckets of the same width, so a value is known to about
+ * 3% of it: a bucket tells 64 from 65 nanoseconds, but 10 seconds only to
+ * about a third of a second. So the histogram of every possible value
+ * needs fewer than 2000 buckets, and finding the bucket of a value only
+ * takes a few shifts.
+ * <p>
+ * Values can be recorded from any thread at the same time, and
+ * recording never allocates memory or takes a lock.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // The values below this have a bucket each
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR + (64 - SUB_BUCKET_BITS - 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    /**
+     * Constructor.
+     *
+     * @since 1.1
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        total = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param nanos the value, negative values are recorded as 0
+     * @since 1.1
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long known = max.get();
+        while (value > known && !max.compareAndSet(known, value)) {
+            known = max.get();
+        }
+    }
+
+    /**
+     * Forgets all the recorded values.
+     *
+     * @since 1.1
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of values
+     * @since 1.1
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the largest recorded value, exactly.
+     *
+     * @return the largest value, or 0 if there is none
+     * @since 1.1
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values, exactly.
+     *
+     * @return the mean, or 0 if there are no values
+     * @since 1.1
+     */
+    public long getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : total.get() / n;
+    }
+
+    /**
+     * Returns the value that the given percentage of the recorded values
+     * do not exceed, to the precision of its bucket.
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the value, or 0 if there are no values
+     * @since 1.1
+     */
+    public long getValueAtPercentile(double percentile) {
+        // The buckets may be recorded to meanwhile, so they are counted again
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                // The largest value of the bucket, but never more than the largest value recorded
+                return Math.min(max.get(), lowestOf(i + 1) - 1);
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the bucket of a value.
+     */
+    static int bucketOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // Keep the highest SUB_BUCKET_BITS + 1 bits of the value
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the lowest value of a bucket.
+     */
+    static long lowestOf(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        if (bucket >= BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return sub << shift;
+    }
+}
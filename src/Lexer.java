@@ -0,0 +1,150 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Splits the lines of a kind of file in tokens, for the
+ * {@link SyntaxHighlighter}. A lexer only ever sees one line at a time,
+ * so anything that continues from one line to the next, like a comment
+ * that is not closed yet, is kept in the state of the lexer, a small
+ * <code>int</code> that is passed to the next line. A lexer must not keep
+ * anything else between lines, so the same line in the same state is
+ * always split the same way, and a line only needs to be split again
+ * when its text or the state before it changes.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public interface Lexer {
+
+    /**
+     * The state before the first line of a document.
+     *
+     * @since 1.1
+     */
+    int INITIAL = 0;
+
+    // The kinds of tokens, which the highlighter maps to colors
+    int PLAIN = 0;
+    int KEY = 1;
+    int STRING = 2;
+    int NUMBER = 3;
+    int KEYWORD = 4;
+    int COMMENT = 5;
+    int TIMESTAMP = 6;
+    int ERROR = 7;
+    int WARNING = 8;
+    int INFO = 9;
+    int DEBUG = 10;
+    int TOKEN_KINDS = 11;
+
+    /**
+     * Splits a line in tokens.
+     *
+     * @param text the characters of the line, without its '\n'
+     * @param offset the first character of the line in the array
+     * @param count the number of characters of the line
+     * @param state the state of the lexer before the line
+     * @param runs receives the tokens of the line
+     * @return the state of the lexer after the line
+     * @since 1.1
+     */
+    int tokenize(char[] text, int offset, int count, int state, Runs runs);
+
+    /**
+     * Returns the lexer for the kind of a file, by its extension.
+     * The ".gz" extension of a compressed file is ignored.
+     *
+     * @param file the file, may be <code>null</code>
+     * @return the lexer, or <code>null</code> if the file is plain text
+     * @since 1.1
+     */
+    static Lexer forFile(File file) {
+        if (file == null) {
+            return null;
+        }
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".json")) {
+            return new JsonLexer();
+        } else if (name.endsWith(".log")) {
+            return new LogLexer();
+        } else if (name.endsWith(".properties")) {
+            return new PropertiesLexer();
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * The tokens of a line, as runs of characters of the same kind.
+     * Every run starts where the previous one ends, so only its start,
+     * relative to the start of the line, and its kind are kept.
+     * <p>
+     * When only the state after a line is needed, the runs are
+     * disabled and the tokens that a lexer adds are ignored.
+     */
+    final class Runs {
+        private int[] runs;
+        private int count;
+        private boolean enabled;
+
+        /**
+         * Constructor.
+         *
+         * @since 1.1
+         */
+        public Runs() {
+            runs = new int[32];
+        }
+
+        /**
+         * Forgets the runs of the previous line.
+         *
+         * @param enabled <code>false</code> to ignore the tokens of the next line
+         * @since 1.1
+         */
+        public void reset(boolean enabled) {
+            this.enabled = enabled;
+            count = 0;
+        }
+
+        /**
+         * Adds a token. A token of the same kind as the last
+         * one is joined with it.
+         *
+         * @param start the start of the token, relative to the start of the line
+         * @param kind the kind of the token
+         * @since 1.1
+         */
+        public void add(int start, int kind) {
+            if (!enabled || (count > 0 && runs[count - 1] == kind)) {
+                return;
+            }
+            if (count > 0 && runs[count - 2] == start) {
+                // The last token was empty
+                count -= 2;
+                add(start, kind);
+                return;
+            }
+            if (count == runs.length) {
+                runs = Arrays.copyOf(runs, count * 2);
+            }
+            runs[count++] = start;
+            runs[count++] = kind;
+        }
+
+        /**
+         * Returns the runs, as pairs of the start and the kind of every run.
+         *
+         * @return a copy of the runs
+         * @since 1.1
+         */
+        public int[] toArray() {
+            return Arrays.copyOf(runs, count);
+        }
+    }
+}
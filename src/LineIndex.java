@@ -0,0 +1,230 @@
+/**
+ * <p>
+ * Index with the start offset of every line of a document.
+ * A line starts at the beginning of the document and right after
+ * every '\n' character.
+ * <p>
+ * The offsets are kept in a single int array with a gap, the same
+ * way a gap buffer keeps characters. Offsets before the gap are
+ * stored as they are, while offsets after the gap are stored relative
+ * to a common <code>delta</code>. This way an edit shifts all the lines
+ * that follow it by changing only the delta, and consecutive edits in
+ * the same area just move a few entries across the gap.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class LineIndex {
+
+    private static final int MIN_GAP = 16;
+
+    private int[] starts;
+    private int gapStart;
+    private int gapEnd;
+    private int delta; // Added to every entry after the gap
+
+    /**
+     * Constructor.
+     * Creates an index with a single line that starts at offset 0.
+     *
+     * @since 1.1
+     */
+    public LineIndex() {
+        this(new int[] {0}, 1);
+    }
+
+    /**
+     * Constructor.
+     * Creates an index from an already computed array of line starts.
+     * The array is used as is, so it must not be changed afterwards.
+     *
+     * @param starts the start offsets of the lines, in ascending order
+     * @param count the number of lines in the array
+     * @since 1.1
+     */
+    public LineIndex(int[] starts, int count) {
+        this.starts = starts;
+        this.gapStart = count;
+        this.gapEnd = starts.length;
+        this.delta = 0;
+    }
+
+    /**
+     * Builds the index of the given text with a single pass over it.
+     *
+     * @param text the text to index
+     * @return the index of the lines of the text
+     * @since 1.1
+     */
+    public static LineIndex of(CharSequence text) {
+        int[] starts = new int[MIN_GAP];
+        int count = 1;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                if (count == starts.length) {
+                    int[] grown = new int[starts.length * 2];
+                    System.arraycopy(starts, 0, grown, 0, count);
+                    starts = grown;
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        return new LineIndex(starts, count);
+    }
+
+    /**
+     * Returns the number of lines.
+     *
+     * @return the number of lines
+     * @since 1.1
+     */
+    public int getLineCount() {
+        return starts.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * Estimates how much memory the index holds, including its gap.
+     *
+     * @return the estimated size in bytes
+     * @since 1.1
+     */
+    public long getMemoryFootprint() {
+        return 4L * starts.length;
+    }
+
+    /**
+     * Returns the start offset of a line.
+     *
+     * @param line the index of the line
+     * @return the start offset of the line
+     * @since 1.1
+     */
+    public int getLineStart(int line) {
+        if (line < gapStart) {
+            return starts[line];
+        }
+        return starts[line + gapEnd - gapStart] + delta;
+    }
+
+    /**
+     * Returns the line that contains the given offset,
+     * that is the last line that starts at or before it.
+     *
+     * @param offset the offset in the document
+     * @return the index of the line
+     * @since 1.1
+     */
+    public int getLineOfOffset(int offset) {
+        int low = 0;
+        int high = getLineCount() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (getLineStart(middle) <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Updates the index after an insertion.
+     * Lines that start after the offset are shifted and a new
+     * line is added for every break of the inserted text.
+     *
+     * @param offset the offset of the insertion
+     * @param length the length of the inserted text
+     * @param breaks the offsets of the new lines, relative to <code>offset</code>
+     * @param count the number of new lines
+     * @return the index of the first new line
+     * @since 1.1
+     */
+    public int insert(int offset, int length, int[] breaks, int count) {
+        int first = getLineOfOffset(offset) + 1;
+        moveGap(first);
+        delta += length;
+        ensureGap(count);
+        for (int i = 0; i < count; i++) {
+            starts[gapStart++] = offset + breaks[i];
+        }
+        return first;
+    }
+
+    /**
+     * Updates the index after a removal.
+     * Lines whose break was inside the removed range are dropped
+     * and the lines after the range are shifted.
+     *
+     * @param offset the offset of the removal
+     * @param length the length of the removed text
+     * @return the offsets of the dropped lines, relative to <code>offset</code>
+     * @since 1.1
+     */
+    public int[] remove(int offset, int length) {
+        int first = getLineOfOffset(offset) + 1;
+        moveGap(first);
+        int end = offset + length;
+        int count = 0;
+        while (gapEnd + count < starts.length && starts[gapEnd + count] + delta <= end) {
+            count++;
+        }
+        int[] breaks = new int[count];
+        for (int i = 0; i < count; i++) {
+            breaks[i] = starts[gapEnd++] + delta - offset;
+        }
+        delta -= length;
+        return breaks;
+    }
+
+    /**
+     * Counts the lines that would be dropped by a removal,
+     * without changing the index.
+     *
+     * @param offset the offset of the removal
+     * @param length the length of the removed text
+     * @return the number of lines that start inside the range
+     * @since 1.1
+     */
+    public int countBreaks(int offset, int length) {
+        int first = getLineOfOffset(offset) + 1;
+        int last = getLineOfOffset(offset + length);
+        return Math.max(0, last - first + 1);
+    }
+
+    /**
+     * Moves the gap so that it starts at the given line.
+     */
+    private void moveGap(int line) {
+        if (line < gapStart) {
+            while (gapStart > line) {
+                starts[--gapEnd] = starts[--gapStart] - delta;
+            }
+        } else {
+            while (gapStart < line) {
+                starts[gapStart++] = starts[gapEnd++] + delta;
+            }
+        }
+        if (gapEnd == starts.length) {
+            // Nothing after the gap, so the delta can start over
+            delta = 0;
+        }
+    }
+
+    /**
+     * Makes sure that the gap can hold the given number of entries.
+     */
+    private void ensureGap(int count) {
+        if (gapEnd - gapStart >= count) {
+            return;
+        }
+        int after = starts.length - gapEnd;
+        int capacity = Math.max(starts.length * 2, gapStart + after + count + MIN_GAP);
+        int[] grown = new int[capacity];
+        System.arraycopy(starts, 0, grown, 0, gapStart);
+        System.arraycopy(starts, gapEnd, grown, capacity - after, after);
+        gapEnd = capacity - after;
+        starts = grown;
+    }
+}
@@ -0,0 +1,120 @@
+import javax.swing.JTextArea;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.View;
+
+/**
+ * <p>
+ * Text area that shows its text with a {@link LineView}, which only
+ * lays out and paints the visible lines, instead of the default view,
+ * which measures every line of the document to find its width.
+ * <p>
+ * The view is created by the UI of the text area, so the text area
+ * always installs its own UI. It is the basic UI of text areas, which
+ * still takes its colors and font from the current look and feel.
+ * When line wrapping is turned on, the default wrapping view is used.
+ * <p>
+ * The text area can highlight the tokens of its document with a
+ * {@link Lexer}, through a {@link SyntaxHighlighter}, which is created
+ * again for every new document. The wrapping view does not highlight.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class LineTextArea extends JTextArea {
+
+    private Lexer lexer;
+    private SyntaxHighlighter syntaxHighlighter;
+
+    /**
+     * Constructor.
+     *
+     * @param doc the document of the text area
+     * @since 1.1
+     */
+    public LineTextArea(Document doc) {
+        super(doc);
+    }
+
+    /**
+     * Replaces the document, highlighting the new one as the previous one.
+     *
+     * @param doc the new document
+     * @since 1.1
+     */
+    @Override
+    public void setDocument(Document doc) {
+        super.setDocument(doc);
+        updateSyntaxHighlighter();
+    }
+
+    /**
+     * Returns the lexer that splits the document in tokens.
+     *
+     * @return the lexer, or <code>null</code> if the document is not highlighted
+     * @since 1.1
+     */
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    /**
+     * Sets the lexer that splits the document in tokens.
+     *
+     * @param lexer the lexer, or <code>null</code> to stop highlighting
+     * @since 1.1
+     */
+    public void setLexer(Lexer lexer) {
+        this.lexer = lexer;
+        updateSyntaxHighlighter();
+    }
+
+    /**
+     * Returns the highlighter of the tokens of the document.
+     *
+     * @return the highlighter, or <code>null</code> if the document is not highlighted
+     * @since 1.1
+     */
+    public SyntaxHighlighter getSyntaxHighlighter() {
+        return syntaxHighlighter;
+    }
+
+    private void updateSyntaxHighlighter() {
+        if (syntaxHighlighter != null) {
+            syntaxHighlighter.dispose();
+            syntaxHighlighter = null;
+        }
+        // The document is set by the constructor of the
+        // text area, before there is any lexer
+        if (lexer != null && getDocument() instanceof PieceTableDocument) {
+            syntaxHighlighter = new SyntaxHighlighter(this, (PieceTableDocument) getDocument(), lexer);
+        }
+        repaint();
+    }
+
+    /**
+     * Installs the UI that creates a {@link LineView}.
+     *
+     * @since 1.1
+     */
+    @Override
+    public void updateUI() {
+        setUI(new LineTextAreaUI());
+        invalidate();
+    }
+
+    /**
+     * UI of the text area that creates a {@link LineView} for the text.
+     */
+    private static class LineTextAreaUI extends BasicTextAreaUI {
+
+        @Override
+        public View create(Element elem) {
+            if (getComponent() instanceof JTextArea && ((JTextArea) getComponent()).getLineWrap()) {
+                return super.create(elem);
+            }
+            return new LineView(elem);
+        }
+    }
+}
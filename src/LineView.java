@@ -0,0 +1,667 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * <p>
+ * View of plain text that only lays out and paints the lines that
+ * are visible, so it costs the same for a file of ten lines and for
+ * a file of ten million lines.
+ * <p>
+ * Every line is drawn in one or more rows of the same height, so the
+ * row at any height is found with a division and the start of its line
+ * comes from the line elements of the document, which are already indexed.
+ * A line longer than <code>ROW_LENGTH</code> characters continues on the
+ * next rows, so even a file that is a single huge line is painted a row
+ * at a time and never needs to be measured as a whole. The long lines
+ * are the only ones that need to be remembered, so the view keeps a sorted
+ * list of them along with the number of extra rows that each one takes.
+ * <p>
+ * The preferred width is the width of the widest row that has been measured.
+ * At first only the longest line (in characters) is measured, and the rows
+ * that are painted later make the view wider if they turn out to be wider,
+ * for example because of tabs. The measured widths are cached per line until
+ * the line is edited, so repainting a row does not measure it again.
+ * Inside a row only the characters between the left and right side of
+ * the clip are drawn.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class LineView extends View implements TabExpander {
+
+    // Lines longer than this continue on the next row
+    static final int ROW_LENGTH = 4096;
+    private static final int MAX_CACHED_WIDTHS = 4096;
+
+    private final Segment segment;
+
+    private Font font;
+    private FontMetrics metrics;
+    private int tabSize;
+    private int tabBase;
+
+    // Lines longer than a row, the extra rows they take and, for every one
+    // of them, the number of extra rows of the long lines before it
+    private boolean rowsKnown;
+    private int[] longLines;
+    private int[] longExtraRows;
+    private int[] extraRowsBefore;
+    private int longCount;
+
+    private int longestLine;
+    private int widestRow;
+    private final HashMap<Integer, Integer> lineWidths;
+
+    /**
+     * Constructor.
+     *
+     * @param elem the root element of the document
+     * @since 1.1
+     */
+    public LineView(Element elem) {
+        super(elem);
+        segment = new Segment();
+        longLines = new int[16];
+        longExtraRows = new int[16];
+        extraRowsBefore = new int[17];
+        lineWidths = new HashMap<>();
+        rowsKnown = false;
+    }
+
+    /**
+     * Returns the width of the widest measured row, or the number of rows
+     * times their height.
+     *
+     * @param axis the axis
+     * @return the preferred span along the axis
+     * @since 1.1
+     */
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        ensureRows();
+        switch (axis) {
+            case View.X_AXIS:
+                if (widestRow < 0) {
+                    for (int width : lineWidths.values()) {
+                        widestRow = Math.max(widestRow, width);
+                    }
+                    widestRow = Math.max(widestRow, lineWidth(longestLine));
+                }
+                return widestRow;
+            case View.Y_AXIS:
+                return (float) getRowCount() * metrics.getHeight();
+            default:
+                throw new IllegalArgumentException("Invalid axis: " + axis);
+        }
+    }
+
+    /**
+     * Paints the rows that intersect the clip.
+     *
+     * @param g the graphics to paint with
+     * @param a the allocated region of the view
+     * @since 1.1
+     */
+    @Override
+    public void paint(Graphics g, Shape a) {
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.REPAINT);
+        updateMetrics();
+        ensureRows();
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = alloc;
+        }
+        tabBase = alloc.x;
+
+        JTextComponent host = (JTextComponent) getContainer();
+        Highlighter h = host.getHighlighter();
+        LayeredHighlighter layered = (h instanceof LayeredHighlighter) ? (LayeredHighlighter) h : null;
+        Color unselected = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        Color selected = (host.getCaret().isSelectionVisible() && h != null) ? host.getSelectedTextColor() : unselected;
+        int sel0 = host.getSelectionStart();
+        int sel1 = host.getSelectionEnd();
+        g.setFont(font);
+
+        int height = metrics.getHeight();
+        int firstRow = Math.max(0, (clip.y - alloc.y) / height);
+        int lastRow = Math.min(getRowCount() - 1, (clip.y + clip.height - alloc.y) / height);
+        int[] lineAndChunk = new int[2];
+        boolean wider = false;
+
+        // The tokens are kept for all the visible lines, not only
+        // for the ones that are painted this time
+        SyntaxHighlighter syntax = (host instanceof LineTextArea && host.isEnabled())
+                ? ((LineTextArea) host).getSyntaxHighlighter() : null;
+        if (syntax != null) {
+            Rectangle visible = host.getVisibleRect();
+            lineOfRow(Math.min(getRowCount() - 1, Math.max(0, (visible.y - alloc.y) / height)), lineAndChunk);
+            int firstLine = lineAndChunk[0];
+            lineOfRow(Math.min(getRowCount() - 1, Math.max(0, (visible.y + visible.height - alloc.y) / height)),
+                    lineAndChunk);
+            syntax.setVisibleLines(firstLine, lineAndChunk[0]);
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            lineOfRow(row, lineAndChunk);
+            Element line = getElement().getElement(lineAndChunk[0]);
+            int p0 = line.getStartOffset() + lineAndChunk[1] * ROW_LENGTH;
+            int p1 = Math.min(line.getEndOffset() - 1, p0 + ROW_LENGTH);
+            int y = alloc.y + row * height;
+
+            if (layered != null) {
+                boolean lastOfDocument = line.getEndOffset() > getDocument().getLength()
+                        && p1 == line.getEndOffset() - 1;
+                layered.paintLayeredHighlights(g, p0, lastOfDocument ? p1 + 1 : p1, a, host, this);
+            }
+            int[] runs = (syntax != null) ? syntax.getRuns(lineAndChunk[0]) : null;
+            wider |= drawRow(g, lineAndChunk[0], p0, p1, alloc.x, y + metrics.getAscent(),
+                    clip, sel0, sel1, unselected, selected, runs, line.getStartOffset());
+        }
+        if (wider) {
+            preferenceChanged(null, true, false);
+        }
+        Metrics.stop(sample, 0);
+    }
+
+    /**
+     * Draws the part of a row that is inside the clip, with the colors
+     * of its tokens, if they are known, outside the selection.
+     *
+     * @return <code>true</code> if the row is wider than the view
+     */
+    private boolean drawRow(Graphics g, int line, int p0, int p1, int x, int y, Rectangle clip,
+                            int sel0, int sel1, Color unselected, Color selected, int[] runs, int lineStart) {
+        text(p0, p1 - p0);
+        // Skip the characters on the left of the clip
+        int start = p0 + Utilities.getTabbedTextOffset(segment, metrics, x, clip.x, this, p0, false);
+        if (start > p0) {
+            text(p0, start - p0);
+            x += Utilities.getTabbedTextWidth(segment, metrics, x, this, p0);
+            text(start, p1 - start);
+        }
+        // and on the right of it, leaving one for the part that is inside
+        int end = Math.min(p1, start + 1
+                + Utilities.getTabbedTextOffset(segment, metrics, x, clip.x + clip.width, this, start, false));
+
+        int[] borders = {start, Math.max(start, Math.min(sel0, end)), Math.max(start, Math.min(sel1, end)), end};
+        for (int i = 0; i < 3; i++) {
+            if (borders[i] < borders[i + 1] && (i == 1 || runs == null)) {
+                g.setColor((i == 1) ? selected : unselected);
+                text(borders[i], borders[i + 1] - borders[i]);
+                x = Utilities.drawTabbedText(segment, x, y, g, this, borders[i]);
+            } else if (borders[i] < borders[i + 1]) {
+                x = drawRuns(g, borders[i], borders[i + 1], x, y, unselected, runs, lineStart);
+            }
+        }
+
+        int widest = widestRow;
+        lineWidth(line);
+        return widestRow > widest;
+    }
+
+    /**
+     * Draws a range of a line with the colors of its tokens.
+     * The runs of a line that has just been edited may not match its
+     * text anymore, so they are only used inside the range.
+     *
+     * @return the position after the range
+     */
+    private int drawRuns(Graphics g, int p0, int p1, int x, int y, Color unselected, int[] runs, int lineStart) {
+        // The last run that starts at or before the range
+        int low = 0;
+        int high = runs.length / 2 - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lineStart + runs[2 * middle] <= p0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int count = runs.length / 2;
+        int start = p0;
+        int run = low;
+        while (start < p1) {
+            int end;
+            AttributeSet style = null;
+            if (run >= count || lineStart + runs[2 * run] > start) {
+                // Before the first run
+                end = (run < count) ? Math.min(p1, lineStart + runs[2 * run]) : p1;
+            } else {
+                end = (run + 1 < count) ? Math.min(p1, lineStart + runs[2 * run + 2]) : p1;
+                style = SyntaxHighlighter.getStyle(runs[2 * run + 1]);
+                run++;
+            }
+            if (end > start) {
+                g.setColor((style != null) ? StyleConstants.getForeground(style) : unselected);
+                text(start, end - start);
+                x = Utilities.drawTabbedText(segment, x, y, g, this, start);
+                start = end;
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Returns a rectangle at the position of a character. A position at
+     * the border of two rows of the same line belongs to the second one,
+     * unless it is biased backward.
+     *
+     * @param pos the position
+     * @param a the allocated region of the view
+     * @param b the bias of the position
+     * @return the rectangle of the position
+     * @throws BadLocationException if the position is not in the document
+     * @since 1.1
+     */
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        if (pos < 0 || pos > getDocument().getLength() + 1) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        updateMetrics();
+        ensureRows();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+
+        int lineIndex = getElement().getElementIndex(pos);
+        Element line = getElement().getElement(lineIndex);
+        int start = line.getStartOffset();
+        int chunk = Math.min((pos - start) / ROW_LENGTH, rowsOf(line) - 1);
+        if (chunk > 0 && b == Position.Bias.Backward && pos - start == chunk * ROW_LENGTH) {
+            chunk--;
+        }
+        int p0 = start + chunk * ROW_LENGTH;
+        text(p0, pos - p0);
+        int x = alloc.x + Utilities.getTabbedTextWidth(segment, metrics, alloc.x, this, p0);
+        return new Rectangle(x, alloc.y + (rowOfLine(lineIndex) + chunk) * metrics.getHeight(),
+                1, metrics.getHeight());
+    }
+
+    /**
+     * Returns the position of the character closest to a point.
+     *
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param a the allocated region of the view
+     * @param bias returns the bias of the position
+     * @return the position
+     * @since 1.1
+     */
+    @Override
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] bias) {
+        updateMetrics();
+        ensureRows();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        bias[0] = Position.Bias.Forward;
+
+        if (y < alloc.y) {
+            return getStartOffset();
+        }
+        int row = (int) ((y - alloc.y) / metrics.getHeight());
+        if (row >= getRowCount() || y > alloc.y + alloc.height) {
+            return getEndOffset() - 1;
+        }
+        int[] lineAndChunk = new int[2];
+        lineOfRow(row, lineAndChunk);
+        Element line = getElement().getElement(lineAndChunk[0]);
+        int p0 = line.getStartOffset() + lineAndChunk[1] * ROW_LENGTH;
+        int p1 = Math.min(line.getEndOffset() - 1, p0 + ROW_LENGTH);
+        if (x < alloc.x) {
+            return p0;
+        }
+        int pos = p1;
+        if (x <= alloc.x + alloc.width) {
+            text(p0, p1 - p0);
+            pos = p0 + Utilities.getTabbedTextOffset(segment, metrics, alloc.x, (int) x, this, p0);
+        }
+        if (pos == p1 && p1 < line.getEndOffset() - 1) {
+            // The end of a row that continues on the next one
+            bias[0] = Position.Bias.Backward;
+        }
+        return Math.min(pos, getDocument().getLength());
+    }
+
+    /**
+     * Returns the next tab stop after a horizontal position.
+     *
+     * @param x the horizontal position
+     * @param tabOffset the offset of the tab in the document
+     * @return the position of the next tab stop
+     * @since 1.1
+     */
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabSize == 0) {
+            return x;
+        }
+        int tabs = ((int) x - tabBase) / tabSize;
+        return tabBase + ((tabs + 1) * tabSize);
+    }
+
+    /**
+     * Updates the long lines and repaints after an insertion.
+     *
+     * @param e the insertion event
+     * @param a the allocated region of the view
+     * @param f the factory of the views
+     * @since 1.1
+     */
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateRows(e, a);
+    }
+
+    /**
+     * Updates the long lines and repaints after a removal.
+     *
+     * @param e the removal event
+     * @param a the allocated region of the view
+     * @param f the factory of the views
+     * @since 1.1
+     */
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateRows(e, a);
+    }
+
+    /**
+     * Plain text has no attributes, so only repaints.
+     *
+     * @param e the change event
+     * @param a the allocated region of the view
+     * @param f the factory of the views
+     * @since 1.1
+     */
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        getContainer().repaint();
+    }
+
+    /**
+     * Replaces the changed lines in the list of long lines and shifts the
+     * lines after them, then repaints what has changed. Only the changed
+     * lines are read, the rest of the document is not touched.
+     */
+    private void updateRows(DocumentEvent e, Shape a) {
+        if (!rowsKnown || metrics == null) {
+            return;
+        }
+        Element root = getElement();
+        DocumentEvent.ElementChange ec = e.getChange(root);
+        int index;
+        int removed;
+        int added;
+        if (ec != null) {
+            index = ec.getIndex();
+            removed = ec.getChildrenRemoved().length;
+            added = ec.getChildrenAdded().length;
+        } else {
+            index = root.getElementIndex(e.getOffset());
+            removed = 1;
+            added = 1;
+        }
+        int rowsBefore = getRowCount();
+
+        // Keep following the longest line, or start from the
+        // changed lines if it was one of the replaced lines
+        if (longestLine >= index + removed) {
+            longestLine += added - removed;
+        } else if (longestLine >= index) {
+            longestLine = index;
+            widestRow = -1;
+        }
+        int longest = lineLength(root.getElement(longestLine));
+
+        // Drop the long lines that were replaced and shift the ones after them
+        int[] lines = new int[longCount + added];
+        int[] extras = new int[longCount + added];
+        int count = 0;
+        int i = 0;
+        while (i < longCount && longLines[i] < index) {
+            lines[count] = longLines[i];
+            extras[count++] = longExtraRows[i++];
+        }
+        while (i < longCount && longLines[i] < index + removed) {
+            i++;
+        }
+        for (int line = index; line < index + added; line++) {
+            int length = lineLength(root.getElement(line));
+            if (length > ROW_LENGTH) {
+                lines[count] = line;
+                extras[count++] = (length - 1) / ROW_LENGTH;
+            }
+            if (length > longest) {
+                longest = length;
+                longestLine = line;
+                widestRow = -1;
+            }
+        }
+        while (i < longCount) {
+            lines[count] = longLines[i] + added - removed;
+            extras[count++] = longExtraRows[i++];
+        }
+        setLongLines(lines, extras, count);
+
+        if (removed == added) {
+            for (int line = index; line < index + added; line++) {
+                lineWidths.remove(line);
+            }
+        } else {
+            lineWidths.clear();
+        }
+
+        Component host = getContainer();
+        if (ec != null || getRowCount() != rowsBefore) {
+            preferenceChanged(null, true, true);
+            host.repaint();
+        } else if (a != null) {
+            Rectangle alloc = a.getBounds();
+            int height = metrics.getHeight();
+            int row = rowOfLine(index);
+            host.repaint(alloc.x, alloc.y + row * height, alloc.width, rowsOf(root.getElement(index)) * height);
+            if (widestRow < 0) {
+                preferenceChanged(null, true, false);
+            }
+        }
+    }
+
+    /**
+     * Finds the long lines and the longest line of the whole document.
+     * Only the bounds of the lines are read, not their text.
+     */
+    private void ensureRows() {
+        if (rowsKnown) {
+            return;
+        }
+        Element root = getElement();
+        int lineCount = root.getElementCount();
+        int[] lines = new int[16];
+        int[] extras = new int[16];
+        int count = 0;
+        int longest = 0;
+        longestLine = 0;
+        for (int line = 0; line < lineCount; line++) {
+            int length = lineLength(root.getElement(line));
+            if (length > longest) {
+                longest = length;
+                longestLine = line;
+            }
+            if (length > ROW_LENGTH) {
+                if (count == lines.length) {
+                    lines = Arrays.copyOf(lines, count * 2);
+                    extras = Arrays.copyOf(extras, count * 2);
+                }
+                lines[count] = line;
+                extras[count++] = (length - 1) / ROW_LENGTH;
+            }
+        }
+        setLongLines(lines, extras, count);
+        widestRow = -1;
+        lineWidths.clear();
+        rowsKnown = true;
+    }
+
+    private void setLongLines(int[] lines, int[] extras, int count) {
+        longLines = lines;
+        longExtraRows = extras;
+        longCount = count;
+        extraRowsBefore = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            extraRowsBefore[i + 1] = extraRowsBefore[i] + extras[i];
+        }
+    }
+
+    /**
+     * Returns the number of rows of the whole document.
+     */
+    private int getRowCount() {
+        return getElement().getElementCount() + extraRowsBefore[longCount];
+    }
+
+    /**
+     * Returns the first row of a line.
+     */
+    private int rowOfLine(int line) {
+        int low = 0;
+        int high = longCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (longLines[middle] < line) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return line + extraRowsBefore[low];
+    }
+
+    /**
+     * Finds the line of a row and which part of the line the row shows.
+     */
+    private void lineOfRow(int row, int[] lineAndChunk) {
+        // The last long line that starts at or before the row
+        int low = -1;
+        int high = longCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >> 1;
+            if (longLines[middle] + extraRowsBefore[middle] <= row) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (low < 0) {
+            lineAndChunk[0] = row;
+            lineAndChunk[1] = 0;
+            return;
+        }
+        int first = longLines[low] + extraRowsBefore[low];
+        if (row - first <= longExtraRows[low]) {
+            lineAndChunk[0] = longLines[low];
+            lineAndChunk[1] = row - first;
+        } else {
+            lineAndChunk[0] = row - extraRowsBefore[low + 1];
+            lineAndChunk[1] = 0;
+        }
+    }
+
+    private static int rowsOf(Element line) {
+        return Math.max(1, (lineLength(line) + ROW_LENGTH - 1) / ROW_LENGTH);
+    }
+
+    /**
+     * Returns the length of a line, without its '\n'.
+     */
+    private static int lineLength(Element line) {
+        return line.getEndOffset() - line.getStartOffset() - 1;
+    }
+
+    /**
+     * Returns the width of the widest row of a line, measuring
+     * the line if it is not in the cache. A wider row than the
+     * widest one so far makes the view wider.
+     */
+    private int lineWidth(int lineIndex) {
+        Integer known = lineWidths.get(lineIndex);
+        if (known != null) {
+            return known;
+        }
+        Element line = getElement().getElement(lineIndex);
+        int start = line.getStartOffset();
+        int end = line.getEndOffset() - 1;
+        int width = 0;
+        for (int p0 = start; p0 < end || p0 == start; p0 += ROW_LENGTH) {
+            text(p0, Math.min(end, p0 + ROW_LENGTH) - p0);
+            width = Math.max(width, Utilities.getTabbedTextWidth(segment, metrics, tabBase, this, p0));
+            if (line.getEndOffset() - 1 - start > ROW_LENGTH * 4L) {
+                // Rows of a huge line are about as wide as each other
+                break;
+            }
+        }
+        if (lineWidths.size() >= MAX_CACHED_WIDTHS) {
+            lineWidths.clear();
+        }
+        lineWidths.put(lineIndex, width);
+        widestRow = Math.max(widestRow, width);
+        return width;
+    }
+
+    /**
+     * Reads a range of the document into the segment.
+     */
+    private void text(int offset, int length) {
+        try {
+            getDocument().getText(offset, length, segment);
+        } catch (BadLocationException e) {
+            // Should never happen, we only read inside the document
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Updates the font metrics and the size of the tabs when the font changes.
+     */
+    private void updateMetrics() {
+        Component host = getContainer();
+        Font f = host.getFont();
+        if (font != f) {
+            font = f;
+            metrics = host.getFontMetrics(f);
+            tabSize = getTabSize() * metrics.charWidth('m');
+            widestRow = -1;
+            lineWidths.clear();
+        }
+    }
+
+    private int getTabSize() {
+        Document doc = getDocument();
+        Integer size = (Integer) doc.getProperty(PlainDocument.tabSizeAttribute);
+        return (size != null) ? size : 8;
+    }
+}
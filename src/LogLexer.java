@@ -0,0 +1,188 @@
+/**
+ * <p>
+ * Lexer of log files. A line that starts with a timestamp or that has a
+ * level, like <code>ERROR</code> or <code>WARN</code>, near its start is
+ * the first line of an entry, and both are highlighted. The timestamps
+ * that are recognized are dates and times in the usual
+ * <code>2024-01-31 23:59:59,999</code> form or in ISO 8601, or just the
+ * times, optionally inside brackets.
+ * <p>
+ * An entry can continue on the next lines, like the stack trace of an
+ * exception, and the whole entry of an error or a warning is highlighted.
+ * In a log whose entries start with a timestamp, every line without one
+ * continues the entry before it. Otherwise only the lines that start
+ * with a space or a tab, or with "Caused by:", continue it. So the state
+ * of the lexer is the level of the current entry, along with whether the
+ * log has timestamps.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class LogLexer implements Lexer {
+
+    // How far into a line its level is looked for
+    private static final int LEVEL_SEARCH = 160;
+
+    // Added to the level of the entry in the state once a timestamp has been seen
+    private static final int TIMESTAMPS = 16;
+    private static final int LEVEL_MASK = TIMESTAMPS - 1;
+
+    /**
+     * Splits a line of a log in tokens.
+     *
+     * @param text the characters of the line, without its '\n'
+     * @param offset the first character of the line in the array
+     * @param count the number of characters of the line
+     * @param state the state of the lexer before the line
+     * @param runs receives the tokens of the line
+     * @return the state of the lexer after the line
+     * @since 1.1
+     */
+    @Override
+    public int tokenize(char[] text, int offset, int count, int state, Runs runs) {
+        int end = offset + count;
+        int i = offset;
+        if (i < end && text[i] == '[') {
+            i++;
+        }
+        int timestampEnd = endOfTimestamp(text, i, end);
+        boolean timestamped = (state & TIMESTAMPS) != 0;
+
+        int levelStart = -1;
+        int levelEnd = -1;
+        int level = PLAIN;
+        int searchEnd = Math.min(end, offset + LEVEL_SEARCH);
+        for (int j = Math.max(i, timestampEnd); j < searchEnd; j++) {
+            if (Character.isLetter(text[j]) && (j == offset || !Character.isLetterOrDigit(text[j - 1]))) {
+                int k = j + 1;
+                while (k < end && Character.isLetter(text[k])) {
+                    k++;
+                }
+                level = levelOf(text, j, k);
+                if (level != PLAIN) {
+                    levelStart = j;
+                    levelEnd = k;
+                    break;
+                }
+                j = k;
+            }
+        }
+
+        if (timestampEnd < 0 && level == PLAIN) {
+            boolean continued = timestamped || (count > 0 && (text[offset] == ' ' || text[offset] == '\t'))
+                    || startsWith(text, offset, end, "Caused by:");
+            if (continued && count > 0) {
+                int entry = state & LEVEL_MASK;
+                runs.add(0, (entry == ERROR || entry == WARNING) ? entry : PLAIN);
+                return state;
+            }
+            runs.add(0, PLAIN);
+            return (count == 0) ? state : (state & TIMESTAMPS);
+        }
+
+        runs.add(0, PLAIN);
+        if (timestampEnd >= 0) {
+            runs.add(i - offset, TIMESTAMP);
+            runs.add(timestampEnd - offset, PLAIN);
+            timestamped = true;
+        }
+        if (levelStart >= 0) {
+            runs.add(levelStart - offset, level);
+            runs.add(levelEnd - offset, PLAIN);
+        }
+        return level | (timestamped ? TIMESTAMPS : 0);
+    }
+
+    /**
+     * Returns the end of the timestamp that starts at a position,
+     * or -1 if there is none.
+     */
+    private static int endOfTimestamp(char[] text, int i, int end) {
+        int time = i;
+        // The date: 2024-01-31 or 2024/01/31, followed by a space or a 'T'
+        if (digits(text, i, end, 4) && i + 10 < end && (text[i + 4] == '-' || text[i + 4] == '/')
+                && digits(text, i + 5, end, 2) && text[i + 7] == text[i + 4] && digits(text, i + 8, end, 2)
+                && (text[i + 10] == ' ' || text[i + 10] == 'T')) {
+            time = i + 11;
+        }
+        // The time: 23:59:59, optionally with its fraction and zone
+        if (!digits(text, time, end, 2) || time + 8 > end || text[time + 2] != ':'
+                || !digits(text, time + 3, end, 2) || text[time + 5] != ':' || !digits(text, time + 6, end, 2)) {
+            return -1;
+        }
+        int j = time + 8;
+        if (j + 1 < end && (text[j] == '.' || text[j] == ',') && Character.isDigit(text[j + 1])) {
+            j++;
+            while (j < end && Character.isDigit(text[j])) {
+                j++;
+            }
+        }
+        if (j < end && text[j] == 'Z') {
+            j++;
+        } else if (j + 5 <= end && (text[j] == '+' || text[j] == '-') && digits(text, j + 1, end, 2)) {
+            j += 3;
+            if (j < end && text[j] == ':') {
+                j++;
+            }
+            if (digits(text, j, end, 2)) {
+                j += 2;
+            }
+        }
+        return j;
+    }
+
+    private static boolean digits(char[] text, int i, int end, int count) {
+        if (i + count > end) {
+            return false;
+        }
+        for (int j = i; j < i + count; j++) {
+            if (text[j] < '0' || text[j] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(char[] text, int i, int end, String prefix) {
+        if (end - i < prefix.length()) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length(); j++) {
+            if (text[i + j] != prefix.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the kind of token of a level, or <code>PLAIN</code>
+     * if the word is not a level.
+     */
+    private static int levelOf(char[] text, int start, int end) {
+        if (end - start > 8 || !Character.isUpperCase(text[start])) {
+            return PLAIN;
+        }
+        switch (new String(text, start, end - start)) {
+            case "ERROR":
+            case "FATAL":
+            case "SEVERE":
+            case "CRITICAL":
+                return ERROR;
+            case "WARN":
+            case "WARNING":
+                return WARNING;
+            case "INFO":
+            case "NOTICE":
+                return INFO;
+            case "DEBUG":
+            case "TRACE":
+            case "FINE":
+            case "FINER":
+            case "FINEST":
+                return DEBUG;
+            default:
+                return PLAIN;
+        }
+    }
+}
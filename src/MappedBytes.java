@@ -0,0 +1,242 @@
+import javax.swing.SwingWorker;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The bytes of a file of any size, read through memory mapped windows,
+ * for the {@link HexView}. Only the windows of the part of the file that
+ * is shown are mapped, and only the last few of them are kept, so a file
+ * of gigabytes takes as little memory as a file of kilobytes. The bytes
+ * are read by the operating system only when they are first looked at.
+ * <p>
+ * The size of the file is taken when it is opened. Bytes appended to
+ * the file afterwards are not shown and the file must not be truncated
+ * while it is open.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public final class MappedBytes implements Closeable {
+
+    // The part of the file that is mapped at once for reading
+    static final int WINDOW_SIZE = 4 * 1024 * 1024;
+    // How many windows stay mapped
+    private static final int CACHED_WINDOWS = 4;
+    // The part of the file that is mapped at once for searching
+    static final int SEARCH_WINDOW_SIZE = 64 * 1024 * 1024;
+    // The longest pattern that can be searched for
+    static final int MAX_PATTERN_LENGTH = 64 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private final Map<Long, MappedByteBuffer> windows;
+
+    /**
+     * Constructor.
+     * Opens the file, without reading any of it.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be opened
+     * @since 1.1
+     */
+    public MappedBytes(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windows = new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+                return size() > CACHED_WINDOWS;
+            }
+        };
+    }
+
+    /**
+     * Returns the file of the bytes.
+     *
+     * @return the file
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of bytes.
+     *
+     * @return the size of the file when it was opened
+     * @since 1.1
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Copies bytes of the file into an array.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param position the position of the first byte in the file
+     * @param dst the array to copy to
+     * @param offset where the bytes are copied in the array
+     * @param length how many bytes to copy, at most
+     * @return how many bytes were copied, fewer at the end of the file
+     * @throws IOException if the file cannot be mapped
+     * @since 1.1
+     */
+    public int read(long position, byte[] dst, int offset, int length) throws IOException {
+        int count = (int) Math.max(0, Math.min(length, size - position));
+        int copied = 0;
+        while (copied < count) {
+            long start = (position + copied) / WINDOW_SIZE * WINDOW_SIZE;
+            MappedByteBuffer window = window(start);
+            int from = (int) (position + copied - start);
+            int part = Math.min(count - copied, window.limit() - from);
+            for (int i = 0; i < part; i++) {
+                dst[offset + copied + i] = window.get(from + i);
+            }
+            copied += part;
+        }
+        return count;
+    }
+
+    private MappedByteBuffer window(long start) throws IOException {
+        MappedByteBuffer window = windows.get(start);
+        if (window == null) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+            windows.put(start, window);
+        }
+        return window;
+    }
+
+    /**
+     * Closes the file. The mapped windows are
+     * unmapped once they are garbage collected.
+     *
+     * @throws IOException if the file cannot be closed
+     * @since 1.1
+     */
+    @Override
+    public void close() throws IOException {
+        windows.clear();
+        channel.close();
+    }
+
+    /**
+     * Creates a search for a pattern of bytes, from a position to the
+     * end of the file and then from the start of the file to the position.
+     *
+     * @param pattern the bytes to search for
+     * @param from the position to start from
+     * @return the search, which has not been started yet
+     * @throws IllegalArgumentException if the pattern is empty or too long
+     * @since 1.1
+     */
+    public Search search(byte[] pattern, long from) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Nothing to search for");
+        }
+        if (pattern.length > MAX_PATTERN_LENGTH) {
+            throw new IllegalArgumentException("The pattern is too long");
+        }
+        return new Search(pattern.clone(), Math.min(from, size));
+    }
+
+    /**
+     * <p>
+     * Searches the file for a pattern of bytes in a background thread, in
+     * mapped windows of <code>SEARCH_WINDOW_SIZE</code> bytes, with the
+     * Boyer-Moore-Horspool algorithm, which skips ahead by up to the length
+     * of the pattern after a mismatch. Consecutive windows overlap by the
+     * length of the pattern minus one, so a match that crosses the border
+     * of two windows is found as well.
+     * <p>
+     * The progress of the search is reported through the <code>progress</code>
+     * property and the search stops as soon as the worker is cancelled.
+     */
+    public final class Search extends SwingWorker<Long, Void> {
+        private final byte[] pattern;
+        private final long from;
+        private final int[] shifts;
+
+        private Search(byte[] pattern, long from) {
+            this.pattern = pattern;
+            this.from = from;
+            this.shifts = new int[256];
+            Arrays.fill(shifts, pattern.length);
+            for (int i = 0; i < pattern.length - 1; i++) {
+                shifts[pattern[i] & 0xFF] = pattern.length - 1 - i;
+            }
+        }
+
+        /**
+         * Returns the length of the pattern that is searched for.
+         *
+         * @return the number of bytes of the pattern
+         * @since 1.1
+         */
+        public int getPatternLength() {
+            return pattern.length;
+        }
+
+        /**
+         * Searches the file.
+         *
+         * @return the position of the first match, or -1 if there is none
+         *         or the search was cancelled
+         * @throws IOException if the file cannot be mapped
+         * @since 1.1
+         */
+        @Override
+        protected Long doInBackground() throws IOException {
+            long found = scan(from, size);
+            if (found < 0 && from > 0) {
+                // Wrap around, to the matches that end before the end of the first part
+                found = scan(0, Math.min(size, from + pattern.length - 1));
+            }
+            return found;
+        }
+
+        private long scan(long start, long end) throws IOException {
+            int m = pattern.length;
+            int last = m - 1;
+            byte lastByte = pattern[last];
+            long position = start;
+            while (end - position >= m) {
+                if (isCancelled()) {
+                    return -1;
+                }
+                int count = (int) Math.min(SEARCH_WINDOW_SIZE, end - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+                int i = 0;
+                while (i + last < count) {
+                    byte b = window.get(i + last);
+                    if (b == lastByte) {
+                        int j = last - 1;
+                        while (j >= 0 && window.get(i + j) == pattern[j]) {
+                            j--;
+                        }
+                        if (j < 0) {
+                            return position + i;
+                        }
+                    }
+                    i += shifts[b & 0xFF];
+                }
+                if (position + count == end) {
+                    break;
+                }
+                position += count - last;
+                setProgress((int) ((position - start) * 100 / Math.max(1, end - start)));
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,756 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * <p>
+ * Text of a file that is memory mapped and decoded lazily.
+ * It is used as the original buffer of a {@link PieceTableDocument}
+ * when a large file is opened, so the file is never read as a whole
+ * into the heap.
+ * <p>
+ * When the file is opened, we make a single pass over its bytes,
+ * split them into blocks of about 64 KB and decode every block once
+ * to find out how many characters it holds and where its lines start.
+ * From then on, only the line index and the character offset of every
+ * block are kept. When a range of characters is requested (usually the
+ * lines that are visible in the text area), only the blocks that contain
+ * it are decoded again, and the last few of them are cached.
+ * <p>
+ * A block always ends at the start of a character and never between
+ * the '\r' and the '\n' of a line break, so every block can be decoded
+ * on its own. For this reason only UTF-8, UTF-16 and the single byte
+ * charsets are supported. The byte order mark of the file is skipped and
+ * the line breaks are converted to '\n' as described in {@link FileFormat}.
+ * <p>
+ * The single pass also checks that the file is in its charset, and fails
+ * with a <code>CharacterCodingException</code> if it is not, so the blocks
+ * that are decoded again later on never have a byte that is replaced.
+ * <p>
+ * The index of the blocks and the lines, along with a checksum of the bytes
+ * of every block, can be taken as an {@link Index} and kept by the
+ * {@link IndexCache}, so the file is not indexed again the next time it is
+ * opened. A cached index is used only if a sample of its blocks still has
+ * the same checksums, which costs a few blocks instead of the whole file.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class MappedText implements CharSequence {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    private static final long REGION_SIZE = 1L << 30; // A single mapping cannot exceed 2 GB
+    private static final int CACHED_BLOCKS = 8;
+    // How many blocks are compared to their checksums before a cached index is used
+    private static final int SAMPLED_BLOCKS = 16;
+
+    private final File file;
+    private final FileFormat format;
+    private final Charset charset;
+    private final boolean utf8;
+    private final boolean utf16;
+    private final boolean carriageReturnBreaks;
+    private final boolean crlfBreaks;
+    private final MappedByteBuffer[] regions;
+    private final long size;
+
+    private long[] blockBytes;  // Byte offset where every block starts
+    private int[] blockChars;   // Char offset where every block starts, plus the total
+    private long[] checksums;   // Checksum of the bytes of every block
+    private int blockCount;
+    private int length;
+    private boolean cached;
+    private boolean mixedLineBreaks;
+
+    private int[] lineStarts;
+    private int lineCount;
+
+    // Counted in the background or taken from the cache, null until then
+    private volatile TextStatistics.Tally statistics;
+
+    // Cache of decoded blocks, the most recent first
+    private final int[] cachedIndex;
+    private final char[][] cachedChars;
+    private final CharsetDecoder decoder;
+    private final CharBuffer decodeBuffer;
+    private final ByteBuffer spanBuffer;
+
+    /**
+     * Maps the given file and indexes its contents.
+     *
+     * @param file the file to open
+     * @param format the format of the file
+     * @throws IOException if the file cannot be read or is too large
+     * @since 1.1
+     */
+    public MappedText(File file, FileFormat format) throws IOException {
+        this(file, format, null);
+    }
+
+    /**
+     * Maps the given file and indexes its contents, reporting the progress
+     * of the indexing. If the calling thread is interrupted, the indexing
+     * stops with an <code>InterruptedIOException</code>.
+     *
+     * @param file the file to open
+     * @param format the format of the file
+     * @param progress receives the percentage of the file that has
+     *                 been indexed, may be <code>null</code>
+     * @throws IOException if the file cannot be read or is too large
+     * @since 1.1
+     */
+    public MappedText(File file, FileFormat format, IntConsumer progress) throws IOException {
+        this(file, format, null, progress);
+    }
+
+    /**
+     * Maps the given file and takes its index from a previous opening,
+     * if the file still matches it. Otherwise the file is indexed again,
+     * reporting the progress of the indexing. If the calling thread is
+     * interrupted, the indexing stops with an <code>InterruptedIOException</code>.
+     *
+     * @param file the file to open
+     * @param format the format of the file
+     * @param index the index of the file when it was last opened,
+     *              may be <code>null</code>
+     * @param progress receives the percentage of the file that has
+     *                 been indexed, may be <code>null</code>
+     * @throws IOException if the file cannot be read or is too large
+     * @throws CharacterCodingException if the file is not in the charset of the format
+     * @since 1.1
+     */
+    public MappedText(File file, FileFormat format, Index index, IntConsumer progress) throws IOException {
+        Charset charset = format.getCharset();
+        if (!supports(charset)) {
+            throw new IOException("Charset " + charset + " cannot be decoded lazily");
+        }
+        this.file = file;
+        this.format = format;
+        this.charset = charset;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.utf16 = charset.equals(StandardCharsets.UTF_16BE) || charset.equals(StandardCharsets.UTF_16LE);
+        this.carriageReturnBreaks = "\r".equals(format.getLineSeparator());
+        this.crlfBreaks = "\r\n".equals(format.getLineSeparator());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            size = channel.size();
+            // A document cannot hold more characters than an int can count
+            if (size >= Integer.MAX_VALUE - 1) {
+                throw new IOException("File is too large: " + size + " bytes");
+            }
+            regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+            }
+        }
+
+        cachedIndex = new int[CACHED_BLOCKS];
+        cachedChars = new char[CACHED_BLOCKS][];
+        Arrays.fill(cachedIndex, -1);
+        decoder = newDecoder(CodingErrorAction.REPLACE);
+        decodeBuffer = CharBuffer.allocate(BLOCK_SIZE);
+        spanBuffer = ByteBuffer.allocate(BLOCK_SIZE);
+
+        if (index != null && matches(index)) {
+            blockBytes = index.blockBytes;
+            blockChars = index.blockChars;
+            checksums = index.checksums;
+            blockCount = index.blockCount;
+            length = index.length;
+            lineStarts = index.lineStarts;
+            lineCount = index.lineCount;
+            statistics = index.statistics;
+            mixedLineBreaks = index.mixedLineBreaks;
+            cached = true;
+        } else {
+            index(progress);
+        }
+    }
+
+    /**
+     * Checks if files of the given charset can be mapped and decoded lazily.
+     *
+     * @param charset the charset of the file
+     * @return <code>true</code> if the charset is supported
+     * @since 1.1
+     */
+    public static boolean supports(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.UTF_16BE)
+                || charset.equals(StandardCharsets.UTF_16LE)) {
+            return true;
+        }
+        // Line breaks and plain ASCII must be encoded the same way,
+        // so the blocks can be indexed straight from their bytes
+        String ascii = "\r\n\t aAzZ09";
+        return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f
+                && Arrays.equals(ascii.getBytes(charset), ascii.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Makes the single pass over the file. Splits it into blocks,
+     * decodes every block and records where the lines start.
+     */
+    private void index(IntConsumer progress) throws IOException {
+        blockBytes = new long[(int) (size / BLOCK_SIZE) + 2];
+        blockChars = new int[blockBytes.length + 1];
+        checksums = new long[blockBytes.length];
+        lineStarts = new int[1024];
+        lineCount = 1;
+
+        CharBuffer chars = decodeBuffer;
+        CharsetDecoder checker = newDecoder(CodingErrorAction.REPORT);
+        long start = format.getBomLength();
+        int charCount = 0;
+        while (start < size) {
+            long end = blockEnd(start);
+            if (blockCount + 1 >= blockBytes.length) {
+                blockBytes = Arrays.copyOf(blockBytes, blockBytes.length * 2);
+                blockChars = Arrays.copyOf(blockChars, blockChars.length * 2);
+                checksums = Arrays.copyOf(checksums, checksums.length * 2);
+            }
+            blockBytes[blockCount] = start;
+            blockChars[blockCount] = charCount;
+            checksums[blockCount] = checksum(start, end);
+            blockCount++;
+
+            int kept = indexAscii(start, end, charCount);
+            if (kept < 0) {
+                kept = indexDecoded(start, end, charCount, chars, checker);
+            }
+            charCount += kept;
+            start = end;
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Indexing of " + file + " was cancelled");
+            }
+            if (progress != null && blockCount % 64 == 0) {
+                progress.accept((int) (start * 100 / size));
+            }
+        }
+        blockBytes[blockCount] = size;
+        blockChars[blockCount] = charCount;
+        length = charCount;
+    }
+
+    /**
+     * Checks that an index of a previous opening fits the file, by the
+     * checksums of the first and the last block and of a few blocks
+     * in between, which are the only ones that are read.
+     */
+    private boolean matches(Index index) {
+        if (index.blockCount == 0) {
+            return size == format.getBomLength();
+        }
+        if (index.blockBytes[index.blockCount] != size || index.blockBytes[0] != format.getBomLength()) {
+            return false;
+        }
+        int step = Math.max(1, (index.blockCount - 1) / (SAMPLED_BLOCKS - 1));
+        for (int block = 0; block < index.blockCount; block += step) {
+            if (!sampleMatches(index, block)) {
+                return false;
+            }
+        }
+        return sampleMatches(index, index.blockCount - 1);
+    }
+
+    private boolean sampleMatches(Index index, int block) {
+        long start = index.blockBytes[block];
+        long end = index.blockBytes[block + 1];
+        return start < end && end - start <= BLOCK_SIZE && index.checksums[block] == checksum(start, end);
+    }
+
+    /**
+     * Computes the checksum of the bytes of a block,
+     * eight bytes at a time.
+     */
+    private long checksum(long start, long end) {
+        byte[] bytes = spanBuffer.array();
+        int count = (int) (end - start);
+        copyBytes(start, bytes, count);
+        ByteBuffer words = ByteBuffer.wrap(bytes, 0, count);
+        long hash = 0xcbf29ce484222325L ^ count;
+        int i = 0;
+        for (; i + 8 <= count; i += 8) {
+            hash = Long.rotateLeft(hash ^ words.getLong(i), 31) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < count; i++) {
+            hash = (hash ^ bytes[i]) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Indexes a block that is plain ASCII straight from its bytes,
+     * which is much faster than decoding it.
+     *
+     * @return the number of characters of the block, or -1 if
+     *         the block is not plain ASCII
+     */
+    private int indexAscii(long start, long end, int charCount) {
+        if (utf16) {
+            return -1;
+        }
+        int savedLines = lineCount;
+        int kept = 0;
+        byte previous = 0;
+        byte[] bytes = spanBuffer.array();
+        int count = (int) (end - start);
+        copyBytes(start, bytes, count);
+        for (int i = 0; i < count; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                lineCount = savedLines;
+                return -1;
+            }
+            if (b == '\n') {
+                if (crlfBreaks && previous == '\r') {
+                    kept--;
+                } else if (crlfBreaks || carriageReturnBreaks) {
+                    mixedLineBreaks = true;
+                }
+                addLine(charCount + kept + 1);
+            } else if (b == '\r' && carriageReturnBreaks) {
+                addLine(charCount + kept + 1);
+            }
+            kept++;
+            previous = b;
+        }
+        return kept;
+    }
+
+    /**
+     * Indexes a block by decoding it.
+     *
+     * @return the number of characters of the block
+     * @throws CharacterCodingException if the block is not in the charset
+     */
+    private int indexDecoded(long start, long end, int charCount, CharBuffer chars, CharsetDecoder checker)
+            throws CharacterCodingException {
+        chars.clear();
+        CoderResult result = decode(start, end, checker, chars, spanBuffer);
+        if (result.isError()) {
+            result.throwException();
+        }
+        char[] array = chars.array();
+        mixedLineBreaks = mixedLineBreaks || format.hasMixedLineBreaks(array, chars.position());
+        int kept = format.convertLineBreaks(array, chars.position());
+        for (int i = 0; i < kept; i++) {
+            if (array[i] == '\n') {
+                addLine(charCount + i + 1);
+            }
+        }
+        return kept;
+    }
+
+    private void addLine(int start) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+        }
+        lineStarts[lineCount++] = start;
+    }
+
+    /**
+     * Finds where the block that starts at the given offset ends,
+     * so that it does not split a character or a "\r\n" pair.
+     */
+    private long blockEnd(long start) {
+        long end = Math.min(start + BLOCK_SIZE, size);
+        if (end == size) {
+            return end;
+        }
+        if (utf16) {
+            // Blocks start at an even distance from the byte order mark
+            end -= (end - start) % 2;
+            if (Character.isHighSurrogate(unitAt(end - 2)) && end > start + 2) {
+                end -= 2;
+            }
+            if (unitAt(end - 2) == '\r' && unitAt(end) == '\n' && end > start + 2) {
+                end -= 2;
+            }
+            return end;
+        }
+        while (utf8 && end > start + 1 && (byteAt(end) & 0xC0) == 0x80) {
+            end--;
+        }
+        if (byteAt(end - 1) == '\r' && byteAt(end) == '\n' && end > start + 1) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Copies a range of the mapped bytes into an array.
+     */
+    private void copyBytes(long start, byte[] bytes, int count) {
+        int done = 0;
+        while (done < count) {
+            long position = start + done;
+            ByteBuffer region = regions[(int) (position / REGION_SIZE)].duplicate();
+            region.position((int) (position % REGION_SIZE));
+            int chunk = Math.min(count - done, region.remaining());
+            region.get(bytes, done, chunk);
+            done += chunk;
+        }
+    }
+
+    private byte byteAt(long position) {
+        return regions[(int) (position / REGION_SIZE)].get((int) (position % REGION_SIZE));
+    }
+
+    /**
+     * Returns the UTF-16 code unit at the given offset,
+     * or 0 if the file ends in the middle of it.
+     */
+    private char unitAt(long position) {
+        if (position + 1 >= size) {
+            return 0;
+        }
+        int first = byteAt(position) & 0xFF;
+        int second = byteAt(position + 1) & 0xFF;
+        return charset.equals(StandardCharsets.UTF_16BE) ? (char) (first << 8 | second) : (char) (second << 8 | first);
+    }
+
+    /**
+     * Decodes a range of bytes at the end of the given buffer.
+     *
+     * @return the result of the decoding, an error if a byte is not in the charset
+     */
+    private CoderResult decode(long start, long end, CharsetDecoder dec, CharBuffer out, ByteBuffer span) {
+        ByteBuffer in;
+        int region = (int) (start / REGION_SIZE);
+        if (region == (int) ((end - 1) / REGION_SIZE)) {
+            in = regions[region].duplicate();
+            in.limit((int) (end - region * REGION_SIZE));
+            in.position((int) (start - region * REGION_SIZE));
+        } else {
+            // The block crosses two mappings, so we copy its bytes
+            in = span;
+            in.clear();
+            copyBytes(start, in.array(), (int) (end - start));
+            in.limit((int) (end - start));
+        }
+        dec.reset();
+        CoderResult result = dec.decode(in, out, true);
+        return result.isError() ? result : dec.flush(out);
+    }
+
+    /**
+     * Makes a decoder of the charset. The blocks that are decoded after the
+     * file has been indexed were checked by then, so a byte is replaced only
+     * if another program has changed the file, which must not break the text.
+     */
+    private CharsetDecoder newDecoder(CodingErrorAction action) {
+        return charset.newDecoder()
+                .onMalformedInput(action)
+                .onUnmappableCharacter(action);
+    }
+
+    /**
+     * Returns the number of lines of the text.
+     *
+     * @return the number of lines
+     * @since 1.1
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Hands over the index of the lines of the text.
+     * The index is built once, when the file is opened, and
+     * it is given to the document as is, so that its (possibly huge)
+     * array is not copied. For this reason it can only be taken once.
+     *
+     * @return the line index
+     * @throws IllegalStateException if the index has already been taken
+     * @since 1.1
+     */
+    public LineIndex takeLineIndex() {
+        if (lineStarts == null) {
+            throw new IllegalStateException("Line index has already been taken");
+        }
+        LineIndex index = new LineIndex(lineStarts, lineCount);
+        lineStarts = null;
+        return index;
+    }
+
+    /**
+     * Returns the index of the blocks and the lines of the text, to be kept
+     * for the next time the file is opened. The index shares its arrays
+     * with the text, so it must be used before the line index is taken.
+     *
+     * @return the index
+     * @throws IllegalStateException if the line index has already been taken
+     * @since 1.1
+     */
+    public Index getIndex() {
+        if (lineStarts == null) {
+            throw new IllegalStateException("Line index has already been taken");
+        }
+        return new Index(blockBytes, blockChars, checksums, blockCount, length,
+                lineStarts, lineCount, statistics, mixedLineBreaks);
+    }
+
+    /**
+     * Returns whether the index of the text was taken from
+     * a previous opening instead of indexing the file.
+     *
+     * @return <code>true</code> if the file was not indexed again
+     * @since 1.1
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Returns whether the file has line breaks that will be saved as its
+     * line separator, as {@link FileFormat#hasMixedLineBreaks} tells.
+     *
+     * @return <code>true</code> if the file would not be saved the same
+     * @since 1.1
+     */
+    public boolean hasMixedLineBreaks() {
+        return mixedLineBreaks;
+    }
+
+    /**
+     * Returns the statistics of the whole text, if they are known.
+     *
+     * @return the counts of the text, or <code>null</code> if they have not been counted
+     * @since 1.1
+     */
+    TextStatistics.Tally getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Keeps the statistics of the whole text, which never changes,
+     * so they are not counted again.
+     *
+     * @param statistics the counts of the text
+     * @since 1.1
+     */
+    void setStatistics(TextStatistics.Tally statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the format of the mapped file.
+     *
+     * @return the format
+     * @since 1.1
+     */
+    public FileFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the mapped file.
+     *
+     * @return the file
+     * @since 1.1
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the size of the mapped file.
+     *
+     * @return the size in bytes
+     * @since 1.1
+     */
+    public long getFileSize() {
+        return size;
+    }
+
+    /**
+     * Estimates how much memory the text holds in the heap: the index
+     * of its blocks and the cache of decoded blocks. The mapped bytes
+     * are not counted, as the system can always read them again from
+     * the disk.
+     *
+     * @return the estimated size in bytes
+     * @since 1.1
+     */
+    public long getMemoryFootprint() {
+        return 12L * blockCount + 2L * CACHED_BLOCKS * BLOCK_SIZE;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public synchronized char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        int block = blockOf(index);
+        return decodedBlock(block)[index - blockChars[block]];
+    }
+
+    /**
+     * Copies a range of the text into an array.
+     * Only the blocks that hold the range are decoded.
+     * <p>
+     * Short ranges go through the cache of recently used blocks, which
+     * only one thread can use at a time. Ranges of at least a block are
+     * decoded by the calling thread with its own decoder, bypassing the
+     * cache, so several threads can read long ranges at the same time.
+     *
+     * @param srcBegin the start of the range
+     * @param srcEnd the end of the range
+     * @param dst the destination array
+     * @param dstBegin the offset in the destination array
+     * @since 1.1
+     */
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+            throw new IndexOutOfBoundsException("Range: " + srcBegin + " - " + srcEnd);
+        }
+        if (srcEnd - srcBegin >= BLOCK_SIZE) {
+            readBlocks(srcBegin, srcEnd, dst, dstBegin);
+            return;
+        }
+        synchronized (this) {
+            int position = srcBegin;
+            while (position < srcEnd) {
+                int block = blockOf(position);
+                char[] chars = decodedBlock(block);
+                int from = position - blockChars[block];
+                int count = Math.min(srcEnd - position, chars.length - from);
+                System.arraycopy(chars, from, dst, dstBegin, count);
+                dstBegin += count;
+                position += count;
+            }
+        }
+    }
+
+    /**
+     * Decodes the blocks of a range straight into an array,
+     * without touching the cache or any other shared state.
+     */
+    private void readBlocks(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        CharsetDecoder dec = newDecoder(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+        ByteBuffer span = ByteBuffer.allocate(BLOCK_SIZE);
+        int position = srcBegin;
+        while (position < srcEnd) {
+            int block = blockOf(position);
+            chars.clear();
+            decode(blockBytes[block], blockBytes[block + 1], dec, chars, span);
+            int kept = format.convertLineBreaks(chars.array(), chars.position());
+            int from = position - blockChars[block];
+            int count = Math.min(srcEnd - position, kept - from);
+            System.arraycopy(chars.array(), from, dst, dstBegin, count);
+            dstBegin += count;
+            position += count;
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return CharBuffer.wrap(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * Finds the block that holds the character at the given offset.
+     */
+    private int blockOf(int index) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blockChars[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the decoded characters of a block, decoding
+     * it if it is not one of the recently used blocks.
+     */
+    private char[] decodedBlock(int block) {
+        int found = CACHED_BLOCKS - 1;
+        for (int i = 0; i < CACHED_BLOCKS; i++) {
+            if (cachedIndex[i] == block) {
+                found = i;
+                break;
+            }
+        }
+        char[] chars = cachedChars[found];
+        if (cachedIndex[found] != block) {
+            decodeBuffer.clear();
+            decode(blockBytes[block], blockBytes[block + 1], decoder, decodeBuffer, spanBuffer);
+            int kept = format.convertLineBreaks(decodeBuffer.array(), decodeBuffer.position());
+            chars = Arrays.copyOf(decodeBuffer.array(), kept);
+        }
+        // Move the block to the front of the cache
+        System.arraycopy(cachedIndex, 0, cachedIndex, 1, found);
+        System.arraycopy(cachedChars, 0, cachedChars, 1, found);
+        cachedIndex[0] = block;
+        cachedChars[0] = chars;
+        return chars;
+    }
+
+    /**
+     * <p>
+     * The index of a mapped text: where every block starts in the file
+     * and in the text, the checksum of the bytes of every block, where
+     * every line starts, whether the line breaks are mixed and, if they
+     * have been counted, the statistics of the text. It is all that is
+     * learned from a pass over the file.
+     */
+    public static final class Index {
+        final long[] blockBytes;
+        final int[] blockChars;
+        final long[] checksums;
+        final int blockCount;
+        final int length;
+        final int[] lineStarts;
+        final int lineCount;
+        final TextStatistics.Tally statistics;
+        final boolean mixedLineBreaks;
+
+        Index(long[] blockBytes, int[] blockChars, long[] checksums, int blockCount, int length,
+              int[] lineStarts, int lineCount, TextStatistics.Tally statistics, boolean mixedLineBreaks) {
+            this.blockBytes = blockBytes;
+            this.blockChars = blockChars;
+            this.checksums = checksums;
+            this.blockCount = blockCount;
+            this.length = length;
+            this.lineStarts = lineStarts;
+            this.lineCount = lineCount;
+            this.statistics = statistics;
+            this.mixedLineBreaks = mixedLineBreaks;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+import javax.management.MXBean;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.swing.SwingUtilities;
+import java.beans.ConstructorProperties;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Measures how long the operations of the editor take, while the user
+ * wants to: opening and saving files, counting the statistics, editing
+ * the document and painting it. For every kind of {@link Operation} it
+ * keeps a {@link LatencyHistogram} of how long it took, along with the
+ * bytes that it read or wrote and the bytes that it allocated, which the
+ * JVM counts for every thread.
+ * <p>
+ * A watchdog thread asks the Event Dispatch Thread to run an empty task
+ * every {@link #WATCH_INTERVAL} milliseconds and records how long it took
+ * to get to it, so a stall of the Event Dispatch Thread is measured even
+ * when it is caused by something that is not measured. The stack of the
+ * Event Dispatch Thread during the last stall longer than
+ * {@link #STALL_THRESHOLD} milliseconds is kept, to tell where it was stuck.
+ * <p>
+ * The measurements are shown by the {@link MetricsDialog}, and they are
+ * published to JMX as the <code>OldschoolEditor:type=Metrics</code> MXBean,
+ * and to Java Flight Recorder as <code>oldschool.Operation</code> events,
+ * if the JVM has it. The editor is built for Java 8, which does not have
+ * the API of custom events, so the event is created at run time through
+ * <code>jdk.jfr.EventFactory</code>, on Java 11 or later.
+ * <p>
+ * Nothing is measured until the measurements are enabled, with
+ * <code>setEnabled</code> or by starting the editor with
+ * <code>-Doldschool.metrics=true</code>. Until then an operation only
+ * reads a flag, and the MXBean is not even registered.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class Metrics {
+
+    static final long WATCH_INTERVAL = 100;
+    static final long STALL_THRESHOLD = 200;
+    private static final int STALL_FRAMES = 12;
+
+    /**
+     * The operations that are measured.
+     *
+     * @since 1.1
+     */
+    public enum Operation {
+        OPEN("Open"),
+        SAVE("Save"),
+        STATISTICS("Statistics"),
+        INSERT("Insert"),
+        REMOVE("Remove"),
+        REPAINT("Repaint"),
+        EDT_STALL("EDT delay");
+
+        private final String label;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder allocated = new LongAdder();
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Returns the name of the operation, as it is shown to the user.
+         *
+         * @return the name of the operation
+         * @since 1.1
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Returns how long the operation took, every time it was measured.
+         *
+         * @return the histogram of its latencies, in nanoseconds
+         * @since 1.1
+         */
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * Returns the bytes that the operation has read or written.
+         *
+         * @return the number of bytes
+         * @since 1.1
+         */
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * Returns the bytes that the operation has allocated.
+         *
+         * @return the number of bytes, or 0 if the JVM does not count them
+         * @since 1.1
+         */
+        public long getAllocatedBytes() {
+            return allocated.sum();
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static final AtomicLong stalls = new AtomicLong();
+    private static volatile String lastStall;
+    private static Thread watchdog;
+    private static boolean registered;
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns whether the operations are measured.
+     *
+     * @return <code>true</code> if they are measured
+     * @since 1.1
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops measuring the operations. When they are measured
+     * for the first time, the MXBean is registered as well.
+     *
+     * @param enabled <code>true</code> to measure the operations
+     * @since 1.1
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+        if (enabled) {
+            register();
+            if (watchdog == null) {
+                watchdog = new Thread(Metrics::watch, "EDT watchdog");
+                watchdog.setDaemon(true);
+                watchdog.start();
+            }
+        } else if (watchdog != null) {
+            watchdog.interrupt();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * Forgets everything that has been measured.
+     *
+     * @since 1.1
+     */
+    public static void reset() {
+        for (Operation operation : Operation.values()) {
+            operation.latencies.reset();
+            operation.bytes.reset();
+            operation.allocated.reset();
+        }
+        stalls.set(0);
+        lastStall = null;
+    }
+
+    /**
+     * Returns the number of times that the Event Dispatch Thread
+     * did not respond for longer than <code>STALL_THRESHOLD</code>.
+     *
+     * @return the number of stalls
+     * @since 1.1
+     */
+    public static long getStalls() {
+        return stalls.get();
+    }
+
+    /**
+     * Returns where the Event Dispatch Thread was during the last stall.
+     *
+     * @return the top of its stack, or <code>null</code> if it has not stalled
+     * @since 1.1
+     */
+    public static String getLastStall() {
+        return lastStall;
+    }
+
+    /**
+     * Starts measuring an operation in the current thread.
+     *
+     * @param operation the operation
+     * @return the measurement, to be passed to <code>stop</code>,
+     *         or <code>null</code> if the operations are not measured
+     * @since 1.1
+     */
+    public static Sample start(Operation operation) {
+        return enabled ? new Sample(operation) : null;
+    }
+
+    /**
+     * Stops measuring an operation, in the thread that started it.
+     *
+     * @param sample the measurement that <code>start</code> returned, may be <code>null</code>
+     * @param bytes the bytes that the operation read or wrote
+     * @since 1.1
+     */
+    public static void stop(Sample sample, long bytes) {
+        if (sample != null) {
+            long allocated = Math.max(0, allocatedBytes() - sample.allocatedBefore);
+            record(sample.operation, System.nanoTime() - sample.startTime, bytes, allocated);
+        }
+    }
+
+    private static void record(Operation operation, long nanos, long bytes, long allocated) {
+        operation.latencies.record(nanos);
+        operation.bytes.add(bytes);
+        operation.allocated.add(allocated);
+        FlightRecorder.commit(operation, nanos, bytes, allocated);
+    }
+
+    /**
+     * Returns the bytes that the current thread has allocated so far.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Measures how long the Event Dispatch Thread takes to run an empty
+     * task, until the measurements are disabled. If it takes too long,
+     * the stack of the Event Dispatch Thread is kept while it is stuck.
+     */
+    private static void watch() {
+        Thread[] edt = new Thread[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> edt[0] = Thread.currentThread());
+            while (!Thread.currentThread().isInterrupted()) {
+                long posted = System.nanoTime();
+                AtomicLong ran = new AtomicLong();
+                SwingUtilities.invokeLater(() -> ran.set(System.nanoTime()));
+                Thread.sleep(STALL_THRESHOLD);
+                if (ran.get() == 0) {
+                    StackTraceElement[] stack = edt[0].getStackTrace();
+                    StringBuilder top = new StringBuilder();
+                    for (int i = 0; i < Math.min(STALL_FRAMES, stack.length); i++) {
+                        top.append("at ").append(stack[i]).append(System.lineSeparator());
+                    }
+                    lastStall = top.toString();
+                    stalls.incrementAndGet();
+                }
+                while (ran.get() == 0) {
+                    Thread.sleep(WATCH_INTERVAL / 10);
+                }
+                record(Operation.EDT_STALL, ran.get() - posted, 0, 0);
+                Thread.sleep(WATCH_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            // Disabled
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Registers the MXBean, the first time the measurements are enabled.
+     */
+    private static void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(new Bean(), MetricsMXBean.class, true),
+                    new ObjectName("OldschoolEditor:type=Metrics"));
+        } catch (Exception e) {
+            // JMX is not available, or another editor runs in this JVM
+        }
+    }
+
+    /**
+     * The measurements of an operation that has started.
+     *
+     * @since 1.1
+     */
+    public static final class Sample {
+        private final Operation operation;
+        private final long allocatedBefore;
+        private final long startTime;
+
+        private Sample(Operation operation) {
+            this.operation = operation;
+            this.allocatedBefore = allocatedBytes();
+            this.startTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * The measurements, as they are published to JMX.
+     *
+     * @since 1.1
+     */
+    @MXBean
+    public interface MetricsMXBean {
+
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        long getStalls();
+
+        String getLastStall();
+
+        Map<String, OperationStats> getOperations();
+
+        void reset();
+    }
+
+    /**
+     * The measurements of a kind of operation, in microseconds.
+     *
+     * @since 1.1
+     */
+    public static final class OperationStats {
+        private final long count;
+        private final long mean;
+        private final long median;
+        private final long p99;
+        private final long max;
+        private final long bytes;
+        private final long allocatedBytes;
+
+        @ConstructorProperties({"count", "mean", "median", "p99", "max", "bytes", "allocatedBytes"})
+        public OperationStats(long count, long mean, long median, long p99, long max,
+                              long bytes, long allocatedBytes) {
+            this.count = count;
+            this.mean = mean;
+            this.median = median;
+            this.p99 = p99;
+            this.max = max;
+            this.bytes = bytes;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        OperationStats(Operation operation) {
+            this(operation.latencies.getCount(),
+                    operation.latencies.getMean() / 1000,
+                    operation.latencies.getValueAtPercentile(50) / 1000,
+                    operation.latencies.getValueAtPercentile(99) / 1000,
+                    operation.latencies.getMax() / 1000,
+                    operation.getBytes(),
+                    operation.getAllocatedBytes());
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getMedian() {
+            return median;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    private static final class Bean implements MetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getStalls() {
+            return Metrics.getStalls();
+        }
+
+        @Override
+        public String getLastStall() {
+            return Metrics.getLastStall();
+        }
+
+        @Override
+        public Map<String, OperationStats> getOperations() {
+            Map<String, OperationStats> operations = new TreeMap<>();
+            for (Operation operation : Operation.values()) {
+                operations.put(operation.getLabel(), new OperationStats(operation));
+            }
+            return operations;
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+    /**
+     * <p>
+     * Commits an <code>oldschool.Operation</code> event to Java Flight
+     * Recorder for every measured operation. The event type is created
+     * with <code>jdk.jfr.EventFactory</code> the first time an operation
+     * is measured, and only if the JVM has it, so everything is done
+     * through reflection, which only costs while the measurements are
+     * enabled.
+     */
+    private static final class FlightRecorder {
+        private static final Object FACTORY = createFactory();
+        private static Method newEvent;
+        private static Method set;
+        private static Method shouldCommit;
+        private static Method commit;
+
+        static void commit(Operation operation, long nanos, long bytes, long allocated) {
+            if (FACTORY == null) {
+                return;
+            }
+            try {
+                Object event = newEvent.invoke(FACTORY);
+                if ((Boolean) shouldCommit.invoke(event)) {
+                    set.invoke(event, 0, operation.getLabel());
+                    set.invoke(event, 1, nanos);
+                    set.invoke(event, 2, bytes);
+                    set.invoke(event, 3, allocated);
+                    commit.invoke(event);
+                }
+            } catch (ReflectiveOperationException e) {
+                // Should never happen, the methods have been found
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static Object createFactory() {
+            try {
+                Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                Class<?> elementClass = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+                Constructor<?> element = elementClass.getConstructor(Class.class, Object.class);
+                Constructor<?> descriptor = descriptorClass.getConstructor(Class.class, String.class, List.class);
+
+                List<Object> eventAnnotations = Arrays.asList(
+                        element.newInstance(annotation("jdk.jfr.Name"), "oldschool.Operation"),
+                        element.newInstance(annotation("jdk.jfr.Label"), "Editor Operation"),
+                        element.newInstance(annotation("jdk.jfr.Category"), new String[] {"Oldschool Editor"}));
+                List<Object> fields = Arrays.asList(
+                        descriptor.newInstance(String.class, "operation", Collections.singletonList(
+                                element.newInstance(annotation("jdk.jfr.Label"), "Operation"))),
+                        descriptor.newInstance(long.class, "latency", Arrays.asList(
+                                element.newInstance(annotation("jdk.jfr.Label"), "Latency"),
+                                element.newInstance(annotation("jdk.jfr.Timespan"), "NANOSECONDS"))),
+                        descriptor.newInstance(long.class, "bytes", Arrays.asList(
+                                element.newInstance(annotation("jdk.jfr.Label"), "Bytes Read or Written"),
+                                element.newInstance(annotation("jdk.jfr.DataAmount"), "BYTES"))),
+                        descriptor.newInstance(long.class, "allocated", Arrays.asList(
+                                element.newInstance(annotation("jdk.jfr.Label"), "Allocated"),
+                                element.newInstance(annotation("jdk.jfr.DataAmount"), "BYTES"))));
+                Object factory = factoryClass.getMethod("create", List.class, List.class)
+                        .invoke(null, eventAnnotations, fields);
+                factoryClass.getMethod("register").invoke(factory);
+
+                newEvent = factoryClass.getMethod("newEvent");
+                set = eventClass.getMethod("set", int.class, Object.class);
+                shouldCommit = eventClass.getMethod("shouldCommit");
+                commit = eventClass.getMethod("commit");
+                return factory;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Java 8, or a JVM without Flight Recorder
+                return null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+            return (Class<? extends Annotation>) Class.forName(name);
+        }
+    }
+}
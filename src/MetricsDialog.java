@@ -0,0 +1,172 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+/**
+ * <p>
+ * Dialog of the "Metrics" operation of the editor, which shows what
+ * {@link Metrics} has measured: for every kind of operation how many
+ * times it ran, how long it took, as the mean, the median, the 99th
+ * percentile and the longest time, and the bytes it read or wrote and
+ * allocated, along with the stalls of the Event Dispatch Thread.
+ * <p>
+ * The measurements start when the dialog is shown and can be turned
+ * off from it. While the dialog is shown it is updated every
+ * {@link #REFRESH_INTERVAL} milliseconds.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class MetricsDialog extends JDialog {
+
+    static final int REFRESH_INTERVAL = 500;
+
+    private static final String[] COLUMNS = {
+            "Operation", "Count", "Mean (ms)", "Median (ms)", "99% (ms)", "Max (ms)", "Bytes", "Allocated"
+    };
+
+    private final JCheckBox enabledBox;
+    private final AbstractTableModel model;
+    private final JLabel stallsLabel;
+    private final JTextArea stallArea;
+    private final Timer refresh;
+
+    /**
+     * Constructor.
+     * Creates the components of the dialog, which is not shown yet.
+     *
+     * @param owner the frame of the editor
+     * @since 1.1
+     */
+    public MetricsDialog(JFrame owner) {
+        super(owner, "Metrics", false);
+
+        // ##### Creating the table of the operations #####
+        model = new AbstractTableModel() {
+            @Override
+            public int getRowCount() {
+                return Metrics.Operation.values().length;
+            }
+
+            @Override
+            public int getColumnCount() {
+                return COLUMNS.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return COLUMNS[column];
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                Metrics.Operation operation = Metrics.Operation.values()[row];
+                LatencyHistogram latencies = operation.getLatencies();
+                switch (column) {
+                    case 0:
+                        return operation.getLabel();
+                    case 1:
+                        return latencies.getCount();
+                    case 2:
+                        return millis(latencies.getMean());
+                    case 3:
+                        return millis(latencies.getValueAtPercentile(50));
+                    case 4:
+                        return millis(latencies.getValueAtPercentile(99));
+                    case 5:
+                        return millis(latencies.getMax());
+                    case 6:
+                        return operation.getBytes();
+                    default:
+                        return operation.getAllocatedBytes();
+                }
+            }
+        };
+        JTable table = new JTable(model);
+        table.setPreferredScrollableViewportSize(new Dimension(640, table.getRowHeight() * COLUMNS.length));
+
+        // ##### Creating the stalls of the Event Dispatch Thread #####
+        stallsLabel = new JLabel(" ");
+        stallArea = new JTextArea(6, 60);
+        stallArea.setEditable(false);
+        stallArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        JPanel stallPanel = new JPanel(new BorderLayout(5, 5));
+        stallPanel.add(stallsLabel, BorderLayout.NORTH);
+        stallPanel.add(new JScrollPane(stallArea), BorderLayout.CENTER);
+
+        // ##### Creating the buttons #####
+        enabledBox = new JCheckBox("Measure operations");
+        JButton resetBtn = new JButton("Reset");
+        JButton closeBtn = new JButton("Close");
+        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        btnPanel.add(enabledBox);
+        btnPanel.add(resetBtn);
+        btnPanel.add(closeBtn);
+
+        enabledBox.addActionListener(event -> Metrics.setEnabled(enabledBox.isSelected()));
+        resetBtn.addActionListener(event -> {
+            Metrics.reset();
+            update();
+        });
+        closeBtn.addActionListener(event -> close());
+
+        JPanel contentPanel = new JPanel(new BorderLayout(5, 5));
+        contentPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        contentPanel.add(new JScrollPane(table), BorderLayout.NORTH);
+        contentPanel.add(stallPanel, BorderLayout.CENTER);
+        contentPanel.add(btnPanel, BorderLayout.SOUTH);
+        this.setContentPane(contentPanel);
+        this.pack();
+        this.setLocationRelativeTo(owner);
+
+        refresh = new Timer(REFRESH_INTERVAL, event -> update());
+
+        this.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Shows the dialog and starts measuring the operations.
+     *
+     * @since 1.1
+     */
+    public void showDialog() {
+        Metrics.setEnabled(true);
+        update();
+        refresh.start();
+        this.setVisible(true);
+    }
+
+    /**
+     * Hides the dialog. The operations are still measured,
+     * unless they have been turned off.
+     */
+    private void close() {
+        refresh.stop();
+        this.setVisible(false);
+    }
+
+    private void update() {
+        enabledBox.setSelected(Metrics.isEnabled());
+        model.fireTableDataChanged();
+        stallsLabel.setText("Stalls of the Event Dispatch Thread longer than "
+                + Metrics.STALL_THRESHOLD + " ms: " + Metrics.getStalls());
+        String stall = (Metrics.getLastStall() != null) ? Metrics.getLastStall() : "";
+        if (!stall.equals(stallArea.getText())) {
+            stallArea.setText(stall);
+            stallArea.setCaretPosition(0);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+}
@@ -1,10 +1,26 @@
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.EtchedBorder;
-import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 
 /**
@@ -15,7 +31,8 @@ import java.io.*;
  *  we make a new Panel object and put the buttons inside of it.
  *  We also add a border for more visual appealing.
  *  Then we put this Panel at the North coordination of Border Layout
- *  and the JTextArea at the Center of the JFrame.
+ *  and the tabs of the open documents at the Center of the JFrame.
+ *  Every document has its own JTextArea in a tab.
  *  We create the classes's attributes at a global in-class scope
  *  so every method can perform changes on them.
  *  <p>
@@ -41,10 +58,10 @@ import java.io.*;
  *  <p>
  *  At the JTextArea we add a vertical and a horizontal JScrollPane
  *  in case the content is larger than area's dimensions. Scroll bars
- *  will only appear if needed. We also add a KeyListener with an anonymous
- *  KeyAdapter that will help us determine if changes was made to the
- *  content of JTextArea that eventually will cause the appearance of a different
- *  message during program termination.
+ *  will only appear if needed. A {@link DirtyTracker} follows every change
+ *  of the content to determine if it differs from the file, which
+ *  eventually will cause the appearance of a different message during
+ *  program termination.
  *  <p>
  *  We finally add a WindowListener to this JFrame with an
  *  anonymous WindowAdapter that will handle the exit procedure.
@@ -57,8 +74,19 @@ import java.io.*;
 
 public class MyFrame extends JFrame {
 
-    private File opendFile;
-    private JTextArea contentsTA;
+    // How many lines of a followed file are kept
+    private static final int FOLLOW_MAX_LINES = 100000;
+
+    private final String frameTitle;
+    private JTabbedPane tabbedPane;
+    private BufferCache bufferCache;
+    private boolean closingTab;
+    private JLabel statusBar;
+    private TextStatistics textStatistics;
+    private FindDialog findDialog;
+    private FindInFilesDialog findInFilesDialog;
+    private MetricsDialog metricsDialog;
+    private FileChooserService fileChooser;
 
     private JButton newBtn;
     private JButton openBtn;
@@ -67,17 +95,31 @@ public class MyFrame extends JFrame {
     private JButton clearBtn;
     private JButton statisticsBtn;
     private JButton exitBtn;
+    private JButton cancelBtn;
+    private JProgressBar ioProgressBar;
 
     private JMenuBar menuBar;
     private JMenu fileMenu;
     private JMenu editMenu;
+    private JMenu viewMenu;
     private JMenuItem newMenuItem;
     private JMenuItem openMenuItem;
     private JMenuItem saveMenuItem;
+    private JMenuItem closeMenuItem;
     private JMenuItem copyMenuItem;
     private JMenuItem clearMenuItem;
+    private JMenuItem undoMenuItem;
+    private JMenuItem redoMenuItem;
+    private JMenuItem findMenuItem;
+    private JMenuItem findNextMenuItem;
+    private JMenuItem replaceMenuItem;
+    private JMenuItem findInFilesMenuItem;
     private JMenuItem statisticsMenuItem;
     private JMenuItem exitMenuItem;
+    private JCheckBoxMenuItem statusBarMenuItem;
+    private JCheckBoxMenuItem followMenuItem;
+    private JCheckBoxMenuItem hexMenuItem;
+    private JMenuItem metricsMenuItem;
 
     private Image newImage;
     private Image openImage;
@@ -88,7 +130,15 @@ public class MyFrame extends JFrame {
     private Image exitImage;
     private Image  frameImage;
 
-    private boolean hasModified;
+    // Every file operation runs in this thread, so the
+    // Event Dispatch Thread never waits for the disk
+    private ExecutorService ioExecutor;
+    private List<SwingWorker<?, ?>> ioWorkers;
+    // Followed files are read in threads of their own,
+    // as following never finishes
+    private ExecutorService followExecutor;
+    // Notices the files that other programs change
+    private FileWatcher fileWatcher;
 
     /**
      * Constructor.
@@ -99,18 +149,31 @@ public class MyFrame extends JFrame {
      */
     public MyFrame(String windowTitle) {
         super(windowTitle); // Passing frame's title to parent's constructor
+        frameTitle = windowTitle;
 
         // ##### Creating Menu objects #####
         menuBar = new JMenuBar();
         menuBar.add(fileMenu = new JMenu("File"));
         menuBar.add(editMenu = new JMenu("Edit"));
+        menuBar.add(viewMenu = new JMenu("View"));
         fileMenu.add(newMenuItem = new JMenuItem("New"));
         fileMenu.add(openMenuItem = new JMenuItem("Open"));
         fileMenu.add(saveMenuItem = new JMenuItem("Save"));
         fileMenu.add(copyMenuItem = new JMenuItem("Copy"));
+        fileMenu.add(closeMenuItem = new JMenuItem("Close"));
         fileMenu.add(statisticsMenuItem = new JMenuItem("Statistics"));
+        editMenu.add(undoMenuItem = new JMenuItem("Undo"));
+        editMenu.add(redoMenuItem = new JMenuItem("Redo"));
         editMenu.add(clearMenuItem = new JMenuItem("Clear"));
+        editMenu.add(findMenuItem = new JMenuItem("Find"));
+        editMenu.add(findNextMenuItem = new JMenuItem("Find Next"));
+        editMenu.add(replaceMenuItem = new JMenuItem("Replace"));
+        editMenu.add(findInFilesMenuItem = new JMenuItem("Find in Files"));
         fileMenu.add(exitMenuItem = new JMenuItem("Exit"));
+        viewMenu.add(statusBarMenuItem = new JCheckBoxMenuItem("Status Bar"));
+        viewMenu.add(followMenuItem = new JCheckBoxMenuItem("Follow"));
+        viewMenu.add(hexMenuItem = new JCheckBoxMenuItem("Hex View"));
+        viewMenu.add(metricsMenuItem = new JMenuItem("Metrics"));
 
 
         // ##### Adding functionality to MenuItems #####
@@ -118,9 +181,27 @@ public class MyFrame extends JFrame {
         openMenuItem.addActionListener(event -> openOperation());
         saveMenuItem.addActionListener(event -> saveOperation(0));
         copyMenuItem.addActionListener(event -> saveOperation(1));
+        closeMenuItem.addActionListener(event -> closeOperation());
         clearMenuItem.addActionListener(event -> clearOperation());
+        undoMenuItem.addActionListener(event -> undoOperation(false));
+        redoMenuItem.addActionListener(event -> undoOperation(true));
         statisticsMenuItem.addActionListener(event -> statistics());
         exitMenuItem.addActionListener(event -> exitOperation());
+        statusBarMenuItem.addActionListener(event -> statusBarOperation());
+        metricsMenuItem.addActionListener(event -> metricsOperation());
+        followMenuItem.addActionListener(event -> followOperation());
+        hexMenuItem.addActionListener(event -> hexOperation());
+        findMenuItem.addActionListener(event -> findOperation(false));
+        findNextMenuItem.addActionListener(event -> findNextOperation());
+        replaceMenuItem.addActionListener(event -> findOperation(true));
+        findInFilesMenuItem.addActionListener(event -> findInFilesOperation());
+        undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+        findMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK));
+        findNextMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+        replaceMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_H, InputEvent.CTRL_DOWN_MASK));
+        findInFilesMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
 
         // ##### Creating JPanel and adding borders #####
         JPanel btnPanel = new JPanel();
@@ -130,16 +211,18 @@ public class MyFrame extends JFrame {
         // ##### Create new Images that will be uses as ImageIcon for buttons #####
         // try block is required because reading from disk may fail
         // Icons are located in folder 'icons' that is market as
-        // resources root.
+        // resources root. They are all read at once, already decoded,
+        // from the atlas of the icons (see IconAtlas)
         try {
-            newImage = ImageIO.read(getClass().getResource("new_icon.png"));
-            openImage = ImageIO.read(getClass().getResource("open_icon.png"));
-            saveImage = ImageIO.read(getClass().getResource("save_icon.png"));
-            copyImage = ImageIO.read(getClass().getResource("copy_icon.png"));
-            clearImage = ImageIO.read(getClass().getResource("clear_icon.png"));
-            statisticsImage = ImageIO.read(getClass().getResource("statistics_icon.png"));
-            exitImage = ImageIO.read(getClass().getResource("exit_icon.png"));
-            frameImage = ImageIO.read(getClass().getResource("editor_icon.png"));
+            IconAtlas icons = IconAtlas.load();
+            newImage = icons.getIcon("new_icon");
+            openImage = icons.getIcon("open_icon");
+            saveImage = icons.getIcon("save_icon");
+            copyImage = icons.getIcon("copy_icon");
+            clearImage = icons.getIcon("clear_icon");
+            statisticsImage = icons.getIcon("statistics_icon");
+            exitImage = icons.getIcon("exit_icon");
+            frameImage = icons.getIcon("editor_icon_small");
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -174,6 +257,18 @@ public class MyFrame extends JFrame {
         exitBtn.setBorder(null);
         exitBtn.setToolTipText("Exit");
 
+        // ##### Creating the progress bar of file operations #####
+        // Both the bar and its cancel button are only visible
+        // while a file is loading or saving
+        btnPanel.add(ioProgressBar = new JProgressBar(0, 100));
+        ioProgressBar.setStringPainted(true);
+        ioProgressBar.setVisible(false);
+        btnPanel.add(cancelBtn = new JButton("Cancel"));
+        cancelBtn.setMargin(new Insets(0,0,0,0));
+        cancelBtn.setBorder(null);
+        cancelBtn.setToolTipText("Cancel the file operation");
+        cancelBtn.setVisible(false);
+
         // ##### Adding MouseListener to each JButton #####
         // Mouse events will be handled by ButtonHandler class
         newBtn.addMouseListener(new ButtonHandler());
@@ -183,6 +278,7 @@ public class MyFrame extends JFrame {
         clearBtn.addMouseListener(new ButtonHandler());
         statisticsBtn.addMouseListener(new ButtonHandler());
         exitBtn.addMouseListener(new ButtonHandler());
+        cancelBtn.addMouseListener(new ButtonHandler());
 
         // ##### Adding ActionListener to each JButton ######
         // We use lambda expressions to handle each button functionality
@@ -193,40 +289,45 @@ public class MyFrame extends JFrame {
         clearBtn.addActionListener(event -> clearOperation());
         statisticsBtn.addActionListener(event -> statistics());
         exitBtn.addActionListener(event -> exitOperation());
+        cancelBtn.addActionListener(event -> cancelOperation());
 
-        // ##### Creating JTextArea and adding border ######
-        contentsTA = new JTextArea();
-        contentsTA.setBorder(BorderFactory.createEtchedBorder(EtchedBorder.LOWERED));
-        contentsTA.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyTyped(KeyEvent e) {
-                if (!hasModified) {
-                    modification();
-                }
-
-            }
-        });
+        // ##### Creating the tabs of the documents ######
+        // Every open document has its own text area in a tab (see addTab).
+        // The documents of the tabs that have not been selected for a while
+        // are dropped when they hold too much memory, to be loaded again
+        // from their files when they are selected
+        tabbedPane = new JTabbedPane();
+        tabbedPane.addChangeListener(event -> tabSelected());
+        bufferCache = new BufferCache(Runtime.getRuntime().maxMemory() / 4);
 
-        // ##### Creating scroll pane for TextArea #####
-        // We ensure that user can navigate to the entire length
-        // of the content
-        JScrollPane scrollPane = new JScrollPane(contentsTA);
-        scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
-        scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        // ##### Creating the status bar #####
+        // It shows the statistics as they change and
+        // is hidden until the user asks for it
+        statusBar = new JLabel(" ");
+        statusBar.setBorder(BorderFactory.createEtchedBorder(EtchedBorder.LOWERED));
+        statusBar.setVisible(false);
 
         // ##### Adding components to the frame #####
         // First we add the panel with the buttons at the top of the frame
-        // and then the text area at the center of the frame. Because we don't have
-        // anything else at the left, right all bottom of frame (BorderLayout)
-        // text area will fill the remaining space
+        // and then the tabs at the center of the frame. Because we don't have
+        // anything else at the left and right of frame (BorderLayout)
+        // the tabs will fill the remaining space
         this.setJMenuBar(menuBar);
         this.add(btnPanel, BorderLayout.NORTH);
-        this.add(scrollPane, BorderLayout.CENTER);
+        this.add(tabbedPane, BorderLayout.CENTER);
+        this.add(statusBar, BorderLayout.SOUTH);
         this.setIconImage(frameImage); // Changes the frame's icon
 
 
         // ##### Adding WindowListener to handle the termination process #####
+        // The file chooser is created once the frame has been shown,
+        // so the first "Open" does not wait for it
         this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                SwingUtilities.invokeLater(fileChooser::prewarm);
+            }
+
             @Override
             public void windowClosing(WindowEvent e) {
                 exitOperation();
@@ -234,33 +335,171 @@ public class MyFrame extends JFrame {
         });
 
         // Attributes that will help with various operations
-        opendFile = null;
-        hasModified = false;
+        ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "File I/O");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ioWorkers = new ArrayList<>();
+        fileChooser = new FileChooserService();
+        followExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "File follower");
+            thread.setDaemon(true);
+            return thread;
+        });
+        closingTab = false;
+        addTab(null, new PieceTableDocument()).startJournal(false);
+
+        // ##### Watching the files of the tabs #####
+        fileWatcher = new FileWatcher(this::watchedFiles, this::fileChanged);
+        fileWatcher.start();
+    }
+
+    /**
+     * Creates a new tab for a document and selects it.
+     * The title of the tab follows whether its document has unsaved
+     * changes, which its {@link DirtyTracker} finds out from every
+     * change of the text, not only the typed ones.
+     *
+     * @param file the file of the document, may be <code>null</code>
+     * @param document the document of the tab
+     * @return the new tab
+     *
+     * @since 1.1
+     */
+    private EditorTab addTab(File file, PieceTableDocument document) {
+        EditorTab tab = new EditorTab(file, document);
+        tab.getComponent().putClientProperty(EditorTab.class, tab);
+        tab.addChangeListener(event -> updateTitle(tab));
+        // The statistics follow the document of the selected text area,
+        // which is replaced every time a file is opened
+        tab.getTextArea().addPropertyChangeListener("document", event -> {
+            if (tab == currentTab()) {
+                trackStatistics();
+            }
+        });
+
+        tabbedPane.addTab(tab.getTitle(), tab.getComponent());
+        tabbedPane.setSelectedComponent(tab.getComponent());
+        return tab;
+    }
+
+    /**
+     * Returns the tab of a document in the given position.
+     *
+     * @since 1.1
+     */
+    private EditorTab tabAt(int index) {
+        return (EditorTab) ((JComponent) tabbedPane.getComponentAt(index)).getClientProperty(EditorTab.class);
+    }
+
+    /**
+     * Returns the selected tab, whose document
+     * every operation of the editor works on.
+     *
+     * @since 1.1
+     */
+    private EditorTab currentTab() {
+        int index = tabbedPane.getSelectedIndex();
+        return (index < 0) ? null : tabAt(index);
+    }
+
+    /**
+     * Returns the tab that a file is open in.
+     *
+     * @return the tab, or <code>null</code> if the file is not open
+     * @since 1.1
+     */
+    private EditorTab findTab(File file) {
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            File tabFile = tabAt(i).getFile();
+            if (tabFile != null && tabFile.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                return tabAt(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shows a document in a tab. An untitled tab that is still empty,
+     * like the one the editor starts with, is reused instead of
+     * opening a new tab next to it.
+     *
+     * @return the tab of the document
+     * @since 1.1
+     */
+    private EditorTab openTab(File file, PieceTableDocument document) {
+        EditorTab tab = currentTab();
+        if (tab != null && tab.getFile() == null && !tab.isModified()
+                && tab.isEmpty() && tab.getWorker() == null) {
+            tab.setFile(file);
+            tab.setDocument(document);
+            updateTitle(tab);
+            return tab;
+        }
+        return addTab(file, document);
+    }
+
+    /**
+     * Functionality of the tabs' ChangeListener
+     * Shows the file and the statistics of the selected document
+     * and loads it again if it has been evicted from the buffer cache.
+     *
+     * @since 1.1
+     */
+    private void tabSelected() {
+        EditorTab tab = currentTab();
+        if (tab == null || closingTab) {
+            return;
+        }
+        updateTitle(tab);
+        trackStatistics();
+        followMenuItem.setSelected(tab.getFollower() != null);
+        hexMenuItem.setSelected(tab.getHexView() != null);
+        if (tab.isEvicted() && tab.getWorker() == null) {
+            // The tab is closed if its file cannot be read any more,
+            // as it has no unsaved work
+            loadFile(tab, tab.getFile(), tab::restore, () -> closeTab(tab));
+        }
+        bufferCache.touch(tab);
+    }
+
+    /**
+     * Shows the title of a document on its tab and,
+     * if it is the selected one, on the frame.
+     *
+     * @since 1.1
+     */
+    private void updateTitle(EditorTab tab) {
+        int index = tabbedPane.indexOfComponent(tab.getComponent());
+        if (index >= 0) {
+            tabbedPane.setTitleAt(index, tab.getTitle());
+        }
+        if (tab == currentTab()) {
+            String title = (tab.getFile() != null) ? tab.getFile().getAbsolutePath() : frameTitle;
+            this.setTitle(tab.isModified() ? title + '*' : title);
+        }
     }
 
     /**
      * Functionality of the "New" button and menuItem
      * Creates a new File based on the path and file name
-     * user provided via JFileChooser. Also replaces the
+     * user provided via the shared {@link FileChooserService}. Also replaces the
      * frame's title with the path of the file.
+     * The new file is shown in a new tab.
      * In case the file cannot be created, a message informs the user.
      *
      * @since 1.0
      */
     private void newOperation() {
-        int result;
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter("Normal text file", "txt"));
-
-        result = fileChooser.showSaveDialog(null);
-        if (result == JFileChooser.APPROVE_OPTION) {
+        File selected = fileChooser.showSaveDialog(null);
+        if (selected != null) {
             // Get path of file that user created and also adding the extension
-            opendFile = new File(fileChooser.getSelectedFile().getPath() + ".txt");
+            File file = withExtension(selected);
 
             try {
-                opendFile.createNewFile();
-                this.setTitle(opendFile.getAbsolutePath());
-                contentsTA.setText("");
+                file.createNewFile();
+                openTab(file, new PieceTableDocument()).startJournal(false);
             } catch (IOException e) {
                 JOptionPane.showMessageDialog(
                         null,
@@ -282,68 +521,246 @@ public class MyFrame extends JFrame {
      * @since 1.0
      */
     private void clearOperation() {
-        contentsTA.setText("");
+        EditorTab tab = currentTab();
+        if (!tab.isEmpty()) {
+            tab.getTextArea().setText("");
+        }
     }
 
     /**
-     * Functionality of the textArea's keyListener
-     * Make's program aware that modification indeed made
-     * and also appends an asterisk at the end of the
-     * opened file's name to inform user that there's
-     * unsaved work.
+     * Functionality of the "Undo" and "Redo" menuItems
+     * Undoes the last edit of the selected document, or redoes the last
+     * undone one, and moves the caret to where the text changed.
+     * Typing and deleting is undone a word or more at a time, as
+     * described in {@link EditHistory}, and clearing or replacing
+     * all of a huge document is undone just as quickly.
+     * <p>
+     * In case the edit cannot be undone, the history is forgotten and
+     * the user will be informed.
+     *
+     * @param redo <code>true</code> for the "Redo" menuItem
+     *
+     * @since 1.1
      */
-    private void modification() {
-        hasModified = true;
-        this.setTitle(this.getTitle() + '*');
+    private void undoOperation(boolean redo) {
+        EditorTab tab = currentTab();
+        EditHistory history = tab.getHistory();
+        if (redo ? !history.canRedo() : !history.canUndo()) {
+            return;
+        }
+        try {
+            int offset = redo ? history.redo() : history.undo();
+            tab.getTextArea().setCaretPosition(Math.min(offset, tab.getDocument().getLength()));
+        } catch (CannotUndoException | CannotRedoException e) {
+            JOptionPane.showMessageDialog(
+                    null,
+                    "The edit cannot be " + (redo ? "redone." : "undone."),
+                    "Edit error",
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
     }
 
-
     /**
      * Functionality of the "Open" button and menuItem
-     * Opens an existing file and fill the contents of textArea
-     * with the contents of the file. Also replaces the
+     * Opens an existing file in a new tab and fill the contents of its
+     * textArea with the contents of the file. Also replaces the
      * frame's title with the path of the file.
+     * If the file is already open, its tab is selected instead.
+     * <p>
+     * The file is loaded in the background by a {@link FileLoader},
+     * while the progress bar shows how much of it has been loaded.
+     * Small files are displayed (but cannot be edited) while they are
+     * loading. If the loading is cancelled or fails the tab is closed.
      *
      * In case the file cannot be found or read the user will be informed
      *
      * @since 1.0
      */
     private void openOperation() {
-        int result;
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter("Normal text file", "txt"));
-
-        result = fileChooser.showOpenDialog(null);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            opendFile = new File(fileChooser.getSelectedFile().getPath());
-            String tmpStr;
-            StringBuilder fileText = new StringBuilder();
+        File file = fileChooser.showOpenDialog(null);
+        if (file != null) {
+            EditorTab tab = findTab(file);
+            if (tab != null) {
+                tabbedPane.setSelectedComponent(tab.getComponent());
+            }
+            else {
+                openFile(file, opened -> opened.startJournal(true));
+            }
+        }
+    }
+
+    /**
+     * Opens a file in the background, as described in <code>openOperation</code>.
+     *
+     * @param file the file to open
+     * @param whenOpened the action to run on the tab of the file after it has been opened
+     *
+     * @since 1.1
+     */
+    private void openFile(File file, Consumer<EditorTab> whenOpened) {
+        EditorTab previous = currentTab();
+        EditorTab tab = openTab(null, new PieceTableDocument());
+        loadFile(tab, file, () -> whenOpened.accept(tab), () -> {
+            if (tab != previous) {
+                closeTab(tab);
+            }
+            else {
+                tab.setFile(null);
+                tab.setDocument(new PieceTableDocument());
+                updateTitle(tab);
+            }
+        });
+    }
+
+    /**
+     * Loads a file in the background into the document of a tab,
+     * or shows its bytes, if it is a binary file.
+     *
+     * @param tab the tab to load the file into
+     * @param file the file to load
+     * @param whenLoaded the action to run after the file has been loaded
+     * @param whenFailed the action to run if the loading fails or is cancelled
+     *
+     * @since 1.1
+     */
+    private void loadFile(EditorTab tab, File file, Runnable whenLoaded, Runnable whenFailed) {
+        loadFile(tab, new FileLoader(file), whenLoaded, whenFailed);
+    }
+
+    /**
+     * Loads a file in the background with the given loader, into the
+     * document of a tab or, if the loader opens it as bytes, into a
+     * {@link HexView} of the tab.
+     *
+     * @param tab the tab to load the file into
+     * @param loader the loader of the file, which has not been started yet
+     * @param whenLoaded the action to run after the file has been loaded
+     * @param whenFailed the action to run if the loading fails or is cancelled
+     *
+     * @since 1.1
+     */
+    private void loadFile(EditorTab tab, FileLoader loader, Runnable whenLoaded, Runnable whenFailed) {
+        if (loader.getStreamedDocument() != null) {
+            tab.setDocument(loader.getStreamedDocument());
+            tab.getTextArea().setEditable(false);
+        }
+        runInBackground(tab, loader, () -> {
+            tab.getTextArea().setEditable(true);
             try {
-                BufferedReader reader = new BufferedReader(new FileReader(opendFile));
-                while((tmpStr = reader.readLine()) != null) {
-                    fileText.append(tmpStr);
-                    fileText.append(System.lineSeparator());
+                PieceTableDocument document = loader.get();
+                if (document == null) {
+                    tab.setHexView(new HexView(loader.getBytes()));
+                } else if (tab.getHexView() != null) {
+                    tab.setHexView(null);
+                    tab.setDocument(document);
+                } else if (document != tab.getDocument()) {
+                    tab.setDocument(document);
+                }
+                if (tab == currentTab()) {
+                    hexMenuItem.setSelected(tab.getHexView() != null);
+                }
+                tab.setFile(loader.getFile());
+                if (document != null && document.getProperty(FileLoader.MIXED_LINE_BREAKS_PROPERTY) != null) {
+                    // Saving changes some line breaks, so the text is not the file
+                    tab.getDirtyTracker().markUnsaved();
+                    JOptionPane.showMessageDialog(
+                            null,
+                            "The lines of " + loader.getFile().getName() + " end in different line breaks."
+                                    + "\nThey will all end in " + FileFormat.of(document).getLineSeparatorName()
+                                    + " when the file is saved.",
+                            "Line breaks",
+                            JOptionPane.WARNING_MESSAGE
+                    );
+                }
+                updateTitle(tab);
+                whenLoaded.run();
+                if (tab == currentTab()) {
+                    // The loaded document may not fit next to the others
+                    bufferCache.touch(tab);
+                }
+            } catch (CancellationException | InterruptedException | ExecutionException e) {
+                whenFailed.run();
+                if (e.getCause() instanceof FileNotFoundException) {
+                    JOptionPane.showMessageDialog(
+                            null,
+                            "File not found!",
+                            "File error",
+                            JOptionPane.INFORMATION_MESSAGE
+                    );
+                } else if (e instanceof ExecutionException) {
+                    JOptionPane.showMessageDialog(
+                            null,
+                            "Error at opening file.\nPlease try again",
+                            "File error",
+                            JOptionPane.ERROR_MESSAGE
+                    );
                 }
-                reader.close();
-                this.setTitle(opendFile.getAbsolutePath());
-            } catch (FileNotFoundException e) {
-                JOptionPane.showMessageDialog(
-                        null,
-                        "File not found!",
-                        "File error",
-                        JOptionPane.INFORMATION_MESSAGE
-                );
-
-                opendFile = null;
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(
-                        null,
-                        "Error at opening file.\nPlease try again",
-                        "File error",
-                        JOptionPane.ERROR_MESSAGE
-                );
             }
-            contentsTA.setText(fileText.toString());
+        });
+    }
+
+    /**
+     * Functionality of the "Close" menuItem
+     * Closes the selected tab. In case there is unsaved work,
+     * the user is asked if he wants to save it, like when exiting.
+     * A file that is still loading stops loading, but a
+     * file that is being saved must finish first.
+     *
+     * @since 1.1
+     */
+    private void closeOperation() {
+        EditorTab tab = currentTab();
+        if (tab.getWorker() instanceof FileSaver) {
+            JOptionPane.showMessageDialog(
+                    null,
+                    "Please wait for the current file operation to finish.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        if (tab.isModified()) {
+            confirmSaves(Collections.singletonList(tab).iterator(), "Close confirmation", () -> closeTab(tab));
+        }
+        else {
+            closeTab(tab);
+        }
+    }
+
+    /**
+     * Closes a tab and deletes the recovery journal of its document.
+     * The editor always keeps a tab, so closing the last
+     * one leaves an empty untitled tab in its place.
+     *
+     * @since 1.1
+     */
+    private void closeTab(EditorTab tab) {
+        int index = tabbedPane.indexOfComponent(tab.getComponent());
+        if (index < 0) {
+            return; // Already closed
+        }
+        if (tab.getWorker() != null) {
+            tab.getWorker().cancel(true);
+        }
+        if (tab.getFollower() != null) {
+            tab.getFollower().cancel(true);
+        }
+        tab.setJournal(null);
+        tab.setHexView(null);
+        tab.getHistory().dispose();
+        bufferCache.remove(tab);
+
+        // The tabs change their selection while one of them is
+        // being removed, so the new selection is only shown after
+        closingTab = true;
+        tabbedPane.removeTabAt(index);
+        closingTab = false;
+        if (tabbedPane.getTabCount() == 0) {
+            addTab(null, new PieceTableDocument()).startJournal(false);
+        }
+        else {
+            tabSelected();
         }
     }
 
@@ -359,7 +776,7 @@ public class MyFrame extends JFrame {
      * so this method will function as a "Save As" operation.
      * <p>
      * In both cases, we check if there is an opened file at the moment of
-     * saving the contents. If a file is not opened (opendFile has <code>null</code>),
+     * saving the contents. If a file is not opened (the tab has no file),
      * then both "Save" and "Save As" operations functions as a "Save"
      * action which also performs for the first time, so user must specify a new file
      * for the contents to be written.
@@ -377,19 +794,64 @@ public class MyFrame extends JFrame {
      * @since 1.0
      */
     private void saveOperation(int option) {
+        saveOperation(option, null);
+    }
+
+    /**
+     * Performs the "Save" or "Save As" operation on the selected tab, as
+     * described in <code>saveOperation(int)</code>, and runs the given
+     * action when the contents have been saved successfully.
+     * <p>
+     * A snapshot of the document is saved in the background
+     * by a {@link FileSaver}, so the user can keep editing while saving.
+     *
+     * @param option specifies if the method will function as
+     *               an "Save" or "Save As" operation
+     * @param whenSaved the action to run after saving, may be <code>null</code>
+     *
+     * @since 1.1
+     */
+    private void saveOperation(int option, Runnable whenSaved) {
         // Will operate as "Save As" operation
         // or as a first time "Save" operation
-        // TODO see if user has aldeady gave an extension
         // TODO set null if file does not open
         // TODO see if there is unsaved work during opening
-        if (option == 1 || opendFile == null) {
-            int result;
-            JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setFileFilter(new FileNameExtensionFilter("Normal text file", "txt"));
-
-            result = fileChooser.showSaveDialog(null);
-            if (result == JFileChooser.APPROVE_OPTION) {
-                opendFile = new File(fileChooser.getSelectedFile().getPath() + ".txt");
+        EditorTab tab = currentTab();
+        if (tab.getWorker() != null) {
+            JOptionPane.showMessageDialog(
+                    null,
+                    "Please wait for the current file operation to finish.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        if (tab.getFollower() != null) {
+            // Only the last lines of a followed file may be shown,
+            // which must not replace the whole file
+            JOptionPane.showMessageDialog(
+                    null,
+                    "Please stop following the file first.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        if (tab.getHexView() != null) {
+            // The document of a hex view is empty
+            JOptionPane.showMessageDialog(
+                    null,
+                    "The bytes of a file cannot be saved.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        File file = tab.getFile();
+        if (option == 1 || file == null) {
+            File selected = fileChooser.showSaveDialog(null);
+            if (selected != null) {
+                file = withExtension(selected);
             }
             else {
                 JOptionPane.showMessageDialog(
@@ -402,28 +864,609 @@ public class MyFrame extends JFrame {
             }
         }
 
-        try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(opendFile));
-            String[] lines = contentsTA.getText().trim().split("\\n");
-            StringBuilder contents = new StringBuilder();
+        Object stamp = tab.getDocument().getProperty(FileWatcher.STAMP_PROPERTY);
+        if (file.equals(tab.getFile()) && stamp != null && !stamp.equals(FileWatcher.Stamp.of(file))) {
+            // The change has not been noticed yet, or the user kept the text of the tab
+            int answer = JOptionPane.showConfirmDialog(
+                    null,
+                    "The file has been changed by another program.\nDo you want to overwrite it?",
+                    "File changed",
+                    JOptionPane.YES_NO_OPTION,
+                    JOptionPane.WARNING_MESSAGE
+            );
+            if (answer != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+
+        FileFormat format = FileFormat.of(tab.getDocument());
+        if (!file.equals(tab.getFile())) {
+            // A new file is compressed only if its name says so
+            format = format.withCompression(file.getName().toLowerCase(Locale.ROOT).endsWith(".gz"));
+        }
+        saveFile(tab, file, format, whenSaved);
+    }
+
+    /**
+     * Adds the ".txt" extension to the name of a selected file,
+     * unless it has an extension, such as ".gz", already.
+     *
+     * @since 1.1
+     */
+    private static File withExtension(File selected) {
+        if (selected.getName().lastIndexOf('.') > 0) {
+            return selected;
+        }
+        return new File(selected.getPath() + ".txt");
+    }
 
-            for (int i = 0; i < lines.length; i++) {
-                contents.append(lines[i]).append(System.lineSeparator());
+    /**
+     * Saves the document of a tab to a file in the background, as described
+     * in <code>saveOperation</code>. If the charset of the format cannot
+     * encode some of the characters, nothing is saved, and the user
+     * is asked whether to save the file in UTF-8 instead.
+     *
+     * @param tab the tab to save
+     * @param file the file to save to
+     * @param savedFormat the format to save the file in
+     * @param whenSaved the action to run after saving, may be <code>null</code>
+     *
+     * @since 1.1
+     */
+    private void saveFile(EditorTab tab, File file, FileFormat savedFormat, Runnable whenSaved) {
+        PieceTableContent.Snapshot snapshot = tab.getDirtyTracker().snapshot();
+        FileSaver saver = new FileSaver(file, snapshot, savedFormat);
+        // A document that reads its text from the file is loaded again
+        // if the file is overwritten in place, so it is not edited meanwhile
+        boolean readsFile = readsFrom(tab.getDocument(), file);
+        if (readsFile) {
+            tab.getTextArea().setEditable(false);
+        }
+        runInBackground(tab, saver, () -> {
+            if (readsFile) {
+                tab.getTextArea().setEditable(true);
             }
+            try {
+                saver.get();
+                tab.setFile(saver.getFile());
+                tab.getDocument().putProperty(FileFormat.PROPERTY, savedFormat);
+                tab.getDocument().putProperty(FileLoader.MIXED_LINE_BREAKS_PROPERTY, null);
+                tab.getDocument().putProperty(FileLoader.SIZE_PROPERTY, saver.getFile().length());
+                tab.getDocument().putProperty(FileWatcher.STAMP_PROPERTY, saver.getStamp());
+                // Edits made while saving still count as unsaved
+                tab.getDirtyTracker().markSaved(snapshot);
+                updateTitle(tab);
+                // The saved work no longer needs to be recovered
+                tab.startJournal(false);
+                if (readsFile && saver.isWrittenInPlace()) {
+                    reloadFile(tab);
+                }
+                if (whenSaved != null) {
+                    whenSaved.run();
+                }
+            } catch (CancellationException | InterruptedException e) {
+                // Save was canceled by the user, the file is untouched
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CharacterCodingException
+                        && !savedFormat.getCharset().equals(StandardCharsets.UTF_8)) {
+                    int answer = JOptionPane.showConfirmDialog(
+                            null,
+                            "Some characters cannot be saved in " + savedFormat.getCharset().name()
+                                    + ", so the file was not saved.\nDo you want to save it in UTF-8 instead?",
+                            "File error",
+                            JOptionPane.YES_NO_OPTION,
+                            JOptionPane.WARNING_MESSAGE
+                    );
+                    if (answer == JOptionPane.YES_OPTION) {
+                        saveFile(tab, file, new FileFormat(StandardCharsets.UTF_8, new byte[0],
+                                savedFormat.getLineSeparator(), savedFormat.isCompressed()), whenSaved);
+                    }
+                    return;
+                }
+                JOptionPane.showMessageDialog(
+                        null,
+                        "Error at writing to file.\nPlease try again",
+                        "File error",
+                        JOptionPane.ERROR_MESSAGE
+                );
+            }
+        });
+    }
 
-            writer.write(contents.toString());
+    /**
+     * Checks if the text of a document is still read from a file, which
+     * is the case for the large and the compressed files that were opened.
+     *
+     * @since 1.1
+     */
+    private static boolean readsFrom(PieceTableDocument document, File file) {
+        CharSequence original = document.getPieceTable().getOriginal();
+        File source = (original instanceof MappedText) ? ((MappedText) original).getFile()
+                : (original instanceof CompressedText) ? ((CompressedText) original).getFile() : null;
+        return source != null && source.getAbsoluteFile().equals(file.getAbsoluteFile());
+    }
 
+    /**
+     * Runs a file operation of a tab in the I/O thread.
+     * Shows the progress bar and the cancel button while there are
+     * operations running and hides them when they all finish.
+     *
+     * @param tab the tab that the operation is running for
+     * @param worker the file operation
+     * @param whenDone the action to run in the Event Dispatch Thread
+     *                 when the operation finishes, fails or is cancelled
+     *
+     * @since 1.1
+     */
+    private void runInBackground(EditorTab tab, SwingWorker<?, ?> worker, Runnable whenDone) {
+        tab.setWorker(worker);
+        ioWorkers.add(worker);
+        ioProgressBar.setValue(0);
+        ioProgressBar.setVisible(true);
+        cancelBtn.setVisible(true);
+        worker.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                ioProgressBar.setValue((Integer) event.getNewValue());
+            }
+            else if ("state".equals(event.getPropertyName())
+                    && event.getNewValue() == SwingWorker.StateValue.DONE) {
+                if (tab.getWorker() == worker) {
+                    tab.setWorker(null);
+                }
+                ioWorkers.remove(worker);
+                if (ioWorkers.isEmpty()) {
+                    ioProgressBar.setVisible(false);
+                    cancelBtn.setVisible(false);
+                }
+                whenDone.run();
+            }
+        });
+        ioExecutor.execute(worker);
+    }
 
-            writer.close();
-            this.setTitle(opendFile.getAbsolutePath());
-            hasModified = false;
-        } catch (IOException e) {
+    /**
+     * Functionality of the "Cancel" button
+     * Cancels the file operations that are running, if any.
+     *
+     * @since 1.1
+     */
+    private void cancelOperation() {
+        for (SwingWorker<?, ?> worker : new ArrayList<>(ioWorkers)) {
+            worker.cancel(true);
+        }
+    }
+
+    /**
+     * Returns the files that the {@link FileWatcher} watches, with the stamps
+     * they had when they were last loaded or saved. The file of a tab that
+     * is being loaded, saved or followed is left out, as it is expected
+     * to change, and so is an evicted tab, which is loaded again anyway.
+     *
+     * @return the files of the tabs and their stamps
+     * @since 1.1
+     */
+    private Map<File, FileWatcher.Stamp> watchedFiles() {
+        Map<File, FileWatcher.Stamp> files = new HashMap<>();
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            EditorTab tab = tabAt(i);
+            Object stamp = tab.getDocument().getProperty(FileWatcher.STAMP_PROPERTY);
+            if (tab.getFile() != null && stamp instanceof FileWatcher.Stamp && !tab.isEvicted()
+                    && tab.getWorker() == null && tab.getFollower() == null) {
+                files.put(tab.getFile(), (FileWatcher.Stamp) stamp);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Called by the {@link FileWatcher} when another program has changed the
+     * file of a tab. What has changed is found by a {@link FileReloader} in the
+     * background and applied to the document, keeping the unsaved edits of the
+     * tab, unless they are where the file has changed. Only then the user is
+     * asked whether to load the file again. In case the file has been deleted,
+     * the document is marked as modified, so it can be saved again.
+     *
+     * @param file the changed file
+     * @param stamp the stamp of the changed file
+     *
+     * @since 1.1
+     */
+    private void fileChanged(File file, FileWatcher.Stamp stamp) {
+        EditorTab tab = findTab(file);
+        if (tab == null || tab.getWorker() != null || tab.getFollower() != null) {
+            // The file is reported again once the tab is not busy
+            return;
+        }
+        PieceTableDocument document = tab.getDocument();
+        DirtyTracker tracker = tab.getDirtyTracker();
+        if (!stamp.exists()) {
+            keepText(tab, stamp);
+            return;
+        }
+        if (tracker.getSavedText() == null) {
+            // Nothing is known to compare the file to
+            confirmReload(tab, stamp);
+            return;
+        }
+        FileReloader reloader = new FileReloader(file, FileFormat.of(document),
+                tracker.getSavedText(), tracker.getSavedHashes());
+        runInBackground(tab, reloader, () -> {
+            if (tab.getDocument() != document || tabbedPane.indexOfComponent(tab.getComponent()) < 0) {
+                // The tab has been closed or loaded again meanwhile
+                return;
+            }
+            try {
+                FileReloader.Change change = reloader.get();
+                if (change != null) {
+                    applyFileChange(tab, change);
+                }
+            } catch (CancellationException | InterruptedException e) {
+                // The change is not applied, nor reported again
+                keepText(tab, stamp);
+            } catch (ExecutionException e) {
+                keepText(tab, stamp);
+                JOptionPane.showMessageDialog(
+                        null,
+                        "Error at reading the changed file " + file.getName() + ".",
+                        "File error",
+                        JOptionPane.ERROR_MESSAGE
+                );
+            }
+        });
+    }
+
+    /**
+     * Applies a change of the file of a tab to its document, keeping the
+     * same text at the top of the view. The whole file is loaded again if
+     * the change is not a range of the text, or if it touches the edits of
+     * the tab and the user wants so.
+     *
+     * @param tab the tab of the changed file
+     * @param change the change that the {@link FileReloader} found
+     *
+     * @since 1.1
+     */
+    private void applyFileChange(EditorTab tab, FileReloader.Change change) {
+        PieceTableDocument document = tab.getDocument();
+        if (change.isEmpty()) {
+            document.putProperty(FileWatcher.STAMP_PROPERTY, change.getStamp());
+            return;
+        }
+        if (change.isWhole()) {
+            if (tab.isModified()) {
+                confirmReload(tab, change.getStamp());
+            } else {
+                reloadFile(tab);
+            }
+            return;
+        }
+        LineTextArea textArea = tab.getTextArea();
+        JViewport viewport = tab.getComponent().getViewport();
+        Point view = viewport.getViewPosition();
+        int top = textArea.viewToModel(view);
+        int offset;
+        try {
+            offset = tab.getDirtyTracker().applyFileChange(change.getFrom(), change.getRemoved(),
+                    change.getInserted(), change.getHashes());
+        } catch (BadLocationException e) {
+            offset = -1;
+        }
+        if (offset < 0) {
+            confirmReload(tab, change.getStamp());
+            return;
+        }
+        document.putProperty(FileWatcher.STAMP_PROPERTY, change.getStamp());
+        document.putProperty(FileLoader.SIZE_PROPERTY, change.getStamp().getSize());
+        // The text of the file is the base of the journal again, if nothing is edited
+        tab.startJournal(!tab.isModified());
+        updateTitle(tab);
+        if (offset < top) {
+            int removedEnd = offset + change.getRemoved();
+            int newTop = (top >= removedEnd) ? top - change.getRemoved() + change.getInserted().length() : offset;
+            // The view can only be scrolled after the change has been laid out
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    Rectangle line = textArea.modelToView(Math.min(newTop, document.getLength()));
+                    if (line != null) {
+                        viewport.setViewPosition(new Point(view.x, line.y));
+                    }
+                } catch (BadLocationException e) {
+                    // The text has changed again meanwhile
+                }
+            });
+        }
+    }
+
+    /**
+     * Asks the user whether to load the changed file of a tab again,
+     * losing the unsaved edits of the tab, or to keep its text.
+     *
+     * @param tab the tab of the changed file
+     * @param stamp the stamp of the changed file
+     *
+     * @since 1.1
+     */
+    private void confirmReload(EditorTab tab, FileWatcher.Stamp stamp) {
+        // Not reported again while the user is asked
+        tab.getDocument().putProperty(FileWatcher.STAMP_PROPERTY, stamp);
+        int answer = JOptionPane.showConfirmDialog(
+                null,
+                tab.getFile().getName() + " has been changed by another program.\n"
+                        + "Do you want to load it again and lose your changes?",
+                "File changed",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE
+        );
+        if (answer == JOptionPane.YES_OPTION) {
+            reloadFile(tab);
+        } else {
+            keepText(tab, stamp);
+        }
+    }
+
+    /**
+     * Loads the file of a tab again as a whole,
+     * keeping the caret where it was, if possible.
+     *
+     * @param tab the tab of the changed file
+     *
+     * @since 1.1
+     */
+    private void reloadFile(EditorTab tab) {
+        int caret = tab.getTextArea().getCaretPosition();
+        loadFile(tab, tab.getFile(), () -> {
+            tab.getTextArea().setCaretPosition(Math.min(caret, tab.getDocument().getLength()));
+            tab.startJournal(true);
+        }, () -> {
+            // The file cannot be read, so what the tab shows is not saved anywhere
+            tab.getDocument().putProperty(FileWatcher.STAMP_PROPERTY, null);
+            tab.getDirtyTracker().markUnsaved();
+            updateTitle(tab);
+        });
+    }
+
+    /**
+     * Keeps the text of a tab instead of the changed file, which is
+     * not reported again. The text differs from the file, so it
+     * counts as unsaved work until it is saved.
+     *
+     * @param tab the tab of the changed file
+     * @param stamp the stamp of the changed file
+     *
+     * @since 1.1
+     */
+    private void keepText(EditorTab tab, FileWatcher.Stamp stamp) {
+        tab.getDocument().putProperty(FileWatcher.STAMP_PROPERTY, stamp);
+        tab.getDirtyTracker().markUnsaved();
+        updateTitle(tab);
+    }
+
+    /**
+     * Functionality of the "Follow" menuItem
+     * Starts following the file of the selected tab, like "tail -f" does,
+     * or stops following it. While the file is followed, whatever is
+     * written to it is appended to the document by a {@link FileFollower},
+     * which keeps only its last lines, and the text area cannot be edited.
+     * Only a file without unsaved work can be followed. In case the file
+     * cannot be read any more, the user will be informed.
+     *
+     * @since 1.1
+     */
+    private void followOperation() {
+        EditorTab tab = currentTab();
+        if (tab.getFollower() != null) {
+            tab.getFollower().cancel(true);
+            return;
+        }
+        if (tab.getFile() == null || tab.isModified() || tab.getWorker() != null) {
+            followMenuItem.setSelected(false);
             JOptionPane.showMessageDialog(
                     null,
-                    "Error at writing to file.\nPlease try again",
+                    "Only a saved file can be followed.\nPlease save it first.",
                     "File error",
-                    JOptionPane.ERROR_MESSAGE
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        if (tab.getHexView() != null) {
+            followMenuItem.setSelected(false);
+            JOptionPane.showMessageDialog(
+                    null,
+                    "The bytes of a file cannot be followed.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        if (FileFormat.of(tab.getDocument()).isCompressed()) {
+            followMenuItem.setSelected(false);
+            JOptionPane.showMessageDialog(
+                    null,
+                    "A compressed file cannot be followed.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
             );
+            return;
+        }
+
+        FileFollower follower = new FileFollower(tab.getFile(), tab.getDocument(), FOLLOW_MAX_LINES);
+        tab.setFollower(follower);
+        // The file itself holds everything, so there is nothing to recover
+        tab.setJournal(null);
+        tab.getTextArea().setEditable(false);
+        // With the caret at the end, the text area scrolls along with the file
+        tab.getTextArea().setCaretPosition(tab.getDocument().getLength());
+        follower.addPropertyChangeListener(event -> {
+            if (!"state".equals(event.getPropertyName())
+                    || event.getNewValue() != SwingWorker.StateValue.DONE) {
+                return;
+            }
+            tab.setFollower(null);
+            if (tabbedPane.indexOfComponent(tab.getComponent()) < 0) {
+                return; // The tab has been closed
+            }
+            tab.getTextArea().setEditable(true);
+            tab.startJournal(false);
+            if (tab == currentTab()) {
+                followMenuItem.setSelected(false);
+            }
+            try {
+                follower.get();
+            } catch (CancellationException | InterruptedException e) {
+                // Stopped by the user
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(
+                        null,
+                        "Error at following file.\nPlease try again",
+                        "File error",
+                        JOptionPane.ERROR_MESSAGE
+                );
+            }
+        });
+        followExecutor.execute(follower);
+    }
+
+    /**
+     * Functionality of the "Hex View" menuItem
+     * Shows the bytes of the file of the selected tab, in a {@link HexView},
+     * or its text again. A binary file is shown as bytes when it is opened,
+     * but it can be loaded as text as well. Only a saved file that is not
+     * followed can be shown as bytes.
+     *
+     * @since 1.1
+     */
+    private void hexOperation() {
+        EditorTab tab = currentTab();
+        hexMenuItem.setSelected(tab.getHexView() != null);
+        if (tab.getWorker() != null) {
+            JOptionPane.showMessageDialog(
+                    null,
+                    "Please wait for the current file operation to finish.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        if (tab.getFile() == null || tab.isModified() || tab.getFollower() != null) {
+            JOptionPane.showMessageDialog(
+                    null,
+                    "Only a saved file that is not followed can be shown as bytes.",
+                    "File error",
+                    JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        boolean asBytes = tab.getHexView() == null;
+        loadFile(tab, new FileLoader(tab.getFile(), asBytes), () -> tab.startJournal(true), () -> {
+            // The bytes stay shown if the text cannot be read
+            if (tab.getHexView() != null) {
+                tab.setDocument(new PieceTableDocument());
+            }
+        });
+    }
+
+    /**
+     * Functionality of the "Find" and "Replace" menuItems
+     * Shows the dialog that searches the selected document.
+     * The dialog is only created the first time it is needed.
+     *
+     * @param replace <code>true</code> for the "Replace" menuItem
+     *
+     * @since 1.1
+     */
+    private void findOperation(boolean replace) {
+        if (findDialog == null) {
+            findDialog = new FindDialog(this, this::currentTab);
+        }
+        findDialog.showDialog(replace);
+    }
+
+    /**
+     * Functionality of the "Find in Files" menuItem
+     * Shows the dialog that searches the files of a folder.
+     * The dialog is only created the first time it is needed.
+     *
+     * @since 1.1
+     */
+    private void findInFilesOperation() {
+        if (findInFilesDialog == null) {
+            findInFilesDialog = new FindInFilesDialog(this, () -> {
+                File file = currentTab().getFile();
+                return (file != null) ? file.getAbsoluteFile().getParentFile() : null;
+            }, fileChooser, this::showHit);
+        }
+        findInFilesDialog.showDialog();
+    }
+
+    /**
+     * Shows a match of "Find in Files": selects the tab of its file,
+     * or opens the file in a new tab, and selects the match.
+     *
+     * @param hit the match
+     *
+     * @since 1.1
+     */
+    private void showHit(FileSearch.Hit hit) {
+        EditorTab tab = findTab(hit.getFile());
+        if (tab == null) {
+            openFile(hit.getFile(), opened -> {
+                opened.startJournal(true);
+                selectHit(opened, hit);
+            });
+            return;
+        }
+        tabbedPane.setSelectedComponent(tab.getComponent());
+        if (tab.getWorker() == null) {
+            selectHit(tab, hit);
+        }
+    }
+
+    /**
+     * Selects a match of "Find in Files" in the text area of a tab, by its
+     * line and its place in the line, as long as the line is still there.
+     */
+    private void selectHit(EditorTab tab, FileSearch.Hit hit) {
+        Element root = tab.getDocument().getDefaultRootElement();
+        if (hit.getLine() >= root.getElementCount()) {
+            return;
+        }
+        Element line = root.getElement(hit.getLine());
+        int lineEnd = line.getEndOffset() - 1;
+        int start = Math.min(line.getStartOffset() + hit.getColumn(), lineEnd);
+        JTextArea textArea = tab.getTextArea();
+        textArea.select(start, Math.min(start + hit.getLength(), lineEnd));
+        // The focus may be on the dialog, which would hide the selection
+        textArea.getCaret().setSelectionVisible(true);
+    }
+
+    /**
+     * Functionality of the "Metrics" menuItem
+     * Shows the dialog with the measurements of the operations,
+     * which starts measuring them.
+     * The dialog is only created the first time it is needed.
+     *
+     * @since 1.1
+     */
+    private void metricsOperation() {
+        if (metricsDialog == null) {
+            metricsDialog = new MetricsDialog(this);
+        }
+        metricsDialog.showDialog();
+    }
+
+    /**
+     * Functionality of the "Find Next" menuItem
+     * Selects the next match of the last search,
+     * or shows the dialog if nothing has been searched yet.
+     *
+     * @since 1.1
+     */
+    private void findNextOperation() {
+        if (findDialog == null || !findDialog.hasQuery()) {
+            findOperation(false);
+        }
+        else {
+            findDialog.findNext();
         }
     }
 
@@ -431,49 +1474,40 @@ public class MyFrame extends JFrame {
      * Functionality of the "Statistics" button and menuItem
      * Performs various statistics calculations based on the exercise
      * <p>
-     * To calculate the number of <b><i>words</i></b> we get
-     * the contents of the textArea as a String and we split it
-     * with space as delimiter (continues spaces included).
-     * We store the result in an Array of strings,
-     *  where every element is a word. If the first element
-     * is empty, then no elements was inserted inside the Array, thus
-     * the textArea was empty.
+     * The number of <b><i>words</i></b> is the number of parts of the
+     * trimmed contents between whitespace (continues whitespace included),
+     * or zero if the textArea is empty.
      * <p>
-     * To calculate the number of <b><i>characters</i></b> we get the
-     * length of the Array that holds the contents of the textArea.
+     * The number of <b><i>characters</i></b> is the length
+     * of the contents of the textArea.
      * <p>
-     * To calculate the number of characters <b><i>without spaces</i></b>
-     * we remove all spaces from textAreas contents, get the length of it
-     * and subtract it from the length of the original textArea content. The
-     * resulted number will be the number of spaces, which we again subtract\
-     * from the length of the original content of textArea.
+     * The number of characters <b><i>without spaces</i></b> is
+     * the length of the contents minus the number of spaces.
      * <p>
-     * To calculate the number of <b><i>paragraphs</i></b> we follow
-     * the same approach as with words and we define as paragraph a string
+     * The number of <b><i>paragraphs</i></b> is found with the
+     * same approach as the words and we define as paragraph a string
      * that ends with the character '\n' followed by an unknown number
      * of '\n', which indicates the empty lines after this string.
      * <p>
+     * All these numbers are kept up to date by a {@link TextStatistics}
+     * while the contents change, so they are not computed here.
+     * <p>
      *  We use a StringBuilder to build a string with all these information
      *  and display them via a MessageDialog to user.
      *
      * @since 1.0
      */
     private void statistics() {
-        String tmpStr = contentsTA.getText().trim();
-        String[] words = tmpStr.split("\\s+");
-        String[] paragraphs = tmpStr.split("\\n\\n+");
         StringBuilder info = new StringBuilder();
-        int numOfSpaces;
-
 
-        info.append("Words: ").append((words[0].isEmpty() ? 0 : words.length)).append(System.lineSeparator());
-        info.append("Characters: ").append(contentsTA.getText().length()).append(System.lineSeparator());
-        numOfSpaces = contentsTA.getText().length() - contentsTA.getText().replaceAll(" ", "").length();
-        info.append("Characters (no spaces): ").append(Math.abs(contentsTA.getText().length() - numOfSpaces)).append(System.lineSeparator());
-        info.append("Paragraphs: ").append((paragraphs[0].isEmpty()) ? 0 : paragraphs.length).append(System.lineSeparator());
+        info.append("Words: ").append(textStatistics.getWords()).append(System.lineSeparator());
+        info.append("Characters: ").append(textStatistics.getCharacters()).append(System.lineSeparator());
+        info.append("Characters (no spaces): ").append(textStatistics.getNonSpaceCharacters()).append(System.lineSeparator());
+        info.append("Paragraphs: ").append(textStatistics.getParagraphs()).append(System.lineSeparator());
 
-        if (opendFile != null) {
-            info.append("File size: ").append(opendFile.length()).append(" bytes").append(System.lineSeparator());
+        File file = currentTab().getFile();
+        if (file != null) {
+            info.append("File size: ").append(file.length()).append(" bytes").append(System.lineSeparator());
         }
 
         JOptionPane.showMessageDialog(
@@ -484,43 +1518,142 @@ public class MyFrame extends JFrame {
         );
     }
 
+    /**
+     * Functionality of the "Status Bar" menuItem
+     * Shows or hides the status bar with the statistics of the document.
+     *
+     * @since 1.1
+     */
+    private void statusBarOperation() {
+        statusBar.setVisible(statusBarMenuItem.isSelected());
+        updateStatusBar();
+        this.revalidate();
+    }
+
+    /**
+     * Starts keeping the statistics of the document of the selected
+     * tab and stops keeping those of the previous one.
+     *
+     * @since 1.1
+     */
+    private void trackStatistics() {
+        if (textStatistics != null) {
+            textStatistics.dispose();
+        }
+        textStatistics = new TextStatistics(currentTab().getDocument());
+        textStatistics.addChangeListener(event -> updateStatusBar());
+        updateStatusBar();
+    }
+
+    /**
+     * Shows the current statistics in the status bar, if it is visible.
+     * The statistics are kept up to date, so reading them is cheap.
+     *
+     * @since 1.1
+     */
+    private void updateStatusBar() {
+        if (statusBar == null || !statusBar.isVisible()) {
+            return;
+        }
+        statusBar.setText("Words: " + textStatistics.getWords()
+                + "   Characters: " + textStatistics.getCharacters()
+                + "   Characters (no spaces): " + textStatistics.getNonSpaceCharacters()
+                + "   Paragraphs: " + textStatistics.getParagraphs());
+    }
+
+    /**
+     * Terminates the program. The work has been saved or the user does
+     * not want to keep it, so the recovery journals are deleted first.
+     *
+     * @since 1.1
+     */
+    private void exit() {
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            tabAt(i).setJournal(null);
+        }
+        RecoveryJournal.awaitWrites(2000);
+        System.exit(0);
+    }
+
+    /**
+     * Recovers the work of a session that did not end normally in a tab.
+     * The base of the journal is loaded, either from its file or from
+     * the journal itself, and then the edits of the journal are replayed.
+     * In case the file has changed since then, the edits cannot be
+     * replayed and the user will be informed.
+     *
+     * @param recovery the journal of the session
+     *
+     * @since 1.1
+     */
+    public void recoverOperation(RecoveryJournal.Recovery recovery) {
+        if (recovery.getBaseFile() != null) {
+            if (!recovery.isBaseFileUnchanged()) {
+                JOptionPane.showMessageDialog(
+                        null,
+                        "The file has changed since the unsaved work was recorded.\nIt cannot be recovered.",
+                        "Recovery error",
+                        JOptionPane.ERROR_MESSAGE
+                );
+                return;
+            }
+            openFile(recovery.getBaseFile(), tab -> replayJournal(tab, recovery));
+        }
+        else {
+            EditorTab tab = openTab(recovery.getFile(), new PieceTableDocument(recovery.getBaseText()));
+            replayJournal(tab, recovery);
+            // The base of the journal is not in any file
+            tab.getDirtyTracker().markUnsaved();
+        }
+    }
+
+    /**
+     * Replays the edits of a recovered journal on the document
+     * of a tab, which keeps recording to the same journal.
+     *
+     * @since 1.1
+     */
+    private void replayJournal(EditorTab tab, RecoveryJournal.Recovery recovery) {
+        tab.setJournal(null);
+        try {
+            tab.setJournal(recovery.replay(tab.getDocument()));
+        } catch (IOException e) {
+            tab.startJournal(false);
+            JOptionPane.showMessageDialog(
+                    null,
+                    "Error at recovering the unsaved work.\nPart of it may be missing",
+                    "Recovery error",
+                    JOptionPane.ERROR_MESSAGE
+            );
+        }
+    }
+
     /**
      * Functionality of the "exit" button, menuItem and WindowListener
      * Determines the message that will display to user and also the
      * operations that will executed during exiting.
      * <p>
-     * Method uses the "hasModified" attribute to determine
-     * the message that will be displayed. In case the "hasModified"
-     * attribute contains the value true means that there is
-     * unsaved contents, so we warn the user and ask him if he want
-     * to save them.
+     * Method uses the modified state of the tabs to determine
+     * the message that will be displayed. In case a tab has
+     * unsaved contents, we warn the user and ask him if he want
+     * to save them, for every such tab.
      *
      * @since 1.0
      */
     private void exitOperation() {
         int result;
-        if (hasModified && !contentsTA.getText().equals("")) {
-            result = JOptionPane.showConfirmDialog(
-                    null,
-                    "There is unsaved changes. Do you want to save them?",
-                    "Exit confirmation",
-                    JOptionPane.YES_NO_CANCEL_OPTION,
-                    JOptionPane.QUESTION_MESSAGE
-            );
-            if (result == JOptionPane.YES_OPTION) {
-                saveOperation(1);
-                if (!hasModified) {
-                    System.exit(0);
-                }
-                // If the saveOperation is success then the value of
-                // "hasModified" will change to false. But in case the
-                // method fails, the value will be true, so the program
-                // will not terminate
-            }
-            else if (result == JOptionPane.NO_OPTION) {
-                System.exit(0);
+        List<EditorTab> unsaved = new ArrayList<>();
+        for (int i = 0; i < tabbedPane.getTabCount(); i++) {
+            if (tabAt(i).isModified()) {
+                unsaved.add(tabAt(i));
             }
         }
+        if (!unsaved.isEmpty()) {
+            // The program will terminate only after every save
+            // has succeeded. In case one fails or is canceled
+            // the program will not terminate
+            confirmSaves(unsaved.iterator(), "Exit confirmation", this::exit);
+        }
         else {
             result = JOptionPane.showConfirmDialog(
                     null,
@@ -530,10 +1663,45 @@ public class MyFrame extends JFrame {
                     JOptionPane.QUESTION_MESSAGE
             );
             if (result == JOptionPane.YES_OPTION) {
-                System.exit(0);
+                exit();
             }
         }
     }
 
+    /**
+     * Asks the user, one tab at a time, if he wants to save the unsaved
+     * work of the given tabs and runs the given action after he has
+     * answered for all of them. Saving happens in the background, so
+     * the next tab is only asked about after the previous one has been
+     * saved. Nothing else happens if the user cancels or a save fails.
+     *
+     * @param unsaved the tabs with unsaved work
+     * @param title the title of the confirmation dialogs
+     * @param whenConfirmed the action to run at the end
+     *
+     * @since 1.1
+     */
+    private void confirmSaves(Iterator<EditorTab> unsaved, String title, Runnable whenConfirmed) {
+        if (!unsaved.hasNext()) {
+            whenConfirmed.run();
+            return;
+        }
+        EditorTab tab = unsaved.next();
+        tabbedPane.setSelectedComponent(tab.getComponent());
+        int result = JOptionPane.showConfirmDialog(
+                null,
+                "There is unsaved changes. Do you want to save them?",
+                title,
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.QUESTION_MESSAGE
+        );
+        if (result == JOptionPane.YES_OPTION) {
+            saveOperation(1, () -> confirmSaves(unsaved, title, whenConfirmed));
+        }
+        else if (result == JOptionPane.NO_OPTION) {
+            confirmSaves(unsaved, title, whenConfirmed);
+        }
+    }
+
 
 }
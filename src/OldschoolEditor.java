@@ -1,22 +1,32 @@
-import com.sun.deploy.panel.JavaPanel;
-
 import javax.swing.*;
 import javax.swing.border.Border;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 /**
  * Class that contains the main method.
  * Its job is to create a new instance (object) of MyFrame class
  * and set its attributes, along with setting
  * the look and feel based on the running system.
+ * With the <code>--stats</code> or <code>--convert</code> arguments
+ * no window is shown, and the files are processed by {@link BatchMode}.
+ * With the <code>oldschool.metrics</code> system property, the
+ * operations are measured by {@link Metrics} from the start.
  *
  * @author Dimitrios Tselikis
  * @version 1.0
  */
 public class OldschoolEditor{
     public static void main(String[] args) {
-        MyFrame editor = new MyFrame("Oldschool Text Editor");
-
+        if (BatchMode.isRequested(args)) {
+            System.exit(BatchMode.run(args));
+        }
+        // The look and feel is set before any component is created,
+        // so the components are not updated to it afterwards
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (ClassNotFoundException e) {
@@ -28,11 +38,78 @@ public class OldschoolEditor{
         } catch (UnsupportedLookAndFeelException e) {
             e.printStackTrace();
         }
+        if (Boolean.getBoolean("oldschool.metrics")) {
+            Metrics.setEnabled(true);
+        }
+        SwingUtilities.invokeLater(OldschoolEditor::start);
+    }
+
+    /**
+     * Creates the frame and shows it, in the Event Dispatch Thread.
+     * With the <code>oldschool.exitAfterStartup</code> system property, the
+     * time from the start of the JVM to the first frame is printed and the
+     * program exits, which measures the startup and lets the build record
+     * the classes of the startup for a class data sharing archive.
+     *
+     * @since 1.1
+     */
+    private static void start() {
+        MyFrame editor = new MyFrame("Oldschool Text Editor");
         editor.setSize(720, 480);
         editor.setResizable(true);
         editor.setLocationRelativeTo(null);
-        editor.setVisible(true);
         // Closing operation will be handled via windowListener
         editor.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        boolean exitAfterStartup = Boolean.getBoolean("oldschool.exitAfterStartup");
+        if (exitAfterStartup) {
+            editor.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowOpened(WindowEvent e) {
+                    // The frame is painted by the events that follow
+                    SwingUtilities.invokeLater(() -> {
+                        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+                        System.out.println("Time to first frame: " + uptime + " ms");
+                        System.exit(0);
+                    });
+                }
+            });
+        }
+        editor.setVisible(true);
+        if (exitAfterStartup) {
+            return;
+        }
+
+        // Offer to recover the unsaved work of sessions that did not end
+        // normally. Every recovered document is opened in its own tab, and
+        // if the user cancels, the rest of the journals are kept for later
+        SwingUtilities.invokeLater(() -> {
+            for (File journalFile : RecoveryJournal.findJournals()) {
+                RecoveryJournal.Recovery recovery;
+                try {
+                    recovery = RecoveryJournal.recover(journalFile);
+                } catch (IOException e) {
+                    journalFile.delete();
+                    continue;
+                }
+                File file = recovery.getFile();
+                int result = JOptionPane.showConfirmDialog(
+                        null,
+                        "Unsaved work of " + (file != null ? file.getAbsolutePath() : "a new file")
+                                + " was found.\nDo you want to recover it?",
+                        "Recovery",
+                        JOptionPane.YES_NO_CANCEL_OPTION,
+                        JOptionPane.QUESTION_MESSAGE
+                );
+                if (result == JOptionPane.YES_OPTION) {
+                    editor.recoverOperation(recovery);
+                }
+                else if (result == JOptionPane.NO_OPTION) {
+                    recovery.discard();
+                }
+                else {
+                    break;
+                }
+            }
+        });
     }
 }
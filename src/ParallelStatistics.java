@@ -0,0 +1,108 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * Counts the statistics of a whole text with all the cores of the machine.
+ * Used when a large file has just been opened and no statistics
+ * have been kept for it yet.
+ * <p>
+ * The text is split in halves until the parts are no longer than
+ * <code>LEAF_LENGTH</code>, and every part is counted by a different task
+ * of the common <code>ForkJoinPool</code>. A word or a paragraph break that
+ * crosses the border of two parts is not a problem, because the marks that
+ * {@link TextStatistics} counts only depend on a character and the two
+ * before it: every part starts its tally with the two characters before
+ * it, so every mark is counted exactly once, by the part that holds it,
+ * and the tallies of the parts are simply summed.
+ * <p>
+ * The text must not change while it is counted, so it is
+ * usually a snapshot of the document.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class ParallelStatistics extends RecursiveTask<TextStatistics.Tally> {
+
+    // Texts shorter than this are counted faster by a single thread
+    static final int PARALLEL_LENGTH = 4 * 1024 * 1024;
+    private static final int LEAF_LENGTH = 1024 * 1024;
+
+    // Every worker thread reuses its own buffer for the parts it counts
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[LEAF_LENGTH]);
+
+    private final CharSequence text;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructor.
+     *
+     * @param text the text to count
+     * @param from the start of the part to count
+     * @param to the end of the part to count
+     * @since 1.1
+     */
+    private ParallelStatistics(CharSequence text, int from, int to) {
+        this.text = text;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Counts a whole text and waits for the result.
+     *
+     * @param text the text to count, which must not change meanwhile
+     * @return the counts of the text
+     * @since 1.1
+     */
+    static TextStatistics.Tally count(CharSequence text) {
+        return ForkJoinPool.commonPool().invoke(new ParallelStatistics(text, 0, text.length()));
+    }
+
+    /**
+     * Counts the part, either directly or by splitting it in two.
+     *
+     * @return the counts of the part
+     * @since 1.1
+     */
+    @Override
+    protected TextStatistics.Tally compute() {
+        if (to - from <= LEAF_LENGTH) {
+            return countPart();
+        }
+        int middle = (from + to) >>> 1;
+        ParallelStatistics left = new ParallelStatistics(text, from, middle);
+        left.fork();
+        TextStatistics.Tally right = new ParallelStatistics(text, middle, to).compute();
+        TextStatistics.Tally tally = left.join();
+        tally.add(right);
+        return tally;
+    }
+
+    /**
+     * Counts the characters of the part, given the two before it.
+     */
+    private TextStatistics.Tally countPart() {
+        TextStatistics.Tally tally = new TextStatistics.Tally(charAt(from - 2), charAt(from - 1));
+        char[] buffer = BUFFER.get();
+        int count = to - from;
+        if (text instanceof PieceTableContent.Snapshot) {
+            ((PieceTableContent.Snapshot) text).getChars(from, to, buffer, 0);
+        } else if (text instanceof MappedText) {
+            ((MappedText) text).getChars(from, to, buffer, 0);
+        } else if (text instanceof String) {
+            ((String) text).getChars(from, to, buffer, 0);
+        } else {
+            for (int i = 0; i < count; i++) {
+                buffer[i] = text.charAt(from + i);
+            }
+        }
+        tally.add(buffer, 0, count);
+        return tally;
+    }
+
+    private char charAt(int index) {
+        return (index < 0) ? TextStatistics.NONE : text.charAt(index);
+    }
+}
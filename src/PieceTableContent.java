@@ -0,0 +1,880 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.WeakReference;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Storage of the document's characters in the form of a piece table.
+ * The text is never kept as one big array. Instead, we keep two buffers:
+ * the <b><i>original</i></b> buffer, which holds the contents of the opened
+ * file and is never modified, and the <b><i>add</i></b> buffer, where every
+ * typed or pasted string is appended. The actual text is described by an
+ * ordered list of pieces, where every piece points to a range of one
+ * of the two buffers.
+ * <p>
+ * Inserting text appends it to the add buffer and splits at most one piece,
+ * while removing text just drops (or trims) pieces, so the cost of an edit
+ * depends on the number of pieces and not on the size of the file.
+ * The original buffer is passed by reference, so the characters of the opened
+ * file are never copied.
+ * <p>
+ * Like every <code>Content</code> of Swing, there is always an implied
+ * newline at the end of the text, which is stored in the add buffer.
+ *
+ * @see <a href="https://www.cs.unm.edu/~crowley/papers/sds.pdf">Data Structures for Text Sequences</a>
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+
+    private static final int INITIAL_ADD_CAPACITY = 1024;
+
+    private final CharSequence original;
+    private final char[] originalArray; // Backing array of the original buffer, if any
+    private final int originalArrayOffset;
+
+    private char[] added;
+    private int addedLength;
+
+    private final ArrayList<Piece> pieces;
+    private int length;
+
+    // Piece that was found by the last lookup, so consecutive
+    // edits at the same place don't scan the whole list
+    private int hintIndex;
+    private int hintStart;
+
+    private final ArrayList<WeakReference<MarkPosition>> marks;
+
+    // Text that was taken out by the last removal
+    private Snapshot lastRemoved;
+
+    // Incremented when the add buffer is compacted, which
+    // makes the edits of the previous buffer useless
+    private int generation;
+
+    /**
+     * Constructor.
+     * Creates an empty content that only holds the implied newline.
+     *
+     * @since 1.1
+     */
+    public PieceTableContent() {
+        this("");
+    }
+
+    /**
+     * Constructor.
+     * Creates a content whose text is the given original buffer.
+     * The buffer is kept by reference, so it must not be changed
+     * after it has been passed to this constructor.
+     *
+     * @param original the contents of the opened file
+     * @since 1.1
+     */
+    public PieceTableContent(CharSequence original) {
+        this.original = original;
+        if (original instanceof CharBuffer && ((CharBuffer) original).hasArray()) {
+            CharBuffer buffer = (CharBuffer) original;
+            originalArray = buffer.array();
+            originalArrayOffset = buffer.arrayOffset() + buffer.position();
+        } else {
+            originalArray = null;
+            originalArrayOffset = 0;
+        }
+
+        added = new char[INITIAL_ADD_CAPACITY];
+        added[0] = '\n';
+        addedLength = 1;
+
+        pieces = new ArrayList<>();
+        if (original.length() > 0) {
+            pieces.add(new Piece(true, 0, original.length()));
+        }
+        pieces.add(new Piece(false, 0, 1));
+        length = original.length() + 1;
+
+        marks = new ArrayList<>();
+    }
+
+    /**
+     * Length of the content, including the implied newline.
+     *
+     * @return the number of characters
+     * @since 1.1
+     */
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the original buffer that the content was created with.
+     *
+     * @return the original buffer
+     * @since 1.1
+     */
+    public CharSequence getOriginal() {
+        return original;
+    }
+
+    /**
+     * Returns whether the text is still the original buffer as a whole,
+     * which is the case as long as the text has not been edited.
+     *
+     * @return <code>true</code> if the text is the original buffer
+     * @since 1.1
+     */
+    public boolean holdsOriginal() {
+        if (length - 1 != original.length()) {
+            return false;
+        }
+        Piece first = pieces.get(0);
+        return original.length() == 0 || (first.original && first.start == 0 && first.length == original.length());
+    }
+
+    /**
+     * Returns the number of pieces that describe the text.
+     * Useful to see how fragmented the document has become.
+     *
+     * @return the number of pieces
+     * @since 1.1
+     */
+    public int getPieceCount() {
+        return pieces.size();
+    }
+
+    /**
+     * Estimates how much memory the content holds: its buffers and pieces.
+     * A mapped or compressed original only counts its index and its decoded blocks,
+     * as the rest of it stays on the disk.
+     *
+     * @return the estimated size in bytes
+     * @since 1.1
+     */
+    public long getMemoryFootprint() {
+        long footprint = 2L * added.length + 32L * pieces.size();
+        if (original instanceof MappedText) {
+            footprint += ((MappedText) original).getMemoryFootprint();
+        } else if (original instanceof CompressedText) {
+            footprint += ((CompressedText) original).getMemoryFootprint();
+        } else {
+            footprint += 2L * original.length();
+        }
+        return footprint;
+    }
+
+    /**
+     * Copies the parts of the add buffer that are still in the text into a
+     * new buffer, just large enough for them, and drops the old one. The add
+     * buffer only grows, so a text that keeps being appended to and cut
+     * from its start, like a followed log file, needs to be compacted
+     * from time to time to stay within bounds. Adjacent pieces of the
+     * add buffer become a single piece.
+     * <p>
+     * The edits made before compacting point to the old buffer, so they
+     * can no longer be undone or redone. Snapshots keep the old buffer
+     * and stay valid.
+     *
+     * @since 1.1
+     */
+    public void compact() {
+        int live = 0;
+        for (Piece piece : pieces) {
+            if (!piece.original) {
+                live += piece.length;
+            }
+        }
+        char[] compacted = new char[Math.max(INITIAL_ADD_CAPACITY, live + live / 2)];
+        int position = 0;
+        ArrayList<Piece> merged = new ArrayList<>(pieces.size());
+        for (Piece piece : pieces) {
+            if (piece.original) {
+                merged.add(piece);
+                continue;
+            }
+            System.arraycopy(added, piece.start, compacted, position, piece.length);
+            Piece previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && !previous.original && previous.start + previous.length == position) {
+                merged.set(merged.size() - 1, new Piece(false, previous.start, previous.length + piece.length));
+            } else {
+                merged.add(new Piece(false, position, piece.length));
+            }
+            position += piece.length;
+        }
+        pieces.clear();
+        pieces.addAll(merged);
+        added = compacted;
+        addedLength = position;
+        lastRemoved = null;
+        hintIndex = 0;
+        hintStart = 0;
+        generation++;
+    }
+
+    /**
+     * Takes a snapshot of the text, without the implied newline.
+     * Only the list of pieces is copied, as the buffers they point to
+     * never change, so the snapshot can be read from any thread while
+     * the content keeps being edited.
+     *
+     * @return an immutable view of the current text
+     * @since 1.1
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(pieces.toArray(new Piece[0]), length - 1);
+    }
+
+    /**
+     * Takes a snapshot of a range of the text. Only the pieces of
+     * the range are copied, so it is cheap no matter how long it is.
+     *
+     * @param where the start of the range
+     * @param len the length of the range
+     * @return an immutable view of the range
+     * @throws BadLocationException if the range is out of the content
+     * @since 1.1
+     */
+    public Snapshot snapshot(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        ArrayList<Piece> range = new ArrayList<>();
+        int index = find(where);
+        int inPiece = where - hintStart;
+        int left = len;
+        while (left > 0) {
+            Piece piece = pieces.get(index++);
+            int count = Math.min(left, piece.length - inPiece);
+            range.add(new Piece(piece.original, piece.start + inPiece, count));
+            left -= count;
+            inPiece = 0;
+        }
+        return new Snapshot(range.toArray(new Piece[0]), len);
+    }
+
+    /**
+     * Returns the text that was taken out by the last removal,
+     * including the removals made to undo an insertion.
+     * Like a snapshot, it stays valid while the content keeps being edited.
+     *
+     * @return the removed text, or <code>null</code> if nothing has been removed
+     * @since 1.1
+     */
+    public CharSequence getLastRemoved() {
+        return lastRemoved;
+    }
+
+    /**
+     * Creates a position that follows the changes of the content.
+     * Positions are kept with weak references, so they are dropped
+     * as soon as nobody else is using them.
+     *
+     * @param offset the offset in the content
+     * @return the position
+     * @throws BadLocationException if the offset is out of the content
+     * @since 1.1
+     */
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        MarkPosition position = new MarkPosition(offset);
+        marks.add(new WeakReference<>(position));
+        return position;
+    }
+
+    /**
+     * Inserts a string in the content.
+     * The string is appended to the add buffer and a new piece that points
+     * to it is placed at the given offset. If the user is typing at the end
+     * of the last inserted text, the previous piece is just extended.
+     *
+     * @param where the offset of the insertion
+     * @param str the string to insert
+     * @return an edit that can undo the insertion
+     * @throws BadLocationException if the offset is out of the content
+     * @since 1.1
+     */
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where >= length || where < 0) {
+            throw new BadLocationException("Invalid insert", length);
+        }
+        int len = str.length();
+        if (len == 0) {
+            return null;
+        }
+
+        int addStart = addedLength;
+        ensureAddCapacity(addedLength + len);
+        str.getChars(0, len, added, addedLength);
+        addedLength += len;
+
+        int index = split(where);
+        Piece previous = (index > 0) ? pieces.get(index - 1) : null;
+        if (previous != null && !previous.original && previous.start + previous.length == addStart) {
+            // Typing continues right after the previous insertion
+            pieces.set(index - 1, new Piece(false, previous.start, previous.length + len));
+            hintIndex = index - 1;
+            hintStart = where - previous.length;
+        } else {
+            pieces.add(index, new Piece(false, addStart, len));
+        }
+        length += len;
+        updateMarksForInsert(where, len);
+
+        return new InsertEdit(where, len);
+    }
+
+    /**
+     * Removes a range of the content.
+     * The pieces of the range are taken out of the table and kept
+     * by the returned edit, so the removed text is never copied.
+     *
+     * @param where the offset of the removal
+     * @param nitems the number of characters to remove
+     * @return an edit that can undo the removal
+     * @throws BadLocationException if the range is out of the content
+     * @since 1.1
+     */
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Invalid remove", length + 1);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        return new RemoveEdit(where, nitems, cut(where, nitems));
+    }
+
+    /**
+     * Returns a range of the content as a String.
+     *
+     * @param where the start of the range
+     * @param len the length of the range
+     * @return the text of the range
+     * @throws BadLocationException if the range is out of the content
+     * @since 1.1
+     */
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        char[] chars = new char[len];
+        copyChars(where, len, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Fills the given segment with a range of the content.
+     * When the range lies in a single piece, the segment points
+     * straight to the buffer of the piece and nothing is copied.
+     * The same happens if the segment allows a partial return,
+     * in which case only the part in the first piece is returned.
+     *
+     * @param where the start of the range
+     * @param len the length of the range
+     * @param txt the segment to fill
+     * @throws BadLocationException if the range is out of the content
+     * @since 1.1
+     */
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+        if (len == 0) {
+            txt.array = added;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+
+        int index = find(where);
+        Piece piece = pieces.get(index);
+        int inPiece = where - hintStart;
+        int available = piece.length - inPiece;
+        if (len <= available || txt.isPartialReturn()) {
+            int count = Math.min(len, available);
+            if (!piece.original) {
+                txt.array = added;
+                txt.offset = piece.start + inPiece;
+                txt.count = count;
+                return;
+            }
+            if (originalArray != null) {
+                txt.array = originalArray;
+                txt.offset = originalArrayOffset + piece.start + inPiece;
+                txt.count = count;
+                return;
+            }
+            len = count;
+        }
+
+        // The range spans several pieces or the original
+        // buffer has no array, so we have to copy
+        txt.array = new char[len];
+        txt.offset = 0;
+        txt.count = len;
+        copyChars(where, len, txt.array, 0);
+    }
+
+    /**
+     * Copies a range of the content into an array.
+     *
+     * @param where the start of the range
+     * @param len the length of the range
+     * @param dst the destination array
+     * @param dstBegin the offset in the destination array
+     * @since 1.1
+     */
+    void copyChars(int where, int len, char[] dst, int dstBegin) {
+        int index = find(where);
+        int inPiece = where - hintStart;
+        while (len > 0) {
+            Piece piece = pieces.get(index++);
+            int count = Math.min(len, piece.length - inPiece);
+            copyPiece(piece, inPiece, count, dst, dstBegin);
+            dstBegin += count;
+            len -= count;
+            inPiece = 0;
+        }
+    }
+
+    /**
+     * Copies a part of a piece into an array.
+     */
+    private void copyPiece(Piece piece, int from, int count, char[] dst, int dstBegin) {
+        copyPiece(added, piece, from, count, dst, dstBegin);
+    }
+
+    /**
+     * Copies a part of a piece into an array, using the given add buffer.
+     */
+    private void copyPiece(char[] added, Piece piece, int from, int count, char[] dst, int dstBegin) {
+        int start = piece.start + from;
+        if (!piece.original) {
+            System.arraycopy(added, start, dst, dstBegin, count);
+        } else if (originalArray != null) {
+            System.arraycopy(originalArray, originalArrayOffset + start, dst, dstBegin, count);
+        } else if (original instanceof String) {
+            ((String) original).getChars(start, start + count, dst, dstBegin);
+        } else if (original instanceof MappedText) {
+            ((MappedText) original).getChars(start, start + count, dst, dstBegin);
+        } else if (original instanceof CompressedText) {
+            ((CompressedText) original).getChars(start, start + count, dst, dstBegin);
+        } else if (original instanceof Snapshot) {
+            ((Snapshot) original).getChars(start, start + count, dst, dstBegin);
+        } else if (original instanceof StringBuilder) {
+            ((StringBuilder) original).getChars(start, start + count, dst, dstBegin);
+        } else {
+            for (int i = 0; i < count; i++) {
+                dst[dstBegin + i] = original.charAt(start + i);
+            }
+        }
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0) {
+            throw new BadLocationException("Invalid location", -1);
+        }
+        if (where + len > length) {
+            throw new BadLocationException("Invalid location", length + 1);
+        }
+    }
+
+    /**
+     * Returns the index of the piece that contains the given offset
+     * and leaves its start offset at <code>hintStart</code>.
+     * The search starts from the last found piece when possible.
+     */
+    private int find(int offset) {
+        int index = 0;
+        int start = 0;
+        if (hintIndex < pieces.size() && offset >= hintStart) {
+            index = hintIndex;
+            start = hintStart;
+        }
+        int last = pieces.size() - 1;
+        while (index < last && offset >= start + pieces.get(index).length) {
+            start += pieces.get(index).length;
+            index++;
+        }
+        hintIndex = index;
+        hintStart = start;
+        return index;
+    }
+
+    /**
+     * Makes sure that a piece starts at the given offset, splitting
+     * the piece that contains it if needed.
+     *
+     * @return the index of the piece that starts at the offset
+     */
+    private int split(int offset) {
+        if (offset >= length) {
+            return pieces.size();
+        }
+        int index = find(offset);
+        int inPiece = offset - hintStart;
+        if (inPiece == 0) {
+            return index;
+        }
+        Piece piece = pieces.get(index);
+        pieces.set(index, new Piece(piece.original, piece.start, inPiece));
+        pieces.add(index + 1, new Piece(piece.original, piece.start + inPiece, piece.length - inPiece));
+        hintIndex = index + 1;
+        hintStart = offset;
+        return index + 1;
+    }
+
+    /**
+     * Takes the pieces of a range out of the table, along with
+     * the positions inside the range, so they can be put back on undo.
+     */
+    private Cut cut(int where, int nitems) {
+        int first = split(where);
+        int last = split(where + nitems);
+        List<Piece> range = pieces.subList(first, last);
+        Cut removed = new Cut(range.toArray(new Piece[0]), where, nitems);
+        lastRemoved = new Snapshot(removed.pieces, nitems);
+        range.clear();
+        length -= nitems;
+        hintIndex = 0;
+        hintStart = 0;
+        updateMarksForRemove(where, nitems);
+        return removed;
+    }
+
+    /**
+     * Puts back pieces that were taken out by <code>cut</code>
+     * and restores the positions that were inside them.
+     */
+    private void paste(int where, Cut removed) {
+        int index = split(where);
+        pieces.addAll(index, Arrays.asList(removed.pieces));
+        length += removed.length;
+        hintIndex = 0;
+        hintStart = 0;
+        updateMarksForInsert(where, removed.length);
+        for (int i = 0; i < removed.marks.length; i++) {
+            removed.marks[i].offset = where + removed.offsets[i];
+        }
+    }
+
+    private void ensureAddCapacity(int capacity) {
+        if (capacity > added.length) {
+            char[] grown = new char[Math.max(capacity, added.length * 2)];
+            System.arraycopy(added, 0, grown, 0, addedLength);
+            added = grown;
+        }
+    }
+
+    /**
+     * Moves the positions after an insertion.
+     * Positions at the insertion offset move along with the text,
+     * except for the position at the start of the content.
+     */
+    private void updateMarksForInsert(int where, int len) {
+        if (where == 0) {
+            where = 1;
+        }
+        int live = 0;
+        for (int i = 0; i < marks.size(); i++) {
+            MarkPosition mark = marks.get(i).get();
+            if (mark != null) {
+                if (mark.offset >= where) {
+                    mark.offset += len;
+                }
+                marks.set(live++, marks.get(i));
+            }
+        }
+        trimMarks(live);
+    }
+
+    /**
+     * Moves the positions after a removal.
+     * Positions inside the removed range collapse to its start.
+     */
+    private void updateMarksForRemove(int where, int len) {
+        int end = where + len;
+        int live = 0;
+        for (int i = 0; i < marks.size(); i++) {
+            MarkPosition mark = marks.get(i).get();
+            if (mark != null) {
+                if (mark.offset >= end) {
+                    mark.offset -= len;
+                } else if (mark.offset >= where) {
+                    mark.offset = where;
+                }
+                marks.set(live++, marks.get(i));
+            }
+        }
+        trimMarks(live);
+    }
+
+    private void trimMarks(int live) {
+        if (live < marks.size()) {
+            marks.subList(live, marks.size()).clear();
+        }
+    }
+
+    /**
+     * A range of one of the two buffers.
+     * Pieces are immutable, so edits kept for undo
+     * can safely hold references to them.
+     */
+    static final class Piece {
+        final boolean original;
+        final int start;
+        final int length;
+
+        Piece(boolean original, int start, int length) {
+            this.original = original;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Pieces that were taken out of the table, along with the positions
+     * that were inside them and their offsets relative to the range.
+     */
+    private final class Cut {
+        final Piece[] pieces;
+        final int length;
+        final MarkPosition[] marks;
+        final int[] offsets;
+
+        Cut(Piece[] pieces, int where, int length) {
+            this.pieces = pieces;
+            this.length = length;
+            ArrayList<MarkPosition> inside = new ArrayList<>();
+            for (WeakReference<MarkPosition> reference : PieceTableContent.this.marks) {
+                MarkPosition mark = reference.get();
+                if (mark != null && mark.offset >= where && mark.offset <= where + length) {
+                    inside.add(mark);
+                }
+            }
+            this.marks = inside.toArray(new MarkPosition[0]);
+            this.offsets = new int[marks.length];
+            for (int i = 0; i < marks.length; i++) {
+                offsets[i] = marks[i].offset - where;
+            }
+        }
+    }
+
+    /**
+     * Immutable view of the text at the moment it was taken.
+     * It keeps its own copy of the piece list and a reference to the
+     * add buffer of that moment. Later insertions only append to the
+     * add buffer (or to a larger copy of it), so the characters that
+     * the snapshot points to never change.
+     */
+    public final class Snapshot implements CharSequence {
+        private final Piece[] snapshotPieces;
+        private final int[] starts;
+        private final char[] snapshotAdded;
+        private final int snapshotLength;
+
+        Snapshot(Piece[] snapshotPieces, int snapshotLength) {
+            this.snapshotPieces = snapshotPieces;
+            this.snapshotAdded = added;
+            this.snapshotLength = snapshotLength;
+            this.starts = new int[snapshotPieces.length];
+            int start = 0;
+            for (int i = 0; i < snapshotPieces.length; i++) {
+                starts[i] = start;
+                start += snapshotPieces[i].length;
+            }
+        }
+
+        @Override
+        public int length() {
+            return snapshotLength;
+        }
+
+        /**
+         * Returns the number of pieces of the snapshot, which is
+         * all the memory it holds apart from the shared buffers.
+         *
+         * @return the number of pieces
+         * @since 1.1
+         */
+        public int getPieceCount() {
+            return snapshotPieces.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= snapshotLength) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            int i = pieceOf(index);
+            Piece piece = snapshotPieces[i];
+            int position = piece.start + index - starts[i];
+            return piece.original ? original.charAt(position) : snapshotAdded[position];
+        }
+
+        /**
+         * Copies a range of the snapshot into an array.
+         *
+         * @param srcBegin the start of the range
+         * @param srcEnd the end of the range
+         * @param dst the destination array
+         * @param dstBegin the offset in the destination array
+         * @since 1.1
+         */
+        public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+            if (srcBegin < 0 || srcEnd > snapshotLength || srcBegin > srcEnd) {
+                throw new IndexOutOfBoundsException("Range: " + srcBegin + " - " + srcEnd);
+            }
+            if (srcBegin == srcEnd) {
+                return;
+            }
+            int i = pieceOf(srcBegin);
+            int from = srcBegin - starts[i];
+            int len = srcEnd - srcBegin;
+            while (len > 0) {
+                Piece piece = snapshotPieces[i++];
+                int count = Math.min(len, piece.length - from);
+                copyPiece(snapshotAdded, piece, from, count, dst, dstBegin);
+                dstBegin += count;
+                len -= count;
+                from = 0;
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            char[] chars = new char[end - start];
+            getChars(start, end, chars, 0);
+            return CharBuffer.wrap(chars);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[snapshotLength];
+            getChars(0, snapshotLength, chars, 0);
+            return new String(chars);
+        }
+
+        private int pieceOf(int index) {
+            int i = Arrays.binarySearch(starts, index);
+            return (i >= 0) ? i : -i - 2;
+        }
+    }
+
+    /**
+     * Position that is updated by the content on every change.
+     */
+    private static final class MarkPosition implements Position {
+        int offset;
+
+        MarkPosition(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(offset);
+        }
+    }
+
+    /**
+     * Undoable edit of an insertion.
+     * On undo the inserted pieces are cut and kept, so redo
+     * just puts them back.
+     */
+    private class InsertEdit extends AbstractUndoableEdit {
+        private final int where;
+        private final int len;
+        private final int editGeneration;
+        private Cut removed;
+
+        InsertEdit(int where, int len) {
+            this.where = where;
+            this.len = len;
+            this.editGeneration = generation;
+        }
+
+        @Override
+        public boolean canUndo() {
+            return super.canUndo() && editGeneration == generation;
+        }
+
+        @Override
+        public boolean canRedo() {
+            return super.canRedo() && editGeneration == generation;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            removed = cut(where, len);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            paste(where, removed);
+            removed = null;
+        }
+    }
+
+    /**
+     * Undoable edit of a removal.
+     * Holds the removed pieces, which point to the immutable
+     * buffers, so the removed text is never copied.
+     */
+    private class RemoveEdit extends AbstractUndoableEdit {
+        private final int where;
+        private final int len;
+        private final int editGeneration;
+        private Cut removed;
+
+        RemoveEdit(int where, int len, Cut removed) {
+            this.where = where;
+            this.len = len;
+            this.removed = removed;
+            this.editGeneration = generation;
+        }
+
+        @Override
+        public boolean canUndo() {
+            return super.canUndo() && editGeneration == generation;
+        }
+
+        @Override
+        public boolean canRedo() {
+            return super.canRedo() && editGeneration == generation;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            paste(where, removed);
+            removed = null;
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            removed = cut(where, len);
+        }
+    }
+}
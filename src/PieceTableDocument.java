@@ -0,0 +1,628 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+
+/**
+ * <p>
+ * Plain text document that stores its text in a {@link PieceTableContent}.
+ * It is used as the model of the editor's JTextArea instead of the
+ * default <code>PlainDocument</code>, which keeps the whole file
+ * in one array and shifts it on every edit.
+ * <p>
+ * A <code>PlainDocument</code> also creates an element, with two positions,
+ * for every line of the text. For a file with millions of lines this
+ * costs more memory than the text itself, so the lines are kept in a
+ * {@link LineIndex} instead and the line elements are created only when
+ * someone asks for them. Every change to the lines is reported to the
+ * listeners with an <code>ElementChange</code>, exactly like the
+ * <code>PlainDocument</code> does, so the views of the text area work as before.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class PieceTableDocument extends AbstractDocument {
+
+    private final PieceTableContent content;
+    private final LineIndex lines;
+    private final LineRoot root;
+
+    private final Segment segment;
+
+    // Collects the edits of a replacement, to be undone together
+    private CompoundEdit replaceEdit;
+
+    /**
+     * Constructor.
+     * Creates an empty document.
+     *
+     * @since 1.1
+     */
+    public PieceTableDocument() {
+        this("");
+    }
+
+    /**
+     * Constructor.
+     * Creates a document whose text is the given original buffer.
+     * The buffer is not copied, so it must not be changed afterwards.
+     *
+     * @param original the contents of the opened file
+     * @since 1.1
+     */
+    public PieceTableDocument(CharSequence original) {
+        this(new PieceTableContent(original), LineIndex.of(original));
+    }
+
+    /**
+     * Constructor.
+     * Creates a document whose text is the given original buffer
+     * and whose lines have already been indexed.
+     *
+     * @param original the contents of the opened file
+     * @param lines the index of the lines of the original buffer
+     * @since 1.1
+     */
+    public PieceTableDocument(CharSequence original, LineIndex lines) {
+        this(new PieceTableContent(original), lines);
+    }
+
+    private PieceTableDocument(PieceTableContent content, LineIndex lines) {
+        super(content);
+        this.content = content;
+        this.lines = lines;
+        this.root = new LineRoot();
+        this.segment = new Segment();
+        putProperty(PlainDocument.tabSizeAttribute, 8);
+
+        if (content.length() > 1) {
+            // The bidi structure created by the parent only covers
+            // the implied newline, so we stretch it over the whole text
+            writeLock();
+            try {
+                SimpleAttributeSet level = new SimpleAttributeSet();
+                StyleConstants.setBidiLevel(level, 0);
+                BranchElement bidiRoot = (BranchElement) getBidiRootElement();
+                bidiRoot.replace(0, bidiRoot.getElementCount(),
+                        new Element[] {createLeafElement(bidiRoot, level, 0, content.length())});
+            } finally {
+                writeUnlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the content that holds the text of the document.
+     *
+     * @return the piece table of the document
+     * @since 1.1
+     */
+    public PieceTableContent getPieceTable() {
+        return content;
+    }
+
+    /**
+     * Estimates how much memory the document holds:
+     * its text and the index of its lines.
+     *
+     * @return the estimated size in bytes
+     * @since 1.1
+     */
+    public long getMemoryFootprint() {
+        return content.getMemoryFootprint() + lines.getMemoryFootprint();
+    }
+
+    /**
+     * Drops the parts of the text's buffers that have been removed,
+     * as described in {@link PieceTableContent#compact()}.
+     * The edits made before can no longer be undone.
+     *
+     * @since 1.1
+     */
+    public void compact() {
+        writeLock();
+        try {
+            content.compact();
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the text, which can then be read
+     * from any thread, for example to save it in the background.
+     *
+     * @return an immutable view of the current text
+     * @since 1.1
+     */
+    public PieceTableContent.Snapshot snapshot() {
+        PieceTableContent.Snapshot[] snapshot = new PieceTableContent.Snapshot[1];
+        render(() -> snapshot[0] = content.snapshot());
+        return snapshot[0];
+    }
+
+    /**
+     * Returns the text that was removed by a removal event.
+     * Listeners receive the event after the text is gone, so this
+     * is the only way for them to see what was removed.
+     * Must be called while the event is being delivered.
+     *
+     * @param event the removal event
+     * @return the removed text, or <code>null</code> if it is not available
+     * @since 1.1
+     */
+    public CharSequence getRemovedText(DocumentEvent event) {
+        CharSequence removed = content.getLastRemoved();
+        if (removed == null || removed.length() != event.getLength()) {
+            return null;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the text that was inserted by an insertion event,
+     * by reference to the buffers of the document, so it is
+     * never copied. Must be called while the event is being delivered.
+     *
+     * @param event the insertion event
+     * @return the inserted text
+     * @since 1.1
+     */
+    public CharSequence getInsertedText(DocumentEvent event) {
+        try {
+            return content.snapshot(event.getOffset(), event.getLength());
+        } catch (BadLocationException e) {
+            // Should never happen, the text has just been inserted
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replaces a range of the text as a single edit. Like in every
+     * <code>AbstractDocument</code>, the range is removed and the text is
+     * inserted, which are two changes for the listeners, but they are
+     * undone and redone together. Used to replace all the matches of a
+     * search, or the selection of the text area, in one step.
+     *
+     * @param offset the start of the range
+     * @param length the length of the range
+     * @param text the text to insert, may be <code>null</code>
+     * @param attrs the attributes of the inserted text
+     * @throws BadLocationException if the range is out of the document
+     * @since 1.1
+     */
+    @Override
+    public void replace(int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
+        CompoundEdit edit = new CompoundEdit();
+        replaceEdit = edit;
+        try {
+            super.replace(offset, length, text, attrs);
+        } finally {
+            replaceEdit = null;
+            edit.end();
+        }
+        if (edit.isSignificant()) {
+            super.fireUndoableEditUpdate(new UndoableEditEvent(this, edit));
+        }
+    }
+
+    /**
+     * Inserts text, measuring how long it takes, along with
+     * the listeners, if the {@link Metrics} are enabled.
+     *
+     * @param offset the offset to insert at
+     * @param str the text to insert
+     * @param a the attributes of the inserted text
+     * @throws BadLocationException if the offset is out of the document
+     * @since 1.1
+     */
+    @Override
+    public void insertString(int offset, String str, AttributeSet a) throws BadLocationException {
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.INSERT);
+        super.insertString(offset, str, a);
+        Metrics.stop(sample, 0);
+    }
+
+    /**
+     * Removes text, measuring how long it takes, along with
+     * the listeners, if the {@link Metrics} are enabled.
+     *
+     * @param offs the start of the text to remove
+     * @param len the length of the text to remove
+     * @throws BadLocationException if the range is out of the document
+     * @since 1.1
+     */
+    @Override
+    public void remove(int offs, int len) throws BadLocationException {
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.REMOVE);
+        super.remove(offs, len);
+        Metrics.stop(sample, 0);
+    }
+
+    /**
+     * Notifies the undo listeners of an edit, or collects it
+     * if it is part of a replacement.
+     *
+     * @param e the event of the edit
+     * @since 1.1
+     */
+    @Override
+    protected void fireUndoableEditUpdate(UndoableEditEvent e) {
+        if (replaceEdit != null) {
+            replaceEdit.addEdit(e.getEdit());
+        } else {
+            super.fireUndoableEditUpdate(e);
+        }
+    }
+
+    /**
+     * Returns the root element, which has a child element for every line.
+     *
+     * @return the root element
+     * @since 1.1
+     */
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    /**
+     * Returns the line that contains the given position.
+     *
+     * @param pos the position in the document
+     * @return the element of the line
+     * @since 1.1
+     */
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    /**
+     * Updates the line index after an insertion.
+     * Only the inserted text is scanned for new lines.
+     *
+     * @param chng the description of the change
+     * @param attr the attributes of the inserted text
+     * @since 1.1
+     */
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int[] breaks = new int[8];
+        int count = 0;
+        segment.setPartialReturn(true);
+        try {
+            int done = 0;
+            while (done < length) {
+                getText(offset + done, length - done, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        if (count == breaks.length) {
+                            int[] grown = new int[breaks.length * 2];
+                            System.arraycopy(breaks, 0, grown, 0, count);
+                            breaks = grown;
+                        }
+                        breaks[count++] = done + i + 1;
+                    }
+                }
+                done += segment.count;
+            }
+        } catch (BadLocationException e) {
+            // Should never happen, the text has just been inserted
+            e.printStackTrace();
+        }
+        segment.array = null;
+
+        // Lines after the insertion are shifted even if no new line was
+        // inserted, but only a change of lines is reported to the views
+        LineShift edit = (count > 0)
+                ? new LineEdit(offset, length, breaks, count, true)
+                : new LineShift(offset, length, breaks, count, true);
+        edit.apply();
+        chng.addEdit(edit);
+        super.insertUpdate(chng, attr);
+    }
+
+    /**
+     * Updates the line index before a removal.
+     * The lines that are dropped are found from the index itself,
+     * so the removed text is never read.
+     *
+     * @param chng the description of the change
+     * @since 1.1
+     */
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        LineShift edit = (lines.countBreaks(offset, length) > 0)
+                ? new LineEdit(offset, length, null, 0, false)
+                : new LineShift(offset, length, null, 0, false);
+        edit.apply();
+        chng.addEdit(edit);
+        super.removeUpdate(chng);
+    }
+
+    /**
+     * Root element of the document.
+     * Its children are created on demand from the line index.
+     */
+    private class LineRoot implements Element {
+
+        @Override
+        public Document getDocument() {
+            return PieceTableDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return content.length();
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return lines.getLineOfOffset(offset);
+        }
+
+        @Override
+        public int getElementCount() {
+            return lines.getLineCount();
+        }
+
+        @Override
+        public Element getElement(int index) {
+            int count = lines.getLineCount();
+            if (index < 0 || index >= count) {
+                return null;
+            }
+            int end = (index + 1 < count) ? lines.getLineStart(index + 1) : content.length();
+            return new LineElement(lines.getLineStart(index), end);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "LineRoot(" + getElementCount() + " lines)";
+        }
+    }
+
+    /**
+     * Element of a single line.
+     * It is a snapshot of the line at the moment it was created.
+     */
+    private class LineElement implements Element {
+        private final int start;
+        private final int end;
+
+        LineElement(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Document getDocument() {
+            return PieceTableDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+
+        @Override
+        public String getName() {
+            return ContentElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return start;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return end;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "LineElement(" + start + "," + end + ")";
+        }
+    }
+
+    /**
+     * Change of the line index caused by an insertion or a removal.
+     * Knows how to undo and redo the change on the index.
+     */
+    private class LineShift extends AbstractUndoableEdit {
+        final int offset;
+        final int length;
+        int[] breaks;
+        final int count;
+        boolean insert;
+
+        LineShift(int offset, int length, int[] breaks, int count, boolean insert) {
+            this.offset = offset;
+            this.length = length;
+            this.breaks = breaks;
+            this.count = (breaks == null) ? lines.countBreaks(offset, length) : count;
+            this.insert = insert;
+        }
+
+        /**
+         * Applies the change to the index.
+         */
+        void apply() {
+            if (insert) {
+                lines.insert(offset, length, breaks, count);
+            } else {
+                breaks = lines.remove(offset, length);
+            }
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            insert = !insert;
+            apply();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            insert = !insert;
+            apply();
+        }
+    }
+
+    /**
+     * Change of the index that adds or drops lines.
+     * It also describes the change to the views, with the
+     * elements of the lines that were replaced.
+     * <p>
+     * The elements of the many lines of the change are only created
+     * when they are asked for, from the breaks that the change keeps
+     * anyway, so a change of millions of lines that is kept for undo
+     * does not keep millions of elements as well.
+     */
+    private class LineEdit extends LineShift implements DocumentEvent.ElementChange {
+        private int index;
+        private int firstStart;
+        private int lastEnd;
+        private Element single;
+
+        LineEdit(int offset, int length, int[] breaks, int count, boolean insert) {
+            super(offset, length, breaks, count, insert);
+        }
+
+        /**
+         * Applies the change to the index and records
+         * the lines that were replaced.
+         */
+        @Override
+        void apply() {
+            index = lines.getLineOfOffset(offset);
+            if (insert) {
+                single = root.getElement(index);
+                super.apply();
+                firstStart = lines.getLineStart(index);
+                lastEnd = lineElement(index + count, 0).getEndOffset();
+            } else {
+                // Lines are removed before the content, so the
+                // end of the last line must be adjusted by hand
+                firstStart = lines.getLineStart(index);
+                lastEnd = lineElement(index + count, 0).getEndOffset();
+                super.apply();
+                single = lineElement(index, -length);
+            }
+        }
+
+        /**
+         * Creates the elements of the lines that start
+         * at the breaks of the change, and the line before them.
+         */
+        private Element[] lineElements() {
+            Element[] elements = new Element[count + 1];
+            int start = firstStart;
+            for (int i = 0; i < count; i++) {
+                int next = offset + breaks[i];
+                elements[i] = new LineElement(start, next);
+                start = next;
+            }
+            elements[count] = new LineElement(start, lastEnd);
+            return elements;
+        }
+
+        /**
+         * Creates the element of a line. The end of the last
+         * line of the document is moved by the given amount.
+         */
+        private Element lineElement(int line, int extra) {
+            int lineCount = lines.getLineCount();
+            int end = (line + 1 < lineCount) ? lines.getLineStart(line + 1) : content.length() + extra;
+            return new LineElement(lines.getLineStart(line), end);
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            return insert ? new Element[] {single} : lineElements();
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return insert ? lineElements() : new Element[] {single};
+        }
+    }
+}
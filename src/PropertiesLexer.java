@@ -0,0 +1,85 @@
+/**
+ * <p>
+ * Lexer of properties files, following the format that
+ * <code>java.util.Properties</code> reads: a line that starts with
+ * '#' or '!' is a comment, and any other line is a key, up to the first
+ * '=', ':' or space that is not escaped, followed by its value. A value
+ * that ends with an odd number of backslashes continues on the next line,
+ * which is the only thing that the lexer has to remember between lines.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class PropertiesLexer implements Lexer {
+
+    // The state when the line continues the value of the previous one
+    private static final int IN_VALUE = 1;
+
+    /**
+     * Splits a line of a properties file in tokens.
+     *
+     * @param text the characters of the line, without its '\n'
+     * @param offset the first character of the line in the array
+     * @param count the number of characters of the line
+     * @param state the state of the lexer before the line
+     * @param runs receives the tokens of the line
+     * @return the state of the lexer after the line
+     * @since 1.1
+     */
+    @Override
+    public int tokenize(char[] text, int offset, int count, int state, Runs runs) {
+        int end = offset + count;
+        // A '\r' of a file with Windows line endings is not part of the value
+        if (end > offset && text[end - 1] == '\r') {
+            end--;
+        }
+        int i = skipSpaces(text, offset, end);
+        if (state == IN_VALUE) {
+            runs.add(0, PLAIN);
+            runs.add(i - offset, STRING);
+            return continues(text, offset, end) ? IN_VALUE : INITIAL;
+        }
+        if (i == end) {
+            runs.add(0, PLAIN);
+            return INITIAL;
+        }
+        if (text[i] == '#' || text[i] == '!') {
+            runs.add(0, PLAIN);
+            runs.add(i - offset, COMMENT);
+            return INITIAL;
+        }
+
+        runs.add(0, PLAIN);
+        runs.add(i - offset, KEY);
+        while (i < end && text[i] != '=' && text[i] != ':' && text[i] != ' '
+                && text[i] != '\t' && text[i] != '\f') {
+            i += (text[i] == '\\') ? 2 : 1;
+        }
+        i = Math.min(i, end);
+        runs.add(i - offset, PLAIN);
+        i = skipSpaces(text, i, end);
+        if (i < end && (text[i] == '=' || text[i] == ':')) {
+            i = skipSpaces(text, i + 1, end);
+        }
+        runs.add(i - offset, STRING);
+        return continues(text, offset, end) ? IN_VALUE : INITIAL;
+    }
+
+    private static int skipSpaces(char[] text, int i, int end) {
+        while (i < end && (text[i] == ' ' || text[i] == '\t' || text[i] == '\f')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns whether a line ends with an odd number of backslashes.
+     */
+    private static boolean continues(char[] text, int start, int end) {
+        int backslashes = 0;
+        while (end - backslashes > start && text[end - backslashes - 1] == '\\') {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+}
@@ -0,0 +1,682 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Journal of the edits of a document, which is used to recover
+ * the unsaved work if the program or the machine crashes.
+ * <p>
+ * The journal starts from a base, which is either the file as it was
+ * opened, an empty text, or a snapshot of the text. Then every insertion
+ * and removal of the document is appended as a small record with its
+ * offset, the length of the removed text and the inserted text.
+ * Replaying the records on the base gives the text of the document.
+ * <p>
+ * The document listener only queues the records, so typing never waits
+ * for the disk. A single background thread writes the queued records of all
+ * the journals a little later and forces them to the disk once per batch.
+ * When the records become larger than the text itself, the next edit queues
+ * a snapshot of the text, and the thread writes a new journal that starts
+ * from the snapshot and replaces the old one in a single step.
+ * <p>
+ * Journals are kept in the "recovery" folder of the program's folder in the
+ * user's home. A journal is deleted when its document is saved or closed
+ * without saving, so the journals that are left at startup belong to
+ * sessions that did not end normally. While a journal is in use its file is
+ * locked, so it is never offered for recovery by another running editor.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class RecoveryJournal implements DocumentListener {
+
+    private static final int MAGIC = 0x4F53454A; // "OSEJ"
+    private static final int VERSION = 1;
+    private static final byte BASE_EMPTY = 0;
+    private static final byte BASE_FILE = 1;
+    private static final byte BASE_SNAPSHOT = 2;
+    private static final byte EDIT = 'E';
+
+    private static final long FLUSH_DELAY = 500; // Milliseconds
+    private static final long MIN_COMPACT_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Recovery journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Document document;
+    private final File journalFile;
+    private final String path;
+    private final ConcurrentLinkedQueue<Object> records;
+    private final AtomicBoolean flushPending;
+
+    // Used only by the writer thread
+    private FileChannel channel;
+    private FileLock lock;
+    private DataOutputStream out;
+    private long size; // Bytes of the records after the base
+
+    // Base of the journal, until the first edit queues it
+    private Start pendingStart;
+
+    // Set by the writer thread when the records have grown too large
+    private volatile boolean compactWanted;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * Starts a new journal for a document. The journal file is created
+     * in the background when the document is first edited, starting
+     * with the base of the journal.
+     *
+     * @param document the document whose edits are recorded
+     * @param file the file of the document, or <code>null</code> if it has none
+     * @param fromFile <code>true</code> if the document has just been loaded from
+     *                 the file and not changed, so the file can be the base;
+     *                 otherwise the current text becomes the base
+     * @since 1.1
+     */
+    public RecoveryJournal(Document document, File file, boolean fromFile) {
+        this(document, newJournalFile(), file == null ? "" : file.getAbsolutePath());
+        Object base;
+        if (fromFile && file != null && file.isFile()) {
+            base = new FileBase(file.length(), file.lastModified());
+        } else if (document.getLength() == 0) {
+            base = null;
+        } else {
+            base = textOf(document);
+        }
+        // Nothing is written until the first edit, so
+        // unchanged documents do not leave any journal behind
+        pendingStart = new Start(base, false);
+    }
+
+    /**
+     * Constructor used for a recovered journal,
+     * which keeps recording to the same file.
+     * The records are only written once the file has been opened.
+     */
+    private RecoveryJournal(Document document, File journalFile, String path) {
+        this.document = document;
+        this.journalFile = journalFile;
+        this.path = path;
+        this.records = new ConcurrentLinkedQueue<>();
+        this.flushPending = new AtomicBoolean();
+        document.addDocumentListener(this);
+    }
+
+    /**
+     * Returns the folder where the journals are kept.
+     *
+     * @return the folder of the journals
+     * @since 1.1
+     */
+    public static File getDirectory() {
+        return new File(new File(System.getProperty("user.home"), ".oldschool-editor"), "recovery");
+    }
+
+    /**
+     * Finds the journals that were left by sessions that did not end
+     * normally, newest first. Journals that are still in use by another
+     * running editor are skipped.
+     *
+     * @return the journal files
+     * @since 1.1
+     */
+    public static List<File> findJournals() {
+        List<File> journals = new ArrayList<>();
+        File[] files = getDirectory().listFiles((dir, name) -> name.endsWith(".journal"));
+        if (files == null) {
+            return journals;
+        }
+        for (File file : files) {
+            try (FileChannel probe = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                FileLock probeLock = probe.tryLock();
+                if (probeLock != null) {
+                    probeLock.release();
+                    journals.add(file);
+                }
+            } catch (IOException | OverlappingFileLockException e) {
+                // Locked by this editor or unreadable, either way not ours
+            }
+        }
+        journals.sort((a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        return journals;
+    }
+
+    /**
+     * Returns the journal file.
+     *
+     * @return the journal file
+     * @since 1.1
+     */
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Records an insertion. Only the inserted text is copied,
+     * the record is written later by the background thread.
+     *
+     * @param e the insertion event
+     * @since 1.1
+     */
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        try {
+            record(new Edit(e.getOffset(), 0, document.getText(e.getOffset(), e.getLength())));
+        } catch (BadLocationException ex) {
+            // Should never happen, the text has just been inserted
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Records a removal.
+     *
+     * @param e the removal event
+     * @since 1.1
+     */
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        record(new Edit(e.getOffset(), e.getLength(), ""));
+    }
+
+    /**
+     * Plain text has no attributes, so nothing to record.
+     *
+     * @param e the change event
+     * @since 1.1
+     */
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Stops recording and deletes the journal, because the document has
+     * been saved or the user does not want to keep its changes.
+     *
+     * @since 1.1
+     */
+    public void discard() {
+        document.removeDocumentListener(this);
+        closed = true;
+        records.add(Boolean.FALSE);
+        WRITER.execute(this::flush);
+    }
+
+    /**
+     * Waits until everything that was queued has been written,
+     * or the given time has passed.
+     *
+     * @param millis the longest time to wait
+     * @since 1.1
+     */
+    public static void awaitWrites(long millis) {
+        try {
+            WRITER.submit(() -> { }).get(millis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Nothing more we can do
+        }
+    }
+
+    /**
+     * Queues a record, along with a snapshot of the
+     * text if the journal has become too large.
+     */
+    private void record(Edit edit) {
+        if (closed) {
+            return;
+        }
+        if (pendingStart != null) {
+            records.add(pendingStart);
+            pendingStart = null;
+        }
+        records.add(edit);
+        if (compactWanted) {
+            compactWanted = false;
+            records.add(new Start(textOf(document), true));
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushPending.compareAndSet(false, true)) {
+            WRITER.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all the queued records and forces them to the disk.
+     * Runs in the writer thread.
+     */
+    private void flush() {
+        flushPending.set(false);
+        try {
+            Object record;
+            boolean written = false;
+            while ((record = records.poll()) != null) {
+                if (record instanceof Edit) {
+                    writeEdit((Edit) record);
+                    written = true;
+                } else if (record instanceof Start) {
+                    start((Start) record);
+                } else if (record instanceof Long) {
+                    resume((Long) record);
+                } else {
+                    delete();
+                    return;
+                }
+            }
+            if (written && out != null) {
+                out.flush();
+                channel.force(false);
+                compactWanted = size > Math.max(MIN_COMPACT_SIZE, 2L * document.getLength());
+            }
+        } catch (IOException e) {
+            // The journal is only a safety net, so a failing
+            // disk must not get in the way of the user
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a new journal that starts from the given base. When the
+     * base is a snapshot, the journal is written to a temporary file
+     * first, which then replaces the old journal.
+     */
+    private void start(Start start) throws IOException {
+        File target = start.replace ? new File(journalFile.getPath() + ".tmp") : journalFile;
+        target.getParentFile().mkdirs();
+        FileChannel newChannel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        FileLock newLock = newChannel.tryLock();
+        DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(newChannel), CHUNK_SIZE));
+        newOut.writeInt(MAGIC);
+        newOut.writeInt(VERSION);
+        newOut.writeUTF(path);
+        if (start.base instanceof FileBase) {
+            newOut.writeByte(BASE_FILE);
+            newOut.writeLong(((FileBase) start.base).size);
+            newOut.writeLong(((FileBase) start.base).lastModified);
+        } else if (start.base instanceof CharSequence) {
+            newOut.writeByte(BASE_SNAPSHOT);
+            writeText(newOut, (CharSequence) start.base);
+        } else {
+            newOut.writeByte(BASE_EMPTY);
+        }
+        newOut.flush();
+        newChannel.force(true);
+
+        closeFile();
+        if (start.replace) {
+            Files.move(target.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        channel = newChannel;
+        lock = newLock;
+        out = newOut;
+        size = 0;
+    }
+
+    /**
+     * Keeps writing to the journal of a recovered session,
+     * after its last complete record.
+     */
+    private void resume(long end) throws IOException {
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+        lock = channel.tryLock();
+        channel.truncate(end);
+        channel.position(end);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), CHUNK_SIZE));
+        size = 0;
+    }
+
+    private void writeEdit(Edit edit) throws IOException {
+        if (out == null) {
+            return;
+        }
+        int before = out.size();
+        out.writeByte(EDIT);
+        out.writeInt(edit.offset);
+        out.writeInt(edit.removed);
+        writeText(out, edit.text);
+        size += out.size() - before;
+    }
+
+    private void delete() throws IOException {
+        closeFile();
+        Files.deleteIfExists(journalFile.toPath());
+    }
+
+    private void closeFile() throws IOException {
+        if (lock != null) {
+            lock.release();
+            lock = null;
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes a text as its length and UTF-8 chunks
+     * that never split a surrogate pair.
+     */
+    private static void writeText(DataOutputStream out, CharSequence text) throws IOException {
+        int length = text.length();
+        out.writeInt(length);
+        int position = 0;
+        while (position < length) {
+            int end = Math.min(length, position + CHUNK_SIZE);
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            byte[] bytes = text.subSequence(position, end).toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(end - position);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            position = end;
+        }
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int chars = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            String chunk = new String(bytes, StandardCharsets.UTF_8);
+            if (chunk.length() != chars) {
+                throw new IOException("Corrupted journal");
+            }
+            text.append(chunk);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the text of the document as an immutable sequence.
+     */
+    private static CharSequence textOf(Document document) {
+        if (document instanceof PieceTableDocument) {
+            return ((PieceTableDocument) document).snapshot();
+        }
+        try {
+            return document.getText(0, document.getLength());
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static File newJournalFile() {
+        return new File(getDirectory(), System.currentTimeMillis() + "-"
+                + Long.toHexString(Double.doubleToLongBits(Math.random())) + ".journal");
+    }
+
+    /**
+     * Reads a journal that was left by a session that did
+     * not end normally, in order to recover its document.
+     *
+     * @param journalFile the journal file
+     * @return the recovery of the journal
+     * @throws IOException if the journal cannot be read
+     * @since 1.1
+     */
+    public static Recovery recover(File journalFile) throws IOException {
+        return new Recovery(journalFile);
+    }
+
+    /**
+     * The contents of a journal that is being recovered.
+     * First the base of the journal must be loaded in a document,
+     * then the records are replayed on it and the journal keeps
+     * recording the edits of the document.
+     */
+    public static class Recovery {
+        private final File journalFile;
+        private final String path;
+        private final byte baseType;
+        private final long baseSize;
+        private final long baseModified;
+        private final String snapshot;
+        private final long recordsStart;
+
+        private Recovery(File journalFile) throws IOException {
+            this.journalFile = journalFile;
+            try (CountingInputStream counter = new CountingInputStream(new FileInputStream(journalFile));
+                 DataInputStream in = new DataInputStream(counter)) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a journal: " + journalFile);
+                }
+                path = in.readUTF();
+                baseType = in.readByte();
+                if (baseType == BASE_FILE) {
+                    baseSize = in.readLong();
+                    baseModified = in.readLong();
+                    snapshot = null;
+                } else {
+                    baseSize = 0;
+                    baseModified = 0;
+                    snapshot = (baseType == BASE_SNAPSHOT) ? readText(in) : "";
+                }
+                recordsStart = counter.count;
+            }
+        }
+
+        /**
+         * Returns the file of the document.
+         *
+         * @return the file, or <code>null</code> if the document had no file
+         * @since 1.1
+         */
+        public File getFile() {
+            return path.isEmpty() ? null : new File(path);
+        }
+
+        /**
+         * Returns the file that the records must be replayed on.
+         *
+         * @return the file, or <code>null</code> if the base is a text
+         * @since 1.1
+         */
+        public File getBaseFile() {
+            return (baseType == BASE_FILE) ? getFile() : null;
+        }
+
+        /**
+         * Checks that the base file has not changed since the
+         * journal started, so the records still fit its text.
+         *
+         * @return <code>true</code> if the records can be replayed on the file
+         * @since 1.1
+         */
+        public boolean isBaseFileUnchanged() {
+            File file = getBaseFile();
+            return file != null && file.length() == baseSize && file.lastModified() == baseModified;
+        }
+
+        /**
+         * Returns the text that the records must be replayed on.
+         *
+         * @return the text, or <code>null</code> if the base is a file
+         * @since 1.1
+         */
+        public String getBaseText() {
+            return snapshot;
+        }
+
+        /**
+         * Replays the records on a document that holds the base and
+         * continues recording its edits to the same journal.
+         * A record that was cut short by the crash is ignored.
+         *
+         * @param document the document with the base
+         * @return the journal that keeps recording the document
+         * @throws IOException if the journal cannot be read
+         * @since 1.1
+         */
+        public RecoveryJournal replay(Document document) throws IOException {
+            long end = recordsStart;
+            try (CountingInputStream counter = new CountingInputStream(new FileInputStream(journalFile));
+                 DataInputStream in = new DataInputStream(counter)) {
+                long skip = recordsStart;
+                while (skip > 0) {
+                    long skipped = counter.skip(skip);
+                    if (skipped <= 0) {
+                        throw new EOFException();
+                    }
+                    skip -= skipped;
+                }
+                while (true) {
+                    int offset;
+                    int removed;
+                    String text;
+                    try {
+                        if (in.readByte() != EDIT) {
+                            break;
+                        }
+                        offset = in.readInt();
+                        removed = in.readInt();
+                        text = readText(in);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (removed > 0) {
+                        document.remove(offset, removed);
+                    }
+                    if (!text.isEmpty()) {
+                        document.insertString(offset, text, null);
+                    }
+                    end = counter.count;
+                }
+            } catch (BadLocationException e) {
+                throw new IOException("The journal does not fit the document", e);
+            }
+
+            // The journal keeps recording after its last complete record
+            RecoveryJournal journal = new RecoveryJournal(document, journalFile, path);
+            journal.records.add(end);
+            journal.scheduleFlush();
+            return journal;
+        }
+
+        /**
+         * Deletes the journal, because the user does not want to recover it.
+         *
+         * @since 1.1
+         */
+        public void discard() {
+            journalFile.delete();
+        }
+    }
+
+    /**
+     * Record of an insertion or a removal.
+     */
+    private static final class Edit {
+        final int offset;
+        final int removed;
+        final String text;
+
+        Edit(int offset, int removed, String text) {
+            this.offset = offset;
+            this.removed = removed;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Request to start the journal over from a base, which is a
+     * <code>FileBase</code>, a snapshot or <code>null</code> for no text.
+     */
+    private static final class Start {
+        final Object base;
+        final boolean replace;
+
+        Start(Object base, boolean replace) {
+            this.base = base;
+            this.replace = replace;
+        }
+    }
+
+    /**
+     * A file as it was when the journal started.
+     */
+    private static final class FileBase {
+        final long size;
+        final long lastModified;
+
+        FileBase(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Counts the bytes that have been read, to know where the records start.
+     */
+    private static final class CountingInputStream extends BufferedInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public synchronized long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
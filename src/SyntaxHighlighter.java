@@ -0,0 +1,621 @@
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * Highlights the tokens of a document with a {@link Lexer}, without ever
+ * splitting more of the document than what an edit can have changed.
+ * <p>
+ * The state of the lexer before every line is kept, so a line can be split
+ * on its own. An edit marks the lines it has changed as dirty and the lines
+ * are split again from the first dirty one. A dirty line whose state after
+ * it turns out to be the same as before leaves the next line clean, so the
+ * splitting stops as soon as the state converges, which for most edits is
+ * right after the edited line. When the state does change, like when a
+ * comment is opened, the next line becomes dirty and the splitting goes on
+ * until the state converges again. The lines before the first dirty one
+ * are the ones whose state is known.
+ * <p>
+ * The lines are split by a background thread, from a snapshot of the text,
+ * in batches of at most {@link #BATCH_LINES} lines or {@link #BATCH_CHARS}
+ * characters, so the Event Dispatch Thread only looks up where the lines of
+ * a batch start and applies its results. A batch that an edit has made
+ * useless, because the edit was at one of its lines, is dropped and started
+ * again, while the edits after it, like a file being loaded or followed,
+ * do not affect it.
+ * <p>
+ * Only the states are kept for the whole document. The tokens are kept for
+ * the visible lines only, as runs of characters of the same kind, and they
+ * are split by the same batches when they are missing or their state has
+ * changed. The view paints every run with its style, which holds the same
+ * attributes as the text of a <code>StyledDocument</code>. The runs of an
+ * edited line are shown as they were until the new ones arrive, and a line
+ * longer than {@link #MAX_LINE_LENGTH} is neither split nor highlighted.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class SyntaxHighlighter implements DocumentListener {
+
+    static final int BATCH_LINES = 4096;
+    static final int BATCH_CHARS = 1024 * 1024;
+    static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    // The state before a line that has never been split
+    private static final int UNKNOWN = -1;
+
+    // One thread splits the lines of all the documents
+    private static final ExecutorService SPLITTER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Highlighter");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[1024]);
+
+    private static final AttributeSet[] STYLES = createStyles();
+
+    private final JTextComponent host;
+    private final PieceTableDocument document;
+    private final Lexer lexer;
+
+    private final LineStates states;
+    // The dirty lines, as sorted ranges of {first, last + 1}
+    private final ArrayList<int[]> dirty;
+    private final HashMap<Integer, LineRuns> visibleRuns;
+    private int firstVisible;
+    private int lastVisible;
+
+    private boolean running;
+    private boolean scheduled;
+    private boolean disposed;
+    // The first line that has been edited since the running batch started
+    private int firstEdited;
+
+    /**
+     * Constructor.
+     * Starts splitting the whole document in the background.
+     *
+     * @param host the component that shows the document
+     * @param document the document to highlight
+     * @param lexer the lexer of the document
+     * @since 1.1
+     */
+    public SyntaxHighlighter(JTextComponent host, PieceTableDocument document, Lexer lexer) {
+        this.host = host;
+        this.document = document;
+        this.lexer = lexer;
+        int lines = document.getDefaultRootElement().getElementCount();
+        states = new LineStates(lines);
+        states.set(0, Lexer.INITIAL);
+        dirty = new ArrayList<>();
+        dirty.add(new int[] {0, lines});
+        visibleRuns = new HashMap<>();
+        firstVisible = -1;
+        lastVisible = -1;
+        document.addDocumentListener(this);
+        schedule();
+    }
+
+    /**
+     * Stops highlighting the document.
+     *
+     * @since 1.1
+     */
+    public void dispose() {
+        disposed = true;
+        document.removeDocumentListener(this);
+    }
+
+    /**
+     * Returns the style of a kind of token.
+     *
+     * @param kind the kind of the token
+     * @return its style, or <code>null</code> if it is plain text
+     * @since 1.1
+     */
+    public static AttributeSet getStyle(int kind) {
+        return STYLES[kind];
+    }
+
+    /**
+     * Sets the lines that are visible, whose tokens are kept, and starts
+     * splitting the ones whose tokens are missing.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param first the first visible line
+     * @param last the last visible line
+     * @since 1.1
+     */
+    public void setVisibleLines(int first, int last) {
+        if (first == firstVisible && last == lastVisible) {
+            return;
+        }
+        firstVisible = first;
+        lastVisible = last;
+        visibleRuns.keySet().removeIf(line -> line < first || line > last);
+        scheduleLater();
+    }
+
+    /**
+     * Returns the tokens of a visible line.
+     * Must be called in the Event Dispatch Thread.
+     *
+     * @param line the line
+     * @return the runs of the line, as pairs of the start and the kind of
+     *         every run, or <code>null</code> if they are not known yet
+     * @since 1.1
+     */
+    public int[] getRuns(int line) {
+        LineRuns runs = visibleRuns.get(line);
+        return (runs != null) ? runs.runs : null;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Makes the changed lines dirty, shifting the states, the dirty
+     * lines and the runs of the lines after them.
+     */
+    private void linesChanged(DocumentEvent e) {
+        Element root = document.getDefaultRootElement();
+        DocumentEvent.ElementChange ec = e.getChange(root);
+        int index;
+        int removed;
+        int added;
+        if (ec != null) {
+            index = ec.getIndex();
+            removed = ec.getChildrenRemoved().length;
+            added = ec.getChildrenAdded().length;
+        } else {
+            index = root.getElementIndex(e.getOffset());
+            removed = 1;
+            added = 1;
+        }
+        int shift = added - removed;
+
+        // The state before the first line has not changed, and the one
+        // after the last is kept to know when the new state converges
+        states.replace(index + 1, removed - 1, added - 1);
+
+        for (int i = 0; i < dirty.size(); i++) {
+            int[] range = dirty.get(i);
+            if (range[0] >= index + removed) {
+                range[0] += shift;
+                range[1] += shift;
+            } else if (range[1] > index) {
+                range[0] = Math.min(range[0], index);
+                range[1] = (range[1] > index + removed) ? range[1] + shift : index + added;
+            }
+        }
+        markDirty(index, index + added);
+
+        HashMap<Integer, LineRuns> shifted = new HashMap<>();
+        for (Map.Entry<Integer, LineRuns> entry : visibleRuns.entrySet()) {
+            int line = entry.getKey();
+            if (line < index) {
+                shifted.put(line, entry.getValue());
+            } else if (line >= index + removed) {
+                shifted.put(line + shift, entry.getValue());
+            } else if (line == index) {
+                // Shown as it was until the line has been split again
+                entry.getValue().stale = true;
+                shifted.put(line, entry.getValue());
+            }
+        }
+        visibleRuns.clear();
+        visibleRuns.putAll(shifted);
+
+        firstEdited = Math.min(firstEdited, index);
+        scheduleLater();
+    }
+
+    /**
+     * Makes a range of lines dirty, joining it with the dirty ranges it touches.
+     */
+    private void markDirty(int from, int to) {
+        int i = 0;
+        while (i < dirty.size() && dirty.get(i)[1] < from) {
+            i++;
+        }
+        int[] range = {from, to};
+        while (i < dirty.size() && dirty.get(i)[0] <= to) {
+            int[] joined = dirty.remove(i);
+            range[0] = Math.min(range[0], joined[0]);
+            range[1] = Math.max(range[1], joined[1]);
+        }
+        dirty.add(i, range);
+    }
+
+    /**
+     * Makes a range of lines clean, splitting the dirty ranges that it cuts.
+     */
+    private void clearDirty(int from, int to) {
+        for (int i = 0; i < dirty.size(); i++) {
+            int[] range = dirty.get(i);
+            if (range[1] <= from || range[0] >= to) {
+                continue;
+            }
+            if (range[0] < from && range[1] > to) {
+                dirty.add(i + 1, new int[] {to, range[1]});
+                range[1] = from;
+                return;
+            }
+            if (range[0] < from) {
+                range[1] = from;
+            } else if (range[1] > to) {
+                range[0] = to;
+            } else {
+                dirty.remove(i--);
+            }
+        }
+    }
+
+    /**
+     * Returns the first dirty line, which is the last line whose state is known.
+     */
+    private int firstDirty() {
+        return dirty.isEmpty() ? states.size() : dirty.get(0)[0];
+    }
+
+    /**
+     * Returns whether the tokens of a line are missing or out of date.
+     */
+    private boolean needsRuns(int line) {
+        LineRuns runs = visibleRuns.get(line);
+        return runs == null || runs.stale || runs.state != states.get(line);
+    }
+
+    /**
+     * Starts the next batch once the current event has been handled,
+     * so the edits of a single event, or the chunks of a file that are
+     * appended at once, are split by a single batch.
+     */
+    private void scheduleLater() {
+        if (!scheduled) {
+            scheduled = true;
+            SwingUtilities.invokeLater(() -> {
+                scheduled = false;
+                schedule();
+            });
+        }
+    }
+
+    /**
+     * Starts a batch in the background, unless one is already
+     * running or there is nothing to split.
+     */
+    private void schedule() {
+        if (running || disposed) {
+            return;
+        }
+        Element root = document.getDefaultRootElement();
+        int lineCount = states.size();
+        int from = firstDirty();
+
+        // The visible lines before the first dirty one, which are
+        // clean, are split only if their tokens are needed
+        ArrayList<Integer> requested = new ArrayList<>();
+        for (int line = Math.max(0, firstVisible); line <= Math.min(lastVisible, from - 1); line++) {
+            if (needsRuns(line)) {
+                requested.add(line);
+            }
+        }
+        if (from >= lineCount && requested.isEmpty()) {
+            return;
+        }
+
+        Batch batch = new Batch(document.snapshot(), Math.min(BATCH_LINES, lineCount - from), from);
+        for (int k = 0; k < batch.count; k++) {
+            Element line = root.getElement(from + k);
+            batch.starts[k] = line.getStartOffset();
+            batch.ends[k] = line.getEndOffset() - 1;
+            batch.states[k] = states.get(from + k);
+        }
+        batch.states[batch.count] = (from + batch.count < lineCount) ? states.get(from + batch.count) : UNKNOWN;
+        for (int k = 0; k < batch.count; k++) {
+            batch.dirty[k] = k == 0 || isDirty(from + k);
+        }
+        batch.requested = new int[requested.size()][];
+        for (int i = 0; i < requested.size(); i++) {
+            int line = requested.get(i);
+            Element element = root.getElement(line);
+            batch.requested[i] = new int[] {line, element.getStartOffset(), element.getEndOffset() - 1, states.get(line)};
+        }
+        batch.firstVisible = firstVisible;
+        batch.lastVisible = lastVisible;
+
+        running = true;
+        firstEdited = Integer.MAX_VALUE;
+        SPLITTER.execute(() -> {
+            batch.run();
+            SwingUtilities.invokeLater(() -> finished(batch));
+        });
+    }
+
+    private boolean isDirty(int line) {
+        for (int[] range : dirty) {
+            if (line < range[0]) {
+                return false;
+            } else if (line < range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the results of a batch, unless an edit has changed
+     * one of its lines meanwhile, and starts the next one.
+     */
+    private void finished(Batch batch) {
+        running = false;
+        if (disposed) {
+            return;
+        }
+        if (batch.failure != null) {
+            // A lexer that fails would keep failing on the same line
+            dispose();
+            visibleRuns.clear();
+            host.repaint();
+            return;
+        }
+        if (firstEdited > batch.lastLine()) {
+            int from = batch.from;
+            int lineCount = states.size();
+            for (int k = 1; k <= batch.processed && from + k < lineCount; k++) {
+                states.set(from + k, batch.states[k]);
+            }
+            clearDirty(from, from + batch.processed);
+            if (batch.dirty[batch.processed] && from + batch.processed < lineCount) {
+                markDirty(from + batch.processed, from + batch.processed + 1);
+            }
+            boolean repaint = false;
+            for (Map.Entry<Integer, LineRuns> entry : batch.runs.entrySet()) {
+                int line = entry.getKey();
+                if (line >= firstVisible && line <= lastVisible) {
+                    visibleRuns.put(line, entry.getValue());
+                    repaint = true;
+                }
+            }
+            if (repaint) {
+                host.repaint();
+            }
+        }
+        schedule();
+    }
+
+    private static AttributeSet[] createStyles() {
+        StyleContext context = new StyleContext();
+        AttributeSet[] styles = new AttributeSet[Lexer.TOKEN_KINDS];
+        Color[] colors = new Color[Lexer.TOKEN_KINDS];
+        colors[Lexer.KEY] = new Color(0x871094);
+        colors[Lexer.STRING] = new Color(0x067D17);
+        colors[Lexer.NUMBER] = new Color(0x1750EB);
+        colors[Lexer.KEYWORD] = new Color(0x0033B3);
+        colors[Lexer.COMMENT] = new Color(0x8C8C8C);
+        colors[Lexer.TIMESTAMP] = new Color(0x00627A);
+        colors[Lexer.ERROR] = new Color(0xC00000);
+        colors[Lexer.WARNING] = new Color(0xA05A00);
+        colors[Lexer.INFO] = new Color(0x2E7D32);
+        colors[Lexer.DEBUG] = new Color(0x7F7F7F);
+        for (int kind = 0; kind < Lexer.TOKEN_KINDS; kind++) {
+            if (colors[kind] != null) {
+                styles[kind] = context.addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, colors[kind]);
+            }
+        }
+        return styles;
+    }
+
+    /**
+     * The tokens of a visible line, along with the state they were split in.
+     */
+    private static final class LineRuns {
+        final int state;
+        final int[] runs; // null if the line is too long
+        boolean stale;
+
+        LineRuns(int state, int[] runs) {
+            this.state = state;
+            this.runs = runs;
+        }
+    }
+
+    /**
+     * <p>
+     * Lines to split in the background: the lines from the first dirty one,
+     * whose states are found, and the visible lines before them whose
+     * tokens are needed. Everything it needs from the document is read
+     * before it starts, and the text of its lines from a snapshot.
+     * <p>
+     * Only the dirty lines are split, along with the visible ones, so
+     * once the state has converged the rest of the batch is skipped,
+     * up to the next dirty line.
+     */
+    private final class Batch {
+        final PieceTableContent.Snapshot text;
+        final int count;
+        final int from;
+        final int[] starts;
+        final int[] ends;
+        // The state before every line of the batch and after the last one
+        final int[] states;
+        final boolean[] dirty;
+        int[][] requested; // {line, start, end, state}
+        int firstVisible;
+        int lastVisible;
+
+        int processed;
+        final HashMap<Integer, LineRuns> runs;
+        RuntimeException failure;
+
+        Batch(PieceTableContent.Snapshot text, int count, int from) {
+            this.text = text;
+            this.count = Math.max(0, count);
+            this.from = from;
+            this.starts = new int[this.count];
+            this.ends = new int[this.count];
+            this.states = new int[this.count + 1];
+            this.dirty = new boolean[this.count + 1];
+            this.runs = new HashMap<>();
+        }
+
+        /**
+         * Returns the last line that the batch depends on.
+         */
+        int lastLine() {
+            int last = (count > 0) ? from + processed : -1;
+            for (int[] line : requested) {
+                last = Math.max(last, line[0]);
+            }
+            return last;
+        }
+
+        void run() {
+            try {
+                Lexer.Runs tokens = new Lexer.Runs();
+                for (int[] line : requested) {
+                    tokens.reset(true);
+                    boolean split = split(line[1], line[2], line[3], tokens) != UNKNOWN;
+                    runs.put(line[0], new LineRuns(line[3], split ? tokens.toArray() : null));
+                }
+                long chars = 0;
+                for (int k = 0; k < count; k++) {
+                    if (k > 0 && chars >= BATCH_CHARS) {
+                        break;
+                    }
+                    int line = from + k;
+                    boolean visible = line >= firstVisible && line <= lastVisible;
+                    if (dirty[k] || visible) {
+                        tokens.reset(visible);
+                        int state = split(starts[k], ends[k], states[k], tokens);
+                        if (visible) {
+                            runs.put(line, new LineRuns(states[k], (state != UNKNOWN) ? tokens.toArray() : null));
+                        }
+                        if (state == UNKNOWN) {
+                            state = states[k];
+                        }
+                        if (dirty[k] && state != states[k + 1]) {
+                            states[k + 1] = state;
+                            dirty[k + 1] = true;
+                        }
+                        chars += ends[k] - starts[k];
+                    }
+                    processed = k + 1;
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Splits a line, returning the state after it, or <code>UNKNOWN</code>
+         * if it is too long to be split.
+         */
+        private int split(int start, int end, int state, Lexer.Runs tokens) {
+            int length = end - start;
+            if (length > MAX_LINE_LENGTH) {
+                return UNKNOWN;
+            }
+            char[] buffer = BUFFER.get();
+            if (buffer.length < length) {
+                buffer = new char[Math.max(length, buffer.length * 2)];
+                BUFFER.set(buffer);
+            }
+            text.getChars(start, end, buffer, 0);
+            return lexer.tokenize(buffer, 0, length, state, tokens);
+        }
+    }
+
+    /**
+     * The state before every line, in an array with a gap at the last
+     * edited line, the same way {@link LineIndex} keeps the line starts,
+     * so an edit that adds or removes lines only moves the states between
+     * the previous edit and this one.
+     */
+    private static final class LineStates {
+        private static final int MIN_GAP = 16;
+
+        private int[] states;
+        private int gapStart;
+        private int gapEnd;
+
+        LineStates(int size) {
+            states = new int[size + MIN_GAP];
+            Arrays.fill(states, 0, size, UNKNOWN);
+            gapStart = size;
+            gapEnd = states.length;
+        }
+
+        int size() {
+            return states.length - (gapEnd - gapStart);
+        }
+
+        int get(int line) {
+            return states[(line < gapStart) ? line : line + gapEnd - gapStart];
+        }
+
+        void set(int line, int state) {
+            states[(line < gapStart) ? line : line + gapEnd - gapStart] = state;
+        }
+
+        /**
+         * Replaces some lines with lines whose state is unknown.
+         */
+        void replace(int line, int removed, int added) {
+            moveGap(line);
+            gapEnd += removed;
+            if (gapEnd - gapStart < added) {
+                int size = size();
+                int[] grown = new int[Math.max(states.length * 2, size + added + MIN_GAP)];
+                int after = states.length - gapEnd;
+                System.arraycopy(states, 0, grown, 0, gapStart);
+                System.arraycopy(states, gapEnd, grown, grown.length - after, after);
+                gapEnd = grown.length - after;
+                states = grown;
+            }
+            Arrays.fill(states, gapStart, gapStart + added, UNKNOWN);
+            gapStart += added;
+        }
+
+        private void moveGap(int line) {
+            if (line < gapStart) {
+                int moved = gapStart - line;
+                System.arraycopy(states, line, states, gapEnd - moved, moved);
+                gapStart = line;
+                gapEnd -= moved;
+            } else if (line > gapStart) {
+                int moved = line - gapStart;
+                System.arraycopy(states, gapEnd, states, gapStart, moved);
+                gapStart = line;
+                gapEnd += moved;
+            }
+        }
+    }
+}
@@ -0,0 +1,565 @@
+import javax.swing.SwingWorker;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Searches a snapshot of the document in a background thread,
+ * so even a search over gigabytes of text never blocks the editor.
+ * There are three kinds of search: the next match after a position,
+ * which wraps around to the start of the text, all the matches, which
+ * are reported in batches while they are found, and all the matches
+ * together with the text that replaces them.
+ * <p>
+ * The text is never copied as a whole. A literal search copies the text
+ * in chunks into the same buffer and scans them with the Boyer-Moore-Horspool
+ * algorithm, which skips ahead by up to the length of the searched string
+ * after a mismatch. A regular expression is matched through a window that
+ * copies a chunk of the text every time the matcher moves out of it.
+ * <p>
+ * The text must not change while it is searched, so it is usually a
+ * snapshot of the document. The search stops as soon as the worker
+ * is cancelled.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class TextSearch extends SwingWorker<TextSearch.Result, int[]> {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int BATCH_SIZE = 1024; // Matches reported at once
+
+    private final CharSequence text;
+    private final Query query;
+    private final int from;
+    private final boolean all;
+    private final String replacement;
+
+    private int[] batch;
+    private int batchLength;
+
+    private TextSearch(CharSequence text, Query query, int from, boolean all, String replacement) {
+        this.text = text;
+        this.query = query;
+        this.from = from;
+        this.all = all;
+        this.replacement = replacement;
+    }
+
+    /**
+     * Creates a search for the first non empty match after a position.
+     * If there is none, the search continues from the start of the text.
+     *
+     * @param text the text to search, which must not change meanwhile
+     * @param query what to search for
+     * @param from the position to start from
+     * @return the search, which has not been started yet
+     * @since 1.1
+     */
+    public static TextSearch findNext(CharSequence text, Query query, int from) {
+        return new TextSearch(text, query, Math.min(from, text.length()), false, null);
+    }
+
+    /**
+     * Creates a search for all the non empty matches of the text.
+     * The matches are reported through the <code>matches</code> property
+     * while they are found, as arrays with the start and the end of every match.
+     *
+     * @param text the text to search, which must not change meanwhile
+     * @param query what to search for
+     * @return the search, which has not been started yet
+     * @since 1.1
+     */
+    public static TextSearch findAll(CharSequence text, Query query) {
+        return new TextSearch(text, query, 0, true, null);
+    }
+
+    /**
+     * Creates a search that replaces all the matches of the text.
+     * The result holds the range from the start of the first match to the
+     * end of the last one and the text that replaces the whole range, so
+     * the document can be changed with a single replacement.
+     * <p>
+     * For a regular expression, the replacement may refer to the groups
+     * of the match, like in <code>Matcher.replaceAll</code>.
+     *
+     * @param text the text to search, which must not change meanwhile
+     * @param query what to search for
+     * @param replacement the text that replaces every match
+     * @return the search, which has not been started yet
+     * @since 1.1
+     */
+    public static TextSearch replaceAll(CharSequence text, Query query, String replacement) {
+        return new TextSearch(text, query, 0, true, replacement);
+    }
+
+    /**
+     * Searches the text.
+     *
+     * @return the result of the search
+     * @throws IllegalArgumentException if the replacement refers to a group that does not exist
+     * @since 1.1
+     */
+    @Override
+    protected Result doInBackground() {
+        Result result = new Result();
+        if (replacement != null) {
+            result.replaced = new StringBuilder();
+        }
+        batch = new int[2 * BATCH_SIZE];
+        batchLength = 0;
+        try {
+            if (query.pattern != null) {
+                searchPattern(result);
+            } else {
+                searchLiteral(result);
+            }
+        } catch (CancellationException e) {
+            return null;
+        }
+        flush();
+        if (result.replaced != null && result.count > 0) {
+            result.replacedText = result.replaced.toString();
+        }
+        result.replaced = null;
+        return result;
+    }
+
+    /**
+     * Searches for a literal string with the Boyer-Moore-Horspool algorithm.
+     */
+    private void searchLiteral(Result result) {
+        int length = text.length();
+        if (!scanLiteral(result, from, length) && !all) {
+            // Wrap around, to the matches that end before the end of the first part
+            scanLiteral(result, 0, Math.min(length, from + query.needle.length - 1));
+        }
+    }
+
+    /**
+     * Scans a range of the text, a chunk at a time.
+     * Consecutive chunks overlap by the length of the string minus one,
+     * so a match that crosses the border of two chunks is found as well.
+     *
+     * @return <code>true</code> if the search should stop
+     */
+    private boolean scanLiteral(Result result, int start, int end) {
+        char[] needle = query.needle;
+        int m = needle.length;
+        char[] buffer = new char[Math.max(CHUNK_SIZE, 2 * m)];
+        int position = start;
+        int next = start; // Where the next match may start, so matches do not overlap
+        while (end - position >= m) {
+            checkCancelled();
+            int count = Math.min(buffer.length, end - position);
+            copyChars(position, position + count, buffer);
+            if (!query.matchCase) {
+                for (int i = 0; i < count; i++) {
+                    buffer[i] = Query.fold(buffer[i]);
+                }
+            }
+            int i = Math.max(0, next - position);
+            while ((i = query.indexIn(buffer, i, count)) >= 0) {
+                if (report(result, position + i, position + i + m)) {
+                    return true;
+                }
+                i += m;
+                next = position + i;
+            }
+            if (position + count == end) {
+                break;
+            }
+            position = Math.max(position + count - m + 1, next);
+            setProgress((int) ((position - start) * 100L / Math.max(1, end - start)));
+        }
+        return false;
+    }
+
+    /**
+     * Searches for a regular expression through a window over the text.
+     */
+    private void searchPattern(Result result) {
+        Matcher matcher = query.pattern.matcher(new Window());
+        // The position to start from is not the start of a line,
+        // and the matcher may look at the text before it
+        matcher.useAnchoringBounds(false);
+        matcher.useTransparentBounds(true);
+        int length = text.length();
+        matcher.region(from, length);
+        if (findPattern(result, matcher, from, length) || all) {
+            return;
+        }
+        // Wrap around. Every match after the position has been
+        // found, so the first match of the text comes before it
+        matcher.region(0, length);
+        findPattern(result, matcher, 0, length);
+    }
+
+    /**
+     * @return <code>true</code> if the search should stop
+     */
+    private boolean findPattern(Result result, Matcher matcher, int start, int end) {
+        while (matcher.find()) {
+            if (matcher.end() > matcher.start() || replacement != null) {
+                if (report(result, matcher.start(), matcher.end())) {
+                    return true;
+                }
+                if (replacement != null) {
+                    appendReplacement(result.replaced, matcher);
+                }
+            }
+            setProgress((int) ((matcher.end() - start) * 100L / Math.max(1, end - start)));
+        }
+        return false;
+    }
+
+    /**
+     * Reports a match and, if the matches are replaced, copies
+     * the text between it and the previous match.
+     *
+     * @return <code>true</code> if the search should stop
+     */
+    private boolean report(Result result, int start, int end) {
+        if (result.count == 0) {
+            result.start = start;
+            result.end = start;
+        }
+        if (result.replaced != null) {
+            appendText(result.replaced, result.end, start);
+            if (query.pattern == null) {
+                result.replaced.append(replacement);
+            }
+        }
+        result.count++;
+        result.end = end;
+        if (!all) {
+            return true;
+        }
+        if (replacement == null) {
+            batch[batchLength++] = start;
+            batch[batchLength++] = end;
+            if (batchLength == batch.length) {
+                flush();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands the matches that have been found to the listeners of the
+     * <code>matches</code> property, in the Event Dispatch Thread.
+     *
+     * @param chunks arrays with the start and the end of every match
+     * @since 1.1
+     */
+    @Override
+    protected void process(List<int[]> chunks) {
+        for (int[] matches : chunks) {
+            firePropertyChange("matches", null, matches);
+        }
+    }
+
+    private void flush() {
+        if (batchLength > 0) {
+            int[] matches = new int[batchLength];
+            System.arraycopy(batch, 0, matches, 0, batchLength);
+            publish(matches);
+            batchLength = 0;
+        }
+    }
+
+    /**
+     * Appends the replacement of a regular expression match, where
+     * <code>$n</code> and <code>${name}</code> are replaced by the groups
+     * of the match and a backslash escapes the next character,
+     * like in <code>Matcher.appendReplacement</code>.
+     */
+    private void appendReplacement(StringBuilder out, Matcher matcher) {
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i++);
+            if (c == '\\' && i < replacement.length()) {
+                out.append(replacement.charAt(i++));
+            }
+            else if (c == '$' && i < replacement.length()) {
+                String group;
+                if (replacement.charAt(i) == '{') {
+                    int close = replacement.indexOf('}', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Named group is missing trailing '}'");
+                    }
+                    group = matcher.group(replacement.substring(i + 1, close));
+                    i = close + 1;
+                }
+                else {
+                    int number = Character.digit(replacement.charAt(i), 10);
+                    if (number < 0 || number > matcher.groupCount()) {
+                        throw new IllegalArgumentException("No group " + replacement.charAt(i));
+                    }
+                    i++;
+                    // Following digits belong to the number as long as it is a group
+                    while (i < replacement.length() && Character.isDigit(replacement.charAt(i))) {
+                        int longer = number * 10 + Character.digit(replacement.charAt(i), 10);
+                        if (longer > matcher.groupCount()) {
+                            break;
+                        }
+                        number = longer;
+                        i++;
+                    }
+                    group = matcher.group(number);
+                }
+                if (group != null) {
+                    out.append(group);
+                }
+            }
+            else {
+                out.append(c);
+            }
+        }
+    }
+
+    private void appendText(StringBuilder out, int start, int end) {
+        char[] chunk = new char[Math.min(CHUNK_SIZE, end - start)];
+        for (int position = start; position < end; position += chunk.length) {
+            int count = Math.min(chunk.length, end - position);
+            copyChars(position, position + count, chunk);
+            out.append(chunk, 0, count);
+        }
+    }
+
+    private void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Copies a range of the text into a buffer.
+     */
+    private void copyChars(int start, int end, char[] dst) {
+        if (text instanceof PieceTableContent.Snapshot) {
+            ((PieceTableContent.Snapshot) text).getChars(start, end, dst, 0);
+        } else if (text instanceof String) {
+            ((String) text).getChars(start, end, dst, 0);
+        } else {
+            for (int i = start; i < end; i++) {
+                dst[i - start] = text.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * The text as seen by the matcher of a regular expression. Only a chunk
+     * of the text is copied at a time, starting a little before the position
+     * the matcher asks for, as the matcher also looks at the characters
+     * before the ones it is matching.
+     */
+    private final class Window implements CharSequence {
+        private final char[] chunk = new char[CHUNK_SIZE];
+        private int start = 0;
+        private int end = 0;
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < start || index >= end) {
+                checkCancelled();
+                start = Math.max(0, index - CHUNK_SIZE / 4);
+                end = Math.min(text.length(), start + CHUNK_SIZE);
+                copyChars(start, end, chunk);
+            }
+            return chunk[index - start];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            StringBuilder sequence = new StringBuilder(to - from);
+            appendText(sequence, from, to);
+            return sequence.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    /**
+     * What to search for: a literal string or a regular expression,
+     * matching the case of the letters or not.
+     */
+    public static final class Query {
+        private final String text;
+        private final boolean regex;
+        private final boolean matchCase;
+        private final Pattern pattern;
+        private final char[] needle;
+        private final int[] shifts;
+
+        /**
+         * Constructor.
+         *
+         * @param text the string or the regular expression to search for
+         * @param regex <code>true</code> if the text is a regular expression
+         * @param matchCase <code>true</code> if the case of the letters must match
+         * @throws java.util.regex.PatternSyntaxException if the regular expression is not valid
+         * @throws IllegalArgumentException if the text is empty
+         * @since 1.1
+         */
+        public Query(String text, boolean regex, boolean matchCase) {
+            if (text.isEmpty()) {
+                throw new IllegalArgumentException("Nothing to search for");
+            }
+            this.text = text;
+            this.regex = regex;
+            this.matchCase = matchCase;
+            if (regex) {
+                pattern = Pattern.compile(text, Pattern.MULTILINE
+                        | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+                needle = null;
+                shifts = null;
+            } else {
+                pattern = null;
+                needle = text.toCharArray();
+                if (!matchCase) {
+                    for (int i = 0; i < needle.length; i++) {
+                        needle[i] = fold(needle[i]);
+                    }
+                }
+                // How far the search can skip, by the low byte of the last
+                // character it compared. Characters that share a low byte
+                // share an entry, which keeps the smallest of their shifts
+                shifts = new int[256];
+                Arrays.fill(shifts, needle.length);
+                for (int i = 0; i < needle.length - 1; i++) {
+                    shifts[needle[i] & 0xFF] = needle.length - 1 - i;
+                }
+            }
+        }
+
+        /**
+         * Returns the string or the regular expression that is searched for.
+         *
+         * @return the text of the query
+         * @since 1.1
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Returns whether the text is a regular expression.
+         *
+         * @return <code>true</code> for a regular expression
+         * @since 1.1
+         */
+        public boolean isRegex() {
+            return regex;
+        }
+
+        /**
+         * Returns whether the case of the letters must match.
+         *
+         * @return <code>true</code> if the search is case sensitive
+         * @since 1.1
+         */
+        public boolean isMatchCase() {
+            return matchCase;
+        }
+
+        /**
+         * Finds the string in a buffer whose characters have already been folded.
+         *
+         * @return the index of the match, or -1 if there is none
+         */
+        private int indexIn(char[] buffer, int from, int to) {
+            int last = needle.length - 1;
+            char lastChar = needle[last];
+            int i = from;
+            while (i + last < to) {
+                char c = buffer[i + last];
+                if (c == lastChar) {
+                    int j = last - 1;
+                    while (j >= 0 && buffer[i + j] == needle[j]) {
+                        j--;
+                    }
+                    if (j < 0) {
+                        return i;
+                    }
+                }
+                i += shifts[c & 0xFF];
+            }
+            return -1;
+        }
+
+        /**
+         * Folds the case of a character, the same way
+         * as <code>String.equalsIgnoreCase</code>.
+         */
+        private static char fold(char c) {
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+    }
+
+    /**
+     * The result of a search.
+     */
+    public static final class Result {
+        private int count;
+        private int start;
+        private int end;
+        private StringBuilder replaced;
+        private String replacedText;
+
+        /**
+         * Returns the number of matches that were found.
+         *
+         * @return the number of matches
+         * @since 1.1
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the start of the match that was found by a search for the
+         * next match, or the start of the first match for the other searches.
+         *
+         * @return the start offset
+         * @since 1.1
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the end of the match that was found by a search for the
+         * next match, or the end of the last match for the other searches.
+         *
+         * @return the end offset
+         * @since 1.1
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the text that replaces the range from the
+         * start of the first match to the end of the last one.
+         *
+         * @return the replacement of the range, or <code>null</code>
+         *         if the matches were not replaced or there were none
+         * @since 1.1
+         */
+        public String getReplacedText() {
+            return replacedText;
+        }
+    }
+}
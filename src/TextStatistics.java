@@ -0,0 +1,478 @@
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.EventListenerList;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * <p>
+ * Keeps the statistics of a document up to date while it is edited,
+ * so they can be read at any time without going over the whole text.
+ * <p>
+ * The statistics are the same as the ones the "Statistics" operation
+ * has always shown, which were computed on the trimmed text
+ * (without the characters up to ' ' at its start and end):
+ * <ul>
+ *     <li>Words: the parts of the trimmed text between whitespace</li>
+ *     <li>Characters: the length of the whole text</li>
+ *     <li>Characters (no spaces): the same, without the ' ' characters</li>
+ *     <li>Paragraphs: the parts of the trimmed text between two or more '\n'</li>
+ * </ul>
+ * Instead of splitting the text, every position of the text is checked
+ * for the start of a word (a non-whitespace character after a whitespace one)
+ * and for the end of a paragraph break (a character other than '\n' after
+ * two '\n'). Both only depend on the character and the two before it, so
+ * an edit changes only the marks of the edited range and of the two
+ * characters after it. The words of the trimmed text are then the marks
+ * between its first and last character plus one, and the same goes for
+ * the paragraphs.
+ * <p>
+ * The first and last characters of the trimmed text, and the marks outside
+ * them, are found again only when an edit touches the whitespace at the
+ * start or the end of the text. The whole text is counted only the first
+ * time the statistics are read, and if a removal cannot be seen. Large
+ * documents are then counted in parallel by {@link ParallelStatistics},
+ * unless they still hold the text of a mapped file whose statistics are
+ * already known, from the {@link IndexCache} or from a background count.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class TextStatistics implements DocumentListener {
+
+    static final char NONE = '\0'; // Stands for the characters before the text
+    private static final int CHUNK_SIZE = 4096;
+
+    private final Document document;
+    private final Segment segment;
+    private final EventListenerList listeners;
+
+    private boolean counted;
+    private int spaces;
+    private int significant; // Characters that trimming keeps
+    private int wordStarts;
+    private int paragraphBreaks;
+
+    // First and last characters of the trimmed text
+    // and the marks before and after them, -1 if unknown
+    private int first;
+    private int leadingWordStarts;
+    private int leadingParagraphBreaks;
+    private int last;
+    private int trailingWordStarts;
+    private int trailingParagraphBreaks;
+
+    /**
+     * Constructor.
+     * Starts following the changes of the document.
+     *
+     * @param document the document to keep the statistics of
+     * @since 1.1
+     */
+    public TextStatistics(Document document) {
+        this.document = document;
+        this.segment = new Segment();
+        this.listeners = new EventListenerList();
+        this.counted = false;
+        this.first = -1;
+        this.last = -1;
+        document.addDocumentListener(this);
+    }
+
+    /**
+     * Stops following the changes of the document.
+     *
+     * @since 1.1
+     */
+    public void dispose() {
+        document.removeDocumentListener(this);
+    }
+
+    /**
+     * Returns the document that the statistics are kept for.
+     *
+     * @return the document
+     * @since 1.1
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Adds a listener that is notified every time the statistics change.
+     *
+     * @param listener the listener
+     * @since 1.1
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(ChangeListener.class, listener);
+    }
+
+    /**
+     * Removes a listener that was added with <code>addChangeListener</code>.
+     *
+     * @param listener the listener
+     * @since 1.1
+     */
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(ChangeListener.class, listener);
+    }
+
+    /**
+     * Returns the number of words.
+     *
+     * @return the number of words
+     * @since 1.1
+     */
+    public int getWords() {
+        ensureCounted();
+        if (significant == 0) {
+            return 0;
+        }
+        ensureEdges();
+        return 1 + wordStarts - leadingWordStarts - trailingWordStarts;
+    }
+
+    /**
+     * Returns the number of characters.
+     *
+     * @return the number of characters
+     * @since 1.1
+     */
+    public int getCharacters() {
+        return document.getLength();
+    }
+
+    /**
+     * Returns the number of characters that are not ' '.
+     *
+     * @return the number of characters without spaces
+     * @since 1.1
+     */
+    public int getNonSpaceCharacters() {
+        ensureCounted();
+        return document.getLength() - spaces;
+    }
+
+    /**
+     * Returns the number of paragraphs.
+     *
+     * @return the number of paragraphs
+     * @since 1.1
+     */
+    public int getParagraphs() {
+        ensureCounted();
+        if (significant == 0) {
+            return 0;
+        }
+        ensureEdges();
+        return 1 + paragraphBreaks - leadingParagraphBreaks - trailingParagraphBreaks;
+    }
+
+    /**
+     * Updates the statistics with the inserted text and
+     * the two characters after it, which now follow different characters.
+     *
+     * @param e the insertion event
+     * @since 1.1
+     */
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (counted) {
+            int offset = e.getOffset();
+            int length = e.getLength();
+            int after = offset + length;
+            int end = Math.min(document.getLength(), after + 2);
+
+            Tally before = new Tally(charAt(offset - 2), charAt(offset - 1));
+            Tally inserted = new Tally(charAt(offset - 2), charAt(offset - 1));
+            scan(offset, after, inserted);
+            spaces += inserted.spaces;
+            significant += inserted.significant;
+            for (int i = after; i < end; i++) {
+                char c = charAt(i);
+                before.add(c);
+                inserted.add(c);
+            }
+            wordStarts += inserted.wordStarts - before.wordStarts;
+            paragraphBreaks += inserted.paragraphBreaks - before.paragraphBreaks;
+
+            if (offset <= first) {
+                first = -1;
+            }
+            if (offset > last) {
+                last = -1;
+            } else if (last >= 0) {
+                last += length;
+            }
+            forgetEdgesIfBlank();
+        }
+        fireStateChanged();
+    }
+
+    /**
+     * Updates the statistics with the removed text and
+     * the two characters after it, which now follow different characters.
+     * If the removed text cannot be seen, or if it is longer than what
+     * remains, the remaining text will be counted again instead.
+     *
+     * @param e the removal event
+     * @since 1.1
+     */
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (counted) {
+            int offset = e.getOffset();
+            int length = e.getLength();
+            CharSequence removed = (document instanceof PieceTableDocument)
+                    ? ((PieceTableDocument) document).getRemovedText(e) : null;
+
+            if (removed == null || length > document.getLength()) {
+                counted = false;
+            } else {
+                int end = Math.min(document.getLength(), offset + 2);
+                Tally before = new Tally(charAt(offset - 2), charAt(offset - 1));
+                Tally after = new Tally(charAt(offset - 2), charAt(offset - 1));
+                for (int i = 0; i < length; i++) {
+                    before.add(removed.charAt(i));
+                }
+                spaces -= before.spaces;
+                significant -= before.significant;
+                for (int i = offset; i < end; i++) {
+                    char c = charAt(i);
+                    before.add(c);
+                    after.add(c);
+                }
+                wordStarts += after.wordStarts - before.wordStarts;
+                paragraphBreaks += after.paragraphBreaks - before.paragraphBreaks;
+
+                if (offset <= first) {
+                    first = -1;
+                }
+                if (offset + length <= last) {
+                    last -= length;
+                } else {
+                    last = -1;
+                }
+                forgetEdgesIfBlank();
+            }
+        }
+        fireStateChanged();
+    }
+
+    /**
+     * Plain text has no attributes, so nothing to update.
+     *
+     * @param e the change event
+     * @since 1.1
+     */
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Counts the whole text, if it has not been counted yet.
+     */
+    private void ensureCounted() {
+        if (counted) {
+            return;
+        }
+        Metrics.Sample sample = Metrics.start(Metrics.Operation.STATISTICS);
+        Tally tally = knownTally();
+        if (tally == null && document instanceof PieceTableDocument
+                && document.getLength() >= ParallelStatistics.PARALLEL_LENGTH) {
+            // A large document, probably a file that was just opened,
+            // is counted with all the cores of the machine
+            tally = ParallelStatistics.count(((PieceTableDocument) document).snapshot());
+        } else if (tally == null) {
+            tally = new Tally(NONE, NONE);
+            scan(0, document.getLength(), tally);
+        }
+        spaces = tally.spaces;
+        significant = tally.significant;
+        wordStarts = tally.wordStarts;
+        paragraphBreaks = tally.paragraphBreaks;
+        first = -1;
+        last = -1;
+        counted = true;
+        Metrics.stop(sample, 0);
+    }
+
+    /**
+     * Returns the statistics of the mapped file that the
+     * document holds, if it is unedited and they are known.
+     */
+    private Tally knownTally() {
+        if (!(document instanceof PieceTableDocument)) {
+            return null;
+        }
+        PieceTableContent content = ((PieceTableDocument) document).getPieceTable();
+        if (content.getOriginal() instanceof MappedText && content.holdsOriginal()) {
+            return ((MappedText) content.getOriginal()).getStatistics();
+        }
+        return null;
+    }
+
+    /**
+     * Finds the first and last characters of the trimmed text,
+     * if they are not known, along with the marks outside them.
+     * Only the whitespace at the start and the end of the text is read.
+     */
+    private void ensureEdges() {
+        if (first < 0) {
+            Tally leading = new Tally(NONE, NONE);
+            int offset = 0;
+            char c;
+            do {
+                c = charAt(offset++);
+                leading.add(c);
+            } while (c <= ' ');
+            first = offset - 1;
+            leadingWordStarts = leading.wordStarts;
+            leadingParagraphBreaks = leading.paragraphBreaks;
+        }
+        if (last < 0) {
+            int offset = document.getLength();
+            int start;
+            do {
+                start = Math.max(0, offset - CHUNK_SIZE);
+                text(start, offset - start, false);
+                int i = segment.count;
+                while (i > 0 && segment.array[segment.offset + i - 1] <= ' ') {
+                    i--;
+                }
+                offset = start + i;
+            } while (offset == start);
+            last = offset - 1;
+            Tally trailing = new Tally(charAt(last - 1), charAt(last));
+            scan(last + 1, document.getLength(), trailing);
+            trailingWordStarts = trailing.wordStarts;
+            trailingParagraphBreaks = trailing.paragraphBreaks;
+        }
+    }
+
+    /**
+     * A text without characters to keep has no edges.
+     */
+    private void forgetEdgesIfBlank() {
+        if (significant == 0) {
+            first = -1;
+            last = -1;
+        }
+    }
+
+    /**
+     * Adds a range of the document to a tally.
+     */
+    private void scan(int from, int to, Tally tally) {
+        segment.setPartialReturn(true);
+        while (from < to) {
+            text(from, to - from, true);
+            tally.add(segment.array, segment.offset, segment.count);
+            from += segment.count;
+        }
+    }
+
+    /**
+     * Returns a character of the document, or <code>NONE</code>
+     * for the characters before its start.
+     */
+    private char charAt(int offset) {
+        if (offset < 0) {
+            return NONE;
+        }
+        text(offset, 1, false);
+        return segment.array[segment.offset];
+    }
+
+    /**
+     * Reads a range of the document into the segment.
+     */
+    private void text(int offset, int length, boolean partial) {
+        segment.setPartialReturn(partial);
+        try {
+            document.getText(offset, length, segment);
+        } catch (BadLocationException e) {
+            // Should never happen, we only read inside the document
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Notifies the listeners that the statistics have changed.
+     */
+    private void fireStateChanged() {
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listeners.getListeners(ChangeListener.class)) {
+            listener.stateChanged(event);
+        }
+    }
+
+    /**
+     * Whitespace as the "\s" of regular expressions.
+     *
+     * @param c the character
+     * @return <code>true</code> if the character is whitespace
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    /**
+     * Counts the characters and the marks of consecutive
+     * characters, given the two characters before them.
+     */
+    static final class Tally {
+        int spaces;
+        int significant;
+        int wordStarts;
+        int paragraphBreaks;
+        private char beforePrevious;
+        private char previous;
+
+        Tally(char beforePrevious, char previous) {
+            this.beforePrevious = beforePrevious;
+            this.previous = previous;
+        }
+
+        void add(char c) {
+            if (c == ' ') {
+                spaces++;
+            }
+            if (c > ' ') {
+                significant++;
+            }
+            if (!isWhitespace(c) && isWhitespace(previous)) {
+                wordStarts++;
+            }
+            if (c != '\n' && previous == '\n' && beforePrevious == '\n') {
+                paragraphBreaks++;
+            }
+            beforePrevious = previous;
+            previous = c;
+        }
+
+        void add(char[] chars, int offset, int count) {
+            for (int i = offset; i < offset + count; i++) {
+                add(chars[i]);
+            }
+        }
+
+        /**
+         * Adds the counts of the tally of the characters that follow.
+         * Since every tally knows the characters before its own,
+         * the counts can simply be summed.
+         */
+        void add(Tally following) {
+            spaces += following.spaces;
+            significant += following.significant;
+            wordStarts += following.wordStarts;
+            paragraphBreaks += following.paragraphBreaks;
+            beforePrevious = following.beforePrevious;
+            previous = following.previous;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import org.junit.Test;
+
+import javax.swing.text.BadLocationException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>
+ * Whether a document is modified, as the tracker follows its edits,
+ * must be whether its whole text differs from the saved text, also when
+ * edits are undone, when a range is replaced with the same text and
+ * when the document is edited while it is being saved.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class DirtyTrackerTest {
+
+    private static final String ALPHABET = "ab \n";
+
+    @Test
+    public void tellsModifiedLikeTheWholeText() throws Exception {
+        Random random = new Random(1);
+        PieceTableDocument document = newDocument(random, 3 * DirtyTracker.BLOCK_SIZE + 1000);
+        DirtyTracker tracker = new DirtyTracker(document);
+        String saved = text(document);
+        Deque<Runnable> undos = new ArrayDeque<>();
+        for (int i = 0; i < 1000; i++) {
+            randomEdit(document, random, undos);
+            assertModified(saved, document, tracker);
+        }
+        // Undoing every edit brings the saved text back
+        while (!undos.isEmpty()) {
+            undos.pop().run();
+        }
+        assertEquals(saved, text(document));
+        assertModified(saved, document, tracker);
+    }
+
+    @Test
+    public void tellsModifiedAfterSaving() throws Exception {
+        Random random = new Random(2);
+        PieceTableDocument document = newDocument(random, 2 * DirtyTracker.BLOCK_SIZE + 1000);
+        DirtyTracker tracker = new DirtyTracker(document);
+        String saved = text(document);
+        Deque<Runnable> undos = new ArrayDeque<>();
+        for (int i = 0; i < 20; i++) {
+            for (int j = random.nextInt(10); j >= 0; j--) {
+                randomEdit(document, random, undos);
+            }
+            PieceTableContent.Snapshot snapshot = tracker.snapshot();
+            String saving = snapshot.toString();
+            // Edits while the snapshot is being written
+            for (int j = random.nextInt(10); j >= 0; j--) {
+                randomEdit(document, random, undos);
+                assertModified(saved, document, tracker);
+            }
+            tracker.markSaved(snapshot);
+            saved = saving;
+            assertModified(saved, document, tracker);
+            for (int j = random.nextInt(10); j >= 0 && !undos.isEmpty(); j--) {
+                undos.pop().run();
+                assertModified(saved, document, tracker);
+            }
+        }
+    }
+
+    @Test
+    public void staysModifiedWhenUnsaved() throws Exception {
+        PieceTableDocument document = newDocument(new Random(3), 1000);
+        DirtyTracker tracker = new DirtyTracker(document);
+        tracker.markUnsaved();
+        assertTrue(tracker.isModified());
+        document.insertString(0, "a", null);
+        document.remove(0, 1);
+        assertTrue(tracker.isModified());
+    }
+
+    /**
+     * Inserts, removes or replaces some text with the same text,
+     * often inside the same few places so that edits meet, and keeps
+     * how to undo it.
+     */
+    private static void randomEdit(PieceTableDocument document, Random random, Deque<Runnable> undos)
+            throws BadLocationException {
+        int length = document.getLength();
+        int where = Math.max(0, random.nextBoolean() ? random.nextInt(length + 1)
+                : Math.min(length, DirtyTracker.BLOCK_SIZE * random.nextInt(4) + random.nextInt(5) - 2));
+        int count = Math.min(length - where, 1 + random.nextInt(random.nextBoolean() ? 5 : 2000));
+        switch (random.nextInt(4)) {
+            case 0: {
+                String inserted = randomText(random, 1 + random.nextInt(5));
+                document.insertString(where, inserted, null);
+                undos.push(() -> remove(document, where, inserted.length()));
+                break;
+            }
+            case 1: {
+                String removed = document.getText(where, count);
+                document.remove(where, count);
+                undos.push(() -> insert(document, where, removed));
+                break;
+            }
+            case 2: {
+                // The text of the range stays the same
+                String same = document.getText(where, count);
+                document.remove(where, count);
+                document.insertString(where, same, null);
+                break;
+            }
+            default:
+                if (!undos.isEmpty()) {
+                    undos.pop().run();
+                }
+        }
+    }
+
+    private static void remove(PieceTableDocument document, int where, int count) {
+        try {
+            document.remove(where, count);
+        } catch (BadLocationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void insert(PieceTableDocument document, int where, String text) {
+        try {
+            document.insertString(where, text, null);
+        } catch (BadLocationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertModified(String saved, PieceTableDocument document, DirtyTracker tracker)
+            throws BadLocationException {
+        assertEquals(!saved.equals(text(document)), tracker.isModified());
+    }
+
+    private static PieceTableDocument newDocument(Random random, int length) throws BadLocationException {
+        PieceTableDocument document = new PieceTableDocument();
+        document.insertString(0, randomText(random, length), null);
+        return document;
+    }
+
+    private static String text(PieceTableDocument document) throws BadLocationException {
+        return document.getText(0, document.getLength());
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,183 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.SwingUtilities;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>
+ * Files that are opened and saved without an edit must come back byte
+ * for byte the same, even when their first bytes tell a wrong charset,
+ * whether they are read in chunks, memory mapped or decompressed.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileRoundTripTest {
+
+    private Path folder;
+    private String home;
+
+    @Before
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("oldschool-roundtrip");
+        // The indexes of the large files are kept there
+        home = System.getProperty("user.home");
+        System.setProperty("user.home", folder.toString());
+    }
+
+    @After
+    public void deleteFolder() throws IOException {
+        System.setProperty("user.home", home);
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void savesLateByteThatIsNotUtf8() throws Exception {
+        byte[] bytes = textWithLateByte(112895);
+        File file = write("late.txt", bytes);
+        PieceTableDocument document = load(file);
+        assertNotEquals(StandardCharsets.UTF_8, FileFormat.of(document).getCharset());
+        assertArrayEquals(bytes, Files.readAllBytes(save(document).toPath()));
+    }
+
+    @Test
+    public void savesLateByteThatIsNotUtf8OfMappedFile() throws Exception {
+        byte[] bytes = textWithLateByte((int) FileLoader.LARGE_FILE_SIZE + 1000);
+        File file = write("late.log", bytes);
+        for (int i = 0; i < 2; i++) {
+            // The second time with the index that was kept the first time
+            PieceTableDocument document = load(file);
+            assertTrue(document.getPieceTable().getOriginal() instanceof MappedText);
+            assertNotEquals(StandardCharsets.UTF_8, FileFormat.of(document).getCharset());
+            assertArrayEquals(bytes, Files.readAllBytes(save(document).toPath()));
+        }
+    }
+
+    @Test
+    public void savesLateByteThatIsNotUtf8OfCompressedFile() throws Exception {
+        byte[] bytes = textWithLateByte(112895);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        File file = write("late.txt.gz", compressed.toByteArray());
+        PieceTableDocument document = load(file);
+        assertTrue(document.getPieceTable().getOriginal() instanceof CompressedText);
+        assertArrayEquals(bytes, decompress(save(document)));
+    }
+
+    @Test
+    public void savesValidUtf8() throws Exception {
+        byte[] bytes = "café\r\nnaïve\r\n".getBytes(StandardCharsets.UTF_8);
+        File file = write("utf8.txt", bytes);
+        PieceTableDocument document = load(file);
+        assertEquals(StandardCharsets.UTF_8, FileFormat.of(document).getCharset());
+        assertEquals("café\nnaïve\n", document.getText(0, document.getLength()));
+        assertArrayEquals(bytes, Files.readAllBytes(save(document).toPath()));
+        assertEquals(null, document.getProperty(FileLoader.MIXED_LINE_BREAKS_PROPERTY));
+    }
+
+    @Test
+    public void tellsMixedLineBreaks() throws Exception {
+        File file = write("mixed.txt", "one\r\ntwo\nthree\r\n".getBytes(StandardCharsets.US_ASCII));
+        PieceTableDocument document = load(file);
+        assertEquals(Boolean.TRUE, document.getProperty(FileLoader.MIXED_LINE_BREAKS_PROPERTY));
+    }
+
+    @Test
+    public void keepsLoneCarriageReturns() throws Exception {
+        byte[] bytes = "one\r\ntwo\rthree\r\n".getBytes(StandardCharsets.US_ASCII);
+        File file = write("returns.txt", bytes);
+        PieceTableDocument document = load(file);
+        assertEquals(null, document.getProperty(FileLoader.MIXED_LINE_BREAKS_PROPERTY));
+        assertArrayEquals(bytes, Files.readAllBytes(save(document).toPath()));
+    }
+
+    @Test
+    public void refusesCharactersTheCharsetCannotEncode() throws Exception {
+        byte[] bytes = "café\n".getBytes(StandardCharsets.ISO_8859_1);
+        File file = write("latin.txt", bytes);
+        FileFormat format = new FileFormat(StandardCharsets.ISO_8859_1, new byte[0], "\n");
+        FileSaver saver = new FileSaver(file, "Łódź\n", format);
+        saver.execute();
+        try {
+            saver.get();
+            fail("Saved a character that ISO-8859-1 cannot encode");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CharacterCodingException);
+        }
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+        assertFalse(Arrays.stream(folder.toFile().list()).anyMatch(name -> name.endsWith(".tmp")));
+    }
+
+    /**
+     * Makes plain ASCII lines up to the given size, which end in a byte of ISO-8859-1.
+     */
+    private static byte[] textWithLateByte(int size) {
+        byte[] bytes = new byte[size];
+        byte[] line = "The quick brown fox jumps over the lazy dog\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < size; i++) {
+            bytes[i] = line[i % line.length];
+        }
+        byte[] end = "café\n".getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(end, 0, bytes, size - end.length, end.length);
+        return bytes;
+    }
+
+    private File write(String name, byte[] bytes) throws IOException {
+        return Files.write(folder.resolve(name), bytes).toFile();
+    }
+
+    private static PieceTableDocument load(File file) throws Exception {
+        FileLoader loader = new FileLoader(file, false);
+        loader.execute();
+        PieceTableDocument document = loader.get();
+        // The last chunks are appended in the Event Dispatch Thread
+        SwingUtilities.invokeAndWait(() -> { });
+        return document;
+    }
+
+    private File save(PieceTableDocument document) throws Exception {
+        File file = folder.resolve("saved-" + System.nanoTime()).toFile();
+        FileSaver saver = new FileSaver(file, document.snapshot(), FileFormat.of(document));
+        saver.execute();
+        return saver.get();
+    }
+
+    private static byte[] decompress(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>
+ * Searches of UTF-16 files with the case ignored, where only the
+ * ASCII letters may be folded and never a byte of another character.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class FileSearchTest {
+
+    private Path folder;
+
+    @Before
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("oldschool-search");
+    }
+
+    @After
+    public void deleteFolder() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void ignoresCaseOfAsciiLettersInUtf16LittleEndian() throws Exception {
+        write("a.txt", "Hello world\n", StandardCharsets.UTF_16LE);
+        assertEquals(1, hits("HELLO"));
+    }
+
+    @Test
+    public void ignoresCaseOfAsciiLettersInUtf16BigEndian() throws Exception {
+        write("a.txt", "Hello world\n", StandardCharsets.UTF_16BE);
+        assertEquals(1, hits("WORLD"));
+    }
+
+    @Test
+    public void doesNotFoldOtherCharactersInUtf16LittleEndian() throws Exception {
+        // 'Ł' is 41 01 and 'š' is 61 01, which folding the 0x41 would match
+        write("a.txt", "Łódź\n", StandardCharsets.UTF_16LE);
+        write("b.txt", "škola\n", StandardCharsets.UTF_16LE);
+        assertEquals(1, hits("š"));
+    }
+
+    @Test
+    public void doesNotFoldOtherCharactersInUtf16BigEndian() throws Exception {
+        // '䄀' is 41 00 and '愀' is 61 00
+        write("a.txt", "䄀\n", StandardCharsets.UTF_16BE);
+        write("b.txt", "愀\n", StandardCharsets.UTF_16BE);
+        assertEquals(1, hits("愀"));
+    }
+
+    private void write(String name, String text, Charset charset) throws IOException {
+        // With a byte order mark, so the charset is detected for sure
+        Files.write(folder.resolve(name), ("\uFEFF" + text).getBytes(charset));
+    }
+
+    private int hits(String text) throws Exception {
+        FileSearch search = new FileSearch(folder.toFile(), text, false, "");
+        search.execute();
+        return search.get().getHits();
+    }
+}
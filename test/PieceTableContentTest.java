@@ -0,0 +1,163 @@
+import org.junit.Test;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>
+ * Random insertions and removals of a piece table, compared
+ * with the same edits of a <code>StringBuilder</code>, together with
+ * the snapshots that were taken along the way and the undo of the edits.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class PieceTableContentTest {
+
+    private static final String ALPHABET = "ab \nxyzé";
+
+    @Test
+    public void editsEmptyContentLikeStringBuilder() throws Exception {
+        edit(new PieceTableContent(), new StringBuilder(), new Random(1));
+    }
+
+    @Test
+    public void editsOriginalStringLikeStringBuilder() throws Exception {
+        String original = randomText(new Random(2), 5000);
+        edit(new PieceTableContent(original), new StringBuilder(original), new Random(3));
+    }
+
+    @Test
+    public void editsOriginalArrayLikeStringBuilder() throws Exception {
+        // A buffer with an array is read straight from it
+        String original = randomText(new Random(4), 5000);
+        CharBuffer buffer = CharBuffer.wrap(("--" + original).toCharArray(), 2, original.length()).slice();
+        edit(new PieceTableContent(buffer), new StringBuilder(original), new Random(5));
+    }
+
+    @Test
+    public void undoesAndRedoesEdits() throws Exception {
+        Random random = new Random(6);
+        String original = randomText(random, 1000);
+        PieceTableContent content = new PieceTableContent(original);
+        StringBuilder model = new StringBuilder(original);
+        List<UndoableEdit> edits = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            texts.add(model.toString());
+            edits.add(randomEdit(content, model, random));
+            assertText(model, content);
+        }
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            if (edits.get(i) != null) {
+                edits.get(i).undo();
+            }
+            assertText(texts.get(i), content);
+        }
+        for (UndoableEdit edit : edits) {
+            if (edit != null) {
+                edit.redo();
+            }
+        }
+        assertText(model, content);
+    }
+
+    /**
+     * Makes random edits and checks the text after each of them,
+     * and that the snapshots taken before still hold their text.
+     */
+    private static void edit(PieceTableContent content, StringBuilder model, Random random)
+            throws BadLocationException {
+        List<PieceTableContent.Snapshot> snapshots = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            randomEdit(content, model, random);
+            if (i % 50 == 0) {
+                snapshots.add(content.snapshot());
+                texts.add(model.toString());
+            }
+            if (i % 500 == 499) {
+                content.compact();
+            }
+            assertText(model, content);
+            assertRange(model, content, random);
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertEquals(texts.get(i), snapshots.get(i).toString());
+        }
+    }
+
+    /**
+     * Inserts or removes some text at random, at the start,
+     * the end or anywhere else, in the content and the model.
+     *
+     * @return the edit of the content
+     */
+    private static UndoableEdit randomEdit(PieceTableContent content, StringBuilder model, Random random)
+            throws BadLocationException {
+        int length = model.length();
+        int where;
+        switch (random.nextInt(4)) {
+            case 0:
+                where = 0;
+                break;
+            case 1:
+                where = length;
+                break;
+            default:
+                where = random.nextInt(length + 1);
+        }
+        if (length == 0 || random.nextInt(5) < 3) {
+            String text = randomText(random, 1 + random.nextInt(random.nextBoolean() ? 3 : 200));
+            model.insert(where, text);
+            return content.insertString(where, text);
+        }
+        where = Math.min(where, length - 1);
+        int count = 1 + random.nextInt(Math.min(length - where, 300));
+        model.delete(where, where + count);
+        return content.remove(where, count);
+    }
+
+    private static void assertText(CharSequence expected, PieceTableContent content)
+            throws BadLocationException {
+        assertEquals(expected.length() + 1, content.length());
+        // The implied newline stays at the end
+        assertEquals(expected + "\n", content.getString(0, content.length()));
+        assertEquals(expected.toString(), content.snapshot().toString());
+    }
+
+    /**
+     * Checks a random range through every way of reading it.
+     */
+    private static void assertRange(StringBuilder model, PieceTableContent content, Random random)
+            throws BadLocationException {
+        int where = random.nextInt(model.length() + 1);
+        int len = random.nextInt(model.length() - where + 1);
+        String expected = model.substring(where, where + len);
+        assertEquals(expected, content.getString(where, len));
+        assertEquals(expected, content.snapshot(where, len).toString());
+
+        Segment segment = new Segment();
+        content.getChars(where, len, segment);
+        assertEquals(expected, segment.toString());
+
+        char[] chars = new char[len + 2];
+        content.snapshot().getChars(where, where + len, chars, 1);
+        assertEquals(expected, new String(chars, 1, len));
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,130 @@
+import org.junit.Test;
+
+import javax.swing.text.BadLocationException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>
+ * Statistics that are kept up to date while a document is edited at
+ * random must be the ones that the "Statistics" operation has always
+ * shown, which split the whole trimmed text every time.
+ *
+ * @author Dimitrios Tselikis
+ * @version 1.1
+ */
+public class TextStatisticsTest {
+
+    // Words, spaces and runs of line breaks, with whitespace at the edges
+    private static final String[] PARTS = {"a", "bc", "é.", " ", "  ", "\t", "\n", "\n\n", "\n\n\n"};
+
+    @Test
+    public void countsLikeTheWholeTextAfterEveryEdit() throws Exception {
+        PieceTableDocument document = new PieceTableDocument();
+        TextStatistics statistics = new TextStatistics(document);
+        Random random = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            randomEdit(document, random);
+            assertStatistics(document, statistics);
+        }
+    }
+
+    @Test
+    public void countsLikeTheWholeTextAfterManyEdits() throws Exception {
+        PieceTableDocument document = new PieceTableDocument();
+        document.insertString(0, randomText(new Random(2), 2000), null);
+        TextStatistics statistics = new TextStatistics(document);
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            // The statistics are not read after every edit
+            for (int j = random.nextInt(20); j >= 0; j--) {
+                randomEdit(document, random);
+            }
+            assertStatistics(document, statistics);
+        }
+    }
+
+    @Test
+    public void countsBlankText() throws Exception {
+        PieceTableDocument document = new PieceTableDocument();
+        TextStatistics statistics = new TextStatistics(document);
+        assertStatistics(document, statistics);
+        document.insertString(0, " \n\n\t ", null);
+        assertStatistics(document, statistics);
+        document.insertString(2, "word", null);
+        assertStatistics(document, statistics);
+        document.remove(1, 6);
+        assertStatistics(document, statistics);
+    }
+
+    @Test
+    public void countsLargeTextInParallelLikeTheWholeText() throws Exception {
+        // The first count of a large document is split among threads
+        Random random = new Random(4);
+        StringBuilder text = new StringBuilder(ParallelStatistics.PARALLEL_LENGTH + 100000);
+        while (text.length() < ParallelStatistics.PARALLEL_LENGTH + 100000) {
+            text.append(randomText(random, 1000));
+        }
+        PieceTableDocument document = new PieceTableDocument();
+        document.insertString(0, text.toString(), null);
+        TextStatistics statistics = new TextStatistics(document);
+        assertStatistics(document, statistics);
+        for (int i = 0; i < 20; i++) {
+            randomEdit(document, random);
+            assertStatistics(document, statistics);
+        }
+    }
+
+    /**
+     * Inserts or removes some text, at one of the edges of the
+     * text as often as inside it, as the trimmed text ends there.
+     */
+    static void randomEdit(PieceTableDocument document, Random random) throws BadLocationException {
+        int length = document.getLength();
+        int where;
+        switch (random.nextInt(4)) {
+            case 0:
+                where = 0;
+                break;
+            case 1:
+                where = length;
+                break;
+            default:
+                where = random.nextInt(length + 1);
+        }
+        if (length == 0 || random.nextInt(5) < 3) {
+            document.insertString(where, randomText(random, 1 + random.nextInt(8)), null);
+        } else {
+            where = Math.min(where, length - 1);
+            document.remove(where, 1 + random.nextInt(Math.min(length - where, 30)));
+        }
+    }
+
+    static String randomText(Random random, int parts) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < parts; i++) {
+            text.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Compares the statistics with the ones of the whole text,
+     * counted the way the "Statistics" operation used to count them.
+     */
+    static void assertStatistics(PieceTableDocument document, TextStatistics statistics)
+            throws BadLocationException {
+        String text = document.getText(0, document.getLength());
+        String trimmed = text.trim();
+        String[] words = trimmed.split("\\s+");
+        String[] paragraphs = trimmed.split("\\n\\n+");
+        int spaces = text.length() - text.replace(" ", "").length();
+
+        String message = "Text: [" + text + "]";
+        assertEquals(message, words[0].isEmpty() ? 0 : words.length, statistics.getWords());
+        assertEquals(message, text.length(), statistics.getCharacters());
+        assertEquals(message, text.length() - spaces, statistics.getNonSpaceCharacters());
+        assertEquals(message, paragraphs[0].isEmpty() ? 0 : paragraphs.length, statistics.getParagraphs());
+    }
+}